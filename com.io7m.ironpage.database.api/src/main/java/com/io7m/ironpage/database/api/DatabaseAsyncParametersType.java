@@ -0,0 +1,105 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.ironpage.database.api;
+
+import com.io7m.immutables.styles.ImmutablesStyleType;
+import com.io7m.jaffirm.core.Preconditions;
+import org.immutables.value.Value;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.Executor;
+
+/**
+ * Parameters for the execution of asynchronous transactions.
+ *
+ * @see DatabaseType#transactAsync(DatabaseTransactionFunctionType)
+ */
+
+@Value.Immutable
+@ImmutablesStyleType
+public interface DatabaseAsyncParametersType
+{
+  /**
+   * An executor on which to run transactions. If no executor is provided, the database creates a
+   * bounded pool of {@link #threads()} platform threads and shuts it down when the database is
+   * closed. An executor that is provided is never shut down by the database, but closing the
+   * database waits for the transactions that were submitted to it. On platforms that support
+   * them, an executor that creates a virtual thread per task may be provided here.
+   *
+   * @return The executor on which to run transactions
+   */
+
+  Optional<Executor> executor();
+
+  /**
+   * @return The number of threads in the executor created if no {@link #executor()} is provided
+   */
+
+  @Value.Default
+  default int threads()
+  {
+    return 8;
+  }
+
+  /**
+   * @return The maximum number of transactions that may be waiting to start, in addition to
+   * those currently running; further submissions are rejected
+   */
+
+  @Value.Default
+  default int queueCapacity()
+  {
+    return 256;
+  }
+
+  /**
+   * @return The deadline applied to transactions that are submitted without an explicit deadline
+   */
+
+  @Value.Default
+  default Duration defaultDeadline()
+  {
+    return Duration.ofSeconds(30L);
+  }
+
+  /**
+   * Check preconditions for the type.
+   */
+
+  @Value.Check
+  default void checkPreconditions()
+  {
+    final var threads = this.threads();
+    final var capacity = this.queueCapacity();
+    final var deadline = this.defaultDeadline();
+
+    Preconditions.checkPreconditionI(
+      threads,
+      threads >= 1,
+      t -> "Thread count must be positive");
+    Preconditions.checkPreconditionI(
+      capacity,
+      capacity >= 0,
+      c -> "Queue capacity must be non-negative");
+    Preconditions.checkPrecondition(
+      deadline,
+      !deadline.isNegative() && !deadline.isZero(),
+      d -> "Default deadline must be positive");
+  }
+}
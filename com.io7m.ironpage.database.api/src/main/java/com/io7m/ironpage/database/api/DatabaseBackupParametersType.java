@@ -0,0 +1,97 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironpage.database.api;
+
+import com.io7m.immutables.styles.ImmutablesStyleType;
+import com.io7m.jaffirm.core.Preconditions;
+import org.immutables.value.Value;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * Parameters for an online backup of a database.
+ *
+ * @see DatabaseType#backup(DatabaseBackupParameters, DatabaseBackupProgressListenerType)
+ */
+
+@Value.Immutable
+@ImmutablesStyleType
+public interface DatabaseBackupParametersType
+{
+  /**
+   * The directory into which the backup is written. A copy of the database is created in a
+   * subdirectory named after the database. If the database is accessed through a network
+   * server, the directory is interpreted on the server's host.
+   *
+   * @return The directory into which the backup is written
+   */
+
+  Path directory();
+
+  /**
+   * If log archiving is enabled, the database keeps the transaction logs written after the
+   * backup, and a later restore can roll the backup forward to the most recent committed
+   * transaction.
+   *
+   * @return {@code true} if log archiving should be enabled for the database
+   *
+   * @see DatabaseRestoreParametersType#rollForward()
+   */
+
+  @Value.Default
+  default boolean enableLogArchiving()
+  {
+    return false;
+  }
+
+  /**
+   * @return {@code true} if archived logs that are not needed to roll forward from this backup
+   * should be deleted once the backup is complete
+   */
+
+  @Value.Default
+  default boolean deleteArchivedLogs()
+  {
+    return false;
+  }
+
+  /**
+   * @return The interval at which progress is reported
+   */
+
+  @Value.Default
+  default Duration progressInterval()
+  {
+    return Duration.ofSeconds(1L);
+  }
+
+  /**
+   * Check preconditions for the type.
+   */
+
+  @Value.Check
+  default void checkPreconditions()
+  {
+    final var interval = this.progressInterval();
+
+    Preconditions.checkPrecondition(
+      interval,
+      !interval.isNegative() && !interval.isZero(),
+      d -> "Progress interval must be positive");
+  }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironpage.database.api;
+
+/**
+ * A listener that receives progress reports during an online backup.
+ */
+
+@FunctionalInterface
+public interface DatabaseBackupProgressListenerType
+{
+  /**
+   * The backup has made progress. The estimate is the space allocated to the database when the
+   * backup began; the number of bytes copied may exceed it if the database grows while the
+   * backup is running.
+   *
+   * @param bytesCopied    The number of bytes copied so far
+   * @param bytesEstimated The estimated total number of bytes to copy
+   */
+
+  void onBackupProgress(
+    long bytesCopied,
+    long bytesEstimated);
+}
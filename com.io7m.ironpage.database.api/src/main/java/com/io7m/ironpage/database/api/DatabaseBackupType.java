@@ -0,0 +1,58 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironpage.database.api;
+
+import com.io7m.immutables.styles.ImmutablesStyleType;
+import org.immutables.value.Value;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * A completed online backup of a database.
+ */
+
+@Value.Immutable
+@ImmutablesStyleType
+public interface DatabaseBackupType
+{
+  /**
+   * @return The directory containing the copy of the database
+   *
+   * @see DatabaseRestoreParametersType#backup()
+   */
+
+  Path path();
+
+  /**
+   * @return The size in bytes of the copy of the database
+   */
+
+  long size();
+
+  /**
+   * @return The time taken to write the backup
+   */
+
+  Duration duration();
+
+  /**
+   * @return {@code true} if log archiving is enabled for the database
+   */
+
+  boolean logArchiving();
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.ironpage.database.api;
+
+import java.time.Duration;
+
+/**
+ * A limit on the number of physical connections that may be open at any one time, shared by
+ * every connection pool that refers to it.
+ *
+ * Pools sharing a budget register themselves as reclaimers so that a pool that needs a
+ * connection can ask the others to close one of their idle connections, rather than waiting
+ * for the idle connections to be evicted by timeout.
+ *
+ * @see DatabaseConnectionPoolParametersType#budget()
+ */
+
+public interface DatabaseConnectionBudgetType
+{
+  /**
+   * @return The maximum number of connections
+   */
+
+  int size();
+
+  /**
+   * @return The number of connections that may currently be opened
+   */
+
+  int available();
+
+  /**
+   * Take a permit to open a connection, waiting for at most {@code timeout}. If no permit is
+   * immediately available, the registered reclaimers are asked to close an idle connection
+   * before waiting. A permit that is taken must eventually be returned with {@link #release()}.
+   *
+   * @param timeout The maximum time to wait
+   *
+   * @return {@code true} if a permit was taken
+   *
+   * @throws InterruptedException If interrupted while waiting
+   */
+
+  boolean acquire(Duration timeout)
+    throws InterruptedException;
+
+  /**
+   * Take a permit to open a connection if one is immediately available. Reclaimers are not
+   * asked to close idle connections. A permit that is taken must eventually be returned with
+   * {@link #release()}.
+   *
+   * @return {@code true} if a permit was taken
+   */
+
+  boolean tryAcquire();
+
+  /**
+   * Return a permit taken with {@link #acquire(Duration)} or {@link #tryAcquire()}.
+   */
+
+  void release();
+
+  /**
+   * Register a reclaimer that may be asked to close idle connections.
+   *
+   * @param reclaimer The reclaimer
+   */
+
+  void register(DatabaseConnectionReclaimerType reclaimer);
+
+  /**
+   * Unregister a reclaimer registered with
+   * {@link #register(DatabaseConnectionReclaimerType)}.
+   *
+   * @param reclaimer The reclaimer
+   */
+
+  void unregister(DatabaseConnectionReclaimerType reclaimer);
+}
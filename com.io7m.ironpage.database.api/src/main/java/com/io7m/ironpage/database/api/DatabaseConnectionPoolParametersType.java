@@ -0,0 +1,152 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.ironpage.database.api;
+
+import com.io7m.immutables.styles.ImmutablesStyleType;
+import com.io7m.jaffirm.core.Preconditions;
+import org.immutables.value.Value;
+
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * Parameters for the pool of connections held by a database.
+ */
+
+@Value.Immutable
+@ImmutablesStyleType
+public interface DatabaseConnectionPoolParametersType
+{
+  /**
+   * @return The number of connections that the pool will try to keep open at all times
+   */
+
+  @Value.Default
+  default int minimumSize()
+  {
+    return 1;
+  }
+
+  /**
+   * @return The maximum number of connections that may be open at any given time
+   */
+
+  @Value.Default
+  default int maximumSize()
+  {
+    return 8;
+  }
+
+  /**
+   * @return The maximum time that a caller will wait for a connection to become available
+   */
+
+  @Value.Default
+  default Duration acquireTimeout()
+  {
+    return Duration.ofSeconds(30L);
+  }
+
+  /**
+   * @return The time after which an idle connection may be closed, if the pool holds more than
+   * {@link #minimumSize()} connections
+   */
+
+  @Value.Default
+  default Duration idleTimeout()
+  {
+    return Duration.ofMinutes(10L);
+  }
+
+  /**
+   * @return The time after which a connection that has not been returned to the pool is reported
+   * as having possibly leaked
+   */
+
+  @Value.Default
+  default Duration leakThreshold()
+  {
+    return Duration.ofMinutes(5L);
+  }
+
+  /**
+   * @return {@code true} if idle connections should be checked for validity before being handed
+   * out by the pool
+   */
+
+  @Value.Default
+  default boolean validateOnBorrow()
+  {
+    return true;
+  }
+
+  /**
+   * @return The maximum time that validating a connection may take
+   */
+
+  @Value.Default
+  default Duration validationTimeout()
+  {
+    return Duration.ofSeconds(5L);
+  }
+
+  /**
+   * @return The interval at which the pool evicts idle connections and checks for leaks
+   */
+
+  @Value.Default
+  default Duration maintenanceInterval()
+  {
+    return Duration.ofSeconds(30L);
+  }
+
+  /**
+   * @return A limit on the number of connections shared with other pools, if any
+   */
+
+  Optional<DatabaseConnectionBudgetType> budget();
+
+  /**
+   * Check preconditions for the type.
+   */
+
+  @Value.Check
+  default void checkPreconditions()
+  {
+    final var minimum = this.minimumSize();
+    final var maximum = this.maximumSize();
+    final var interval = this.maintenanceInterval();
+
+    Preconditions.checkPreconditionI(
+      minimum,
+      minimum >= 0,
+      size -> "Minimum pool size must be non-negative");
+    Preconditions.checkPreconditionI(
+      maximum,
+      maximum >= 1,
+      size -> "Maximum pool size must be positive");
+    Preconditions.checkPreconditionI(
+      maximum,
+      maximum >= minimum,
+      size -> "Maximum pool size must be at least the minimum pool size");
+    Preconditions.checkPrecondition(
+      interval,
+      !interval.isNegative() && !interval.isZero(),
+      i -> "Maintenance interval must be positive");
+  }
+}
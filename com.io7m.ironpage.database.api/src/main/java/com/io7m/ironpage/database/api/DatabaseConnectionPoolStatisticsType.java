@@ -0,0 +1,74 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.ironpage.database.api;
+
+import com.io7m.immutables.styles.ImmutablesStyleType;
+import org.immutables.value.Value;
+
+import java.time.Duration;
+import java.util.SortedMap;
+
+/**
+ * A snapshot of the statistics of a database connection pool.
+ */
+
+@Value.Immutable
+@ImmutablesStyleType
+public interface DatabaseConnectionPoolStatisticsType
+{
+  /**
+   * @return The number of connections currently handed out to callers
+   */
+
+  int connectionsActive();
+
+  /**
+   * @return The number of open connections waiting in the pool
+   */
+
+  int connectionsIdle();
+
+  /**
+   * @return The maximum number of connections that the pool may hold open
+   */
+
+  int connectionsMaximum();
+
+  /**
+   * @return The number of acquisitions that failed because no connection became available in time
+   */
+
+  long acquisitionTimeouts();
+
+  /**
+   * @return The number of connections reported as having possibly leaked
+   */
+
+  long leaksDetected();
+
+  /**
+   * The time callers spent waiting to acquire connections. Each key is the inclusive upper bound
+   * of a histogram bucket, and each value is the number of acquisitions that fell into that
+   * bucket and no smaller bucket.
+   *
+   * @return A histogram of acquisition wait times
+   */
+
+  @Value.NaturalOrder
+  SortedMap<Duration, Long> waitTimeHistogram();
+}
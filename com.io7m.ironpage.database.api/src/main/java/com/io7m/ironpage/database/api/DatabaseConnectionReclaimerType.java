@@ -0,0 +1,37 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.ironpage.database.api;
+
+/**
+ * A holder of connections counted against a connection budget that can close an idle
+ * connection on request.
+ *
+ * @see DatabaseConnectionBudgetType#register(DatabaseConnectionReclaimerType)
+ */
+
+public interface DatabaseConnectionReclaimerType
+{
+  /**
+   * Close one idle connection, returning its permit to the budget. Implementations must not
+   * block waiting for connections to become idle.
+   *
+   * @return {@code true} if a connection was closed
+   */
+
+  boolean reclaimIdleConnection();
+}
@@ -38,4 +38,17 @@ public interface DatabaseConnectionType extends AutoCloseable
 
   DatabaseTransactionType beginTransaction()
     throws DatabaseException;
+
+  /**
+   * Execute a read-only database transaction. The transaction runs at the
+   * {@link java.sql.Connection#TRANSACTION_READ_COMMITTED} isolation level, and any attempt to
+   * modify the database within it fails.
+   *
+   * @return A read-only database transaction
+   *
+   * @throws DatabaseException On errors
+   */
+
+  DatabaseTransactionType beginReadOnlyTransaction()
+    throws DatabaseException;
 }
@@ -0,0 +1,77 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironpage.database.api;
+
+import com.io7m.immutables.styles.ImmutablesStyleType;
+import com.io7m.jaffirm.core.Preconditions;
+import org.immutables.value.Value;
+
+import java.time.Duration;
+
+/**
+ * Parameters for group commit. Small, independent transactions submitted by concurrent callers
+ * are gathered into a single physical transaction so that the cost of flushing the transaction
+ * log is shared between them.
+ *
+ * @see DatabaseType#transactGrouped(DatabaseTransactionFunctionType)
+ */
+
+@Value.Immutable
+@ImmutablesStyleType
+public interface DatabaseGroupCommitParametersType
+{
+  /**
+   * @return The maximum time that the first transaction in a group waits for others to join it
+   */
+
+  @Value.Default
+  default Duration maximumDelay()
+  {
+    return Duration.ofMillis(2L);
+  }
+
+  /**
+   * @return The maximum number of transactions in a group; a full group is committed without
+   * waiting for {@link #maximumDelay()} to pass
+   */
+
+  @Value.Default
+  default int maximumSize()
+  {
+    return 32;
+  }
+
+  /**
+   * Check preconditions for the type.
+   */
+
+  @Value.Check
+  default void checkPreconditions()
+  {
+    final var delay = this.maximumDelay();
+    final var size = this.maximumSize();
+
+    Preconditions.checkPrecondition(
+      delay,
+      !delay.isNegative() && !delay.isZero(),
+      d -> "Maximum delay must be positive");
+    Preconditions.checkPreconditionI(
+      size,
+      size >= 1,
+      s -> "Maximum size must be positive");
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironpage.database.api;
+
+import com.io7m.immutables.styles.ImmutablesStyleType;
+import com.io7m.jaffirm.core.Preconditions;
+import org.immutables.value.Value;
+
+import java.time.Duration;
+
+/**
+ * Parameters for schema migrations executed when a database is opened. Each schema revision is
+ * committed in its own transaction, and each batch of statements executed is recorded, with its
+ * duration, in a migration history table in the database. Data migrations run in the background
+ * once the database is open, in chunks that are each committed in their own transaction.
+ *
+ * @see DatabaseType#dataMigrations()
+ * @see DatabaseProviderType#migrationPlan(DatabaseParameters)
+ */
+
+@Value.Immutable
+@ImmutablesStyleType
+public interface DatabaseMigrationParametersType
+{
+  /**
+   * Larger batches need fewer round trips to the database. A batch size of {@code 1} executes
+   * statements individually and so records the duration of every statement in the migration
+   * history.
+   *
+   * @return The maximum number of migration statements submitted to the database in each batch
+   */
+
+  @Value.Default
+  default int batchSize()
+  {
+    return 32;
+  }
+
+  /**
+   * Smaller chunks hold locks for less time and so interfere less with other transactions.
+   *
+   * @return The maximum number of rows rewritten in each chunk of a data migration
+   */
+
+  @Value.Default
+  default int dataChunkSize()
+  {
+    return 1000;
+  }
+
+  /**
+   * @return The time to wait between the chunks of a data migration
+   */
+
+  @Value.Default
+  default Duration dataChunkDelay()
+  {
+    return Duration.ofMillis(10L);
+  }
+
+  /**
+   * Check preconditions for the type.
+   */
+
+  @Value.Check
+  default void checkPreconditions()
+  {
+    final var size = this.batchSize();
+    final var chunkSize = this.dataChunkSize();
+    final var chunkDelay = this.dataChunkDelay();
+
+    Preconditions.checkPreconditionI(
+      size,
+      size >= 1,
+      s -> "Batch size must be positive");
+    Preconditions.checkPreconditionI(
+      chunkSize,
+      chunkSize >= 1,
+      s -> "Data chunk size must be positive");
+    Preconditions.checkPrecondition(
+      chunkDelay,
+      !chunkDelay.isNegative(),
+      d -> "Data chunk delay must be non-negative");
+  }
+}
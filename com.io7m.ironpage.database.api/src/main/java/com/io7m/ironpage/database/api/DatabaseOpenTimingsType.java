@@ -0,0 +1,64 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.ironpage.database.api;
+
+import com.io7m.immutables.styles.ImmutablesStyleType;
+import org.immutables.value.Value;
+
+import java.time.Duration;
+import java.util.SortedMap;
+
+/**
+ * The time spent in each phase of opening a database.
+ */
+
+@Value.Immutable
+@ImmutablesStyleType
+public interface DatabaseOpenTimingsType
+{
+  /**
+   * @return The time spent starting or contacting a database server
+   */
+
+  Duration server();
+
+  /**
+   * @return The time spent applying storage parameters, including any restart they required
+   */
+
+  Duration storage();
+
+  /**
+   * @return The time spent creating the connection pools
+   */
+
+  Duration connectionPools();
+
+  /**
+   * @return The time spent checking and upgrading each partition, by partition provider
+   */
+
+  @Value.NaturalOrder
+  SortedMap<String, Duration> partitionUpgrades();
+
+  /**
+   * @return The total time spent opening the database
+   */
+
+  Duration total();
+}
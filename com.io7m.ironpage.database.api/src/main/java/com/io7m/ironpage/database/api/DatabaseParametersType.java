@@ -17,8 +17,12 @@
 package com.io7m.ironpage.database.api;
 
 import com.io7m.immutables.styles.ImmutablesStyleType;
+import com.io7m.ironpage.metrics.api.MetricsRegistryNoOp;
+import com.io7m.ironpage.metrics.api.MetricsRegistryType;
 import org.immutables.value.Value;
 
+import java.util.Optional;
+
 /**
  * Parameters to open a database.
  */
@@ -38,4 +42,91 @@ public interface DatabaseParametersType
    */
 
   boolean create();
+
+  /**
+   * @return The server through which to access the database, if the database should not be
+   * opened within the current process
+   */
+
+  Optional<DatabaseServerParameters> server();
+
+  /**
+   * @return The backup from which to restore the database before it is opened, if any
+   */
+
+  Optional<DatabaseRestoreParameters> restore();
+
+  /**
+   * @return The parameters for the database connection pool
+   */
+
+  @Value.Default
+  default DatabaseConnectionPoolParameters connectionPool()
+  {
+    return DatabaseConnectionPoolParameters.builder()
+      .build();
+  }
+
+  /**
+   * @return The parameters for the pool of read-only database connections
+   *
+   * @see DatabaseType#openReadOnlyConnection()
+   */
+
+  @Value.Default
+  default DatabaseConnectionPoolParameters readOnlyConnectionPool()
+  {
+    return DatabaseConnectionPoolParameters.builder()
+      .build();
+  }
+
+  /**
+   * @return The storage engine parameters
+   */
+
+  @Value.Default
+  default DatabaseStorageParameters storage()
+  {
+    return DatabaseStorageParameters.builder()
+      .build();
+  }
+
+  /**
+   * @return The registry to which database metrics are reported
+   */
+
+  @Value.Default
+  default MetricsRegistryType metrics()
+  {
+    return MetricsRegistryNoOp.get();
+  }
+
+  /**
+   * @return The parameters for asynchronous transactions
+   */
+
+  @Value.Default
+  default DatabaseAsyncParameters async()
+  {
+    return DatabaseAsyncParameters.builder()
+      .build();
+  }
+
+  /**
+   * @return The parameters for group commit, if transactions submitted with
+   * {@link DatabaseType#transactGrouped(DatabaseTransactionFunctionType)} should be grouped
+   */
+
+  Optional<DatabaseGroupCommitParameters> groupCommit();
+
+  /**
+   * @return The parameters for schema migrations
+   */
+
+  @Value.Default
+  default DatabaseMigrationParameters migration()
+  {
+    return DatabaseMigrationParameters.builder()
+      .build();
+  }
 }
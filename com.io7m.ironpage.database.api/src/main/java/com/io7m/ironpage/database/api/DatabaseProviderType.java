@@ -17,6 +17,9 @@
 package com.io7m.ironpage.database.api;
 
 import com.io7m.ironpage.database.spi.DatabaseException;
+import com.io7m.ironpage.database.spi.DatabaseMigrationPlan;
+
+import java.util.List;
 
 /**
  * A provider of databases.
@@ -37,4 +40,21 @@ public interface DatabaseProviderType
   DatabaseType open(
     DatabaseParameters parameters)
     throws DatabaseException;
+
+  /**
+   * Plan the schema migrations that opening a database with the given parameters would execute,
+   * without executing them. This is a dry run of the upgrade performed by {@link
+   * #open(DatabaseParameters)}: the statements of each step can be reviewed, and the size of the
+   * upgrade estimated, before a production database is upgraded.
+   *
+   * @param parameters The database parameters
+   *
+   * @return One migration plan for each partition in the database
+   *
+   * @throws DatabaseException On errors
+   */
+
+  List<DatabaseMigrationPlan> migrationPlan(
+    DatabaseParameters parameters)
+    throws DatabaseException;
 }
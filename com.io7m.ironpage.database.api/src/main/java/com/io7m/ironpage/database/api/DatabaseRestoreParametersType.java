@@ -0,0 +1,59 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironpage.database.api;
+
+import com.io7m.immutables.styles.ImmutablesStyleType;
+import org.immutables.value.Value;
+
+import java.nio.file.Path;
+
+/**
+ * Parameters to restore a database from a backup when it is opened.
+ *
+ * @see DatabaseParametersType#restore()
+ */
+
+@Value.Immutable
+@ImmutablesStyleType
+public interface DatabaseRestoreParametersType
+{
+  /**
+   * @return The directory containing the copy of the database
+   *
+   * @see DatabaseBackupType#path()
+   */
+
+  Path backup();
+
+  /**
+   * If {@code true}, the backup is restored and then the archived transaction logs of the
+   * existing database are replayed, recovering every transaction committed after the backup
+   * was taken. This requires that the backup was taken with log archiving enabled. If
+   * {@code false}, the existing database is replaced with the backup as it was when the backup
+   * was taken.
+   *
+   * @return {@code true} if the restored database should be rolled forward
+   *
+   * @see DatabaseBackupParametersType#enableLogArchiving()
+   */
+
+  @Value.Default
+  default boolean rollForward()
+  {
+    return false;
+  }
+}
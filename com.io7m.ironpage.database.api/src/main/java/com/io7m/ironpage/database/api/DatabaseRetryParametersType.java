@@ -0,0 +1,106 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.ironpage.database.api;
+
+import com.io7m.immutables.styles.ImmutablesStyleType;
+import com.io7m.jaffirm.core.Preconditions;
+import org.immutables.value.Value;
+
+import java.time.Duration;
+
+/**
+ * Parameters for retrying transactions that fail due to lock contention.
+ *
+ * @see DatabaseTransactionRunner
+ */
+
+@Value.Immutable
+@ImmutablesStyleType
+public interface DatabaseRetryParametersType
+{
+  /**
+   * @return The maximum number of times a transaction will be attempted, including the first
+   */
+
+  @Value.Default
+  default int maximumAttempts()
+  {
+    return 5;
+  }
+
+  /**
+   * @return The upper bound of the delay before the first retry
+   */
+
+  @Value.Default
+  default Duration initialBackoff()
+  {
+    return Duration.ofMillis(10L);
+  }
+
+  /**
+   * @return The upper bound of the delay before any retry
+   */
+
+  @Value.Default
+  default Duration maximumBackoff()
+  {
+    return Duration.ofSeconds(1L);
+  }
+
+  /**
+   * @return The maximum total time spent on a transaction, after which no further retries are
+   * attempted
+   */
+
+  @Value.Default
+  default Duration budget()
+  {
+    return Duration.ofSeconds(10L);
+  }
+
+  /**
+   * Check preconditions for the type.
+   */
+
+  @Value.Check
+  default void checkPreconditions()
+  {
+    final var attempts = this.maximumAttempts();
+    final var initial = this.initialBackoff();
+    final var maximum = this.maximumBackoff();
+    final var budget = this.budget();
+
+    Preconditions.checkPreconditionI(
+      attempts,
+      attempts >= 1,
+      a -> "Maximum attempts must be positive");
+    Preconditions.checkPrecondition(
+      initial,
+      !initial.isNegative(),
+      d -> "Initial backoff must be non-negative");
+    Preconditions.checkPrecondition(
+      maximum,
+      maximum.compareTo(initial) >= 0,
+      d -> "Maximum backoff must be at least the initial backoff");
+    Preconditions.checkPrecondition(
+      budget,
+      !budget.isNegative(),
+      d -> "Budget must be non-negative");
+  }
+}
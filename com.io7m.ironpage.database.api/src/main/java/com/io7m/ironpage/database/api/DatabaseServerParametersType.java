@@ -0,0 +1,93 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.ironpage.database.api;
+
+import com.io7m.immutables.styles.ImmutablesStyleType;
+import com.io7m.jaffirm.core.Preconditions;
+import org.immutables.value.Value;
+
+import java.time.Duration;
+
+/**
+ * Parameters for connecting to a database through a database server, allowing several processes
+ * to share a single database.
+ */
+
+@Value.Immutable
+@ImmutablesStyleType
+public interface DatabaseServerParametersType
+{
+  /**
+   * @return The host on which the server is listening
+   */
+
+  @Value.Default
+  default String host()
+  {
+    return "localhost";
+  }
+
+  /**
+   * @return The port on which the server is listening
+   */
+
+  @Value.Default
+  default int port()
+  {
+    return 1527;
+  }
+
+  /**
+   * If {@code true}, and no server is answering on {@link #host()} and {@link #port()} when the
+   * database is opened, a server is started in the current process. A server started this way is
+   * stopped when the database is closed, so other processes using it will lose their
+   * connections.
+   *
+   * @return {@code true} if a server should be started if necessary
+   */
+
+  @Value.Default
+  default boolean startServer()
+  {
+    return false;
+  }
+
+  /**
+   * @return The maximum time to wait for a started server to begin answering
+   */
+
+  @Value.Default
+  default Duration startTimeout()
+  {
+    return Duration.ofSeconds(10L);
+  }
+
+  /**
+   * Check preconditions for the type.
+   */
+
+  @Value.Check
+  default void checkPreconditions()
+  {
+    final var port = this.port();
+    Preconditions.checkPreconditionI(
+      port,
+      port > 0 && port < 65536,
+      p -> "Port must be in the range [1, 65535]");
+  }
+}
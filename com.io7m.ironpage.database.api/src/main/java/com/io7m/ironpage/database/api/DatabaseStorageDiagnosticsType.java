@@ -0,0 +1,61 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.ironpage.database.api;
+
+import com.io7m.immutables.styles.ImmutablesStyleType;
+import org.immutables.value.Value;
+
+import java.util.Optional;
+import java.util.SortedMap;
+
+/**
+ * A snapshot of the storage configuration of an open database.
+ */
+
+@Value.Immutable
+@ImmutablesStyleType
+public interface DatabaseStorageDiagnosticsType
+{
+  /**
+   * @return The storage properties set on the database, by property name
+   */
+
+  @Value.NaturalOrder
+  SortedMap<String, String> properties();
+
+  /**
+   * @return The durability mode of the database engine, if one other than the default is set;
+   * this is a process-wide setting and cannot be configured per database
+   */
+
+  Optional<String> durability();
+
+  /**
+   * @return {@code true} if some stored properties will only take effect once the database is
+   * restarted
+   */
+
+  boolean restartRequired();
+
+  /**
+   * @return The page size in bytes of each table, by qualified table name
+   */
+
+  @Value.NaturalOrder
+  SortedMap<String, Integer> tablePageSizes();
+}
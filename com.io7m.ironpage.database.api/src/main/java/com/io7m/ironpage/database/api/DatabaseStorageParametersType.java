@@ -0,0 +1,125 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.ironpage.database.api;
+
+import com.io7m.immutables.styles.ImmutablesStyleType;
+import com.io7m.jaffirm.core.Preconditions;
+import org.immutables.value.Value;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.OptionalLong;
+import java.util.Set;
+
+/**
+ * Storage engine parameters for a database. The parameters are stored in the database when it
+ * is opened; parameters that are not specified keep whatever value the database already has.
+ */
+
+@Value.Immutable
+@ImmutablesStyleType
+public interface DatabaseStorageParametersType
+{
+  /**
+   * The set of supported page sizes.
+   */
+
+  Set<Integer> PAGE_SIZES =
+    Set.of(
+      Integer.valueOf(4096),
+      Integer.valueOf(8192),
+      Integer.valueOf(16384),
+      Integer.valueOf(32768));
+
+  /**
+   * @return The number of pages held in the page cache
+   */
+
+  OptionalInt pageCacheSize();
+
+  /**
+   * The page size used for tables and indexes. The page size of a table is fixed when the table
+   * is created, so this only affects tables created after the parameter is first applied (such as
+   * those created when a new database is first opened). Tables containing large objects use the
+   * largest page size by default.
+   *
+   * @return The page size in bytes
+   *
+   * @see #PAGE_SIZES
+   */
+
+  OptionalInt pageSize();
+
+  /**
+   * @return The size in bytes of the buffer used for writing the transaction log
+   */
+
+  OptionalInt logBufferSize();
+
+  /**
+   * @return The amount of transaction log, in bytes, written between checkpoints
+   */
+
+  OptionalLong checkpointInterval();
+
+  /**
+   * @return The maximum time a transaction will wait for a lock before failing
+   */
+
+  Optional<Duration> lockWaitTimeout();
+
+  /**
+   * Check preconditions for the type.
+   */
+
+  @Value.Check
+  default void checkPreconditions()
+  {
+    this.pageCacheSize().ifPresent(size -> {
+      Preconditions.checkPreconditionI(
+        size,
+        size > 0,
+        s -> "Page cache size must be positive");
+    });
+    this.pageSize().ifPresent(size -> {
+      Preconditions.checkPreconditionI(
+        size,
+        PAGE_SIZES.contains(Integer.valueOf(size)),
+        s -> "Page size must be one of " + PAGE_SIZES);
+    });
+    this.logBufferSize().ifPresent(size -> {
+      Preconditions.checkPreconditionI(
+        size,
+        size > 0,
+        s -> "Log buffer size must be positive");
+    });
+    this.checkpointInterval().ifPresent(size -> {
+      Preconditions.checkPreconditionL(
+        size,
+        size > 0L,
+        s -> "Checkpoint interval must be positive");
+    });
+    this.lockWaitTimeout().ifPresent(time -> {
+      Preconditions.checkPrecondition(
+        time,
+        !time.isNegative(),
+        t -> "Lock wait timeout must be non-negative");
+    });
+  }
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.ironpage.database.api;
+
+import com.io7m.ironpage.database.spi.DatabaseException;
+import com.io7m.ironpage.database.spi.DatabaseQueriesType;
+
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A transaction runner that retries transactions that fail due to lock contention.
+ *
+ * A transaction is retried if the failure was caused, at any depth, by an {@link SQLException}
+ * that indicates a deadlock ({@code 40001}) or a lock timeout ({@code 40XL1}, {@code 40XL2}).
+ * Retries are delayed by a random duration between zero and an exponentially increasing bound
+ * ("full jitter") so that contending transactions do not retry in lockstep. The runner counts
+ * the retries caused by each queries interface used by failed transactions, which identifies
+ * the parts of the schema under contention.
+ */
+
+public final class DatabaseTransactionRunner
+{
+  private static final Set<String> RETRYABLE_STATES =
+    Set.of("40001", "40XL1", "40XL2");
+
+  private final DatabaseType database;
+  private final DatabaseRetryParameters parameters;
+  private final ConcurrentHashMap<Class<? extends DatabaseQueriesType>, LongAdder> retriesByQueries;
+  private final AtomicLong retries;
+  private final AtomicLong exhausted;
+
+  private DatabaseTransactionRunner(
+    final DatabaseType inDatabase,
+    final DatabaseRetryParameters inParameters)
+  {
+    this.database =
+      Objects.requireNonNull(inDatabase, "inDatabase");
+    this.parameters =
+      Objects.requireNonNull(inParameters, "inParameters");
+    this.retriesByQueries = new ConcurrentHashMap<>(16);
+    this.retries = new AtomicLong();
+    this.exhausted = new AtomicLong();
+  }
+
+  /**
+   * Create a new transaction runner.
+   *
+   * @param database   The database
+   * @param parameters The retry parameters
+   *
+   * @return A new transaction runner
+   */
+
+  public static DatabaseTransactionRunner create(
+    final DatabaseType database,
+    final DatabaseRetryParameters parameters)
+  {
+    return new DatabaseTransactionRunner(database, parameters);
+  }
+
+  private static boolean isRetryable(
+    final Throwable exception)
+  {
+    Objects.requireNonNull(exception, "exception");
+
+    final var seen = new HashSet<Throwable>(8);
+    var current = exception;
+    while (current != null && seen.add(current)) {
+      if (current instanceof SQLException) {
+        final var state = ((SQLException) current).getSQLState();
+        if (state != null && RETRYABLE_STATES.contains(state)) {
+          return true;
+        }
+      }
+      current = current.getCause();
+    }
+    return false;
+  }
+
+  private static DatabaseException wrap(
+    final Exception e)
+  {
+    if (e instanceof DatabaseException) {
+      return (DatabaseException) e;
+    }
+    if (e instanceof RuntimeException) {
+      throw (RuntimeException) e;
+    }
+    return new DatabaseException(e.getLocalizedMessage(), e);
+  }
+
+  /**
+   * Evaluate a function within a new transaction, committing the transaction if the function
+   * returns normally. The transaction is retried if it fails due to lock contention and neither
+   * the attempt limit nor the time budget has been exhausted.
+   *
+   * @param function The function
+   * @param <T>      The type of returned values
+   *
+   * @return The value returned by the function
+   *
+   * @throws DatabaseException On errors; checked exceptions raised by the function that are not
+   *                           database exceptions are wrapped
+   */
+
+  public <T> T transact(
+    final DatabaseTransactionFunctionType<T> function)
+    throws DatabaseException
+  {
+    Objects.requireNonNull(function, "function");
+
+    final var timeStart = System.nanoTime();
+    final var budget = this.parameters.budget().toNanos();
+    final var attemptsMaximum = this.parameters.maximumAttempts();
+
+    try (var connection = this.database.openConnection()) {
+      for (var attempt = 1; ; ++attempt) {
+        final var used = new HashSet<Class<? extends DatabaseQueriesType>>(4);
+        final Exception failure;
+        try (var transaction = connection.beginTransaction()) {
+          final var result = function.execute(new RecordingTransaction(transaction, used));
+          transaction.commit();
+          return result;
+        } catch (final Exception e) {
+          failure = e;
+        }
+
+        if (!isRetryable(failure)) {
+          throw wrap(failure);
+        }
+
+        final var delay = this.backoff(attempt);
+        final var elapsed = System.nanoTime() - timeStart;
+        if (attempt >= attemptsMaximum || elapsed + delay > budget) {
+          this.exhausted.incrementAndGet();
+          throw wrap(failure);
+        }
+
+        this.recordRetry(used);
+        LockSupport.parkNanos(delay);
+        if (Thread.currentThread().isInterrupted()) {
+          throw wrap(failure);
+        }
+      }
+    }
+  }
+
+  private long backoff(
+    final int attempt)
+  {
+    final var initial = this.parameters.initialBackoff().toNanos();
+    final var maximum = this.parameters.maximumBackoff().toNanos();
+    final var shift = Math.min(attempt - 1, 30);
+    final var bound = Math.min(maximum, initial << shift);
+    if (bound <= 0L) {
+      return 0L;
+    }
+    return ThreadLocalRandom.current().nextLong(bound + 1L);
+  }
+
+  private void recordRetry(
+    final Set<Class<? extends DatabaseQueriesType>> used)
+  {
+    this.retries.incrementAndGet();
+    for (final var queriesClass : used) {
+      this.retriesByQueries.computeIfAbsent(queriesClass, c -> new LongAdder()).increment();
+    }
+  }
+
+  /**
+   * @return The total number of retries performed
+   */
+
+  public long retries()
+  {
+    return this.retries.get();
+  }
+
+  /**
+   * @return The number of transactions that failed after exhausting their retries
+   */
+
+  public long exhausted()
+  {
+    return this.exhausted.get();
+  }
+
+  /**
+   * @return The number of retries caused by transactions that used each queries interface
+   */
+
+  public Map<Class<? extends DatabaseQueriesType>, Long> retriesByQueries()
+  {
+    final var snapshot =
+      new HashMap<Class<? extends DatabaseQueriesType>, Long>(this.retriesByQueries.size());
+    this.retriesByQueries.forEach((k, v) -> snapshot.put(k, Long.valueOf(v.sum())));
+    return Map.copyOf(snapshot);
+  }
+
+  private static final class RecordingTransaction implements DatabaseTransactionType
+  {
+    private final DatabaseTransactionType delegate;
+    private final Set<Class<? extends DatabaseQueriesType>> used;
+
+    RecordingTransaction(
+      final DatabaseTransactionType inDelegate,
+      final Set<Class<? extends DatabaseQueriesType>> inUsed)
+    {
+      this.delegate = Objects.requireNonNull(inDelegate, "inDelegate");
+      this.used = Objects.requireNonNull(inUsed, "inUsed");
+    }
+
+    @Override
+    public void close()
+      throws DatabaseException
+    {
+      this.delegate.close();
+    }
+
+    @Override
+    public void commit()
+      throws DatabaseException
+    {
+      this.delegate.commit();
+    }
+
+    @Override
+    public void rollback()
+      throws DatabaseException
+    {
+      this.delegate.rollback();
+    }
+
+    @Override
+    public DatabaseSavepointType savepoint()
+      throws DatabaseException
+    {
+      return this.delegate.savepoint();
+    }
+
+    @Override
+    public void rollbackTo(
+      final DatabaseSavepointType savepoint)
+      throws DatabaseException
+    {
+      this.delegate.rollbackTo(savepoint);
+    }
+
+    @Override
+    public <P extends DatabaseQueriesType> P queries(
+      final Class<P> queriesClass)
+      throws DatabaseException
+    {
+      this.used.add(queriesClass);
+      return this.delegate.queries(queriesClass);
+    }
+  }
+}
@@ -28,7 +28,9 @@ public interface DatabaseTransactionType
 {
   /**
    * Close this transaction. The transaction is rolled back if {@link #commit()} has not been
-   * called, or if changes have been made since the last call to {@link #commit()}.
+   * called, or if changes have been made since the last call to {@link #commit()}. Closing a
+   * transaction that has no outstanding changes does not contact the database, and closing a
+   * transaction more than once has no effect.
    *
    * @throws DatabaseException On errors
    */
@@ -56,6 +58,35 @@ public interface DatabaseTransactionType
   void rollback()
     throws DatabaseException;
 
+  /**
+   * Set a savepoint at the current point in the transaction.
+   *
+   * @return A new savepoint
+   *
+   * @throws DatabaseException On errors
+   *
+   * @see #rollbackTo(DatabaseSavepointType)
+   */
+
+  DatabaseSavepointType savepoint()
+    throws DatabaseException;
+
+  /**
+   * Roll back any changes made since the given savepoint was set, leaving the changes made
+   * before it in place. The savepoint remains valid, so the transaction can be rolled back to it
+   * again, but any savepoints set after it are released. A bulk operation can set a savepoint
+   * before each item and roll back to it when an item fails, without discarding the items that
+   * have already succeeded.
+   *
+   * @param savepoint A savepoint returned by {@link #savepoint()} on this transaction since the
+   *                  last call to {@link #commit()} or {@link #rollback()}
+   *
+   * @throws DatabaseException On errors, or if the savepoint is not valid
+   */
+
+  void rollbackTo(DatabaseSavepointType savepoint)
+    throws DatabaseException;
+
   /**
    * @param queriesClass The precise type of queries to execute in the transaction
    * @param <P>          The precise type of queries to execute
@@ -21,6 +21,8 @@ import com.io7m.ironpage.database.spi.DatabaseException;
 import io.reactivex.rxjava3.core.Observable;
 
 import java.io.Closeable;
+import java.time.Duration;
+import java.util.concurrent.CompletionStage;
 
 /**
  * An open database.
@@ -50,4 +52,147 @@ public interface DatabaseType extends Closeable
 
   DatabaseConnectionType openConnection()
     throws DatabaseException;
+
+  /**
+   * Open a new database connection for reading. The connection is taken from a pool that is
+   * separate from the one used by {@link #openConnection()}, so readers do not wait for
+   * connections held by writers. All transactions on the connection are read-only, as if
+   * started with {@link DatabaseConnectionType#beginReadOnlyTransaction()}.
+   *
+   * @return A new read-only database connection
+   *
+   * @throws DatabaseException On errors
+   */
+
+  DatabaseConnectionType openReadOnlyConnection()
+    throws DatabaseException;
+
+  /**
+   * @return A snapshot of the current statistics of the database connection pool
+   */
+
+  DatabaseConnectionPoolStatistics connectionPoolStatistics();
+
+  /**
+   * @return A snapshot of the current statistics of the read-only database connection pool
+   */
+
+  DatabaseConnectionPoolStatistics readOnlyConnectionPoolStatistics();
+
+  /**
+   * @return The time spent in each phase of opening the database
+   */
+
+  DatabaseOpenTimings openTimings();
+
+  /**
+   * Data migrations run in the background once the database is open, and queries behave
+   * correctly while they are running. A data migration that has not finished when the database
+   * is closed resumes from its last checkpoint when the database is next opened.
+   *
+   * @return A stage that completes when every data migration has finished, or that fails if a
+   * data migration failed
+   *
+   * @see DatabaseMigrationParametersType#dataChunkSize()
+   */
+
+  CompletionStage<Void> dataMigrations();
+
+  /**
+   * @return A snapshot of the storage configuration of the database
+   *
+   * @throws DatabaseException On errors
+   *
+   * @see DatabaseParametersType#storage()
+   */
+
+  DatabaseStorageDiagnostics storageDiagnostics()
+    throws DatabaseException;
+
+  /**
+   * Back up the database while it remains open. Transactions may continue to read from and
+   * write to the database while the backup is written; the backup reflects the state of the
+   * database as of the moment the backup began.
+   *
+   * @param parameters The backup parameters
+   * @param listener   A listener that receives progress reports
+   *
+   * @return The completed backup
+   *
+   * @throws DatabaseException On errors
+   */
+
+  DatabaseBackup backup(
+    DatabaseBackupParameters parameters,
+    DatabaseBackupProgressListenerType listener)
+    throws DatabaseException;
+
+  /**
+   * Evaluate a function within a new transaction, on a new connection, asynchronously. The
+   * transaction is committed if the function returns normally, and rolled back otherwise. The
+   * deadline given by {@link DatabaseAsyncParametersType#defaultDeadline()} applies.
+   *
+   * @param function The function
+   * @param <T>      The type of returned values
+   *
+   * @return The eventual result of the function
+   *
+   * @see #transactAsync(Duration, DatabaseTransactionFunctionType)
+   */
+
+  <T> CompletionStage<T> transactAsync(
+    DatabaseTransactionFunctionType<T> function);
+
+  /**
+   * Evaluate a function within a new transaction, on a new connection, asynchronously. The
+   * transaction is committed if the function returns normally, and rolled back otherwise.
+   *
+   * If too many transactions are already waiting to run, the returned stage fails immediately
+   * with a {@link DatabaseException}. If the deadline passes before the transaction starts, the
+   * function is not evaluated. If the deadline passes while the function is being evaluated, the
+   * transaction is rolled back rather than committed when the function returns, and the returned
+   * stage fails with a {@link DatabaseException}. The deadline does not interrupt the function or
+   * the commit: the returned stage is completed only once the outcome of the transaction is
+   * known, so a stage that fails is known not to have committed its transaction.
+   *
+   * @param deadline The maximum time that may elapse before the transaction is committed
+   * @param function The function
+   * @param <T>      The type of returned values
+   *
+   * @return The eventual result of the function
+   */
+
+  <T> CompletionStage<T> transactAsync(
+    Duration deadline,
+    DatabaseTransactionFunctionType<T> function);
+
+  /**
+   * Evaluate a function within a transaction, asynchronously, possibly sharing the transaction
+   * with functions submitted by other callers. If group commit is enabled with
+   * {@link DatabaseParametersType#groupCommit()}, functions submitted within a short interval
+   * of each other are evaluated in turn within a single transaction, each behind its own
+   * savepoint, and the transaction is committed once. If group commit is not enabled, this
+   * method is equivalent to {@link #transactAsync(DatabaseTransactionFunctionType)}.
+   *
+   * A function that raises an exception is rolled back to its savepoint and fails alone; the
+   * other functions in the group are unaffected. If the group as a whole cannot be committed,
+   * each function is evaluated again in a transaction of its own, so a function may be
+   * evaluated more than once and must not have effects outside of the transaction. Events
+   * published by the queries a function uses are published on each evaluation, including
+   * evaluations that are not committed. A function that raises an error, rather than an
+   * exception, abandons the group, and every function in the group fails with that error.
+   * Functions must not commit or roll back the transaction, and must not depend on each other's
+   * writes.
+   *
+   * The deadline given by {@link DatabaseAsyncParametersType#defaultDeadline()} applies until
+   * the group begins; a function that has begun is committed with its group.
+   *
+   * @param function The function
+   * @param <T>      The type of returned values
+   *
+   * @return The eventual result of the function
+   */
+
+  <T> CompletionStage<T> transactGrouped(
+    DatabaseTransactionFunctionType<T> function);
 }
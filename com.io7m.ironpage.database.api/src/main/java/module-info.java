@@ -25,7 +25,11 @@ module com.io7m.ironpage.database.api
   requires static org.osgi.annotation.bundle;
 
   requires transitive com.io7m.ironpage.database.spi;
+  requires transitive com.io7m.ironpage.metrics.api;
   requires transitive io.reactivex.rxjava3;
 
+  requires com.io7m.jaffirm.core;
+  requires java.sql;
+
   exports com.io7m.ironpage.database.api;
 }
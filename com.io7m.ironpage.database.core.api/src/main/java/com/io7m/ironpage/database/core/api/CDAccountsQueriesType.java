@@ -17,6 +17,8 @@
 package com.io7m.ironpage.database.core.api;
 
 import com.io7m.ironpage.database.spi.DatabaseQueriesType;
+import com.io7m.ironpage.database.spi.DatabaseShardKey;
+import com.io7m.ironpage.database.spi.DatabaseShardReplicated;
 import com.io7m.ironpage.events.api.EventPublishedType;
 
 import java.util.Optional;
@@ -24,6 +26,10 @@ import java.util.UUID;
 
 /**
  * The accounts-related queries supported by core databases.
+ *
+ * In a sharded database, accounts and sessions are routed by user ID: the account is read from,
+ * and its sessions are stored on, the shard selected by the user ID. Accounts are referenced by
+ * blobs and redactions on every shard, so account writes are also replicated to every shard.
  */
 
 public interface CDAccountsQueriesType extends DatabaseQueriesType
@@ -97,6 +103,7 @@ public interface CDAccountsQueriesType extends DatabaseQueriesType
    * @throws CDException On errors
    */
 
+  @DatabaseShardReplicated
   @EventPublishedType(CDAccountCreated.class)
   CDUserDTO accountCreate(
     UUID id,
@@ -117,6 +124,7 @@ public interface CDAccountsQueriesType extends DatabaseQueriesType
    * @throws CDException On errors
    */
 
+  @DatabaseShardReplicated
   @EventPublishedType(CDAccountUpdated.class)
   CDUserDTO accountUpdate(
     UUID caller,
@@ -134,7 +142,7 @@ public interface CDAccountsQueriesType extends DatabaseQueriesType
    */
 
   CDUserDTO accountGet(
-    UUID userId)
+    @DatabaseShardKey UUID userId)
     throws CDException;
 
   /**
@@ -149,13 +157,14 @@ public interface CDAccountsQueriesType extends DatabaseQueriesType
    */
 
   CDSessionDTO accountSessionCreate(
-    UUID owner,
+    @DatabaseShardKey UUID owner,
     String session)
     throws CDException;
 
   /**
-   * Update a session.
+   * Update a session. The session must belong to the given account.
    *
+   * @param owner   The account ID
    * @param session The session ID
    *
    * @return The updated session
@@ -164,18 +173,21 @@ public interface CDAccountsQueriesType extends DatabaseQueriesType
    */
 
   CDSessionDTO accountSessionUpdate(
+    @DatabaseShardKey UUID owner,
     String session)
     throws CDException;
 
   /**
-   * Delete a session.
+   * Delete a session. A session that does not belong to the given account is not deleted.
    *
+   * @param owner   The account ID
    * @param session The session ID
    *
    * @throws CDException On errors
    */
 
   void accountSessionDelete(
+    @DatabaseShardKey UUID owner,
     String session)
     throws CDException;
 
@@ -190,6 +202,6 @@ public interface CDAccountsQueriesType extends DatabaseQueriesType
    */
 
   int accountSessionDeleteForUser(
-    UUID owner)
+    @DatabaseShardKey UUID owner)
     throws CDException;
 }
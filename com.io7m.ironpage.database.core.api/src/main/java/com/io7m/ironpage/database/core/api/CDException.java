@@ -21,6 +21,7 @@ import com.io7m.ironpage.errors.api.ErrorSeverity;
 
 import java.util.List;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.SortedMap;
 
 /**
@@ -155,4 +156,10 @@ public class CDException extends DatabaseException
   {
     return this.errorCode;
   }
+
+  @Override
+  public final Optional<String> errorCodeName()
+  {
+    return Optional.of(this.errorCode.code());
+  }
 }
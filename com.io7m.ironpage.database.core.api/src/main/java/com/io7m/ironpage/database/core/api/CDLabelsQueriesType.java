@@ -17,6 +17,7 @@
 package com.io7m.ironpage.database.core.api;
 
 import com.io7m.ironpage.database.spi.DatabaseQueriesType;
+import com.io7m.ironpage.database.spi.DatabaseShardReplicated;
 import com.io7m.ironpage.events.api.EventPublishedType;
 
 import java.util.Optional;
@@ -72,6 +73,7 @@ public interface CDLabelsQueriesType extends DatabaseQueriesType
    * @throws CDException On errors
    */
 
+  @DatabaseShardReplicated
   @EventPublishedType(CDSecurityLabelCreated.class)
   CDSecurityLabelDTO labelCreate(
     String name,
@@ -110,6 +112,7 @@ public interface CDLabelsQueriesType extends DatabaseQueriesType
    * @throws CDException On errors
    */
 
+  @DatabaseShardReplicated
   @EventPublishedType(CDSecurityLabelUpdated.class)
   CDSecurityLabelDTO labelUpdate(CDSecurityLabelDTO label)
     throws CDException;
@@ -32,18 +32,11 @@ import com.io7m.jaffirm.core.Invariants;
 import io.reactivex.rxjava3.subjects.Subject;
 import org.apache.commons.codec.DecoderException;
 import org.apache.commons.codec.binary.Hex;
-import org.apache.derby.shared.common.error.DerbySQLIntegrityConstraintViolationException;
 import org.jooq.DSLContext;
-import org.jooq.Record;
-import org.jooq.Record4;
-import org.jooq.SQLDialect;
-import org.jooq.conf.RenderNameStyle;
-import org.jooq.conf.Settings;
 import org.jooq.exception.DataAccessException;
-import org.jooq.impl.DSL;
 
-import java.sql.BatchUpdateException;
 import java.sql.Connection;
+import java.sql.ResultSet;
 import java.sql.SQLDataException;
 import java.sql.SQLException;
 import java.sql.Timestamp;
@@ -63,9 +56,6 @@ import static com.io7m.ironpage.database.audit.api.AuditEventKind.USER_MODIFIED_
 import static com.io7m.ironpage.database.audit.api.AuditEventKind.USER_MODIFIED_ROLES;
 import static com.io7m.ironpage.database.audit.api.AuditEventKind.USER_SESSION_CREATED;
 import static com.io7m.ironpage.database.core.api.CDRolesQueriesType.ROLE_NONEXISTENT;
-import static com.io7m.ironpage.database.core.derby.CoreTables.FIELD_ROLE_DESCRIPTION;
-import static com.io7m.ironpage.database.core.derby.CoreTables.FIELD_ROLE_ID;
-import static com.io7m.ironpage.database.core.derby.CoreTables.FIELD_ROLE_NAME;
 import static com.io7m.ironpage.database.core.derby.CoreTables.FIELD_ROLE_ROLE_ID;
 import static com.io7m.ironpage.database.core.derby.CoreTables.FIELD_ROLE_USER_ID;
 import static com.io7m.ironpage.database.core.derby.CoreTables.FIELD_SESSION_ID;
@@ -78,51 +68,54 @@ import static com.io7m.ironpage.database.core.derby.CoreTables.FIELD_USER_LOCKED
 import static com.io7m.ironpage.database.core.derby.CoreTables.FIELD_USER_PASSWORD_ALGO;
 import static com.io7m.ironpage.database.core.derby.CoreTables.FIELD_USER_PASSWORD_HASH;
 import static com.io7m.ironpage.database.core.derby.CoreTables.FIELD_USER_PASSWORD_PARAMS;
-import static com.io7m.ironpage.database.core.derby.CoreTables.TABLE_ROLES;
 import static com.io7m.ironpage.database.core.derby.CoreTables.TABLE_ROLE_USERS;
 import static com.io7m.ironpage.database.core.derby.CoreTables.TABLE_SESSIONS;
 import static com.io7m.ironpage.database.core.derby.CoreTables.TABLE_USERS;
 
-final class CoreAccountsQueries implements CDAccountsQueriesType
+final class CoreAccountsQueries implements CDAccountsQueriesType, AutoCloseable
 {
   private final DSLContext dslContext;
-  private final CoreAuditQueries audit;
   private final Clock clock;
   private final Subject<DatabaseEventType> events;
+  private final CoreStatementCache statements;
+  private final Connection connection;
+  private final CoreDialectType dialect;
+  private CoreAuditQueries audit;
 
   CoreAccountsQueries(
     final Clock inClock,
     final Subject<DatabaseEventType> inEvents,
-    final Connection inConnection)
+    final Connection inConnection,
+    final CoreDSLContexts inContexts)
   {
     this.clock = Objects.requireNonNull(inClock, "clock");
-    final var connection = Objects.requireNonNull(inConnection, "connection");
-    final var settings = new Settings().withRenderNameStyle(RenderNameStyle.AS_IS);
-    this.dslContext = DSL.using(connection, SQLDialect.DERBY, settings);
-    this.audit = new CoreAuditQueries(this.clock, inEvents, connection);
+    this.connection = Objects.requireNonNull(inConnection, "connection");
+    this.dialect = inContexts.dialect();
+    this.dslContext = inContexts.create(inConnection);
+    this.statements = inContexts.statements(inConnection);
     this.events = Objects.requireNonNull(inEvents, "events");
   }
 
-  private static CDException handleDataAccessException(
+  private CoreAuditQueries audit()
+  {
+    if (this.audit == null) {
+      this.audit = new CoreAuditQueries(this.clock, this.dslContext);
+    }
+    return this.audit;
+  }
+
+  private CDException handleDataAccessException(
     final UUID id,
     final String displayName,
     final DataAccessException e)
   {
+    final var constraint = this.dialect.constraintNameOf(this.connection, e);
+    if (constraint.isPresent()) {
+      return integrityException(constraint.get(), e, id, displayName);
+    }
+
     final var cause = e.getCause();
-    if (cause instanceof BatchUpdateException) {
-      final var batchCause = cause.getCause();
-      if (batchCause instanceof DerbySQLIntegrityConstraintViolationException) {
-        return integrityException(
-          (DerbySQLIntegrityConstraintViolationException) batchCause,
-          id,
-          displayName);
-      }
-    } else if (cause instanceof DerbySQLIntegrityConstraintViolationException) {
-      return integrityException(
-        (DerbySQLIntegrityConstraintViolationException) cause,
-        id,
-        displayName);
-    } else if (cause instanceof SQLDataException) {
+    if (cause instanceof SQLDataException) {
       return invalidDataException((SQLDataException) cause);
     } else if (cause instanceof SQLException) {
       return genericDatabaseException((SQLException) cause);
@@ -135,37 +128,39 @@ final class CoreAccountsQueries implements CDAccountsQueriesType
     return Hex.encodeHexString(data, true);
   }
 
-  private static CDUserDTO accountFromRecord(
-    final Record userRecord,
+  private static CDUserDTO accountFromResult(
+    final ResultSet userResult,
     final SortedSet<CDSecurityRoleDTO> userRoles)
+    throws SQLException
   {
     try {
       final var hash =
         CDPasswordHashDTO.builder()
-          .setHash(Hex.decodeHex(userRecord.get(FIELD_USER_PASSWORD_HASH)))
-          .setParameters(userRecord.get(FIELD_USER_PASSWORD_PARAMS))
-          .setAlgorithm(userRecord.get(FIELD_USER_PASSWORD_ALGO))
+          .setHash(Hex.decodeHex(userResult.getString(5)))
+          .setParameters(userResult.getString(6))
+          .setAlgorithm(userResult.getString(7))
           .build();
 
       return CDUserDTO.builder()
-        .setDisplayName(userRecord.get(FIELD_USER_DISPLAY_NAME))
-        .setEmail(userRecord.get(FIELD_USER_EMAIL))
-        .setId(userRecord.get(FIELD_USER_ID))
-        .setLocked(Optional.ofNullable(userRecord.get(FIELD_USER_LOCKED_REASON)))
+        .setDisplayName(userResult.getString(1))
+        .setEmail(userResult.getString(2))
+        .setId(UUID.fromString(userResult.getString(3)))
+        .setLocked(Optional.ofNullable(userResult.getString(4)))
         .setPasswordHash(hash)
         .setRoles(userRoles)
         .build();
     } catch (final DecoderException e) {
-      throw new IllegalStateException(e);
+      throw new SQLDataException(e);
     }
   }
 
   private static CDException integrityException(
-    final DerbySQLIntegrityConstraintViolationException e,
+    final String constraint,
+    final Exception e,
     final UUID id,
     final String displayName)
   {
-    switch (e.getConstraintName()) {
+    switch (constraint) {
       case "ROLE_ROLE_ID_REFERENCE": {
         return new CDException(
           ErrorSeverity.SEVERITY_ERROR,
@@ -216,13 +211,14 @@ final class CoreAccountsQueries implements CDAccountsQueriesType
       e);
   }
 
-  private static CDSecurityRoleDTO roleFromRecord(
-    final Record4<UUID, Long, String, String> record)
+  private static CDSecurityRoleDTO roleFromResult(
+    final ResultSet result)
+    throws SQLException
   {
     return CDSecurityRoleDTO.builder()
-      .setId(record.<Long>getValue(FIELD_ROLE_ID).longValue())
-      .setName(record.getValue(FIELD_ROLE_NAME))
-      .setDescription(record.getValue(FIELD_ROLE_DESCRIPTION))
+      .setId(result.getLong(1))
+      .setName(result.getString(2))
+      .setDescription(result.getString(3))
       .build();
   }
 
@@ -251,11 +247,11 @@ final class CoreAccountsQueries implements CDAccountsQueriesType
       .set(FIELD_USER_PASSWORD_HASH, toHex(password.hash()))) {
       query.execute();
     } catch (final DataAccessException e) {
-      throw handleDataAccessException(id, displayName, e);
+      throw this.handleDataAccessException(id, displayName, e);
     }
 
     try {
-      this.audit.auditEventLog(USER_CREATED, id, displayName, "", "");
+      this.audit().auditEventLog(USER_CREATED, id, displayName, "", "");
     } catch (final Exception e) {
       throw genericDatabaseException(e);
     }
@@ -308,7 +304,7 @@ final class CoreAccountsQueries implements CDAccountsQueriesType
     final var newRoles = account.roles();
     if (!Objects.equals(existingRoles, newRoles)) {
       try {
-        this.audit.auditEventLog(
+        this.audit().auditEventLog(
           USER_MODIFIED_ROLES,
           caller,
           account.id().toString(),
@@ -336,7 +332,7 @@ final class CoreAccountsQueries implements CDAccountsQueriesType
     final var newLocked = account.locked();
     if (!Objects.equals(existingLocked, newLocked)) {
       try {
-        this.audit.auditEventLog(
+        this.audit().auditEventLog(
           USER_MODIFIED_LOCKED,
           caller,
           account.id().toString(),
@@ -356,7 +352,7 @@ final class CoreAccountsQueries implements CDAccountsQueriesType
   {
     if (!Objects.equals(existing.passwordHash(), account.passwordHash())) {
       try {
-        this.audit.auditEventLog(
+        this.audit().auditEventLog(
           USER_MODIFIED_PASSWORD,
           caller,
           account.id().toString(),
@@ -378,7 +374,7 @@ final class CoreAccountsQueries implements CDAccountsQueriesType
     final var newEmail = account.email();
     if (!Objects.equals(existingEmail, newEmail)) {
       try {
-        this.audit.auditEventLog(
+        this.audit().auditEventLog(
           USER_MODIFIED_EMAIL,
           caller,
           account.id().toString(),
@@ -400,7 +396,7 @@ final class CoreAccountsQueries implements CDAccountsQueriesType
     final var newDisplay = account.displayName();
     if (!Objects.equals(existingDisplay, newDisplay)) {
       try {
-        this.audit.auditEventLog(
+        this.audit().auditEventLog(
           USER_MODIFIED_DISPLAY_NAME,
           caller,
           account.id().toString(),
@@ -427,7 +423,7 @@ final class CoreAccountsQueries implements CDAccountsQueriesType
              .where(FIELD_USER_ID.eq(account.id()))) {
       query.execute();
     } catch (final DataAccessException e) {
-      throw handleDataAccessException(account.id(), account.displayName(), e);
+      throw this.handleDataAccessException(account.id(), account.displayName(), e);
     }
   }
 
@@ -453,7 +449,7 @@ final class CoreAccountsQueries implements CDAccountsQueriesType
 
         this.dslContext.batch(inserts).execute();
       } catch (final DataAccessException e) {
-        throw handleDataAccessException(accountId, account.displayName(), e);
+        throw this.handleDataAccessException(accountId, account.displayName(), e);
       }
     }
   }
@@ -465,44 +461,41 @@ final class CoreAccountsQueries implements CDAccountsQueriesType
   {
     Objects.requireNonNull(userId, "userId");
 
-    try (var accountQuery = this.dslContext.select(
-      FIELD_USER_DISPLAY_NAME,
-      FIELD_USER_EMAIL,
-      FIELD_USER_ID,
-      FIELD_USER_LOCKED_REASON,
-      FIELD_USER_PASSWORD_HASH,
-      FIELD_USER_PASSWORD_PARAMS,
-      FIELD_USER_PASSWORD_ALGO)
-      .from(TABLE_USERS)
-      .where(FIELD_USER_ID.eq(userId))
-      .limit(1)) {
-
-      final var userResults = accountQuery.fetch();
-      if (userResults.isEmpty()) {
-        throw new CDException(
-          ErrorSeverity.SEVERITY_ERROR,
-          NONEXISTENT,
-          CoreMessages.localize("errorUserNonexistent"),
-          null,
-          PresentableAttributes.one(CoreMessages.localize("userID"), userId.toString()));
-      }
+    try {
+      final var userIdText = userId.toString();
+      final var accountQuery = this.statements.prepare(CoreStatements.ACCOUNT_GET);
+      accountQuery.setString(1, userIdText);
+
+      return this.statements.executeQuery(accountQuery, userResult -> {
+        if (!userResult.next()) {
+          throw new CDException(
+            ErrorSeverity.SEVERITY_ERROR,
+            NONEXISTENT,
+            CoreMessages.localize("errorUserNonexistent"),
+            null,
+            PresentableAttributes.one(CoreMessages.localize("userID"), userIdText));
+        }
+        return accountFromResult(userResult, this.accountGetRoles(userIdText));
+      });
+    } catch (final SQLException e) {
+      throw genericDatabaseException(e);
+    }
+  }
 
-      try (var roleQuery = this.dslContext.select(
-        FIELD_ROLE_USER_ID,
-        FIELD_ROLE_ID,
-        FIELD_ROLE_NAME,
-        FIELD_ROLE_DESCRIPTION)
-        .from(TABLE_ROLE_USERS)
-        .join(TABLE_ROLES)
-        .on(FIELD_ROLE_ROLE_ID.eq(FIELD_ROLE_ID))
-        .where(FIELD_ROLE_USER_ID.eq(userId))) {
-
-        final var roleResults = roleQuery.fetch();
-        final SortedSet<CDSecurityRoleDTO> roles =
-          new TreeSet<>(roleResults.map(CoreAccountsQueries::roleFromRecord));
-        return accountFromRecord(userResults.get(0), roles);
+  private SortedSet<CDSecurityRoleDTO> accountGetRoles(
+    final String userId)
+    throws SQLException, CDException
+  {
+    final var roleQuery = this.statements.prepare(CoreStatements.ACCOUNT_ROLES_GET);
+    roleQuery.setString(1, userId);
+
+    final var roles = new TreeSet<CDSecurityRoleDTO>();
+    return this.statements.executeQuery(roleQuery, roleResult -> {
+      while (roleResult.next()) {
+        roles.add(roleFromResult(roleResult));
       }
-    }
+      return roles;
+    });
   }
 
   @Override
@@ -523,7 +516,7 @@ final class CoreAccountsQueries implements CDAccountsQueriesType
       query.execute();
 
       try {
-        this.audit.auditEventLog(USER_SESSION_CREATED, owner, session, "", "");
+        this.audit().auditEventLog(USER_SESSION_CREATED, owner, session, "", "");
       } catch (final DatabaseException e) {
         throw genericDatabaseException(e);
       }
@@ -534,23 +527,22 @@ final class CoreAccountsQueries implements CDAccountsQueriesType
         .setUpdated(timestamp.toInstant())
         .build();
     } catch (final DataAccessException e) {
-      final var cause = e.getCause();
-      if (cause instanceof DerbySQLIntegrityConstraintViolationException) {
-        final var constraintViolation = (DerbySQLIntegrityConstraintViolationException) cause;
-        switch (constraintViolation.getConstraintName()) {
+      final var constraint = this.dialect.constraintNameOf(this.connection, e);
+      if (constraint.isPresent()) {
+        switch (constraint.get()) {
           case "SESSION_USER_REFERENCE": {
             throw new CDException(
               ErrorSeverity.SEVERITY_ERROR,
               NONEXISTENT,
               CoreMessages.localize("errorUserNonexistent"),
-              cause);
+              e);
           }
           case "SESSION_ID_KEY": {
             throw new CDException(
               ErrorSeverity.SEVERITY_ERROR,
               ID_ALREADY_USED,
               CoreMessages.localize("errorSessionIDAlreadyUsed"),
-              cause);
+              e);
           }
           default: {
             break;
@@ -563,17 +555,24 @@ final class CoreAccountsQueries implements CDAccountsQueriesType
 
   @Override
   public CDSessionDTO accountSessionUpdate(
+    final UUID owner,
     final String session)
     throws CDException
   {
+    Objects.requireNonNull(owner, "owner");
     Objects.requireNonNull(session, "session");
 
     final var userId = this.sessionGet(session);
+    if (!Objects.equals(userId, owner)) {
+      throw sessionNonexistent(session);
+    }
     final var timestamp = Timestamp.from(this.clock.instant());
-    try (var query = this.dslContext.update(TABLE_SESSIONS)
-      .set(FIELD_SESSION_UPDATED, timestamp)
-      .where(FIELD_SESSION_ID.eq(session))) {
-      final var updated = query.execute();
+
+    try {
+      final var query = this.statements.prepare(CoreStatements.SESSION_UPDATE);
+      query.setTimestamp(1, timestamp);
+      query.setString(2, session);
+      final var updated = this.statements.executeUpdate(query);
 
       Invariants.checkInvariantV(
         Integer.valueOf(updated),
@@ -586,7 +585,7 @@ final class CoreAccountsQueries implements CDAccountsQueriesType
         .setUserID(userId)
         .setUpdated(timestamp.toInstant())
         .build();
-    } catch (final DataAccessException e) {
+    } catch (final SQLException e) {
       throw genericDatabaseException(e);
     }
   }
@@ -594,49 +593,59 @@ final class CoreAccountsQueries implements CDAccountsQueriesType
   private UUID sessionGet(final String session)
     throws CDException
   {
-    try (var query =
-           this.dslContext.select(FIELD_SESSION_ID, FIELD_SESSION_USER_ID)
-             .from(TABLE_SESSIONS)
-             .where(FIELD_SESSION_ID.eq(session))) {
+    try {
+      final var query = this.statements.prepare(CoreStatements.SESSION_GET);
+      query.setString(1, session);
 
-      final var rows = query.fetch();
-      if (rows.size() != 1) {
-        throw new CDException(
-          ErrorSeverity.SEVERITY_ERROR,
-          NONEXISTENT,
-          CoreMessages.localize("errorSessionNonexistent"),
-          null,
-          PresentableAttributes.one(CoreMessages.localize("sessionID"), session));
-      }
+      return this.statements.executeQuery(query, result -> {
+        if (!result.next()) {
+          throw sessionNonexistent(session);
+        }
 
-      final var record = rows.get(0);
-      final var userId =
-        record.getValue(FIELD_SESSION_USER_ID);
-      final var sessionReceived =
-        record.getValue(FIELD_SESSION_ID).trim();
+        final var sessionReceived = result.getString(1).trim();
+        final var userId = UUID.fromString(result.getString(2));
+        if (result.next()) {
+          throw sessionNonexistent(session);
+        }
 
-      Invariants.checkInvariantV(
-        session,
-        Objects.equals(session, sessionReceived),
-        "Expected session '%s' must match received session '%s'",
-        session,
-        sessionReceived);
+        Invariants.checkInvariantV(
+          session,
+          Objects.equals(session, sessionReceived),
+          "Expected session '%s' must match received session '%s'",
+          session,
+          sessionReceived);
 
-      return userId;
-    } catch (final DataAccessException e) {
+        return userId;
+      });
+    } catch (final SQLException e) {
       throw genericDatabaseException(e);
     }
   }
 
+  private static CDException sessionNonexistent(
+    final String session)
+  {
+    return new CDException(
+      ErrorSeverity.SEVERITY_ERROR,
+      NONEXISTENT,
+      CoreMessages.localize("errorSessionNonexistent"),
+      null,
+      PresentableAttributes.one(CoreMessages.localize("sessionID"), session));
+  }
+
   @Override
-  public void accountSessionDelete(final String session)
+  public void accountSessionDelete(
+    final UUID owner,
+    final String session)
     throws CDException
   {
+    Objects.requireNonNull(owner, "owner");
     Objects.requireNonNull(session, "session");
 
     try (var query =
            this.dslContext.deleteFrom(TABLE_SESSIONS)
-             .where(FIELD_SESSION_ID.eq(session))) {
+             .where(FIELD_SESSION_ID.eq(session))
+             .and(FIELD_SESSION_USER_ID.eq(owner))) {
       query.execute();
     } catch (final DataAccessException e) {
       throw genericDatabaseException(e);
@@ -657,4 +666,11 @@ final class CoreAccountsQueries implements CDAccountsQueriesType
       throw genericDatabaseException(e);
     }
   }
+
+  @Override
+  public void close()
+    throws SQLException
+  {
+    this.statements.close();
+  }
 }
@@ -25,10 +25,7 @@ import io.reactivex.rxjava3.subjects.Subject;
 import org.jooq.DSLContext;
 import org.jooq.Field;
 import org.jooq.Record;
-import org.jooq.SQLDialect;
 import org.jooq.Table;
-import org.jooq.conf.RenderNameStyle;
-import org.jooq.conf.Settings;
 import org.jooq.exception.DataAccessException;
 import org.jooq.impl.DSL;
 import org.jooq.impl.SQLDataType;
@@ -63,12 +60,18 @@ final class CoreAuditQueries implements AuditDatabaseQueriesType
   CoreAuditQueries(
     final Clock inClock,
     final Subject<? extends EventType> events,
-    final Connection inConnection)
+    final Connection inConnection,
+    final CoreDSLContexts inContexts)
+  {
+    this(inClock, inContexts.create(inConnection));
+  }
+
+  CoreAuditQueries(
+    final Clock inClock,
+    final DSLContext inDSLContext)
   {
     this.clock = Objects.requireNonNull(inClock, "clock");
-    final var connection = Objects.requireNonNull(inConnection, "connection");
-    final var settings = new Settings().withRenderNameStyle(RenderNameStyle.AS_IS);
-    this.dslContext = DSL.using(connection, SQLDialect.DERBY, settings);
+    this.dslContext = Objects.requireNonNull(inDSLContext, "dslContext");
   }
 
   private static AuditDatabaseEventDTO eventFromRecord(
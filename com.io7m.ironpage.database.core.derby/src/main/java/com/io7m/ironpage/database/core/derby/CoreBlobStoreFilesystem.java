@@ -0,0 +1,265 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.io7m.ironpage.database.core.derby;
+
+import com.io7m.ironpage.database.pages.api.PagesDatabaseBlobStoreType;
+import com.io7m.ironpage.database.pages.api.PagesDatabaseBlobStoreWriteType;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.regex.Pattern;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * A blob store that holds each blob in a file named by the blob ID, in a directory tree sharded by
+ * the first four digits of the ID ({@code ab/cd/abcd...}) so that no directory grows too large.
+ *
+ * Data is written to a temporary file in the {@code tmp} directory of the store, flushed to disk,
+ * and then atomically renamed into place when the write is committed, so that a blob file is
+ * never observed partially written. Reads stream the file rather than mapping it. Deleting a blob overwrites the
+ * file with zeroes and flushes it to disk before removing it; this cannot guarantee that the data
+ * is unrecoverable on storage that remaps writes, such as copy-on-write filesystems and SSDs.
+ */
+
+public final class CoreBlobStoreFilesystem implements PagesDatabaseBlobStoreType
+{
+  private static final Pattern VALID_ID = Pattern.compile("[0-9a-f]{64}");
+  private static final int ERASE_BUFFER_SIZE = 65536;
+
+  private final Path root;
+  private final Path temporary;
+
+  private CoreBlobStoreFilesystem(
+    final Path inRoot,
+    final Path inTemporary)
+  {
+    this.root = Objects.requireNonNull(inRoot, "root");
+    this.temporary = Objects.requireNonNull(inTemporary, "temporary");
+  }
+
+  /**
+   * Open a store in the given directory, creating the directory if necessary.
+   *
+   * @param directory The directory
+   *
+   * @return A store
+   *
+   * @throws IOException On I/O errors
+   */
+
+  public static PagesDatabaseBlobStoreType open(
+    final Path directory)
+    throws IOException
+  {
+    Objects.requireNonNull(directory, "directory");
+
+    final var root = directory.toAbsolutePath();
+    final var temporary = root.resolve("tmp");
+    Files.createDirectories(temporary);
+    return new CoreBlobStoreFilesystem(root, temporary);
+  }
+
+  /**
+   * Blob IDs are checked before being used to construct paths, so that an ID cannot name a file
+   * outside of the store.
+   */
+
+  private Optional<Path> pathOf(
+    final String id)
+  {
+    Objects.requireNonNull(id, "id");
+
+    if (!VALID_ID.matcher(id).matches()) {
+      return Optional.empty();
+    }
+    return Optional.of(this.directoryOf(id).resolve(id));
+  }
+
+  private Path directoryOf(
+    final String id)
+  {
+    return this.root.resolve(id.substring(0, 2)).resolve(id.substring(2, 4));
+  }
+
+  @Override
+  public PagesDatabaseBlobStoreWriteType write(
+    final InputStream data)
+    throws IOException
+  {
+    Objects.requireNonNull(data, "data");
+
+    final var file = Files.createTempFile(this.temporary, "blob-", ".tmp");
+    try {
+      final var digest = DigestUtils.getSha256Digest();
+      final long size;
+      try (var channel = FileChannel.open(file, WRITE)) {
+        size = new DigestInputStream(data, digest).transferTo(Channels.newOutputStream(channel));
+        channel.force(true);
+      }
+      final var id = Hex.encodeHexString(digest.digest(), true);
+      return new Write(this.directoryOf(id), file, id, size);
+    } catch (final IOException e) {
+      Files.deleteIfExists(file);
+      throw e;
+    }
+  }
+
+  @Override
+  public Optional<InputStream> read(
+    final String id)
+    throws IOException
+  {
+    final var path = this.pathOf(id);
+    if (path.isPresent()) {
+      try {
+        return Optional.of(Files.newInputStream(path.get(), READ));
+      } catch (final NoSuchFileException e) {
+        // The store does not hold the blob.
+      }
+    }
+    return Optional.empty();
+  }
+
+  @Override
+  public OptionalLong transferTo(
+    final String id,
+    final WritableByteChannel output)
+    throws IOException
+  {
+    Objects.requireNonNull(output, "output");
+
+    final var path = this.pathOf(id);
+    if (path.isPresent()) {
+      try (var channel = FileChannel.open(path.get(), READ)) {
+        final var size = channel.size();
+        var position = 0L;
+        while (position < size) {
+          position += channel.transferTo(position, size - position, output);
+        }
+        return OptionalLong.of(size);
+      } catch (final NoSuchFileException e) {
+        // The store does not hold the blob.
+      }
+    }
+    return OptionalLong.empty();
+  }
+
+  @Override
+  public void delete(
+    final String id)
+    throws IOException
+  {
+    final var path = this.pathOf(id);
+    if (path.isEmpty()) {
+      return;
+    }
+
+    try (var channel = FileChannel.open(path.get(), WRITE)) {
+      final var zeroes = ByteBuffer.allocate(ERASE_BUFFER_SIZE);
+      final var size = channel.size();
+      var position = 0L;
+      while (position < size) {
+        zeroes.clear();
+        zeroes.limit((int) Math.min(zeroes.capacity(), size - position));
+        position += channel.write(zeroes, position);
+      }
+      channel.force(true);
+    } catch (final NoSuchFileException e) {
+      return;
+    }
+    Files.deleteIfExists(path.get());
+  }
+
+  private static final class Write implements PagesDatabaseBlobStoreWriteType
+  {
+    private final Path directory;
+    private final Path target;
+    private final Path file;
+    private final String id;
+    private final long size;
+
+    Write(
+      final Path inDirectory,
+      final Path inFile,
+      final String inId,
+      final long inSize)
+    {
+      this.directory = Objects.requireNonNull(inDirectory, "directory");
+      this.target = inDirectory.resolve(inId);
+      this.file = Objects.requireNonNull(inFile, "file");
+      this.id = Objects.requireNonNull(inId, "id");
+      this.size = inSize;
+    }
+
+    @Override
+    public String id()
+    {
+      return this.id;
+    }
+
+    @Override
+    public long size()
+    {
+      return this.size;
+    }
+
+    /**
+     * If the store already holds the blob, then it holds the same data, and the written copy is
+     * simply discarded when the write is closed.
+     */
+
+    @Override
+    public InputStream read()
+      throws IOException
+    {
+      return Files.newInputStream(this.file, READ);
+    }
+
+    @Override
+    public void commit()
+      throws IOException
+    {
+      if (Files.exists(this.target)) {
+        return;
+      }
+      Files.createDirectories(this.directory);
+      Files.move(this.file, this.target, ATOMIC_MOVE);
+    }
+
+    @Override
+    public void close()
+      throws IOException
+    {
+      Files.deleteIfExists(this.file);
+    }
+  }
+}
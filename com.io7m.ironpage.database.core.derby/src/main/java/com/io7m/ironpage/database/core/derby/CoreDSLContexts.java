@@ -0,0 +1,93 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.ironpage.database.core.derby;
+
+import com.io7m.ironpage.database.spi.DatabaseSlowQueryParameters;
+import org.jooq.Configuration;
+import org.jooq.DSLContext;
+import org.jooq.SQLDialect;
+import org.jooq.conf.RenderNameStyle;
+import org.jooq.conf.Settings;
+import org.jooq.impl.DSL;
+import org.jooq.impl.DefaultConfiguration;
+import org.jooq.impl.DefaultConnectionProvider;
+import org.jooq.impl.DefaultExecuteListenerProvider;
+
+import java.sql.Connection;
+import java.util.Objects;
+
+/**
+ * Functions to create jOOQ contexts for the core partition. The render settings and the
+ * configuration are created once and shared by every context; they are never modified after
+ * construction. Every context created for a connection reports slow statements to the same
+ * {@link CoreSlowQueryLog}.
+ */
+
+final class CoreDSLContexts
+{
+  private static final Settings SETTINGS =
+    new Settings().withRenderNameStyle(RenderNameStyle.AS_IS);
+
+  private final CoreDialectType dialect;
+  private final CoreSlowQueryLog slowQueries;
+  private final Configuration configuration;
+
+  CoreDSLContexts(
+    final CoreDialectType inDialect,
+    final DatabaseSlowQueryParameters parameters)
+  {
+    this.dialect =
+      Objects.requireNonNull(inDialect, "dialect");
+    this.slowQueries =
+      new CoreSlowQueryLog(parameters, inDialect.capturesPlans());
+    this.configuration =
+      new DefaultConfiguration()
+        .set(inDialect.jooqDialect())
+        .set(SETTINGS)
+        .set(new DefaultExecuteListenerProvider(new CoreSlowQueryListener(this.slowQueries)));
+  }
+
+  /**
+   * @return A context used to render the statements in {@link CoreStatements}, which use only
+   * syntax that is common to all supported dialects
+   */
+
+  static DSLContext renderer()
+  {
+    return DSL.using(SQLDialect.DERBY, SETTINGS);
+  }
+
+  DSLContext create(
+    final Connection connection)
+  {
+    Objects.requireNonNull(connection, "connection");
+    this.slowQueries.configure(connection);
+    return DSL.using(this.configuration.derive(new DefaultConnectionProvider(connection)));
+  }
+
+  CoreDialectType dialect()
+  {
+    return this.dialect;
+  }
+
+  CoreStatementCache statements(
+    final Connection connection)
+  {
+    return new CoreStatementCache(connection, this.slowQueries);
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironpage.database.core.derby;
+
+import com.io7m.ironpage.database.spi.DatabaseDataMigrationProgress;
+import com.io7m.ironpage.database.spi.DatabaseDataMigrationType;
+import com.io7m.ironpage.database.spi.DatabaseException;
+
+import java.math.BigInteger;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Objects;
+
+import static com.io7m.ironpage.errors.api.ErrorSeverity.SEVERITY_ERROR;
+
+/**
+ * Fill in the {@code blob_size} column introduced in schema revision 2 for blobs written before
+ * that revision. Blobs are visited in order of their IDs; the checkpoint is the last ID visited.
+ * Blobs written after the revision already have a size, and so the migration only ever changes
+ * rows whose size is null.
+ */
+
+final class CoreDataMigrationBlobSizes implements DatabaseDataMigrationType
+{
+  private static final String BLOB_KEYS =
+    "SELECT blob_id FROM core.blobs WHERE blob_id > ? ORDER BY blob_id";
+
+  private static final String BLOB_SIZES_UPDATE =
+    "UPDATE core.blobs SET blob_size = LENGTH(blob_data) "
+      + "WHERE blob_id > ? AND blob_id <= ? AND blob_size IS NULL";
+
+  CoreDataMigrationBlobSizes()
+  {
+
+  }
+
+  @Override
+  public String name()
+  {
+    return "core.blob_sizes";
+  }
+
+  @Override
+  public BigInteger schemaVersion()
+  {
+    return BigInteger.TWO;
+  }
+
+  @Override
+  public DatabaseDataMigrationProgress migrateChunk(
+    final Connection connection,
+    final String checkpoint,
+    final int chunkSize)
+    throws DatabaseException
+  {
+    Objects.requireNonNull(connection, "connection");
+    Objects.requireNonNull(checkpoint, "checkpoint");
+
+    try {
+      var lastKey = checkpoint;
+      var keys = 0;
+      try (var statement = connection.prepareStatement(BLOB_KEYS)) {
+        statement.setMaxRows(chunkSize);
+        statement.setString(1, checkpoint);
+        try (var result = statement.executeQuery()) {
+          while (result.next()) {
+            lastKey = result.getString(1);
+            ++keys;
+          }
+        }
+      }
+
+      var rows = 0L;
+      if (keys > 0) {
+        try (var statement = connection.prepareStatement(BLOB_SIZES_UPDATE)) {
+          statement.setString(1, checkpoint);
+          statement.setString(2, lastKey);
+          rows = statement.executeUpdate();
+        }
+      }
+
+      return DatabaseDataMigrationProgress.builder()
+        .setCheckpoint(lastKey)
+        .setRows(rows)
+        .setFinished(keys < chunkSize)
+        .build();
+    } catch (final SQLException e) {
+      throw new DatabaseException(SEVERITY_ERROR, e.getLocalizedMessage(), e);
+    }
+  }
+}
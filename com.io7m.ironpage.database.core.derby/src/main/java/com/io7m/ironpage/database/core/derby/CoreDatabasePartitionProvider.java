@@ -0,0 +1,187 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironpage.database.core.derby;
+
+import com.io7m.ironpage.database.audit.api.AuditDatabaseQueriesType;
+import com.io7m.ironpage.database.core.api.CDAccountsQueriesType;
+import com.io7m.ironpage.database.core.api.CDLabelsQueriesType;
+import com.io7m.ironpage.database.core.api.CDRolesQueriesType;
+import com.io7m.ironpage.database.pages.api.PagesDatabaseBlobStoreType;
+import com.io7m.ironpage.database.pages.api.PagesDatabaseQueriesType;
+import com.io7m.ironpage.database.spi.DatabaseDataMigrationType;
+import com.io7m.ironpage.database.spi.DatabaseException;
+import com.io7m.ironpage.database.spi.DatabasePartitionProviderAbstract;
+import com.io7m.ironpage.database.spi.DatabaseQueriesContructorCollection;
+import com.io7m.ironpage.database.spi.DatabaseSchemaRevisionType;
+import com.io7m.ironpage.database.spi.DatabaseSchemaRevisionXML;
+import com.io7m.ironpage.database.spi.DatabaseSlowQueryParameters;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.URISyntaxException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Clock;
+import java.util.Collections;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.TreeMap;
+
+import static com.io7m.ironpage.errors.api.ErrorSeverity.SEVERITY_ERROR;
+import static java.math.BigInteger.ONE;
+import static java.math.BigInteger.TWO;
+import static java.math.BigInteger.ZERO;
+import static java.math.BigInteger.valueOf;
+
+/**
+ * The core partition, implemented for a given dialect. All dialects share the same schema
+ * revisions and queries. The latest schema version is the last of the declared revision
+ * versions, so it cannot disagree with the revisions that are loaded, and checking whether an
+ * upgrade is required does not need the revisions to be parsed.
+ */
+
+public abstract class CoreDatabasePartitionProvider extends DatabasePartitionProviderAbstract
+{
+  private static final List<BigInteger> REVISION_VERSIONS =
+    List.of(ZERO, ONE, TWO, valueOf(3L));
+
+  private final CoreDialectType coreDialect;
+
+  /**
+   * Construct a provider.
+   *
+   * @param clock       The clock used for time-based queries
+   * @param inDialect   The SQL dialect
+   * @param slowQueries The parameters for the slow query log
+   * @param blobStore   The store of blob data, if blob data is not held in the database
+   */
+
+  protected CoreDatabasePartitionProvider(
+    final Clock clock,
+    final CoreDialectType inDialect,
+    final DatabaseSlowQueryParameters slowQueries,
+    final Optional<PagesDatabaseBlobStoreType> blobStore)
+  {
+    this(clock, inDialect, new CoreDSLContexts(inDialect, slowQueries), blobStore);
+  }
+
+  private CoreDatabasePartitionProvider(
+    final Clock clock,
+    final CoreDialectType inDialect,
+    final CoreDSLContexts contexts,
+    final Optional<PagesDatabaseBlobStoreType> blobStore)
+  {
+    super(
+      clock,
+      new DatabaseQueriesContructorCollection()
+        .put(AuditDatabaseQueriesType.class,
+             (c, e, connection) -> new CoreAuditQueries(c, e, connection, contexts))
+        .put(CDAccountsQueriesType.class,
+             (c, e, connection) -> new CoreAccountsQueries(c, e, connection, contexts))
+        .put(CDLabelsQueriesType.class,
+             (c, e, connection) -> new CoreLabelsQueries(c, e, connection, contexts))
+        .put(CDRolesQueriesType.class,
+             (c, e, connection) -> new CoreRolesQueries(c, e, connection, contexts))
+        .put(PagesDatabaseQueriesType.class,
+             (c, e, connection) -> new CorePagesQueries(c, e, connection, contexts, blobStore))
+    );
+
+    this.coreDialect = Objects.requireNonNull(inDialect, "dialect");
+  }
+
+  private static DatabaseSchemaRevisionType loadRevision(
+    final Optional<BigInteger> previous,
+    final BigInteger current)
+    throws DatabaseException
+  {
+    final var path =
+      String.format("/com/io7m/ironpage/database/core/derby/schema-%s.xml", current);
+    final var clazz = CoreDatabasePartitionProvider.class;
+    try (var stream = clazz.getResourceAsStream(path)) {
+      final var url = clazz.getResource(path);
+      return DatabaseSchemaRevisionXML.fromStream(previous, current, url.toURI(), stream);
+    } catch (final IOException | URISyntaxException e) {
+      throw new DatabaseException(SEVERITY_ERROR, e.getLocalizedMessage(), e);
+    }
+  }
+
+  @Override
+  protected final Optional<BigInteger> findSchemaVersionActual(
+    final Connection connection)
+    throws DatabaseException
+  {
+    Objects.requireNonNull(connection, "connection");
+
+    try {
+      try (var statement = connection.prepareStatement(
+        "SELECT version_number FROM core.schema_version")) {
+        try (var result = statement.executeQuery()) {
+          if (!result.next()) {
+            throw new SQLException(
+              CoreMessages.localize("errorSchemaVersionTableRow", "core.schema_version"));
+          }
+
+          return Optional.of(valueOf(result.getLong(1)));
+        }
+      }
+    } catch (final SQLException e) {
+      if (this.coreDialect.isTableMissing(e)) {
+        return Optional.empty();
+      }
+      throw new DatabaseException(SEVERITY_ERROR, e.getLocalizedMessage(), e);
+    }
+  }
+
+  private static NavigableMap<BigInteger, DatabaseSchemaRevisionType> loadRevisions()
+    throws DatabaseException
+  {
+    final var loaded = new TreeMap<BigInteger, DatabaseSchemaRevisionType>();
+    Optional<BigInteger> previous = Optional.empty();
+    for (final var version : REVISION_VERSIONS) {
+      loaded.put(version, loadRevision(previous, version));
+      previous = Optional.of(version);
+    }
+    return Collections.unmodifiableNavigableMap(loaded);
+  }
+
+  @Override
+  protected final NavigableMap<BigInteger, DatabaseSchemaRevisionType> schemaRevisionsActual()
+    throws DatabaseException
+  {
+    return loadRevisions();
+  }
+
+  @Override
+  protected final BigInteger schemaVersionLatest()
+  {
+    return REVISION_VERSIONS.get(REVISION_VERSIONS.size() - 1);
+  }
+
+  @Override
+  public final List<DatabaseDataMigrationType> dataMigrations()
+  {
+    return List.of(new CoreDataMigrationBlobSizes());
+  }
+
+  @Override
+  public final String dialect()
+  {
+    return this.coreDialect.dialectName();
+  }
+}
@@ -16,48 +16,26 @@
 
 package com.io7m.ironpage.database.core.derby;
 
-import com.io7m.ironpage.database.audit.api.AuditDatabaseQueriesType;
-import com.io7m.ironpage.database.core.api.CDAccountsQueriesType;
-import com.io7m.ironpage.database.core.api.CDLabelsQueriesType;
-import com.io7m.ironpage.database.core.api.CDRolesQueriesType;
-import com.io7m.ironpage.database.pages.api.PagesDatabaseQueriesType;
-import com.io7m.ironpage.database.spi.DatabaseException;
-import com.io7m.ironpage.database.spi.DatabasePartitionProviderAbstract;
+import com.io7m.ironpage.database.pages.api.PagesDatabaseBlobStoreType;
 import com.io7m.ironpage.database.spi.DatabasePartitionProviderType;
-import com.io7m.ironpage.database.spi.DatabaseQueriesContructorCollection;
-import com.io7m.ironpage.database.spi.DatabaseSchemaRevisionType;
-import com.io7m.ironpage.database.spi.DatabaseSchemaRevisionXML;
+import com.io7m.ironpage.database.spi.DatabaseSlowQueryParameters;
 import org.osgi.service.component.annotations.Component;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.IOException;
-import java.math.BigInteger;
-import java.net.URISyntaxException;
-import java.sql.Connection;
-import java.sql.SQLException;
 import java.time.Clock;
-import java.util.NavigableMap;
-import java.util.Objects;
 import java.util.Optional;
-import java.util.TreeMap;
 
-import static com.io7m.ironpage.errors.api.ErrorSeverity.SEVERITY_ERROR;
-import static java.math.BigInteger.ONE;
-import static java.math.BigInteger.ZERO;
-import static java.math.BigInteger.valueOf;
+/**
+ * The core partition for Derby databases.
+ */
 
 @Component(service = DatabasePartitionProviderType.class)
-public final class CoreDatabasePartitionProviderDerby extends DatabasePartitionProviderAbstract
+public final class CoreDatabasePartitionProviderDerby extends CoreDatabasePartitionProvider
 {
   private static final Logger LOG =
     LoggerFactory.getLogger(CoreDatabasePartitionProviderDerby.class);
 
-  // XXX: See org.apache.derby.shared.common.reference.SQLState.LANG_SCHEMA_DOES_NOT_EXIST
-  // These packages are not exported but should be in the future.
-  private static final String LANG_SCHEMA_DOES_NOT_EXIST = "42Y07";
-  private static final String LANG_TABLE_NOT_FOUND = "42X05";
-
   /**
    * Construct a provider.
    */
@@ -76,91 +54,49 @@ public final class CoreDatabasePartitionProviderDerby extends DatabasePartitionP
   public CoreDatabasePartitionProviderDerby(
     final Clock clock)
   {
-    super(
-      clock,
-      new DatabaseQueriesContructorCollection()
-        .put(AuditDatabaseQueriesType.class, CoreAuditQueries::new)
-        .put(CDAccountsQueriesType.class, CoreAccountsQueries::new)
-        .put(CDLabelsQueriesType.class, CoreLabelsQueries::new)
-        .put(CDRolesQueriesType.class, CoreRolesQueries::new)
-        .put(PagesDatabaseQueriesType.class, CorePagesQueries::new)
-    );
+    this(clock, DatabaseSlowQueryParameters.builder().build());
   }
 
-  private static DatabaseSchemaRevisionType loadRevision(
-    final Optional<BigInteger> previous,
-    final BigInteger current)
-    throws DatabaseException
-  {
-    final var path =
-      String.format("/com/io7m/ironpage/database/core/derby/schema-%s.xml", current);
-    final var clazz = CoreDatabasePartitionProviderDerby.class;
-    try (var stream = clazz.getResourceAsStream(path)) {
-      final var url = clazz.getResource(path);
-      return DatabaseSchemaRevisionXML.fromStream(previous, current, url.toURI(), stream);
-    } catch (final IOException | URISyntaxException e) {
-      throw new DatabaseException(SEVERITY_ERROR, e.getLocalizedMessage(), e);
-    }
-  }
+  /**
+   * Construct a provider.
+   *
+   * @param clock       The clock used for time-based queries
+   * @param slowQueries The parameters for the slow query log
+   */
 
-  @Override
-  protected Logger logger()
+  public CoreDatabasePartitionProviderDerby(
+    final Clock clock,
+    final DatabaseSlowQueryParameters slowQueries)
   {
-    return LOG;
+    super(clock, CoreDialect.DERBY, slowQueries, Optional.empty());
   }
 
-  @Override
-  protected String partitionName()
-  {
-    return CoreDatabasePartitionProviderDerby.class.getCanonicalName();
-  }
+  /**
+   * Construct a provider that holds the data of page blobs in the given store, rather than in
+   * the database.
+   *
+   * @param clock       The clock used for time-based queries
+   * @param slowQueries The parameters for the slow query log
+   * @param blobStore   The store of blob data
+   */
 
-  @Override
-  protected Optional<BigInteger> findSchemaVersionActual(
-    final Connection connection)
-    throws DatabaseException
+  public CoreDatabasePartitionProviderDerby(
+    final Clock clock,
+    final DatabaseSlowQueryParameters slowQueries,
+    final PagesDatabaseBlobStoreType blobStore)
   {
-    Objects.requireNonNull(connection, "connection");
-
-    try {
-      try (var statement = connection.prepareStatement(
-        "SELECT version_number FROM accounts.schema_version")) {
-        try (var result = statement.executeQuery()) {
-          if (!result.next()) {
-            throw new SQLException(
-              CoreMessages.localize("errorSchemaVersionTableRow", "core.schema_version"));
-          }
-
-          return Optional.of(valueOf(result.getLong(1)));
-        }
-      }
-    } catch (final SQLException e) {
-      final var state = e.getSQLState();
-      switch (state) {
-        case LANG_SCHEMA_DOES_NOT_EXIST:
-        case LANG_TABLE_NOT_FOUND: {
-          return Optional.empty();
-        }
-        default: {
-          throw new DatabaseException(SEVERITY_ERROR, e.getLocalizedMessage(), e);
-        }
-      }
-    }
+    super(clock, CoreDialect.DERBY, slowQueries, Optional.of(blobStore));
   }
 
   @Override
-  protected NavigableMap<BigInteger, DatabaseSchemaRevisionType> schemaRevisionsActual()
-    throws DatabaseException
+  protected Logger logger()
   {
-    final var revisions = new TreeMap<BigInteger, DatabaseSchemaRevisionType>();
-    revisions.put(ZERO, loadRevision(Optional.empty(), ZERO));
-    revisions.put(ONE, loadRevision(Optional.of(ZERO), ONE));
-    return revisions;
+    return LOG;
   }
 
   @Override
-  public String dialect()
+  protected String partitionName()
   {
-    return "DERBY";
+    return CoreDatabasePartitionProviderDerby.class.getCanonicalName();
   }
 }
@@ -0,0 +1,98 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironpage.database.core.derby;
+
+import org.apache.derby.shared.common.error.DerbySQLIntegrityConstraintViolationException;
+import org.jooq.SQLDialect;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * The SQL dialects built into the core partition. Other modules provide further dialects by
+ * implementing {@link CoreDialectType}.
+ */
+
+enum CoreDialect implements CoreDialectType
+{
+  /**
+   * Apache Derby.
+   */
+
+  DERBY(SQLDialect.DERBY, true) {
+    // XXX: See org.apache.derby.shared.common.reference.SQLState.LANG_SCHEMA_DOES_NOT_EXIST
+    // These packages are not exported but should be in the future.
+
+    @Override
+    public boolean isTableMissing(
+      final SQLException e)
+    {
+      switch (Objects.requireNonNullElse(e.getSQLState(), "")) {
+        case "42Y07":
+        case "42X05": {
+          return true;
+        }
+        default: {
+          return false;
+        }
+      }
+    }
+
+    @Override
+    public Optional<String> constraintName(
+      final Connection connection,
+      final SQLException e)
+    {
+      if (e instanceof DerbySQLIntegrityConstraintViolationException) {
+        return Optional.ofNullable(
+          ((DerbySQLIntegrityConstraintViolationException) e).getConstraintName());
+      }
+      return Optional.empty();
+    }
+  };
+
+  private final SQLDialect jooqDialect;
+  private final boolean capturesPlans;
+
+  CoreDialect(
+    final SQLDialect inJooqDialect,
+    final boolean inCapturesPlans)
+  {
+    this.jooqDialect = inJooqDialect;
+    this.capturesPlans = inCapturesPlans;
+  }
+
+  @Override
+  public String dialectName()
+  {
+    return this.name();
+  }
+
+  @Override
+  public SQLDialect jooqDialect()
+  {
+    return this.jooqDialect;
+  }
+
+  @Override
+  public boolean capturesPlans()
+  {
+    return this.capturesPlans;
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.ironpage.database.core.derby;
+
+import org.jooq.SQLDialect;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * An SQL dialect supported by the core partition. The schema and queries are shared by all
+ * dialects; a dialect describes only how the database reports errors, and which diagnostic
+ * facilities it offers.
+ */
+
+public interface CoreDialectType
+{
+  /**
+   * @return The name of the dialect, used to find partition providers for a database
+   */
+
+  String dialectName();
+
+  /**
+   * @return The jOOQ dialect used to render queries
+   */
+
+  SQLDialect jooqDialect();
+
+  /**
+   * @return {@code true} if the database can report the execution plans of slow queries
+   */
+
+  boolean capturesPlans();
+
+  /**
+   * @param e An exception raised by a query
+   *
+   * @return {@code true} if the exception indicates that a table or schema does not exist
+   */
+
+  boolean isTableMissing(SQLException e);
+
+  /**
+   * Determine the name of the constraint violated by a statement.
+   *
+   * @param connection The connection on which the statement was executed
+   * @param e          An exception raised by the statement
+   *
+   * @return The name of the constraint, if the exception was an integrity violation
+   */
+
+  Optional<String> constraintName(
+    Connection connection,
+    SQLException e);
+
+  /**
+   * Determine the name of the constraint violated by a statement. The causes of the given
+   * exception are searched, because both jOOQ and batched statements wrap the original
+   * exception.
+   *
+   * @param connection The connection on which the statement was executed
+   * @param e          An exception raised by the statement
+   *
+   * @return The name of the constraint, if the exception was caused by an integrity violation
+   */
+
+  default Optional<String> constraintNameOf(
+    final Connection connection,
+    final Throwable e)
+  {
+    Objects.requireNonNull(connection, "connection");
+    Objects.requireNonNull(e, "e");
+
+    final var seen = new HashSet<Throwable>(4);
+    var current = e;
+    while (current != null && seen.add(current)) {
+      if (current instanceof SQLException) {
+        final var name = this.constraintName(connection, (SQLException) current);
+        if (name.isPresent()) {
+          LoggerFactory.getLogger(CoreDialectType.class)
+            .trace("constraint violated: {}", name.get());
+          return name;
+        }
+      }
+      current = current.getCause();
+    }
+    return Optional.empty();
+  }
+}
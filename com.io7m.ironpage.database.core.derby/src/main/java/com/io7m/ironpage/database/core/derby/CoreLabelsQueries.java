@@ -24,16 +24,12 @@ import com.io7m.ironpage.database.core.api.CDSecurityLabelUpdated;
 import com.io7m.ironpage.database.spi.DatabaseEventType;
 import com.io7m.ironpage.presentable.api.PresentableAttributes;
 import io.reactivex.rxjava3.subjects.Subject;
-import org.apache.derby.shared.common.error.DerbySQLIntegrityConstraintViolationException;
 import org.jooq.DSLContext;
 import org.jooq.Record3;
-import org.jooq.SQLDialect;
-import org.jooq.conf.RenderNameStyle;
-import org.jooq.conf.Settings;
 import org.jooq.exception.DataAccessException;
-import org.jooq.impl.DSL;
 
 import java.sql.Connection;
+import java.sql.SQLException;
 import java.time.Clock;
 import java.util.Objects;
 import java.util.Optional;
@@ -41,29 +37,34 @@ import java.util.stream.Stream;
 
 import static com.io7m.ironpage.errors.api.ErrorSeverity.SEVERITY_ERROR;
 
-final class CoreLabelsQueries implements CDLabelsQueriesType
+final class CoreLabelsQueries implements CDLabelsQueriesType, AutoCloseable
 {
   private final DSLContext dslContext;
   private final Subject<DatabaseEventType> events;
+  private final Connection connection;
+  private final CoreDialectType dialect;
+  private final CoreStatementCache statements;
 
   CoreLabelsQueries(
     final Clock inClock,
     final Subject<DatabaseEventType> inEvents,
-    final Connection inConnection)
+    final Connection inConnection,
+    final CoreDSLContexts inContexts)
   {
     this.events = Objects.requireNonNull(inEvents, "events");
-    final var connection = Objects.requireNonNull(inConnection, "connection");
-    final var settings = new Settings().withRenderNameStyle(RenderNameStyle.AS_IS);
-    this.dslContext = DSL.using(connection, SQLDialect.DERBY, settings);
+    this.connection = Objects.requireNonNull(inConnection, "connection");
+    this.dialect = inContexts.dialect();
+    this.dslContext = inContexts.create(inConnection);
+    this.statements = inContexts.statements(inConnection);
   }
 
-  private static CDException handleUpdateException(
+  private CDException handleUpdateException(
     final String name,
     final Exception e)
   {
-    final var cause = e.getCause();
-    if (cause instanceof DerbySQLIntegrityConstraintViolationException) {
-      switch (((DerbySQLIntegrityConstraintViolationException) cause).getConstraintName()) {
+    final var constraint = this.dialect.constraintNameOf(this.connection, e);
+    if (constraint.isPresent()) {
+      switch (constraint.get()) {
         case "LABEL_NAME_UNIQUE": {
           return new CDException(
             SEVERITY_ERROR,
@@ -116,7 +117,7 @@ final class CoreLabelsQueries implements CDLabelsQueriesType
              .set(CoreTables.FIELD_LABEL_DESCRIPTION, description)) {
       query.execute();
     } catch (final DataAccessException e) {
-      throw handleUpdateException(name, e);
+      throw this.handleUpdateException(name, e);
     }
 
     final var dto = this.labelGetForName(name).get();
@@ -129,19 +130,22 @@ final class CoreLabelsQueries implements CDLabelsQueriesType
     final long id)
     throws CDException
   {
-    try (var query =
-           this.dslContext.select(
-             CoreTables.FIELD_LABEL_ID,
-             CoreTables.FIELD_LABEL_NAME,
-             CoreTables.FIELD_LABEL_DESCRIPTION)
-             .from(CoreTables.TABLE_LABELS)
-             .where(CoreTables.FIELD_LABEL_ID.eq(Long.valueOf(id)))) {
-      final var rows = query.fetch();
-      if (rows.size() != 1) {
-        return Optional.empty();
-      }
-      return Optional.of(labelFromRecord(rows.get(0)));
-    } catch (final DataAccessException e) {
+    try {
+      final var query = this.statements.prepare(CoreStatements.LABEL_GET);
+      query.setLong(1, id);
+
+      return this.statements.executeQuery(query, result -> {
+        if (!result.next()) {
+          return Optional.empty();
+        }
+        return Optional.of(
+          CDSecurityLabelDTO.builder()
+            .setId(result.getLong(1))
+            .setName(result.getString(2))
+            .setDescription(result.getString(3))
+            .build());
+      });
+    } catch (final SQLException e) {
       throw genericDatabaseException(e);
     }
   }
@@ -160,7 +164,8 @@ final class CoreLabelsQueries implements CDLabelsQueriesType
              CoreTables.FIELD_LABEL_DESCRIPTION)
              .from(CoreTables.TABLE_LABELS)
              .where(CoreTables.FIELD_LABEL_NAME.eq(name))) {
-      return Optional.of(labelFromRecord(query.fetchOne()));
+      return Optional.ofNullable(query.fetchOne())
+        .map(CoreLabelsQueries::labelFromRecord);
     } catch (final DataAccessException e) {
       throw genericDatabaseException(e);
     }
@@ -193,7 +198,7 @@ final class CoreLabelsQueries implements CDLabelsQueriesType
       this.events.onNext(CDSecurityLabelUpdated.of(label));
       return label;
     } catch (final DataAccessException e) {
-      throw handleUpdateException(label.name(), e);
+      throw this.handleUpdateException(label.name(), e);
     }
   }
 
@@ -214,4 +219,11 @@ final class CoreLabelsQueries implements CDLabelsQueriesType
       throw genericDatabaseException(e);
     }
   }
+
+  @Override
+  public void close()
+    throws SQLException
+  {
+    this.statements.close();
+  }
 }
@@ -21,31 +21,44 @@ import com.io7m.ironpage.database.core.api.CDLabelsQueriesType;
 import com.io7m.ironpage.database.core.api.CDSecurityLabelDTO;
 import com.io7m.ironpage.database.pages.api.PagesDatabaseBlobCreated;
 import com.io7m.ironpage.database.pages.api.PagesDatabaseBlobDTO;
+import com.io7m.ironpage.database.pages.api.PagesDatabaseBlobMetadata;
 import com.io7m.ironpage.database.pages.api.PagesDatabaseBlobRedacted;
+import com.io7m.ironpage.database.pages.api.PagesDatabaseBlobStoreType;
+import com.io7m.ironpage.database.pages.api.PagesDatabaseBlobStoreWriteType;
 import com.io7m.ironpage.database.pages.api.PagesDatabaseQueriesType;
 import com.io7m.ironpage.database.pages.api.PagesDatabaseRedactionDTO;
 import com.io7m.ironpage.database.spi.DatabaseEventType;
 import com.io7m.ironpage.database.spi.DatabaseException;
+import com.io7m.ironpage.database.spi.DatabaseTransactionListenerType;
 import com.io7m.ironpage.errors.api.ErrorSeverity;
 import com.io7m.ironpage.presentable.api.PresentableAttributes;
 import io.reactivex.rxjava3.subjects.Subject;
 import org.apache.commons.codec.binary.Hex;
-import org.apache.derby.shared.common.error.DerbySQLIntegrityConstraintViolationException;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.jooq.DSLContext;
-import org.jooq.Record4;
-import org.jooq.Record8;
-import org.jooq.SQLDialect;
-import org.jooq.conf.RenderNameStyle;
-import org.jooq.conf.Settings;
 import org.jooq.exception.DataAccessException;
-import org.jooq.impl.DSL;
-
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.security.DigestInputStream;
+import java.sql.Blob;
 import java.sql.Connection;
 import java.sql.SQLDataException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.UUID;
@@ -53,57 +66,52 @@ import java.util.UUID;
 import static com.io7m.ironpage.database.audit.api.AuditEventKind.BLOB_CREATED;
 import static com.io7m.ironpage.database.audit.api.AuditEventKind.BLOB_REDACTED;
 
-final class CorePagesQueries implements PagesDatabaseQueriesType
+/**
+ * The events published by a transaction, and the writes and deletions that it makes in an external
+ * blob store, are held until the transaction ends: they are applied, in order, once the
+ * transaction has committed, and discarded if it rolls back. Observers therefore never see a
+ * change that is later rolled back, and reads within the transaction see the data it has written
+ * but not yet committed to the store.
+ */
+
+final class CorePagesQueries
+  implements PagesDatabaseQueriesType, DatabaseTransactionListenerType, AutoCloseable
 {
+  private static final Logger LOG = LoggerFactory.getLogger(CorePagesQueries.class);
+
   private final DSLContext dslContext;
-  private final CoreAuditQueries audit;
   private final Clock clock;
   private final Subject<DatabaseEventType> events;
+  private final CoreStatementCache statements;
+  private final Connection connection;
+  private final CoreDialectType dialect;
+  private final Optional<PagesDatabaseBlobStoreType> store;
+  private final List<Pending> pending;
+  private CoreAuditQueries audit;
 
   CorePagesQueries(
     final Clock inClock,
     final Subject<DatabaseEventType> inEvents,
-    final Connection inConnection)
+    final Connection inConnection,
+    final CoreDSLContexts inContexts,
+    final Optional<PagesDatabaseBlobStoreType> inStore)
   {
+    this.store = Objects.requireNonNull(inStore, "inStore");
+    this.pending = new ArrayList<>(8);
     this.clock = Objects.requireNonNull(inClock, "inClock");
     this.events = Objects.requireNonNull(inEvents, "inEvents");
-    final var connection = Objects.requireNonNull(inConnection, "connection");
-    final var settings = new Settings().withRenderNameStyle(RenderNameStyle.AS_IS);
-    this.dslContext = DSL.using(connection, SQLDialect.DERBY, settings);
-    this.audit = new CoreAuditQueries(this.clock, inEvents, connection);
+    this.connection = Objects.requireNonNull(inConnection, "inConnection");
+    this.dialect = inContexts.dialect();
+    this.dslContext = inContexts.create(inConnection);
+    this.statements = inContexts.statements(inConnection);
   }
 
-  private static PagesDatabaseRedactionDTO redactionFromRecord(
-    final Record4<Long, String, Timestamp, UUID> redactionRecord)
+  private CoreAuditQueries audit()
   {
-    return PagesDatabaseRedactionDTO.builder()
-      .setId(redactionRecord.getValue(CoreTables.FIELD_REDACTION_ID).longValue())
-      .setOwner(redactionRecord.getValue(CoreTables.FIELD_REDACTION_USER_ID))
-      .setTime(redactionRecord.getValue(CoreTables.FIELD_REDACTION_TIME).toInstant())
-      .setReason(redactionRecord.getValue(CoreTables.FIELD_REDACTION_REASON))
-      .build();
-  }
-
-  private static Optional<PagesDatabaseBlobDTO> dataFromRecord(
-    final Record8<String, String, byte[], UUID, Long, Long, String, String> record,
-    final Optional<PagesDatabaseRedactionDTO> redaction)
-  {
-    final var label =
-      CDSecurityLabelDTO.builder()
-        .setId(record.<Long>getValue(CoreTables.FIELD_LABEL_ID).longValue())
-        .setName(record.getValue(CoreTables.FIELD_LABEL_NAME))
-        .setDescription(record.getValue(CoreTables.FIELD_LABEL_DESCRIPTION))
-        .build();
-
-    return Optional.of(
-      PagesDatabaseBlobDTO.builder()
-        .setId(record.get(CoreTables.FIELD_BLOB_ID))
-        .setMediaType(record.get(CoreTables.FIELD_BLOB_MEDIA_TYPE))
-        .setRedaction(redaction)
-        .setData(record.get(CoreTables.FIELD_BLOB_DATA))
-        .setOwner(record.get(CoreTables.FIELD_BLOB_OWNER))
-        .setSecurityLabel(label)
-        .build());
+    if (this.audit == null) {
+      this.audit = new CoreAuditQueries(this.clock, this.dslContext);
+    }
+    return this.audit;
   }
 
   private static CDException genericDatabaseException(
@@ -129,13 +137,7 @@ final class CorePagesQueries implements PagesDatabaseQueriesType
 
   private static String hashOf(final byte[] data)
   {
-    final MessageDigest digest;
-    try {
-      digest = MessageDigest.getInstance("SHA-256");
-    } catch (final NoSuchAlgorithmException e) {
-      throw new IllegalStateException(e);
-    }
-    return Hex.encodeHexString(digest.digest(data), true);
+    return Hex.encodeHexString(DigestUtils.sha256(data), true);
   }
 
   @Override
@@ -151,6 +153,11 @@ final class CorePagesQueries implements PagesDatabaseQueriesType
     Objects.requireNonNull(data, "data");
     Objects.requireNonNull(securityLabel, "securityLabel");
 
+    if (this.store.isPresent()) {
+      return this.pageBlobPutStored(
+        this.store.get(), owner, mediaType, new ByteArrayInputStream(data), securityLabel);
+    }
+
     final var hash = hashOf(data);
     this.checkBlobDoesNotExist(hash);
 
@@ -158,70 +165,220 @@ final class CorePagesQueries implements PagesDatabaseQueriesType
            this.dslContext.insertInto(CoreTables.TABLE_BLOBS)
              .set(CoreTables.FIELD_BLOB_ID, hash)
              .set(CoreTables.FIELD_BLOB_DATA, data)
+             .set(CoreTables.FIELD_BLOB_SIZE, Long.valueOf(data.length))
              .set(CoreTables.FIELD_BLOB_MEDIA_TYPE, mediaType)
              .set(CoreTables.FIELD_BLOB_OWNER, owner)
              .set(CoreTables.FIELD_BLOB_SECURITY_LABEL, Long.valueOf(securityLabel.id()))
              .set(CoreTables.FIELD_BLOB_REDACTION, (Long) null)) {
       query.execute();
     } catch (final DataAccessException e) {
+      throw this.blobInsertFailed(e, owner, securityLabel);
+    }
 
-      /*
-       * An integrity violation exception will be raised if the blob refers to a user that
-       * does not exist.
-       */
-
-      final var cause = e.getCause();
-      if (cause instanceof DerbySQLIntegrityConstraintViolationException) {
-        final var integrity = (DerbySQLIntegrityConstraintViolationException) cause;
-        switch (integrity.getConstraintName()) {
-          case "BLOB_OWNER_REFERENCE": {
-            throw new CDException(
-              ErrorSeverity.SEVERITY_ERROR,
-              PagesDatabaseQueriesType.DATA_OWNER_NONEXISTENT,
-              CoreMessages.localize("errorPageDataOwnerNonexistent"),
-              e,
-              PresentableAttributes.one(CoreMessages.localize("userID"), owner.toString()));
-          }
-          case "BLOB_LABEL_REFERENCE": {
-            throw new CDException(
-              ErrorSeverity.SEVERITY_ERROR,
-              CDLabelsQueriesType.LABEL_NONEXISTENT,
-              CoreMessages.localize("errorLabelNonexistent"),
-              e,
-              PresentableAttributes.one(
-                CoreMessages.localize("labelID"),
-                Long.toString(securityLabel.id())));
-          }
-          default: {
-            break;
-          }
+    this.blobCreated(owner, hash, securityLabel, Optional.empty());
+    return hash;
+  }
+
+  private CDException blobInsertFailed(
+    final Exception e,
+    final UUID owner,
+    final CDSecurityLabelDTO securityLabel)
+  {
+    /*
+     * An integrity violation exception will be raised if the blob refers to a user that
+     * does not exist.
+     */
+
+    final var constraint = this.dialect.constraintNameOf(this.connection, e);
+    if (constraint.isPresent()) {
+      switch (constraint.get()) {
+        case "BLOB_OWNER_REFERENCE": {
+          return new CDException(
+            ErrorSeverity.SEVERITY_ERROR,
+            PagesDatabaseQueriesType.DATA_OWNER_NONEXISTENT,
+            CoreMessages.localize("errorPageDataOwnerNonexistent"),
+            e,
+            PresentableAttributes.one(CoreMessages.localize("userID"), owner.toString()));
+        }
+        case "BLOB_LABEL_REFERENCE": {
+          return new CDException(
+            ErrorSeverity.SEVERITY_ERROR,
+            CDLabelsQueriesType.LABEL_NONEXISTENT,
+            CoreMessages.localize("errorLabelNonexistent"),
+            e,
+            PresentableAttributes.one(
+              CoreMessages.localize("labelID"),
+              Long.toString(securityLabel.id())));
+        }
+        default: {
+          break;
         }
       }
+    }
 
-      /*
-       * A truncation error will occur if the blob is too long.
-       */
-
-      if (cause instanceof SQLDataException) {
-        final var dataCause = (SQLDataException) cause;
-        if ("22001".equals(dataCause.getSQLState())) {
-          throw new CDException(
-            PagesDatabaseQueriesType.DATA_INVALID,
-            CoreMessages.localize("errorPageDataInvalid"),
-            e);
-        }
+    /*
+     * A truncation error will occur if the blob is too long.
+     */
+
+    final var cause = e instanceof SQLDataException ? e : e.getCause();
+    if (cause instanceof SQLDataException) {
+      final var dataCause = (SQLDataException) cause;
+      if ("22001".equals(dataCause.getSQLState())) {
+        return new CDException(
+          PagesDatabaseQueriesType.DATA_INVALID,
+          CoreMessages.localize("errorPageDataInvalid"),
+          e);
       }
-      throw genericDatabaseException(e);
     }
+    return genericDatabaseException(e);
+  }
 
+  private void blobCreated(
+    final UUID owner,
+    final String hash,
+    final CDSecurityLabelDTO securityLabel,
+    final Optional<PagesDatabaseBlobStoreWriteType> write)
+    throws CDException
+  {
     try {
-      this.audit.auditEventLog(BLOB_CREATED, owner, hash, securityLabel.name(), "");
+      this.audit().auditEventLog(BLOB_CREATED, owner, hash, securityLabel.name(), "");
     } catch (final Exception e) {
       throw genericDatabaseException(e);
     }
 
-    this.events.onNext(PagesDatabaseBlobCreated.of(hash));
-    return hash;
+    this.pending.add(new Pending(hash, PagesDatabaseBlobCreated.of(hash), write, false));
+  }
+
+  /**
+   * The data is copied into a {@link Blob} created by the connection, rather than being bound
+   * to the insert as a stream, so that the hash, which is the primary key of the blob, is known
+   * before the row is inserted. The database spools the contents of large blobs to temporary
+   * files.
+   */
+
+  @Override
+  public String pageBlobPutStream(
+    final UUID owner,
+    final String mediaType,
+    final InputStream data,
+    final CDSecurityLabelDTO securityLabel)
+    throws CDException
+  {
+    Objects.requireNonNull(owner, "owner");
+    Objects.requireNonNull(mediaType, "mediaType");
+    Objects.requireNonNull(data, "data");
+    Objects.requireNonNull(securityLabel, "securityLabel");
+
+    if (this.store.isPresent()) {
+      return this.pageBlobPutStored(this.store.get(), owner, mediaType, data, securityLabel);
+    }
+
+    final Blob blob;
+    try {
+      blob = this.connection.createBlob();
+    } catch (final SQLException e) {
+      throw genericDatabaseException(e);
+    }
+
+    try {
+      final var digest = DigestUtils.getSha256Digest();
+      final long size;
+      try (var output = blob.setBinaryStream(1L)) {
+        size = new DigestInputStream(data, digest).transferTo(output);
+      } catch (final IOException e) {
+        throw streamFailed(e);
+      }
+
+      final var hash = Hex.encodeHexString(digest.digest(), true);
+      this.checkBlobDoesNotExist(hash);
+
+      try {
+        final var query = this.statements.prepare(CoreStatements.BLOB_PUT);
+        query.setString(1, hash);
+        query.setBlob(2, blob);
+        query.setLong(3, size);
+        query.setString(4, mediaType);
+        query.setString(5, owner.toString());
+        query.setLong(6, securityLabel.id());
+        this.statements.executeUpdate(query);
+      } catch (final SQLException e) {
+        throw this.blobInsertFailed(e, owner, securityLabel);
+      }
+
+      this.blobCreated(owner, hash, securityLabel, Optional.empty());
+      return hash;
+    } catch (final SQLException e) {
+      throw genericDatabaseException(e);
+    } finally {
+      freeBlob(blob);
+    }
+  }
+
+  /**
+   * The data of a blob in an external store is written before the row is inserted, so that the
+   * hash is known, but is only made visible in the store once the transaction that inserted the
+   * row has committed. The row holds an empty array in place of the data.
+   */
+
+  private String pageBlobPutStored(
+    final PagesDatabaseBlobStoreType blobStore,
+    final UUID owner,
+    final String mediaType,
+    final InputStream data,
+    final CDSecurityLabelDTO securityLabel)
+    throws CDException
+  {
+    final PagesDatabaseBlobStoreWriteType write;
+    try {
+      write = blobStore.write(data);
+    } catch (final IOException e) {
+      throw streamFailed(e);
+    }
+
+    try {
+      final var hash = write.id();
+      this.checkBlobDoesNotExist(hash);
+
+      try (var query =
+             this.dslContext.insertInto(CoreTables.TABLE_BLOBS)
+               .set(CoreTables.FIELD_BLOB_ID, hash)
+               .set(CoreTables.FIELD_BLOB_DATA, new byte[0])
+               .set(CoreTables.FIELD_BLOB_SIZE, Long.valueOf(write.size()))
+               .set(CoreTables.FIELD_BLOB_MEDIA_TYPE, mediaType)
+               .set(CoreTables.FIELD_BLOB_OWNER, owner)
+               .set(CoreTables.FIELD_BLOB_SECURITY_LABEL, Long.valueOf(securityLabel.id()))
+               .set(CoreTables.FIELD_BLOB_REDACTION, (Long) null)) {
+        query.execute();
+      } catch (final DataAccessException e) {
+        throw this.blobInsertFailed(e, owner, securityLabel);
+      }
+
+      this.blobCreated(owner, hash, securityLabel, Optional.of(write));
+      return hash;
+    } catch (final CDException | RuntimeException e) {
+      storeDiscard(write);
+      throw e;
+    }
+  }
+
+  private static void freeBlob(
+    final Blob blob)
+  {
+    try {
+      blob.free();
+    } catch (final SQLException e) {
+      LOG.debug("could not free blob: ", e);
+    }
+  }
+
+  private static CDException streamFailed(
+    final IOException e)
+  {
+    return new CDException(
+      ErrorSeverity.SEVERITY_ERROR,
+      PagesDatabaseQueriesType.DATA_STREAM_FAILED,
+      CoreMessages.localize("errorPageDataStream", e.getLocalizedMessage()),
+      e);
   }
 
   private void checkBlobDoesNotExist(
@@ -252,62 +409,335 @@ final class CorePagesQueries implements PagesDatabaseQueriesType
     final String id)
     throws CDException
   {
-    Objects.requireNonNull(id, "id");
+    return this.pageBlobMetadataGet(id).map(this::blobOf);
+  }
 
-    try (var blobQuery =
-           this.dslContext.select(
-             CoreTables.FIELD_BLOB_ID,
-             CoreTables.FIELD_BLOB_MEDIA_TYPE,
-             CoreTables.FIELD_BLOB_DATA,
-             CoreTables.FIELD_BLOB_OWNER,
-             CoreTables.FIELD_BLOB_REDACTION,
-             CoreTables.FIELD_LABEL_ID,
-             CoreTables.FIELD_LABEL_NAME,
-             CoreTables.FIELD_LABEL_DESCRIPTION)
-             .from(CoreTables.TABLE_BLOBS)
-             .join(CoreTables.TABLE_LABELS)
-             .on(CoreTables.FIELD_LABEL_ID.eq(CoreTables.FIELD_BLOB_SECURITY_LABEL))
-             .where(CoreTables.FIELD_BLOB_ID.eq(id))
-             .limit(1)) {
-      final var blobResults = blobQuery.fetch();
-      if (blobResults.isEmpty()) {
-        return Optional.empty();
+  /**
+   * The IDs are bound in fixed-size batches so that every batch is executed with the same cached
+   * statement; see {@link CoreStatements#BLOB_METADATA_GET_ALL}.
+   */
+
+  @Override
+  public Map<String, PagesDatabaseBlobDTO> pageBlobGetAll(
+    final Collection<String> ids)
+    throws CDException
+  {
+    Objects.requireNonNull(ids, "ids");
+
+    final var distinct = List.copyOf(new LinkedHashSet<>(ids));
+    final var blobs = new HashMap<String, PagesDatabaseBlobDTO>(distinct.size());
+    final var batchSize = CoreStatements.BLOB_METADATA_GET_ALL_BATCH;
+
+    try {
+      for (var start = 0; start < distinct.size(); start += batchSize) {
+        final var batch = distinct.subList(start, Math.min(start + batchSize, distinct.size()));
+        final var blobQuery = this.statements.prepare(CoreStatements.BLOB_METADATA_GET_ALL);
+        for (var index = 0; index < batchSize; ++index) {
+          blobQuery.setString(index + 1, batch.get(Math.min(index, batch.size() - 1)));
+        }
+
+        this.statements.executeQuery(blobQuery, blobResult -> {
+          while (blobResult.next()) {
+            final var metadata = metadataOf(blobResult);
+            blobs.put(metadata.id(), this.blobOf(metadata));
+          }
+          return blobs;
+        });
       }
+      return blobs;
+    } catch (final SQLException e) {
+      throw genericDatabaseException(e);
+    }
+  }
 
-      final var blobRecord = blobResults.get(0);
-      final var blobRedaction =
-        Optional.ofNullable(blobRecord.getValue(CoreTables.FIELD_BLOB_REDACTION));
+  private PagesDatabaseBlobDTO blobOf(
+    final PagesDatabaseBlobMetadata metadata)
+  {
+    return PagesDatabaseBlobDTO.builder()
+      .setId(metadata.id())
+      .setMediaType(metadata.mediaType())
+      .setRedaction(metadata.redaction())
+      .setSize(metadata.size())
+      .setData(() -> this.pageBlobData(metadata.id()))
+      .setOwner(metadata.owner())
+      .setSecurityLabel(metadata.securityLabel())
+      .build();
+  }
 
-      return dataFromRecord(blobRecord, this.fetchRedactionOptionally(blobRedaction));
-    } catch (final DataAccessException e) {
+  private byte[] pageBlobData(
+    final String id)
+    throws CDException
+  {
+    if (this.store.isPresent()) {
+      try {
+        final var input = this.storeRead(this.store.get(), id);
+        if (input.isPresent()) {
+          try (var stream = input.get()) {
+            return stream.readAllBytes();
+          }
+        }
+      } catch (final IOException e) {
+        throw streamFailed(e);
+      }
+    }
+
+    try {
+      final var dataQuery = this.statements.prepare(CoreStatements.BLOB_DATA_GET);
+      dataQuery.setString(1, id);
+
+      return this.statements.executeQuery(dataQuery, dataResult -> {
+        if (!dataResult.next()) {
+          throw dataNonexistent(id);
+        }
+        final var data = dataResult.getBytes(1);
+        checkDataPresent(id, data.length, dataResult.getLong(2));
+        return data;
+      });
+    } catch (final SQLException e) {
       throw genericDatabaseException(e);
     }
   }
 
-  private Optional<PagesDatabaseRedactionDTO> fetchRedactionOptionally(
-    final Optional<Long> id)
+  private static CDException dataNonexistent(
+    final String id)
   {
-    if (id.isEmpty()) {
-      return Optional.empty();
+    return new CDException(
+      ErrorSeverity.SEVERITY_ERROR,
+      PagesDatabaseQueriesType.DATA_NONEXISTENT,
+      CoreMessages.localize("errorPageDataNonexistent"),
+      null,
+      PresentableAttributes.one(CoreMessages.localize("dataHash"), id));
+  }
+
+  /**
+   * A row that holds no data but records a nonzero size belongs to a blob whose data should be
+   * held in the external store. If the store does not hold the data, then the data has been lost,
+   * and is reported as nonexistent rather than being read as empty.
+   */
+
+  private static void checkDataPresent(
+    final String id,
+    final long sizeRead,
+    final long sizeExpected)
+    throws CDException
+  {
+    if (sizeRead == 0L && sizeExpected > 0L) {
+      throw dataNonexistent(id);
+    }
+  }
+
+  /**
+   * Open the data of a blob in the external store, preferring any write or deletion of the blob
+   * held by the current transaction.
+   */
+
+  private Optional<InputStream> storeRead(
+    final PagesDatabaseBlobStoreType blobStore,
+    final String id)
+    throws IOException
+  {
+    final var change = this.storeChangePending(id);
+    if (change.isPresent()) {
+      return change.get().read();
+    }
+    return blobStore.read(id);
+  }
+
+  /**
+   * @return The latest write or deletion of the given blob held by the current transaction
+   */
+
+  private Optional<Pending> storeChangePending(
+    final String id)
+  {
+    for (var index = this.pending.size() - 1; index >= 0; --index) {
+      final var change = this.pending.get(index);
+      if (change.id.equals(id) && change.changesStore()) {
+        return Optional.of(change);
+      }
+    }
+    return Optional.empty();
+  }
+
+  @Override
+  public Optional<PagesDatabaseBlobMetadata> pageBlobMetadataGet(
+    final String id)
+    throws CDException
+  {
+    Objects.requireNonNull(id, "id");
+
+    try {
+      final var blobQuery = this.statements.prepare(CoreStatements.BLOB_METADATA_GET);
+      blobQuery.setString(1, id);
+
+      return this.statements.executeQuery(blobQuery, blobResult -> {
+        if (!blobResult.next()) {
+          return Optional.empty();
+        }
+        return Optional.of(metadataOf(blobResult));
+      });
+    } catch (final SQLException e) {
+      throw genericDatabaseException(e);
+    }
+  }
+
+  /**
+   * The blob data is read through {@link Blob#getBinaryStream()}, which the database serves from
+   * the stored blob in pages rather than materializing the whole blob.
+   */
+
+  @Override
+  public Optional<PagesDatabaseBlobMetadata> pageBlobGetStream(
+    final String id,
+    final OutputStream output)
+    throws CDException
+  {
+    Objects.requireNonNull(id, "id");
+    Objects.requireNonNull(output, "output");
+
+    if (this.store.isPresent()) {
+      return this.pageBlobGetStreamStored(this.store.get(), id, output);
+    }
+    return this.pageBlobGetStreamDatabase(id, output);
+  }
+
+  /**
+   * Data that the current transaction has written is read back from the pending write. Data held
+   * in the store is copied with {@link PagesDatabaseBlobStoreType#transferTo}. Blobs written
+   * before the store was configured are read from the database.
+   */
+
+  private Optional<PagesDatabaseBlobMetadata> pageBlobGetStreamStored(
+    final PagesDatabaseBlobStoreType blobStore,
+    final String id,
+    final OutputStream output)
+    throws CDException
+  {
+    final var metadataOpt = this.pageBlobMetadataGet(id);
+    if (metadataOpt.isEmpty()) {
+      return metadataOpt;
+    }
+
+    final var metadata = metadataOpt.get();
+    try {
+      final var change = this.storeChangePending(id);
+      if (change.isPresent()) {
+        final var input = change.get().read();
+        if (input.isPresent()) {
+          try (var stream = input.get()) {
+            stream.transferTo(output);
+          }
+          return metadataOpt;
+        }
+      } else if (blobStore.transferTo(id, Channels.newChannel(output)).isPresent()) {
+        return metadataOpt;
+      }
+    } catch (final IOException e) {
+      throw streamFailed(e);
+    }
+
+    final var streamed = this.pageBlobGetStreamDatabase(id, output);
+    if (streamed.isPresent()) {
+      checkDataPresent(id, streamed.get().size(), metadata.size());
+    }
+    return streamed;
+  }
+
+  private Optional<PagesDatabaseBlobMetadata> pageBlobGetStreamDatabase(
+    final String id,
+    final OutputStream output)
+    throws CDException
+  {
+    try {
+      final var blobQuery = this.statements.prepare(CoreStatements.BLOB_GET);
+      blobQuery.setString(1, id);
+
+      return this.statements.executeQuery(blobQuery, blobResult -> {
+        if (!blobResult.next()) {
+          return Optional.empty();
+        }
+
+        final var blob = blobResult.getBlob(3);
+        final long size;
+        try (var input = blob.getBinaryStream()) {
+          size = input.transferTo(output);
+        } catch (final IOException e) {
+          throw streamFailed(e);
+        } finally {
+          freeBlob(blob);
+        }
+
+        return Optional.of(
+          PagesDatabaseBlobMetadata.builder()
+            .setId(blobResult.getString(1))
+            .setMediaType(blobResult.getString(2))
+            .setRedaction(redactionOf(blobResult))
+            .setSize(size)
+            .setOwner(UUID.fromString(blobResult.getString(4)))
+            .setSecurityLabel(labelOf(blobResult))
+            .build());
+      });
+    } catch (final SQLException e) {
+      throw genericDatabaseException(e);
     }
-    return this.fetchRedaction(id.get());
   }
 
-  private Optional<PagesDatabaseRedactionDTO> fetchRedaction(
-    final Long id)
+  /**
+   * @return The security label of a row returned by {@link CoreStatements#BLOB_GET} or one of the
+   * blob metadata statements
+   */
+
+  private static CDSecurityLabelDTO labelOf(
+    final ResultSet blobResult)
+    throws SQLException
   {
-    try (var redactionQuery =
-           this.dslContext.select(
-             CoreTables.FIELD_REDACTION_ID,
-             CoreTables.FIELD_REDACTION_REASON,
-             CoreTables.FIELD_REDACTION_TIME,
-             CoreTables.FIELD_REDACTION_USER_ID)
-             .from(CoreTables.TABLE_REDACTIONS)
-             .where(CoreTables.FIELD_REDACTION_ID.eq(id))) {
+    return CDSecurityLabelDTO.builder()
+      .setId(blobResult.getLong(6))
+      .setName(blobResult.getString(7))
+      .setDescription(blobResult.getString(8))
+      .build();
+  }
 
-      final var redactionRecord = redactionQuery.fetchOne();
-      return Optional.of(redactionFromRecord(redactionRecord));
+  /**
+   * @return The metadata of a row returned by {@link CoreStatements#BLOB_METADATA_GET} or
+   * {@link CoreStatements#BLOB_METADATA_GET_ALL}
+   */
+
+  private static PagesDatabaseBlobMetadata metadataOf(
+    final ResultSet blobResult)
+    throws SQLException
+  {
+    return PagesDatabaseBlobMetadata.builder()
+      .setId(blobResult.getString(1))
+      .setMediaType(blobResult.getString(2))
+      .setRedaction(redactionOf(blobResult))
+      .setSize(blobResult.getLong(3))
+      .setOwner(UUID.fromString(blobResult.getString(4)))
+      .setSecurityLabel(labelOf(blobResult))
+      .build();
+  }
+
+  /**
+   * @return The redaction of a row returned by {@link CoreStatements#BLOB_GET} or one of the blob
+   * metadata statements, which join the redaction of the blob, if any
+   */
+
+  private static Optional<PagesDatabaseRedactionDTO> redactionOf(
+    final ResultSet blobResult)
+    throws SQLException
+  {
+    final var redactionId = blobResult.getLong(5);
+    if (blobResult.wasNull()) {
+      return Optional.empty();
     }
+
+    return Optional.of(
+      PagesDatabaseRedactionDTO.builder()
+        .setId(redactionId)
+        .setReason(blobResult.getString(9))
+        .setTime(blobResult.getTimestamp(10).toInstant())
+        .setOwner(UUID.fromString(blobResult.getString(11)))
+        .build());
   }
 
   @Override
@@ -361,7 +791,7 @@ final class CorePagesQueries implements PagesDatabaseQueriesType
     }
 
     try {
-      this.audit.auditEventLog(BLOB_REDACTED, caller, id, String.valueOf(redaction), "");
+      this.audit().auditEventLog(BLOB_REDACTED, caller, id, String.valueOf(redaction), "");
     } catch (final DatabaseException e) {
       throw genericDatabaseException(e);
     }
@@ -372,21 +802,142 @@ final class CorePagesQueries implements PagesDatabaseQueriesType
 
     try (var query = this.dslContext.update(CoreTables.TABLE_BLOBS)
       .set(CoreTables.FIELD_BLOB_DATA, new byte[0])
+      .set(CoreTables.FIELD_BLOB_SIZE, Long.valueOf(0L))
       .set(CoreTables.FIELD_BLOB_REDACTION, redaction)
       .where(CoreTables.FIELD_BLOB_ID.eq(id))) {
       final var results = query.execute();
       if (results != 1) {
-        throw new CDException(
-          ErrorSeverity.SEVERITY_ERROR,
-          PagesDatabaseQueriesType.DATA_NONEXISTENT,
-          CoreMessages.localize("errorPageDataNonexistent"),
-          null,
-          PresentableAttributes.one(CoreMessages.localize("dataHash"), id));
+        throw dataNonexistent(id);
       }
     } catch (final DataAccessException e) {
       throw genericDatabaseException(e);
     }
 
-    this.events.onNext(PagesDatabaseBlobRedacted.of(id));
+    this.pending.add(
+      new Pending(id, PagesDatabaseBlobRedacted.of(id), Optional.empty(), this.store.isPresent()));
+  }
+
+  /**
+   * Apply the changes held by the committed transaction to the store, and publish its events. The
+   * database has already committed, so a failure of the store is logged: data that could not be
+   * written is then reported as nonexistent, and data that could not be securely deleted remains
+   * in the store.
+   */
+
+  @Override
+  public void onTransactionCommitted()
+  {
+    for (final var change : this.pending) {
+      try {
+        change.apply(this.store);
+      } catch (final IOException e) {
+        LOG.error("could not apply committed change to blob {} to the store: ", change.id, e);
+      } finally {
+        change.discard();
+      }
+      change.publish(this.events);
+    }
+    this.pending.clear();
+  }
+
+  @Override
+  public void onTransactionRolledBack()
+  {
+    this.onTransactionRolledBackToSavepoint(0L);
+  }
+
+  @Override
+  public long onTransactionSavepoint()
+  {
+    return this.pending.size();
+  }
+
+  @Override
+  public void onTransactionRolledBackToSavepoint(
+    final long mark)
+  {
+    while (this.pending.size() > mark) {
+      this.pending.remove(this.pending.size() - 1).discard();
+    }
+  }
+
+  private static void storeDiscard(
+    final PagesDatabaseBlobStoreWriteType write)
+  {
+    try {
+      write.close();
+    } catch (final IOException e) {
+      LOG.debug("could not discard blob store write: ", e);
+    }
+  }
+
+  /**
+   * A change to a blob held until the transaction that made it commits: the event that announces
+   * the change, along with a write of the blob data to the store if a write is present, or a
+   * secure deletion of the blob data from the store if requested.
+   */
+
+  private static final class Pending
+  {
+    private final String id;
+    private final DatabaseEventType event;
+    private final Optional<PagesDatabaseBlobStoreWriteType> write;
+    private final boolean delete;
+
+    Pending(
+      final String inId,
+      final DatabaseEventType inEvent,
+      final Optional<PagesDatabaseBlobStoreWriteType> inWrite,
+      final boolean inDelete)
+    {
+      this.id = Objects.requireNonNull(inId, "id");
+      this.event = Objects.requireNonNull(inEvent, "event");
+      this.write = Objects.requireNonNull(inWrite, "write");
+      this.delete = inDelete;
+    }
+
+    boolean changesStore()
+    {
+      return this.write.isPresent() || this.delete;
+    }
+
+    Optional<InputStream> read()
+      throws IOException
+    {
+      if (this.write.isPresent()) {
+        return Optional.of(this.write.get().read());
+      }
+      return Optional.empty();
+    }
+
+    void apply(
+      final Optional<PagesDatabaseBlobStoreType> blobStore)
+      throws IOException
+    {
+      if (this.write.isPresent()) {
+        this.write.get().commit();
+      } else if (this.delete && blobStore.isPresent()) {
+        blobStore.get().delete(this.id);
+      }
+    }
+
+    void discard()
+    {
+      this.write.ifPresent(CorePagesQueries::storeDiscard);
+    }
+
+    void publish(
+      final Subject<DatabaseEventType> subject)
+    {
+      subject.onNext(this.event);
+    }
+  }
+
+  @Override
+  public void close()
+    throws SQLException
+  {
+    this.onTransactionRolledBack();
+    this.statements.close();
   }
 }
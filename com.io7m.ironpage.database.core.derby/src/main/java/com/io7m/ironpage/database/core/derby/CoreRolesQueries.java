@@ -24,14 +24,9 @@ import com.io7m.ironpage.database.core.api.CDSecurityRoleUpdated;
 import com.io7m.ironpage.database.spi.DatabaseEventType;
 import com.io7m.ironpage.presentable.api.PresentableAttributes;
 import io.reactivex.rxjava3.subjects.Subject;
-import org.apache.derby.shared.common.error.DerbySQLIntegrityConstraintViolationException;
 import org.jooq.DSLContext;
 import org.jooq.Record3;
-import org.jooq.SQLDialect;
-import org.jooq.conf.RenderNameStyle;
-import org.jooq.conf.Settings;
 import org.jooq.exception.DataAccessException;
-import org.jooq.impl.DSL;
 
 import java.sql.Connection;
 import java.time.Clock;
@@ -45,25 +40,28 @@ final class CoreRolesQueries implements CDRolesQueriesType
 {
   private final DSLContext dslContext;
   private final Subject<DatabaseEventType> events;
+  private final Connection connection;
+  private final CoreDialectType dialect;
 
   CoreRolesQueries(
     final Clock inClock,
     final Subject<DatabaseEventType> inEvents,
-    final Connection inConnection)
+    final Connection inConnection,
+    final CoreDSLContexts inContexts)
   {
     this.events = Objects.requireNonNull(inEvents, "events");
-    final var connection = Objects.requireNonNull(inConnection, "connection");
-    final var settings = new Settings().withRenderNameStyle(RenderNameStyle.AS_IS);
-    this.dslContext = DSL.using(connection, SQLDialect.DERBY, settings);
+    this.connection = Objects.requireNonNull(inConnection, "connection");
+    this.dialect = inContexts.dialect();
+    this.dslContext = inContexts.create(inConnection);
   }
 
-  private static CDException handleUpdateException(
+  private CDException handleUpdateException(
     final String name,
     final Exception e)
   {
-    final var cause = e.getCause();
-    if (cause instanceof DerbySQLIntegrityConstraintViolationException) {
-      switch (((DerbySQLIntegrityConstraintViolationException) cause).getConstraintName()) {
+    final var constraint = this.dialect.constraintNameOf(this.connection, e);
+    if (constraint.isPresent()) {
+      switch (constraint.get()) {
         case "ROLE_NAME_UNIQUE": {
           return new CDException(
             SEVERITY_ERROR,
@@ -118,7 +116,7 @@ final class CoreRolesQueries implements CDRolesQueriesType
              .set(CoreTables.FIELD_ROLE_DESCRIPTION, description)) {
       query.execute();
     } catch (final DataAccessException e) {
-      throw handleUpdateException(name, e);
+      throw this.handleUpdateException(name, e);
     }
 
     final var role = this.roleGetForName(name).get();
@@ -197,7 +195,7 @@ final class CoreRolesQueries implements CDRolesQueriesType
       this.events.onNext(CDSecurityRoleUpdated.of(role));
       return role;
     } catch (final DataAccessException e) {
-      throw handleUpdateException(role.name(), e);
+      throw this.handleUpdateException(role.name(), e);
     }
   }
 
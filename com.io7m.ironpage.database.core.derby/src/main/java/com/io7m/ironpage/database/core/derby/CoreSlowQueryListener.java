@@ -0,0 +1,153 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironpage.database.core.derby;
+
+import org.jooq.ExecuteContext;
+import org.jooq.impl.DefaultExecuteListener;
+
+import java.util.Objects;
+
+/**
+ * A jOOQ listener that measures the execution and fetch time of each statement, and reports
+ * statements that exceed the threshold to a {@link CoreSlowQueryLog}. A single listener is
+ * shared by all contexts; the measurements for each statement are stored in its execution
+ * context.
+ */
+
+final class CoreSlowQueryListener extends DefaultExecuteListener
+{
+  private static final long serialVersionUID = 1L;
+
+  private static final String TIMINGS = CoreSlowQueryListener.class.getCanonicalName();
+
+  private final CoreSlowQueryLog log;
+
+  CoreSlowQueryListener(
+    final CoreSlowQueryLog inLog)
+  {
+    this.log = Objects.requireNonNull(inLog, "log");
+  }
+
+  private static Timings timings(
+    final ExecuteContext context)
+  {
+    final var existing = context.data(TIMINGS);
+    if (existing instanceof Timings) {
+      return (Timings) existing;
+    }
+    final var created = new Timings();
+    context.data(TIMINGS, created);
+    return created;
+  }
+
+  @Override
+  public void executeStart(
+    final ExecuteContext context)
+  {
+    timings(context).executeStart();
+  }
+
+  @Override
+  public void executeEnd(
+    final ExecuteContext context)
+  {
+    timings(context).executeEnd();
+  }
+
+  @Override
+  public void fetchStart(
+    final ExecuteContext context)
+  {
+    timings(context).fetchStart();
+  }
+
+  @Override
+  public void recordEnd(
+    final ExecuteContext context)
+  {
+    timings(context).recordEnd();
+  }
+
+  @Override
+  public void fetchEnd(
+    final ExecuteContext context)
+  {
+    timings(context).fetchEnd();
+  }
+
+  @Override
+  public void end(
+    final ExecuteContext context)
+  {
+    timings(context).end(this.log, context);
+  }
+
+  private static final class Timings
+  {
+    private long executeStart;
+    private long execute;
+    private long fetchStart;
+    private long fetch;
+    private long records;
+    private boolean fetched;
+
+    Timings()
+    {
+
+    }
+
+    void executeStart()
+    {
+      this.executeStart = System.nanoTime();
+    }
+
+    void executeEnd()
+    {
+      this.execute += System.nanoTime() - this.executeStart;
+    }
+
+    void fetchStart()
+    {
+      this.fetched = true;
+      this.fetchStart = System.nanoTime();
+    }
+
+    void recordEnd()
+    {
+      ++this.records;
+    }
+
+    void fetchEnd()
+    {
+      this.fetch += System.nanoTime() - this.fetchStart;
+    }
+
+    void end(
+      final CoreSlowQueryLog log,
+      final ExecuteContext context)
+    {
+      if (!log.isSlow(this.execute + this.fetch)) {
+        return;
+      }
+
+      final var query = context.query();
+      final var binds = query != null ? query.getBindValues().size() : 0;
+      final var rows = this.fetched ? this.records : (long) context.rows();
+      log.log(context.connection(), context.sql(), binds, this.execute, this.fetch, rows);
+    }
+  }
+}
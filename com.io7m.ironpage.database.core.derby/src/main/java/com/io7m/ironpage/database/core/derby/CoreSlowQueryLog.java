@@ -0,0 +1,136 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironpage.database.core.derby;
+
+import com.io7m.ironpage.database.spi.DatabaseSlowQueryParameters;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A log of statements that take longer than a configured threshold. Statements executed by jOOQ
+ * are measured by {@link CoreSlowQueryListener}; statements executed directly through a
+ * {@link CoreStatementCache} are measured by the cache.
+ */
+
+final class CoreSlowQueryLog implements Serializable
+{
+  private static final long serialVersionUID = 1L;
+
+  private static final Logger LOG = LoggerFactory.getLogger(CoreSlowQueryLog.class);
+
+  private static final String STATISTICS_ENABLE =
+    "CALL SYSCS_UTIL.SYSCS_SET_RUNTIMESTATISTICS(1)";
+
+  private static final String STATISTICS_GET =
+    "VALUES SYSCS_UTIL.SYSCS_GET_RUNTIMESTATISTICS()";
+
+  private final long thresholdNanos;
+  private final boolean capturePlans;
+
+  CoreSlowQueryLog(
+    final DatabaseSlowQueryParameters parameters,
+    final boolean plansSupported)
+  {
+    Objects.requireNonNull(parameters, "parameters");
+    this.thresholdNanos = parameters.threshold().toNanos();
+    this.capturePlans = plansSupported && parameters.capturePlans();
+  }
+
+  /**
+   * Prepare a connection for use with this log. If plans are captured, Derby is instructed to
+   * collect statistics for each statement executed on the connection.
+   *
+   * @param connection The connection
+   */
+
+  void configure(
+    final Connection connection)
+  {
+    if (!this.capturePlans) {
+      return;
+    }
+
+    try (var statement = connection.prepareCall(STATISTICS_ENABLE)) {
+      statement.execute();
+    } catch (final SQLException e) {
+      LOG.warn("unable to enable runtime statistics: ", e);
+    }
+  }
+
+  boolean isSlow(
+    final long timeNanos)
+  {
+    return timeNanos >= this.thresholdNanos;
+  }
+
+  /**
+   * Log a slow statement. The plan, if captured, is that of the most recent statement executed
+   * on the connection, so this must be called before any other statement is executed.
+   *
+   * @param connection   The connection on which the statement was executed
+   * @param sql          The statement
+   * @param binds        The number of bind values
+   * @param executeNanos The time taken to execute the statement
+   * @param fetchNanos   The time taken to fetch results
+   * @param rows         The number of rows fetched or updated, or {@code -1} if unknown
+   */
+
+  void log(
+    final Connection connection,
+    final String sql,
+    final int binds,
+    final long executeNanos,
+    final long fetchNanos,
+    final long rows)
+  {
+    LOG.warn(
+      "slow query: {}ms (execute {}ms, fetch {}ms) rows {} binds {}: {}",
+      Long.valueOf(TimeUnit.NANOSECONDS.toMillis(executeNanos + fetchNanos)),
+      Long.valueOf(TimeUnit.NANOSECONDS.toMillis(executeNanos)),
+      Long.valueOf(TimeUnit.NANOSECONDS.toMillis(fetchNanos)),
+      Long.valueOf(rows),
+      Integer.valueOf(binds),
+      sql);
+
+    if (this.capturePlans) {
+      this.plan(connection).ifPresent(plan -> LOG.warn("slow query plan:\n{}", plan));
+    }
+  }
+
+  private Optional<String> plan(
+    final Connection connection)
+  {
+    try (var statement = connection.prepareStatement(STATISTICS_GET)) {
+      try (var result = statement.executeQuery()) {
+        if (result.next()) {
+          return Optional.ofNullable(result.getString(1));
+        }
+        return Optional.empty();
+      }
+    } catch (final SQLException e) {
+      LOG.warn("unable to retrieve runtime statistics: ", e);
+      return Optional.empty();
+    }
+  }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.ironpage.database.core.derby;
+
+import com.io7m.ironpage.database.core.api.CDException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Objects;
+
+/**
+ * A cache of prepared statements for a single borrowed connection. Statements are prepared the
+ * first time they are requested within a transaction and are then reused until the connection is
+ * returned to the pool, at which point the logical connection and its statements are closed. The
+ * cache therefore saves repeated preparation within one transaction; across transactions, the
+ * statements are prepared again and Derby serves them from its own compiled statement cache. The
+ * cache is not thread-safe, in the same way that the connection it wraps is not.
+ *
+ * Statements executed through {@link #executeQuery(PreparedStatement, ResultReaderType)} and
+ * {@link #executeUpdate(PreparedStatement)} are reported to the slow query log if they take
+ * longer than the threshold. Queries are given a reader so that the time spent fetching rows can
+ * be measured separately from the execution time.
+ */
+
+final class CoreStatementCache implements AutoCloseable
+{
+  private final Connection connection;
+  private final CoreSlowQueryLog slowQueries;
+  private final HashMap<String, PreparedStatement> statements;
+  private final IdentityHashMap<PreparedStatement, String> statementsSQL;
+
+  CoreStatementCache(
+    final Connection inConnection,
+    final CoreSlowQueryLog inSlowQueries)
+  {
+    this.connection =
+      Objects.requireNonNull(inConnection, "connection");
+    this.slowQueries =
+      Objects.requireNonNull(inSlowQueries, "slowQueries");
+    this.statements =
+      new HashMap<>(8);
+    this.statementsSQL =
+      new IdentityHashMap<>(8);
+  }
+
+  /**
+   * Retrieve a prepared statement for the given SQL, preparing it if necessary. The parameters of
+   * a reused statement are cleared. The returned statement must not be closed by the caller.
+   *
+   * @param sql One of the statements defined in {@link CoreStatements}
+   *
+   * @return A prepared statement
+   *
+   * @throws SQLException On errors
+   */
+
+  PreparedStatement prepare(
+    final String sql)
+    throws SQLException
+  {
+    Objects.requireNonNull(sql, "sql");
+
+    final var existing = this.statements.get(sql);
+    if (existing != null && !existing.isClosed()) {
+      existing.clearParameters();
+      return existing;
+    }
+
+    final var created = this.connection.prepareStatement(sql);
+    this.statements.put(sql, created);
+    this.statementsSQL.put(created, sql);
+    return created;
+  }
+
+  /**
+   * Execute a query prepared by this cache, and read the results with the given reader. The result
+   * set is closed when the reader returns.
+   *
+   * @param statement The statement
+   * @param reader    The result reader
+   * @param <T>       The type of values returned by the reader
+   *
+   * @return The value returned by the reader
+   *
+   * @throws SQLException On errors
+   * @throws CDException  If the reader raises an error
+   */
+
+  <T> T executeQuery(
+    final PreparedStatement statement,
+    final ResultReaderType<T> reader)
+    throws SQLException, CDException
+  {
+    Objects.requireNonNull(reader, "reader");
+
+    final var timeStart = System.nanoTime();
+    try (var result = statement.executeQuery()) {
+      final var timeExecuted = System.nanoTime();
+      final var value = reader.read(result);
+      final var timeFetched = System.nanoTime();
+      this.checkSlow(statement, timeExecuted - timeStart, timeFetched - timeExecuted, -1L);
+      return value;
+    }
+  }
+
+  /**
+   * Execute an update prepared by this cache.
+   *
+   * @param statement The statement
+   *
+   * @return The number of updated rows
+   *
+   * @throws SQLException On errors
+   */
+
+  int executeUpdate(
+    final PreparedStatement statement)
+    throws SQLException
+  {
+    final var timeStart = System.nanoTime();
+    final var rows = statement.executeUpdate();
+    this.checkSlow(statement, System.nanoTime() - timeStart, 0L, rows);
+    return rows;
+  }
+
+  /**
+   * Close all of the statements prepared by this cache. Derby keeps an activation for every open
+   * statement on the physical connection, and closing the logical connection handed out by the
+   * pool does not close them, so the statements must be closed before the connection is returned.
+   *
+   * @throws SQLException On errors
+   */
+
+  @Override
+  public void close()
+    throws SQLException
+  {
+    SQLException exception = null;
+    for (final var statement : this.statements.values()) {
+      try {
+        statement.close();
+      } catch (final SQLException e) {
+        if (exception == null) {
+          exception = e;
+        } else {
+          exception.addSuppressed(e);
+        }
+      }
+    }
+    this.statements.clear();
+    this.statementsSQL.clear();
+    if (exception != null) {
+      throw exception;
+    }
+  }
+
+  private static int binds(
+    final PreparedStatement statement)
+  {
+    try {
+      return statement.getParameterMetaData().getParameterCount();
+    } catch (final SQLException e) {
+      return -1;
+    }
+  }
+
+  private void checkSlow(
+    final PreparedStatement statement,
+    final long executeNanos,
+    final long fetchNanos,
+    final long rows)
+  {
+    if (this.slowQueries.isSlow(executeNanos + fetchNanos)) {
+      this.slowQueries.log(
+        this.connection,
+        this.statementsSQL.getOrDefault(statement, "(unknown)"),
+        binds(statement),
+        executeNanos,
+        fetchNanos,
+        rows);
+    }
+  }
+
+  /**
+   * A function that reads the rows of a query result.
+   *
+   * @param <T> The type of returned values
+   */
+
+  @FunctionalInterface
+  interface ResultReaderType<T>
+  {
+    /**
+     * Read the given result.
+     *
+     * @param result The query result
+     *
+     * @return A value
+     *
+     * @throws SQLException On errors
+     * @throws CDException  On errors
+     */
+
+    T read(ResultSet result)
+      throws SQLException, CDException;
+  }
+}
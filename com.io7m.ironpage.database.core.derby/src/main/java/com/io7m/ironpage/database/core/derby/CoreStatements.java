@@ -0,0 +1,294 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.ironpage.database.core.derby;
+
+import org.jooq.Field;
+import org.jooq.Query;
+import org.jooq.SelectOnConditionStep;
+import org.jooq.conf.ParamType;
+import org.jooq.impl.DSL;
+import org.jooq.impl.SQLDataType;
+
+import java.util.Collections;
+
+import static com.io7m.ironpage.database.core.derby.CoreTables.FIELD_BLOB_DATA;
+import static com.io7m.ironpage.database.core.derby.CoreTables.FIELD_BLOB_ID;
+import static com.io7m.ironpage.database.core.derby.CoreTables.FIELD_BLOB_MEDIA_TYPE;
+import static com.io7m.ironpage.database.core.derby.CoreTables.FIELD_BLOB_OWNER;
+import static com.io7m.ironpage.database.core.derby.CoreTables.FIELD_BLOB_REDACTION;
+import static com.io7m.ironpage.database.core.derby.CoreTables.FIELD_BLOB_SECURITY_LABEL;
+import static com.io7m.ironpage.database.core.derby.CoreTables.FIELD_BLOB_SIZE;
+import static com.io7m.ironpage.database.core.derby.CoreTables.FIELD_LABEL_DESCRIPTION;
+import static com.io7m.ironpage.database.core.derby.CoreTables.FIELD_LABEL_ID;
+import static com.io7m.ironpage.database.core.derby.CoreTables.FIELD_LABEL_NAME;
+import static com.io7m.ironpage.database.core.derby.CoreTables.FIELD_REDACTION_ID;
+import static com.io7m.ironpage.database.core.derby.CoreTables.FIELD_REDACTION_REASON;
+import static com.io7m.ironpage.database.core.derby.CoreTables.FIELD_REDACTION_TIME;
+import static com.io7m.ironpage.database.core.derby.CoreTables.FIELD_REDACTION_USER_ID;
+import static com.io7m.ironpage.database.core.derby.CoreTables.FIELD_ROLE_DESCRIPTION;
+import static com.io7m.ironpage.database.core.derby.CoreTables.FIELD_ROLE_ID;
+import static com.io7m.ironpage.database.core.derby.CoreTables.FIELD_ROLE_NAME;
+import static com.io7m.ironpage.database.core.derby.CoreTables.FIELD_ROLE_ROLE_ID;
+import static com.io7m.ironpage.database.core.derby.CoreTables.FIELD_ROLE_USER_ID;
+import static com.io7m.ironpage.database.core.derby.CoreTables.FIELD_SESSION_ID;
+import static com.io7m.ironpage.database.core.derby.CoreTables.FIELD_SESSION_UPDATED;
+import static com.io7m.ironpage.database.core.derby.CoreTables.FIELD_SESSION_USER_ID;
+import static com.io7m.ironpage.database.core.derby.CoreTables.FIELD_USER_DISPLAY_NAME;
+import static com.io7m.ironpage.database.core.derby.CoreTables.FIELD_USER_EMAIL;
+import static com.io7m.ironpage.database.core.derby.CoreTables.FIELD_USER_ID;
+import static com.io7m.ironpage.database.core.derby.CoreTables.FIELD_USER_LOCKED_REASON;
+import static com.io7m.ironpage.database.core.derby.CoreTables.FIELD_USER_PASSWORD_ALGO;
+import static com.io7m.ironpage.database.core.derby.CoreTables.FIELD_USER_PASSWORD_HASH;
+import static com.io7m.ironpage.database.core.derby.CoreTables.FIELD_USER_PASSWORD_PARAMS;
+import static com.io7m.ironpage.database.core.derby.CoreTables.TABLE_BLOBS;
+import static com.io7m.ironpage.database.core.derby.CoreTables.TABLE_LABELS;
+import static com.io7m.ironpage.database.core.derby.CoreTables.TABLE_REDACTIONS;
+import static com.io7m.ironpage.database.core.derby.CoreTables.TABLE_ROLES;
+import static com.io7m.ironpage.database.core.derby.CoreTables.TABLE_ROLE_USERS;
+import static com.io7m.ironpage.database.core.derby.CoreTables.TABLE_SESSIONS;
+import static com.io7m.ironpage.database.core.derby.CoreTables.TABLE_USERS;
+
+/**
+ * SQL for the most frequently executed queries. The statements are built from the same table
+ * definitions used by the jOOQ queries, but are rendered to SQL exactly once. Callers prepare
+ * them through a {@link CoreStatementCache} and bind parameters directly, in the order given in
+ * the documentation of each statement.
+ */
+
+final class CoreStatements
+{
+  /**
+   * Retrieve a user account. Parameters: user ID. Columns: display name, email, ID, locked
+   * reason, password hash, password parameters, password algorithm.
+   */
+
+  static final String ACCOUNT_GET =
+    render(
+      CoreDSLContexts.renderer()
+        .select(
+          FIELD_USER_DISPLAY_NAME,
+          FIELD_USER_EMAIL,
+          FIELD_USER_ID,
+          FIELD_USER_LOCKED_REASON,
+          FIELD_USER_PASSWORD_HASH,
+          FIELD_USER_PASSWORD_PARAMS,
+          FIELD_USER_PASSWORD_ALGO)
+        .from(TABLE_USERS)
+        .where(FIELD_USER_ID.eq(parameter(FIELD_USER_ID))));
+
+  /**
+   * Retrieve the roles of a user account. Parameters: user ID. Columns: role ID, role name, role
+   * description.
+   */
+
+  static final String ACCOUNT_ROLES_GET =
+    render(
+      CoreDSLContexts.renderer()
+        .select(
+          FIELD_ROLE_ID,
+          FIELD_ROLE_NAME,
+          FIELD_ROLE_DESCRIPTION)
+        .from(TABLE_ROLE_USERS)
+        .join(TABLE_ROLES)
+        .on(FIELD_ROLE_ROLE_ID.eq(FIELD_ROLE_ID))
+        .where(FIELD_ROLE_USER_ID.eq(parameter(FIELD_ROLE_USER_ID))));
+
+  /**
+   * Retrieve a session. Parameters: session ID. Columns: session ID, user ID.
+   */
+
+  static final String SESSION_GET =
+    render(
+      CoreDSLContexts.renderer()
+        .select(FIELD_SESSION_ID, FIELD_SESSION_USER_ID)
+        .from(TABLE_SESSIONS)
+        .where(FIELD_SESSION_ID.eq(parameter(FIELD_SESSION_ID))));
+
+  /**
+   * Update the time of a session. Parameters: time, session ID.
+   */
+
+  static final String SESSION_UPDATE =
+    render(
+      CoreDSLContexts.renderer()
+        .update(TABLE_SESSIONS)
+        .set(FIELD_SESSION_UPDATED, parameter(FIELD_SESSION_UPDATED))
+        .where(FIELD_SESSION_ID.eq(parameter(FIELD_SESSION_ID))));
+
+  /**
+   * Retrieve a security label. Parameters: label ID. Columns: label ID, label name, label
+   * description.
+   */
+
+  static final String LABEL_GET =
+    render(
+      CoreDSLContexts.renderer()
+        .select(
+          FIELD_LABEL_ID,
+          FIELD_LABEL_NAME,
+          FIELD_LABEL_DESCRIPTION)
+        .from(TABLE_LABELS)
+        .where(FIELD_LABEL_ID.eq(parameter(FIELD_LABEL_ID))));
+
+  /**
+   * Retrieve a blob, its security label, and its redaction if it has been redacted. Parameters:
+   * blob ID. Columns: blob ID, media type, data, owner, redaction ID, label ID, label name, label
+   * description, redaction reason, redaction time, redaction user ID.
+   */
+
+  static final String BLOB_GET =
+    render(
+      CoreDSLContexts.renderer()
+        .select(
+          FIELD_BLOB_ID,
+          FIELD_BLOB_MEDIA_TYPE,
+          FIELD_BLOB_DATA,
+          FIELD_BLOB_OWNER,
+          FIELD_BLOB_REDACTION,
+          FIELD_LABEL_ID,
+          FIELD_LABEL_NAME,
+          FIELD_LABEL_DESCRIPTION,
+          FIELD_REDACTION_REASON,
+          FIELD_REDACTION_TIME,
+          FIELD_REDACTION_USER_ID)
+        .from(TABLE_BLOBS)
+        .join(TABLE_LABELS)
+        .on(FIELD_LABEL_ID.eq(FIELD_BLOB_SECURITY_LABEL))
+        .leftJoin(TABLE_REDACTIONS)
+        .on(FIELD_REDACTION_ID.eq(FIELD_BLOB_REDACTION))
+        .where(FIELD_BLOB_ID.eq(parameter(FIELD_BLOB_ID))));
+
+  /**
+   * Retrieve the metadata of a blob, its security label, and its redaction if it has been
+   * redacted, without reading the blob data. Parameters: blob ID. Columns: blob ID, media type,
+   * size, owner, redaction ID, label ID, label name, label description, redaction reason,
+   * redaction time, redaction user ID. The size of a blob written before the size column was added
+   * is computed from the data until the data migration that fills in the size has reached it.
+   */
+
+  static final String BLOB_METADATA_GET =
+    render(
+      blobMetadataSelect()
+        .where(FIELD_BLOB_ID.eq(parameter(FIELD_BLOB_ID))));
+
+  /**
+   * The number of blob IDs bound by {@link #BLOB_METADATA_GET_ALL}.
+   */
+
+  static final int BLOB_METADATA_GET_ALL_BATCH = 64;
+
+  /**
+   * Retrieve the metadata of a batch of blobs, as {@link #BLOB_METADATA_GET}. Parameters:
+   * exactly {@link #BLOB_METADATA_GET_ALL_BATCH} blob IDs; a smaller batch is padded by repeating
+   * one of its IDs, so that a single prepared statement serves batches of every size. Columns: as
+   * {@link #BLOB_METADATA_GET}.
+   */
+
+  static final String BLOB_METADATA_GET_ALL =
+    render(
+      blobMetadataSelect()
+        .where(FIELD_BLOB_ID.in(
+          Collections.nCopies(BLOB_METADATA_GET_ALL_BATCH, parameter(FIELD_BLOB_ID)))));
+
+  /**
+   * Retrieve the data of a blob. Parameters: blob ID. Columns: data, size.
+   */
+
+  static final String BLOB_DATA_GET =
+    render(
+      CoreDSLContexts.renderer()
+        .select(FIELD_BLOB_DATA, FIELD_BLOB_SIZE)
+        .from(TABLE_BLOBS)
+        .where(FIELD_BLOB_ID.eq(parameter(FIELD_BLOB_ID))));
+
+  /**
+   * Insert an unredacted blob. Parameters: blob ID, data, size, media type, owner, label ID.
+   */
+
+  static final String BLOB_PUT =
+    render(
+      CoreDSLContexts.renderer()
+        .insertInto(
+          TABLE_BLOBS,
+          FIELD_BLOB_ID,
+          FIELD_BLOB_DATA,
+          FIELD_BLOB_SIZE,
+          FIELD_BLOB_MEDIA_TYPE,
+          FIELD_BLOB_OWNER,
+          FIELD_BLOB_SECURITY_LABEL)
+        .values(
+          parameter(FIELD_BLOB_ID),
+          parameter(FIELD_BLOB_DATA),
+          parameter(FIELD_BLOB_SIZE),
+          parameter(FIELD_BLOB_MEDIA_TYPE),
+          parameter(FIELD_BLOB_OWNER),
+          parameter(FIELD_BLOB_SECURITY_LABEL)));
+
+  private CoreStatements()
+  {
+
+  }
+
+  /**
+   * The selection shared by the blob metadata statements, to which only a condition on the blob
+   * ID is added.
+   */
+
+  private static SelectOnConditionStep<?> blobMetadataSelect()
+  {
+    return CoreDSLContexts.renderer()
+      .select(
+        FIELD_BLOB_ID,
+        FIELD_BLOB_MEDIA_TYPE,
+        DSL.coalesce(
+          FIELD_BLOB_SIZE,
+          DSL.field("length({0})", SQLDataType.INTEGER, FIELD_BLOB_DATA)
+            .cast(SQLDataType.BIGINT)),
+        FIELD_BLOB_OWNER,
+        FIELD_BLOB_REDACTION,
+        FIELD_LABEL_ID,
+        FIELD_LABEL_NAME,
+        FIELD_LABEL_DESCRIPTION,
+        FIELD_REDACTION_REASON,
+        FIELD_REDACTION_TIME,
+        FIELD_REDACTION_USER_ID)
+      .from(TABLE_BLOBS)
+      .join(TABLE_LABELS)
+      .on(FIELD_LABEL_ID.eq(FIELD_BLOB_SECURITY_LABEL))
+      .leftJoin(TABLE_REDACTIONS)
+      .on(FIELD_REDACTION_ID.eq(FIELD_BLOB_REDACTION));
+  }
+
+  /**
+   * A positional parameter for a value of the same type as the given field. The parameter is
+   * rendered without the explicit cast that jOOQ would otherwise emit for Derby, so that the
+   * comparison is made against the column type and can use the column's index.
+   */
+
+  private static <T> Field<T> parameter(
+    final Field<T> field)
+  {
+    return DSL.field("?", field.getDataType());
+  }
+
+  private static String render(
+    final Query query)
+  {
+    return query.getSQL(ParamType.INDEXED);
+  }
+}
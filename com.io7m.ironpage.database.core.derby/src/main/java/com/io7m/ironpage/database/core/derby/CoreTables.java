@@ -97,6 +97,8 @@ final class CoreTables
     DSL.field(DSL.name("blob_owner"), SQLDataType.UUID);
   static final Field<Long> FIELD_BLOB_SECURITY_LABEL =
     DSL.field(DSL.name("blob_security_label"), SQLDataType.BIGINT);
+  static final Field<Long> FIELD_BLOB_SIZE =
+    DSL.field(DSL.name("blob_size"), SQLDataType.BIGINT);
 
   static final Table<Record> TABLE_REDACTIONS =
     DSL.table(DSL.name("core", "redactions"));
@@ -27,14 +27,16 @@ module com.io7m.ironpage.database.core.derby
   requires io.reactivex.rxjava3;
   requires org.apache.commons.codec;
   requires org.apache.derby.commons;
-  requires org.jooq;
   requires org.slf4j;
 
   requires transitive com.io7m.ironpage.database.audit.api;
   requires transitive com.io7m.ironpage.database.core.api;
   requires transitive com.io7m.ironpage.database.pages.api;
   requires transitive com.io7m.ironpage.database.spi;
+  requires transitive org.jooq;
 
   provides com.io7m.ironpage.database.spi.DatabasePartitionProviderType
     with com.io7m.ironpage.database.core.derby.CoreDatabasePartitionProviderDerby;
+
+  exports com.io7m.ironpage.database.core.derby;
 }
@@ -0,0 +1,104 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironpage.database.core.h2;
+
+import com.io7m.ironpage.database.core.derby.CoreDatabasePartitionProvider;
+import com.io7m.ironpage.database.pages.api.PagesDatabaseBlobStoreType;
+import com.io7m.ironpage.database.spi.DatabasePartitionProviderType;
+import com.io7m.ironpage.database.spi.DatabaseSlowQueryParameters;
+import org.osgi.service.component.annotations.Component;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Clock;
+import java.util.Optional;
+
+/**
+ * The core partition for H2 databases. The partition uses the same schema and queries as the
+ * Derby partition, so the two can be compared directly.
+ */
+
+@Component(service = DatabasePartitionProviderType.class)
+public final class CoreDatabasePartitionProviderH2 extends CoreDatabasePartitionProvider
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(CoreDatabasePartitionProviderH2.class);
+
+  /**
+   * Construct a provider.
+   */
+
+  public CoreDatabasePartitionProviderH2()
+  {
+    this(Clock.systemUTC());
+  }
+
+  /**
+   * Construct a provider.
+   *
+   * @param clock The clock used for time-based queries
+   */
+
+  public CoreDatabasePartitionProviderH2(
+    final Clock clock)
+  {
+    this(clock, DatabaseSlowQueryParameters.builder().build());
+  }
+
+  /**
+   * Construct a provider.
+   *
+   * @param clock       The clock used for time-based queries
+   * @param slowQueries The parameters for the slow query log
+   */
+
+  public CoreDatabasePartitionProviderH2(
+    final Clock clock,
+    final DatabaseSlowQueryParameters slowQueries)
+  {
+    super(clock, CoreDialectH2.H2, slowQueries, Optional.empty());
+  }
+
+  /**
+   * Construct a provider that holds the data of page blobs in the given store, rather than in
+   * the database.
+   *
+   * @param clock       The clock used for time-based queries
+   * @param slowQueries The parameters for the slow query log
+   * @param blobStore   The store of blob data
+   */
+
+  public CoreDatabasePartitionProviderH2(
+    final Clock clock,
+    final DatabaseSlowQueryParameters slowQueries,
+    final PagesDatabaseBlobStoreType blobStore)
+  {
+    super(clock, CoreDialectH2.H2, slowQueries, Optional.of(blobStore));
+  }
+
+  @Override
+  protected Logger logger()
+  {
+    return LOG;
+  }
+
+  @Override
+  protected String partitionName()
+  {
+    return CoreDatabasePartitionProviderH2.class.getCanonicalName();
+  }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.ironpage.database.core.h2;
+
+import com.io7m.ironpage.database.core.derby.CoreDialectType;
+import org.jooq.SQLDialect;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * The H2 dialect, using the MVStore storage engine. H2 cannot report the execution plans of
+ * slow queries.
+ */
+
+enum CoreDialectH2 implements CoreDialectType
+{
+  /**
+   * H2, using the MVStore storage engine.
+   */
+
+  H2;
+
+  @Override
+  public String dialectName()
+  {
+    return this.name();
+  }
+
+  @Override
+  public SQLDialect jooqDialect()
+  {
+    return SQLDialect.H2;
+  }
+
+  @Override
+  public boolean capturesPlans()
+  {
+    return false;
+  }
+
+  @Override
+  public boolean isTableMissing(
+    final SQLException e)
+  {
+    switch (Objects.requireNonNullElse(e.getSQLState(), "")) {
+      case "90079":
+      case "42S02": {
+        return true;
+      }
+      default: {
+        return false;
+      }
+    }
+  }
+
+  @Override
+  public Optional<String> constraintName(
+    final Connection connection,
+    final SQLException e)
+  {
+    return CoreH2Constraints.constraintName(connection, e);
+  }
+}
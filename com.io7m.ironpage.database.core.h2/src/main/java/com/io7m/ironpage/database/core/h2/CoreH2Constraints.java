@@ -0,0 +1,131 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironpage.database.core.h2;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Optional;
+
+/**
+ * Functions to recover constraint names from H2 integrity violations.
+ *
+ * H2 names the violated constraint in the message of a foreign key or check constraint
+ * violation, but names only the index that backs a primary key or unique constraint. The
+ * constraint is found from the index name in the information schema; this is only done on the
+ * error path, and H2 does not abort a transaction when one of its statements fails.
+ */
+
+final class CoreH2Constraints
+{
+  private static final Logger LOG = LoggerFactory.getLogger(CoreH2Constraints.class);
+
+  private static final String DUPLICATE_KEY = "23505";
+  private static final String REFERENTIAL_INTEGRITY = "23506";
+  private static final String CHECK_CONSTRAINT = "23513";
+
+  private static final String CONSTRAINT_FOR_INDEX =
+    "SELECT CONSTRAINT_NAME FROM INFORMATION_SCHEMA.CONSTRAINTS "
+      + "WHERE CONSTRAINT_SCHEMA = ? AND UNIQUE_INDEX_NAME = ? "
+      + "AND CONSTRAINT_TYPE IN ('PRIMARY KEY', 'UNIQUE')";
+
+  private CoreH2Constraints()
+  {
+
+  }
+
+  /**
+   * @return The first quoted string in the given message
+   */
+
+  private static Optional<String> quoted(
+    final String message)
+  {
+    final var start = message.indexOf('"');
+    if (start < 0) {
+      return Optional.empty();
+    }
+    final var end = message.indexOf('"', start + 1);
+    if (end < 0) {
+      return Optional.empty();
+    }
+    return Optional.of(message.substring(start + 1, end));
+  }
+
+  private static Optional<String> prefix(
+    final String text,
+    final String separator)
+  {
+    final var index = text.indexOf(separator);
+    if (index <= 0) {
+      return Optional.empty();
+    }
+    return Optional.of(text.substring(0, index));
+  }
+
+  static Optional<String> constraintName(
+    final Connection connection,
+    final SQLException e)
+  {
+    final var state = e.getSQLState();
+    final var message = e.getMessage();
+    if (state == null || message == null) {
+      return Optional.empty();
+    }
+
+    switch (state) {
+      case REFERENTIAL_INTEGRITY:
+      case CHECK_CONSTRAINT: {
+        return quoted(message).flatMap(text -> prefix(text, ":"));
+      }
+      case DUPLICATE_KEY: {
+        return quoted(message)
+          .flatMap(text -> prefix(text, " ON "))
+          .flatMap(index -> constraintForIndex(connection, index));
+      }
+      default: {
+        return Optional.empty();
+      }
+    }
+  }
+
+  private static Optional<String> constraintForIndex(
+    final Connection connection,
+    final String qualifiedIndex)
+  {
+    final var dot = qualifiedIndex.indexOf('.');
+    if (dot <= 0) {
+      return Optional.empty();
+    }
+
+    try (var statement = connection.prepareStatement(CONSTRAINT_FOR_INDEX)) {
+      statement.setString(1, qualifiedIndex.substring(0, dot));
+      statement.setString(2, qualifiedIndex.substring(dot + 1));
+      try (var result = statement.executeQuery()) {
+        if (result.next()) {
+          return Optional.of(result.getString(1));
+        }
+        return Optional.empty();
+      }
+    } catch (final SQLException ex) {
+      LOG.warn("unable to find the constraint for index {}: ", qualifiedIndex, ex);
+      return Optional.empty();
+    }
+  }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironpage.database.derby;
+
+import com.io7m.ironpage.database.spi.DatabaseDataMigrationProgress;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Optional;
+
+/**
+ * The data migration checkpoint table shared by all database engines. Each row records the
+ * progress of a data migration: the checkpoint from which it resumes, the number of rows it has
+ * migrated so far, and whether it has finished.
+ */
+
+public final class DatabaseDataMigrationCheckpoints
+{
+  /**
+   * The column definitions of the checkpoint table.
+   */
+
+  public static final String COLUMNS =
+    "MIGRATION_NAME VARCHAR(256) NOT NULL, "
+      + "CHECKPOINT_KEY VARCHAR(1024) NOT NULL, "
+      + "ROWS_MIGRATED BIGINT NOT NULL, "
+      + "FINISHED BOOLEAN NOT NULL, "
+      + "PRIMARY KEY (MIGRATION_NAME)";
+
+  /**
+   * The columns read by a statement that selects a row from the table.
+   */
+
+  public static final String SELECT_COLUMNS =
+    "CHECKPOINT_KEY, ROWS_MIGRATED, FINISHED";
+
+  /**
+   * The assignments and condition of a statement that updates a row in the table.
+   */
+
+  public static final String UPDATE_ASSIGNMENTS =
+    "CHECKPOINT_KEY = ?, ROWS_MIGRATED = ?, FINISHED = ? WHERE MIGRATION_NAME = ?";
+
+  /**
+   * The columns and parameters of a statement that inserts a row into the table.
+   */
+
+  public static final String INSERT_VALUES =
+    "(CHECKPOINT_KEY, ROWS_MIGRATED, FINISHED, MIGRATION_NAME) VALUES (?, ?, ?, ?)";
+
+  private DatabaseDataMigrationCheckpoints()
+  {
+
+  }
+
+  /**
+   * Read the progress of a migration using a statement that selects {@link #SELECT_COLUMNS} for
+   * a given migration name.
+   *
+   * @param statement The prepared statement
+   * @param name      The migration name
+   *
+   * @return The progress of the migration, if any has been recorded
+   *
+   * @throws SQLException On errors
+   */
+
+  public static Optional<DatabaseDataMigrationProgress> progress(
+    final PreparedStatement statement,
+    final String name)
+    throws SQLException
+  {
+    statement.setString(1, name);
+    try (var result = statement.executeQuery()) {
+      if (!result.next()) {
+        return Optional.empty();
+      }
+      return Optional.of(
+        DatabaseDataMigrationProgress.builder()
+          .setCheckpoint(result.getString(1))
+          .setRows(result.getLong(2))
+          .setFinished(result.getBoolean(3))
+          .build());
+    }
+  }
+
+  /**
+   * Save the progress of a migration, using statements prepared from {@link #UPDATE_ASSIGNMENTS}
+   * and {@link #INSERT_VALUES}. A row is inserted only if there was no row to update.
+   *
+   * @param update   The prepared update statement
+   * @param insert   The prepared insert statement
+   * @param name     The migration name
+   * @param progress The progress
+   *
+   * @throws SQLException On errors
+   */
+
+  public static void progressSave(
+    final PreparedStatement update,
+    final PreparedStatement insert,
+    final String name,
+    final DatabaseDataMigrationProgress progress)
+    throws SQLException
+  {
+    bind(update, name, progress);
+    if (update.executeUpdate() == 0) {
+      bind(insert, name, progress);
+      insert.executeUpdate();
+    }
+  }
+
+  private static void bind(
+    final PreparedStatement statement,
+    final String name,
+    final DatabaseDataMigrationProgress progress)
+    throws SQLException
+  {
+    statement.setString(1, progress.checkpoint());
+    statement.setLong(2, progress.rows());
+    statement.setBoolean(3, progress.finished());
+    statement.setString(4, name);
+  }
+}
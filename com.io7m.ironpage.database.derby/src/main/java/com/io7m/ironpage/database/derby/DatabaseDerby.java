@@ -16,39 +16,121 @@
 
 package com.io7m.ironpage.database.derby;
 
+import com.io7m.ironpage.database.api.DatabaseBackup;
+import com.io7m.ironpage.database.api.DatabaseBackupParameters;
+import com.io7m.ironpage.database.api.DatabaseBackupProgressListenerType;
+import com.io7m.ironpage.database.api.DatabaseConnectionPoolStatistics;
 import com.io7m.ironpage.database.api.DatabaseConnectionType;
+import com.io7m.ironpage.database.api.DatabaseMigrationParameters;
+import com.io7m.ironpage.database.api.DatabaseOpenTimings;
+import com.io7m.ironpage.database.api.DatabaseStorageDiagnostics;
+import com.io7m.ironpage.database.api.DatabaseTransactionFunctionType;
 import com.io7m.ironpage.database.api.DatabaseType;
 import com.io7m.ironpage.database.spi.DatabaseEventType;
 import com.io7m.ironpage.database.spi.DatabaseException;
 import com.io7m.ironpage.database.spi.DatabasePartitionProviderRegistryType;
+import com.io7m.ironpage.database.spi.DatabasePartitionProviderType;
+import com.io7m.ironpage.database.spi.DatabaseQueriesType;
+import com.io7m.ironpage.metrics.api.MetricsHistogramType;
 import io.reactivex.rxjava3.core.Observable;
 import io.reactivex.rxjava3.subjects.PublishSubject;
-import org.apache.derby.jdbc.EmbeddedConnectionPoolDataSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.sql.SQLException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 final class DatabaseDerby implements DatabaseType
 {
   private static final Logger LOG = LoggerFactory.getLogger(DatabaseDerby.class);
 
-  private final EmbeddedConnectionPoolDataSource dataSource;
+  private final String path;
+  private final DatabaseEngineType engine;
+  private final DatabaseDerbyConnectionPool connectionPool;
+  private final DatabaseDerbyConnectionPool readOnlyConnectionPool;
+  private final Optional<DatabaseDerbyNetworkServer> server;
+  private final DatabaseOpenTimings openTimings;
+  private final DatabaseDerbyAsyncExecutor asyncExecutor;
+  private final DatabaseDerbyMetrics metrics;
+  private final MetricsHistogramType connectionAcquire;
+  private final MetricsHistogramType readOnlyConnectionAcquire;
   private final DatabasePartitionProviderRegistryType partitionProviders;
+  private final Map<Class<? extends DatabaseQueriesType>, DatabasePartitionProviderType> dispatch;
   private final PublishSubject<DatabaseEventType> eventSubject;
+  private final AtomicReference<DatabaseDerbyDataMigrator> dataMigrator;
+  private final AtomicBoolean closed;
 
   DatabaseDerby(
-    final EmbeddedConnectionPoolDataSource inDataSource,
-    final DatabasePartitionProviderRegistryType inPartitionProviders)
+    final String inPath,
+    final DatabaseEngineType inEngine,
+    final DatabaseDerbyConnectionPool inConnectionPool,
+    final DatabaseDerbyConnectionPool inReadOnlyConnectionPool,
+    final Optional<DatabaseDerbyNetworkServer> inServer,
+    final DatabaseOpenTimings inOpenTimings,
+    final DatabaseDerbyAsyncExecutor inAsyncExecutor,
+    final DatabaseDerbyMetrics inMetrics,
+    final DatabasePartitionProviderRegistryType inPartitionProviders,
+    final Map<Class<? extends DatabaseQueriesType>, DatabasePartitionProviderType> inDispatch)
   {
-    this.dataSource =
-      Objects.requireNonNull(inDataSource, "dataSource");
+    this.path =
+      Objects.requireNonNull(inPath, "inPath");
+    this.engine =
+      Objects.requireNonNull(inEngine, "inEngine");
+    this.connectionPool =
+      Objects.requireNonNull(inConnectionPool, "connectionPool");
+    this.readOnlyConnectionPool =
+      Objects.requireNonNull(inReadOnlyConnectionPool, "inReadOnlyConnectionPool");
+    this.server =
+      Objects.requireNonNull(inServer, "inServer");
+    this.openTimings =
+      Objects.requireNonNull(inOpenTimings, "inOpenTimings");
+    this.asyncExecutor =
+      Objects.requireNonNull(inAsyncExecutor, "inAsyncExecutor");
+    this.metrics =
+      Objects.requireNonNull(inMetrics, "inMetrics");
+    this.connectionAcquire =
+      inMetrics.pool("write", inConnectionPool::statistics);
+    this.readOnlyConnectionAcquire =
+      inMetrics.pool("read", inReadOnlyConnectionPool::statistics);
     this.partitionProviders =
       Objects.requireNonNull(inPartitionProviders, "inPartitionProviders");
+    this.dispatch =
+      Objects.requireNonNull(inDispatch, "inDispatch");
 
     this.eventSubject =
       PublishSubject.create();
+    this.dataMigrator =
+      new AtomicReference<>();
+    this.closed =
+      new AtomicBoolean(false);
+  }
+
+  /**
+   * Start running the data migrations of the given partitions in the background. This is called
+   * once, by the provider that opened the database, after the partitions have been upgraded.
+   *
+   * @param providers  The partition providers
+   * @param parameters The migration parameters
+   */
+
+  void dataMigrationsStart(
+    final List<DatabasePartitionProviderType> providers,
+    final DatabaseMigrationParameters parameters)
+  {
+    final var migrator =
+      new DatabaseDerbyDataMigrator(
+        this.path, this.engine, this.connectionPool, providers, parameters);
+    if (this.dataMigrator.compareAndSet(null, migrator)) {
+      migrator.start();
+    }
   }
 
   @Override
@@ -60,33 +142,160 @@ final class DatabaseDerby implements DatabaseType
   @Override
   public String dialect()
   {
-    return "DERBY";
+    return this.engine.dialect();
   }
 
   @Override
   public DatabaseConnectionType openConnection()
     throws DatabaseException
   {
+    final var timeStart = System.nanoTime();
+    final var pooled = this.connectionPool.acquire();
+    this.connectionAcquire.recordSince(timeStart);
+    return new DatabaseDerbyConnection(this, this.connectionPool, pooled, false);
+  }
+
+  @Override
+  public DatabaseConnectionType openReadOnlyConnection()
+    throws DatabaseException
+  {
+    final var timeStart = System.nanoTime();
+    final var pooled = this.readOnlyConnectionPool.acquire();
+    this.readOnlyConnectionAcquire.recordSince(timeStart);
+    return new DatabaseDerbyConnection(this, this.readOnlyConnectionPool, pooled, true);
+  }
+
+  @Override
+  public DatabaseConnectionPoolStatistics connectionPoolStatistics()
+  {
+    return this.connectionPool.statistics();
+  }
+
+  @Override
+  public DatabaseConnectionPoolStatistics readOnlyConnectionPoolStatistics()
+  {
+    return this.readOnlyConnectionPool.statistics();
+  }
+
+  @Override
+  public DatabaseOpenTimings openTimings()
+  {
+    return this.openTimings;
+  }
+
+  @Override
+  public CompletionStage<Void> dataMigrations()
+  {
+    final var migrator = this.dataMigrator.get();
+    if (migrator == null) {
+      return CompletableFuture.completedFuture(null);
+    }
+    return migrator.completion();
+  }
+
+  @Override
+  public DatabaseStorageDiagnostics storageDiagnostics()
+    throws DatabaseException
+  {
+    final var pooled = this.readOnlyConnectionPool.acquire();
     try {
-      final var connection = this.dataSource.getPooledConnection();
-      return new DatabaseDerbyConnection(
-        this,
-        connection.getConnection());
+      return this.engine.diagnostics(pooled.handle());
     } catch (final SQLException e) {
-      throw DatabaseDerbyProvider.ofSQLException("errorOpenConnection", e);
+      throw new DatabaseException(
+        DatabaseMessages.localize("errorStorageDiagnostics", e.getLocalizedMessage()),
+        e);
+    } finally {
+      this.readOnlyConnectionPool.release(pooled);
     }
   }
 
+  @Override
+  public DatabaseBackup backup(
+    final DatabaseBackupParameters parameters,
+    final DatabaseBackupProgressListenerType listener)
+    throws DatabaseException
+  {
+    final var pooled = this.connectionPool.acquire();
+    try {
+      final var connection = pooled.handle();
+      connection.setAutoCommit(false);
+      return this.engine.backup(connection, this.path, parameters, listener);
+    } catch (final SQLException e) {
+      throw new DatabaseException(
+        DatabaseMessages.localize("errorBackup", e.getLocalizedMessage()),
+        e);
+    } finally {
+      this.connectionPool.release(pooled);
+    }
+  }
+
+  @Override
+  public <T> CompletionStage<T> transactAsync(
+    final DatabaseTransactionFunctionType<T> function)
+  {
+    return this.transactAsync(this.asyncExecutor.defaultDeadline(), function);
+  }
+
+  @Override
+  public <T> CompletionStage<T> transactAsync(
+    final Duration deadline,
+    final DatabaseTransactionFunctionType<T> function)
+  {
+    return this.asyncExecutor.submit(this, deadline, function);
+  }
+
+  @Override
+  public <T> CompletionStage<T> transactGrouped(
+    final DatabaseTransactionFunctionType<T> function)
+  {
+    return this.asyncExecutor.submitGrouped(this, function);
+  }
+
   @Override
   public void close()
   {
+    if (!this.closed.compareAndSet(false, true)) {
+      return;
+    }
+
     LOG.debug("close");
+    final var migrator = this.dataMigrator.get();
+    if (migrator != null) {
+      migrator.close();
+    }
+    this.asyncExecutor.close();
+    this.readOnlyConnectionPool.close();
+    this.connectionPool.close();
+    try {
+      this.engine.shutdown(this.path);
+    } catch (final SQLException e) {
+      LOG.warn("failed to shut down database: ", e);
+    }
+    this.server.ifPresent(DatabaseDerbyNetworkServer::close);
     this.eventSubject.onComplete();
   }
 
-  DatabasePartitionProviderRegistryType partitionProviders()
+  /**
+   * Find the partition provider responsible for the given queries class. The table built when
+   * the database was opened is consulted first; the registry is only searched for queries
+   * classes registered after the database was opened.
+   */
+
+  <P extends DatabaseQueriesType> Optional<DatabasePartitionProviderType> partitionProviderFor(
+    final Class<P> queriesClass)
+  {
+    final var provider = this.dispatch.get(queriesClass);
+    if (provider != null) {
+      return Optional.of(provider);
+    }
+    return this.partitionProviders.findProviderForDialectAndQueries(
+      this.engine.dialect(),
+      queriesClass);
+  }
+
+  DatabaseDerbyMetrics metrics()
   {
-    return this.partitionProviders;
+    return this.metrics;
   }
 
   PublishSubject<DatabaseEventType> eventSubject()
@@ -0,0 +1,466 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.ironpage.database.derby;
+
+import com.io7m.ironpage.database.api.DatabaseAsyncParameters;
+import com.io7m.ironpage.database.api.DatabaseGroupCommitParameters;
+import com.io7m.ironpage.database.api.DatabaseTransactionFunctionType;
+import com.io7m.ironpage.database.api.DatabaseType;
+import com.io7m.ironpage.database.spi.DatabaseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * An executor for asynchronous transactions.
+ *
+ * Backpressure is applied with a semaphore rather than with the executor's own queue so that the
+ * same limit applies regardless of whether the executor was created here or supplied by the
+ * user: at most {@code threads + queueCapacity} transactions may be outstanding at any time, and
+ * further submissions fail immediately.
+ *
+ * If group commit is enabled, grouped transactions are gathered into groups. The first
+ * transaction to arrive opens a group, and the group is dispatched to the executor when it is
+ * full or when the maximum delay has passed, whichever happens first. Each transaction in a group
+ * holds its own permit, so grouped transactions are subject to the same backpressure.
+ *
+ * The deadline of a transaction governs when it may start and how long its function may run:
+ * the deadline is checked before the transaction begins and again before it is committed, and
+ * the transaction is rolled back if the deadline has passed. The returned future is completed
+ * only when the outcome is known, so a transaction that fails its deadline is known not to have
+ * been committed, and a transaction whose commit finishes after the deadline is reported as
+ * having succeeded. The commit itself is not interrupted.
+ *
+ * Because every outstanding transaction holds a permit, closing the executor drains it by
+ * acquiring all of the permits. This waits for transactions submitted to an executor supplied
+ * by the user in exactly the same way as for the executor created here.
+ */
+
+final class DatabaseDerbyAsyncExecutor implements Closeable
+{
+  private static final Logger LOG = LoggerFactory.getLogger(DatabaseDerbyAsyncExecutor.class);
+
+  private final DatabaseAsyncParameters parameters;
+  private final Executor executor;
+  private final Optional<ExecutorService> owned;
+  private final Semaphore outstanding;
+  private final int outstandingMaximum;
+  private final Optional<DatabaseGroupCommitParameters> groupCommit;
+  private final Object groupLock;
+  private final AtomicBoolean closed;
+  private OpenGroup group;
+
+  private DatabaseDerbyAsyncExecutor(
+    final DatabaseAsyncParameters inParameters,
+    final Optional<DatabaseGroupCommitParameters> inGroupCommit,
+    final Executor inExecutor,
+    final Optional<ExecutorService> inOwned,
+    final int inOutstandingMaximum)
+  {
+    this.parameters =
+      Objects.requireNonNull(inParameters, "inParameters");
+    this.groupCommit =
+      Objects.requireNonNull(inGroupCommit, "inGroupCommit");
+    this.executor =
+      Objects.requireNonNull(inExecutor, "inExecutor");
+    this.owned =
+      Objects.requireNonNull(inOwned, "inOwned");
+    this.outstandingMaximum = inOutstandingMaximum;
+    this.outstanding = new Semaphore(inOutstandingMaximum);
+    this.groupLock = new Object();
+    this.closed = new AtomicBoolean(false);
+  }
+
+  /**
+   * Create a new executor. If the parameters do not provide an executor, a bounded pool of
+   * daemon threads is created and is shut down when this executor is closed.
+   *
+   * @param parameters  The parameters
+   * @param groupCommit The group commit parameters, if group commit is enabled
+   *
+   * @return A new executor
+   */
+
+  static DatabaseDerbyAsyncExecutor create(
+    final DatabaseAsyncParameters parameters,
+    final Optional<DatabaseGroupCommitParameters> groupCommit)
+  {
+    Objects.requireNonNull(parameters, "parameters");
+    Objects.requireNonNull(groupCommit, "groupCommit");
+
+    final var threads = parameters.threads();
+    final var maximum = Math.addExact(threads, parameters.queueCapacity());
+    final var provided = parameters.executor();
+    if (provided.isPresent()) {
+      return new DatabaseDerbyAsyncExecutor(
+        parameters, groupCommit, provided.get(), Optional.empty(), maximum);
+    }
+
+    final var pool =
+      new ThreadPoolExecutor(
+        threads,
+        threads,
+        60L,
+        TimeUnit.SECONDS,
+        new LinkedBlockingQueue<>(),
+        runnable -> {
+          final var thread = new Thread(runnable);
+          thread.setName("com.io7m.ironpage.database.derby.async[" + thread.getId() + "]");
+          thread.setDaemon(true);
+          return thread;
+        });
+    pool.allowCoreThreadTimeOut(true);
+    return new DatabaseDerbyAsyncExecutor(parameters, groupCommit, pool, Optional.of(pool), maximum);
+  }
+
+  private static void checkDeadline(
+    final Duration deadline,
+    final long deadlineNanos)
+    throws DatabaseException
+  {
+    if (System.nanoTime() - deadlineNanos >= 0L) {
+      throw new DatabaseException(
+        DatabaseMessages.localize("errorAsyncDeadline", deadline));
+    }
+  }
+
+  private static <T> T runTransaction(
+    final DatabaseType database,
+    final Duration deadline,
+    final long deadlineNanos,
+    final DatabaseTransactionFunctionType<T> function)
+    throws Exception
+  {
+    checkDeadline(deadline, deadlineNanos);
+
+    try (var connection = database.openConnection()) {
+      try (var transaction = connection.beginTransaction()) {
+        final var result = function.execute(transaction);
+
+        /*
+         * The deadline is checked for the last time before the commit. If it has passed, the
+         * transaction is rolled back when it is closed, and the caller is told that it failed.
+         * Once the commit has started, the transaction is allowed to finish.
+         */
+
+        checkDeadline(deadline, deadlineNanos);
+        transaction.commit();
+        return result;
+      }
+    }
+  }
+
+  /**
+   * @return The default deadline for transactions
+   */
+
+  Duration defaultDeadline()
+  {
+    return this.parameters.defaultDeadline();
+  }
+
+  /**
+   * Submit a function for evaluation within a new transaction.
+   *
+   * @param database The database on which to open connections
+   * @param deadline The deadline
+   * @param function The function
+   * @param <T>      The type of returned values
+   *
+   * @return The eventual result of the function
+   */
+
+  <T> CompletionStage<T> submit(
+    final DatabaseType database,
+    final Duration deadline,
+    final DatabaseTransactionFunctionType<T> function)
+  {
+    Objects.requireNonNull(database, "database");
+    Objects.requireNonNull(deadline, "deadline");
+    Objects.requireNonNull(function, "function");
+
+    if (this.closed.get()) {
+      return this.isClosed();
+    }
+    if (!this.outstanding.tryAcquire()) {
+      return this.queueFull();
+    }
+
+    final var deadlineNanos = System.nanoTime() + deadline.toNanos();
+    final var future = new CompletableFuture<T>();
+    try {
+      this.executor.execute(() -> this.run(database, deadline, deadlineNanos, function, future));
+    } catch (final RejectedExecutionException e) {
+      this.outstanding.release();
+      future.completeExceptionally(
+        new DatabaseException(DatabaseMessages.localize("errorAsyncRejected"), e));
+      return future;
+    }
+
+    return future;
+  }
+
+  private <T> CompletableFuture<T> isClosed()
+  {
+    return CompletableFuture.failedFuture(
+      new DatabaseException(DatabaseMessages.localize("errorAsyncClosed")));
+  }
+
+  private <T> CompletableFuture<T> queueFull()
+  {
+    return CompletableFuture.failedFuture(
+      new DatabaseException(
+        DatabaseMessages.localize("errorAsyncQueueFull", Integer.valueOf(this.outstandingMaximum))));
+  }
+
+  /**
+   * Submit a function for evaluation within a transaction that may be shared with other
+   * functions. If group commit is not enabled, this is equivalent to {@link
+   * #submit(DatabaseType, Duration, DatabaseTransactionFunctionType)} with the default deadline.
+   *
+   * @param database The database on which to open connections
+   * @param function The function
+   * @param <T>      The type of returned values
+   *
+   * @return The eventual result of the function
+   */
+
+  <T> CompletionStage<T> submitGrouped(
+    final DatabaseType database,
+    final DatabaseTransactionFunctionType<T> function)
+  {
+    Objects.requireNonNull(database, "database");
+    Objects.requireNonNull(function, "function");
+
+    if (this.groupCommit.isEmpty()) {
+      return this.submit(database, this.defaultDeadline(), function);
+    }
+
+    if (this.closed.get()) {
+      return this.isClosed();
+    }
+    if (!this.outstanding.tryAcquire()) {
+      return this.queueFull();
+    }
+
+    final var configuration = this.groupCommit.get();
+    final var maximumSize = configuration.maximumSize();
+    final var unit = new DatabaseDerbyGroupCommit.Unit<>(function, this.defaultDeadline());
+
+    final OpenGroup opened;
+    final OpenGroup full;
+    synchronized (this.groupLock) {
+      if (this.group == null) {
+        this.group = new OpenGroup(database, maximumSize);
+        opened = this.group;
+      } else {
+        opened = null;
+      }
+
+      final var current = this.group;
+      final var units = current.units();
+      units.add(unit);
+      if (units.size() >= maximumSize) {
+        this.group = null;
+        full = current;
+      } else {
+        full = null;
+      }
+    }
+
+    if (full != null) {
+      this.dispatch(full);
+    } else if (opened != null) {
+      CompletableFuture.delayedExecutor(
+        configuration.maximumDelay().toNanos(),
+        TimeUnit.NANOSECONDS,
+        Runnable::run)
+        .execute(() -> this.dispatchIfOpen(opened));
+    }
+    return unit.future();
+  }
+
+  private void dispatchIfOpen(
+    final OpenGroup expected)
+  {
+    synchronized (this.groupLock) {
+      if (this.group != expected) {
+        return;
+      }
+      this.group = null;
+    }
+    this.dispatch(expected);
+  }
+
+  private void dispatch(
+    final OpenGroup dispatched)
+  {
+    LOG.trace("dispatching group of {}", Integer.valueOf(dispatched.units().size()));
+
+    try {
+      this.executor.execute(() -> this.runGroup(dispatched));
+    } catch (final RejectedExecutionException e) {
+      final var error =
+        new DatabaseException(DatabaseMessages.localize("errorAsyncRejected"), e);
+      for (final var unit : dispatched.units()) {
+        unit.fail(error);
+      }
+      this.completeGroup(dispatched);
+    }
+  }
+
+  private void runGroup(
+    final OpenGroup dispatched)
+  {
+    final var units = dispatched.units();
+    try {
+      DatabaseDerbyGroupCommit.execute(dispatched.database(), units);
+    } catch (final Throwable e) {
+      LOG.error("group of {} transactions failed: ", Integer.valueOf(units.size()), e);
+      for (final var unit : units) {
+        unit.failUnlessCommitted(e);
+      }
+      if (e instanceof Error) {
+        throw (Error) e;
+      }
+    } finally {
+      this.completeGroup(dispatched);
+    }
+  }
+
+  private void completeGroup(
+    final OpenGroup dispatched)
+  {
+    final var units = dispatched.units();
+    this.outstanding.release(units.size());
+    for (final var unit : units) {
+      unit.complete();
+    }
+  }
+
+  /**
+   * Run a transaction and complete the future. The permit is released before the future is
+   * completed so that callers reacting to completion can submit a new transaction immediately.
+   */
+
+  private <T> void run(
+    final DatabaseType database,
+    final Duration deadline,
+    final long deadlineNanos,
+    final DatabaseTransactionFunctionType<T> function,
+    final CompletableFuture<T> future)
+  {
+    T result = null;
+    Throwable failure = null;
+    try {
+      if (!future.isDone()) {
+        result = runTransaction(database, deadline, deadlineNanos, function);
+      }
+    } catch (final Throwable e) {
+      failure = e;
+    } finally {
+      this.outstanding.release();
+    }
+
+    if (failure != null) {
+      future.completeExceptionally(failure);
+    } else {
+      future.complete(result);
+    }
+  }
+
+  /**
+   * Close the executor. New transactions are refused, any open group is dispatched, and the
+   * transactions that are outstanding are given up to the default deadline to complete, whether
+   * or not the executor was supplied by the user.
+   */
+
+  @Override
+  public void close()
+  {
+    if (!this.closed.compareAndSet(false, true)) {
+      return;
+    }
+
+    final OpenGroup remaining;
+    synchronized (this.groupLock) {
+      remaining = this.group;
+      this.group = null;
+    }
+    if (remaining != null) {
+      this.dispatch(remaining);
+    }
+
+    try {
+      final var timeout = this.parameters.defaultDeadline().toNanos();
+      if (!this.outstanding.tryAcquire(this.outstandingMaximum, timeout, TimeUnit.NANOSECONDS)) {
+        LOG.warn("asynchronous transactions did not complete before shutdown");
+      }
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    this.owned.ifPresent(ExecutorService::shutdown);
+  }
+
+  /**
+   * A group of transactions that has not yet been dispatched.
+   */
+
+  private static final class OpenGroup
+  {
+    private final DatabaseType database;
+    private final List<DatabaseDerbyGroupCommit.Unit<?>> units;
+
+    OpenGroup(
+      final DatabaseType inDatabase,
+      final int size)
+    {
+      this.database =
+        Objects.requireNonNull(inDatabase, "inDatabase");
+      this.units =
+        new ArrayList<>(size);
+    }
+
+    DatabaseType database()
+    {
+      return this.database;
+    }
+
+    List<DatabaseDerbyGroupCommit.Unit<?>> units()
+    {
+      return this.units;
+    }
+  }
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironpage.database.derby;
+
+import com.io7m.ironpage.database.api.DatabaseBackup;
+import com.io7m.ironpage.database.api.DatabaseBackupParameters;
+import com.io7m.ironpage.database.api.DatabaseBackupProgressListenerType;
+import com.io7m.ironpage.database.api.DatabaseParameters;
+import com.io7m.ironpage.database.api.DatabaseRestoreParameters;
+import org.apache.derby.jdbc.ClientDataSource;
+import org.apache.derby.jdbc.EmbeddedDataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Functions to take online backups of Derby databases, and to restore databases from them.
+ */
+
+final class DatabaseDerbyBackup
+{
+  private static final Logger LOG = LoggerFactory.getLogger(DatabaseDerbyBackup.class);
+
+  private static final String BACKUP =
+    "CALL SYSCS_UTIL.SYSCS_BACKUP_DATABASE_NOWAIT(?)";
+
+  private static final String BACKUP_ARCHIVING =
+    "CALL SYSCS_UTIL.SYSCS_BACKUP_DATABASE_AND_ENABLE_LOG_ARCHIVE_MODE_NOWAIT(?, ?)";
+
+  private static final String SPACE_ALLOCATED =
+    "SELECT SUM(CAST(d.pagesize AS BIGINT) * (d.numallocatedpages + d.numfreepages)) "
+      + "FROM TABLE(SYSCS_DIAG.SPACE_TABLE()) d";
+
+  private DatabaseDerbyBackup()
+  {
+
+  }
+
+  private static long spaceAllocated(
+    final Connection connection)
+    throws SQLException
+  {
+    try (var statement = connection.prepareStatement(SPACE_ALLOCATED)) {
+      try (var result = statement.executeQuery()) {
+        result.next();
+        return result.getLong(1);
+      }
+    }
+  }
+
+  /**
+   * Calculate the size of the files in a directory. Derby creates and renames files while a
+   * backup is written, so files that vanish while the directory is walked are ignored.
+   */
+
+  private static long sizeOf(
+    final Path directory)
+  {
+    if (!Files.isDirectory(directory)) {
+      return 0L;
+    }
+
+    final var visitor = new SizeVisitor();
+    try {
+      Files.walkFileTree(directory, visitor);
+    } catch (final IOException e) {
+      LOG.trace("size: ", e);
+    }
+    return visitor.total;
+  }
+
+  /**
+   * @return The directory that Derby creates for a backup of the given database, which is named
+   * after the last element of the database path
+   */
+
+  private static Path backupPath(
+    final String databasePath,
+    final Path directory)
+  {
+    final var normalized = databasePath.replace('\\', '/');
+    return directory.resolve(normalized.substring(normalized.lastIndexOf('/') + 1));
+  }
+
+  /**
+   * Back up a database without blocking writers. Derby copies the database and the transaction
+   * log written during the copy, so the backup is consistent as of the moment it began. Progress
+   * is reported by periodically measuring the size of the backup directory, which is only
+   * possible if the directory is visible to this process.
+   *
+   * @param connection   The connection
+   * @param databasePath The database path
+   * @param parameters   The backup parameters
+   * @param listener     The progress listener
+   *
+   * @return The completed backup
+   *
+   * @throws SQLException On errors
+   */
+
+  static DatabaseBackup backup(
+    final Connection connection,
+    final String databasePath,
+    final DatabaseBackupParameters parameters,
+    final DatabaseBackupProgressListenerType listener)
+    throws SQLException
+  {
+    Objects.requireNonNull(connection, "connection");
+    Objects.requireNonNull(databasePath, "databasePath");
+    Objects.requireNonNull(parameters, "parameters");
+    Objects.requireNonNull(listener, "listener");
+
+    final var directory = parameters.directory().toAbsolutePath();
+    final var path = backupPath(databasePath, directory);
+    final var estimated = spaceAllocated(connection);
+    connection.commit();
+
+    LOG.info("backup: {} -> {} (approximately {} bytes)", databasePath, path, estimated);
+
+    final var progress = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      final var thread = new Thread(runnable);
+      thread.setName("com.io7m.ironpage.database.derby.backup[" + thread.getId() + "]");
+      thread.setDaemon(true);
+      return thread;
+    });
+
+    final var interval = parameters.progressInterval().toNanos();
+    progress.scheduleAtFixedRate(
+      () -> report(listener, sizeOf(path), estimated),
+      interval,
+      interval,
+      TimeUnit.NANOSECONDS);
+
+    final var timeStart = System.nanoTime();
+    try {
+      if (parameters.enableLogArchiving()) {
+        try (var statement = connection.prepareCall(BACKUP_ARCHIVING)) {
+          statement.setString(1, directory.toString());
+          statement.setShort(2, parameters.deleteArchivedLogs() ? (short) 1 : (short) 0);
+          statement.execute();
+        }
+      } else {
+        try (var statement = connection.prepareCall(BACKUP)) {
+          statement.setString(1, directory.toString());
+          statement.execute();
+        }
+      }
+      connection.commit();
+    } finally {
+      progress.shutdownNow();
+    }
+
+    final var duration = Duration.ofNanos(System.nanoTime() - timeStart);
+    final var size = sizeOf(path);
+    report(listener, size, estimated);
+
+    LOG.info("backup: {} completed in {} ({} bytes)", path, duration, size);
+    return DatabaseBackup.builder()
+      .setPath(path)
+      .setSize(size)
+      .setDuration(duration)
+      .setLogArchiving(parameters.enableLogArchiving())
+      .build();
+  }
+
+  private static void report(
+    final DatabaseBackupProgressListenerType listener,
+    final long bytesCopied,
+    final long bytesEstimated)
+  {
+    try {
+      listener.onBackupProgress(bytesCopied, bytesEstimated);
+    } catch (final Exception e) {
+      LOG.error("ignored exception raised by backup progress listener: ", e);
+    }
+  }
+
+  /**
+   * Restore a database from a backup. The restore happens when Derby boots the database with
+   * the {@code restoreFrom} or {@code rollForwardRecoveryFrom} attribute, so an embedded
+   * database that is already booted in this process is shut down first. A database behind a
+   * network server is restored by the server, and must not be in use by other clients.
+   *
+   * @param parameters The database parameters
+   * @param restore    The restore parameters
+   *
+   * @throws SQLException On errors
+   */
+
+  static void restore(
+    final DatabaseParameters parameters,
+    final DatabaseRestoreParameters restore)
+    throws SQLException
+  {
+    Objects.requireNonNull(parameters, "parameters");
+    Objects.requireNonNull(restore, "restore");
+
+    final var backup = restore.backup().toAbsolutePath();
+    final var attribute = restore.rollForward() ? "rollForwardRecoveryFrom" : "restoreFrom";
+    final var attributes = attribute + "=" + backup;
+    LOG.info("restore: {} <- {} ({})", parameters.path(), backup, attribute);
+
+    final DataSource dataSource;
+    final var serverParameters = parameters.server();
+    if (serverParameters.isPresent()) {
+      final var server = serverParameters.get();
+      final var clientSource = new ClientDataSource();
+      clientSource.setServerName(server.host());
+      clientSource.setPortNumber(server.port());
+      clientSource.setDatabaseName(parameters.path());
+      clientSource.setConnectionAttributes(attributes);
+      dataSource = clientSource;
+    } else {
+      final var path = parameters.path();
+      shutdownIfBooted(path);
+      final var embeddedSource = new EmbeddedDataSource();
+      embeddedSource.setDatabaseName(path);
+      embeddedSource.setConnectionAttributes(attributes);
+      dataSource = embeddedSource;
+    }
+
+    dataSource.getConnection().close();
+  }
+
+  private static void shutdownIfBooted(
+    final String path)
+    throws SQLException
+  {
+    try {
+      DatabaseDerbyStorage.shutdownEmbedded(path);
+    } catch (final SQLException e) {
+      if (!Objects.equals(e.getSQLState(), "XJ004")) {
+        throw e;
+      }
+    }
+  }
+
+  private static final class SizeVisitor extends SimpleFileVisitor<Path>
+  {
+    private long total;
+
+    SizeVisitor()
+    {
+
+    }
+
+    @Override
+    public FileVisitResult visitFile(
+      final Path file,
+      final BasicFileAttributes attributes)
+    {
+      this.total += attributes.size();
+      return FileVisitResult.CONTINUE;
+    }
+
+    @Override
+    public FileVisitResult visitFileFailed(
+      final Path file,
+      final IOException e)
+    {
+      return FileVisitResult.CONTINUE;
+    }
+  }
+}
@@ -19,46 +19,203 @@ package com.io7m.ironpage.database.derby;
 import com.io7m.ironpage.database.api.DatabaseConnectionType;
 import com.io7m.ironpage.database.api.DatabaseTransactionType;
 import com.io7m.ironpage.database.spi.DatabaseException;
+import com.io7m.ironpage.database.spi.DatabaseQueriesType;
+import com.io7m.ironpage.database.spi.DatabaseTransactionListenerType;
+import com.io7m.ironpage.errors.api.ErrorSeverity;
+import com.io7m.ironpage.presentable.api.PresentableAttributes;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 final class DatabaseDerbyConnection implements DatabaseConnectionType
 {
   private static final Logger LOG = LoggerFactory.getLogger(DatabaseDerbyConnection.class);
 
   private final Connection connection;
+  private final Connection connectionTracked;
   private final DatabaseDerby database;
+  private final DatabaseDerbyConnectionPool pool;
+  private final DatabaseDerbyPooledConnection pooled;
+  private final boolean readOnly;
+  private final AtomicBoolean closed;
+  private final Map<Class<? extends DatabaseQueriesType>, DatabaseQueriesType> queries;
+  private final List<AutoCloseable> queriesResources;
+  private final List<DatabaseTransactionListenerType> queriesListeners;
+  private boolean dirty;
 
   DatabaseDerbyConnection(
     final DatabaseDerby inDatabase,
-    final Connection inConnection)
+    final DatabaseDerbyConnectionPool inPool,
+    final DatabaseDerbyPooledConnection inPooled,
+    final boolean inReadOnly)
   {
     this.database =
       Objects.requireNonNull(inDatabase, "inDatabase");
+    this.pool =
+      Objects.requireNonNull(inPool, "inPool");
+    this.pooled =
+      Objects.requireNonNull(inPooled, "inPooled");
     this.connection =
-      Objects.requireNonNull(inConnection, "inConnection");
+      Objects.requireNonNull(inPooled.handle(), "inPooled.handle()");
+    this.connectionTracked =
+      track(this, Connection.class, this.connection);
+    this.readOnly = inReadOnly;
+    this.closed = new AtomicBoolean(false);
+    this.queries = new HashMap<>(8);
+    this.queriesResources = new ArrayList<>(8);
+    this.queriesListeners = new ArrayList<>(8);
   }
 
   @Override
   public void close()
-    throws DatabaseException
   {
-    try {
+    if (this.closed.compareAndSet(false, true)) {
       LOG.trace("close");
-      this.connection.close();
-    } catch (final SQLException e) {
-      throw DatabaseDerbyProvider.ofSQLException("errorCloseConnection", e);
+      this.transactionRolledBack();
+      this.closeQueries();
+      this.pooled.setTransactionClean(!this.dirty);
+      this.pool.release(this.pooled);
+    }
+  }
+
+  /**
+   * Close any queries that hold resources, such as prepared statements, on the connection. A
+   * failure to close them is not fatal: the statements are then left for the database to clean up
+   * along with the physical connection.
+   */
+
+  private void closeQueries()
+  {
+    for (final var resource : this.queriesResources) {
+      try {
+        resource.close();
+      } catch (final Exception e) {
+        LOG.debug("could not close queries: ", e);
+      }
     }
+    this.queriesResources.clear();
   }
 
   @Override
   public DatabaseTransactionType beginTransaction()
+    throws DatabaseException
+  {
+    return this.begin(this.readOnly);
+  }
+
+  @Override
+  public DatabaseTransactionType beginReadOnlyTransaction()
+    throws DatabaseException
+  {
+    return this.begin(true);
+  }
+
+  /**
+   * Configure the connection for a new transaction. The read-only flag and isolation level can
+   * only be changed between transactions, and the previous transaction on this connection has
+   * always been completed by the time a new one begins. Read committed is already Derby's
+   * default isolation level; it is checked here so that a connection can never carry a stricter
+   * level into a read-only transaction.
+   */
+
+  private DatabaseTransactionType begin(
+    final boolean transactionReadOnly)
+    throws DatabaseException
   {
-    return new DatabaseDerbyTransaction(this);
+    try {
+      if (this.connection.getAutoCommit()) {
+        this.connection.setAutoCommit(false);
+      }
+      if (this.connection.isReadOnly() != transactionReadOnly) {
+        this.connection.setReadOnly(transactionReadOnly);
+      }
+      if (this.connection.getTransactionIsolation() != Connection.TRANSACTION_READ_COMMITTED) {
+        this.connection.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+      }
+    } catch (final SQLException e) {
+      throw DatabaseDerbyProvider.ofSQLException("errorConnectionBegin", e);
+    }
+    return new DatabaseDerbyTransaction(this, this.database.metrics());
+  }
+
+  /**
+   * Tell the queries that hold work outside of the database that the transaction committed. The
+   * database has already committed, so a failing listener is logged rather than reported to the
+   * caller.
+   */
+
+  void transactionCommitted()
+  {
+    for (final var listener : this.queriesListeners) {
+      try {
+        listener.onTransactionCommitted();
+      } catch (final RuntimeException e) {
+        LOG.error("transaction listener failed: ", e);
+      }
+    }
+  }
+
+  /**
+   * Tell the queries that hold work outside of the database that the transaction rolled back.
+   */
+
+  void transactionRolledBack()
+  {
+    for (final var listener : this.queriesListeners) {
+      try {
+        listener.onTransactionRolledBack();
+      } catch (final RuntimeException e) {
+        LOG.error("transaction listener failed: ", e);
+      }
+    }
+  }
+
+  /**
+   * @return The marks of the queries that hold work outside of the database at a new savepoint,
+   * in the order in which the queries were created
+   */
+
+  List<Long> transactionSavepoint()
+  {
+    final var listeners = this.queriesListeners;
+    final var marks = new ArrayList<Long>(listeners.size());
+    for (final var listener : listeners) {
+      marks.add(Long.valueOf(listener.onTransactionSavepoint()));
+    }
+    return marks;
+  }
+
+  /**
+   * Tell the queries that hold work outside of the database that the transaction rolled back to
+   * the savepoint with the given marks. Queries created after the savepoint discard all of their
+   * work.
+   */
+
+  void transactionRolledBackToSavepoint(
+    final List<Long> marks)
+  {
+    final var listeners = this.queriesListeners;
+    for (var index = 0; index < listeners.size(); ++index) {
+      try {
+        final var mark = index < marks.size() ? marks.get(index).longValue() : 0L;
+        listeners.get(index).onTransactionRolledBackToSavepoint(mark);
+      } catch (final RuntimeException e) {
+        LOG.error("transaction listener failed: ", e);
+      }
+    }
   }
 
   DatabaseDerby database()
@@ -70,4 +227,136 @@ final class DatabaseDerbyConnection implements DatabaseConnectionType
   {
     return this.connection;
   }
+
+  /**
+   * @return {@code true} if statements may have been executed on the connection since the last
+   * commit or rollback
+   */
+
+  boolean isDirty()
+  {
+    return this.dirty;
+  }
+
+  void setDirty(
+    final boolean inDirty)
+  {
+    this.dirty = inDirty;
+  }
+
+  /**
+   * Retrieve queries of the given type. Queries are created on first use and then reused for the
+   * lifetime of the connection; they hold no state beyond the connection itself. Queries that
+   * implement {@link AutoCloseable}, typically in order to close the statements they prepare, are
+   * closed when the connection is returned to the pool. Queries that implement
+   * {@link DatabaseTransactionListenerType} are told when transactions on the connection end.
+   *
+   * Queries are given a connection that marks this connection as dirty whenever one of its
+   * statements is executed. This allows transactions to skip the round trip to the database when
+   * committing or rolling back a transaction that has done nothing since it last ended. Tracking
+   * happens at the level of statements, rather than of calls to the queries, so that statements
+   * executed later on behalf of values returned by the queries, such as blob data that is read
+   * lazily, also leave the connection dirty, and the transaction that they open is rolled back
+   * when the connection is returned to the pool.
+   */
+
+  <P extends DatabaseQueriesType> P queries(final Class<P> queriesClass)
+    throws DatabaseException
+  {
+    Objects.requireNonNull(queriesClass, "queriesClass");
+
+    final var existing = this.queries.get(queriesClass);
+    if (existing != null) {
+      return queriesClass.cast(existing);
+    }
+
+    final var partitionProviderOpt = this.database.partitionProviderFor(queriesClass);
+    if (partitionProviderOpt.isPresent()) {
+      final var partitionProvider = partitionProviderOpt.get();
+      final var subject = this.database.eventSubject();
+      final var raw =
+        partitionProvider.queriesCreate(this.connectionTracked, subject, queriesClass);
+      if (raw instanceof AutoCloseable) {
+        this.queriesResources.add((AutoCloseable) raw);
+      }
+      if (raw instanceof DatabaseTransactionListenerType) {
+        this.queriesListeners.add((DatabaseTransactionListenerType) raw);
+      }
+      final var created = this.database.metrics().wrapQueries(queriesClass, raw);
+      this.queries.put(queriesClass, created);
+      return created;
+    }
+
+    throw new DatabaseException(
+      ErrorSeverity.SEVERITY_ERROR,
+      DatabaseMessages.localize("errorCreateQueriesUnavailable"),
+      null,
+      PresentableAttributes.one(
+        DatabaseMessages.localize("queriesClass"),
+        queriesClass.getCanonicalName())
+    );
+  }
+
+  private static <T> T track(
+    final DatabaseDerbyConnection connection,
+    final Class<T> type,
+    final T target)
+  {
+    return type.cast(trackObject(connection, type, target));
+  }
+
+  static Object trackObject(
+    final DatabaseDerbyConnection connection,
+    final Class<?> type,
+    final Object target)
+  {
+    return Proxy.newProxyInstance(
+      DatabaseDerbyConnection.class.getClassLoader(),
+      new Class<?>[]{type},
+      new TrackingHandler(connection, target));
+  }
+
+  /**
+   * A handler that marks the connection as dirty when a statement is executed. Statements
+   * created through a tracked connection are themselves tracked.
+   */
+
+  private static final class TrackingHandler implements InvocationHandler
+  {
+    private final DatabaseDerbyConnection connection;
+    private final Object target;
+
+    TrackingHandler(
+      final DatabaseDerbyConnection inConnection,
+      final Object inTarget)
+    {
+      this.connection = inConnection;
+      this.target = inTarget;
+    }
+
+    @Override
+    public Object invoke(
+      final Object proxy,
+      final Method method,
+      final Object[] arguments)
+      throws Throwable
+    {
+      if (this.target instanceof Statement && method.getName().startsWith("execute")) {
+        this.connection.setDirty(true);
+      }
+
+      final Object result;
+      try {
+        result = method.invoke(this.target, arguments);
+      } catch (final InvocationTargetException e) {
+        throw e.getCause();
+      }
+
+      final var returnType = method.getReturnType();
+      if (result instanceof Statement && Statement.class.isAssignableFrom(returnType)) {
+        return trackObject(this.connection, returnType, result);
+      }
+      return result;
+    }
+  }
 }
@@ -0,0 +1,641 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.ironpage.database.derby;
+
+import com.io7m.ironpage.database.api.DatabaseConnectionBudgetType;
+import com.io7m.ironpage.database.api.DatabaseConnectionReclaimerType;
+import com.io7m.ironpage.database.api.DatabaseConnectionPoolParameters;
+import com.io7m.ironpage.database.api.DatabaseConnectionPoolStatistics;
+import com.io7m.ironpage.database.spi.DatabaseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.ConnectionPoolDataSource;
+import java.io.Closeable;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded pool of physical connections.
+ *
+ * Idle connections are handed out most-recently-used first so that the connections at the tail
+ * of the idle queue are the ones that age out under light load. Callers block for at most the
+ * configured acquisition timeout when the pool is exhausted.
+ *
+ * If the pool shares a connection budget with other pools, a permit is taken from the budget
+ * for each physical connection opened, and returned when the connection is closed. The pool
+ * registers itself with the budget so that other pools that cannot obtain a permit can ask it
+ * to close its oldest idle connection, even if that takes the pool below its minimum size.
+ */
+
+final class DatabaseDerbyConnectionPool implements Closeable, DatabaseConnectionReclaimerType
+{
+  private static final Logger LOG = LoggerFactory.getLogger(DatabaseDerbyConnectionPool.class);
+
+  private static final List<Duration> WAIT_BUCKETS =
+    List.of(
+      Duration.ofMillis(1L),
+      Duration.ofMillis(10L),
+      Duration.ofMillis(100L),
+      Duration.ofSeconds(1L),
+      Duration.ofSeconds(10L),
+      ChronoUnit.FOREVER.getDuration());
+
+  private final ConnectionPoolDataSource dataSource;
+  private final DatabaseConnectionPoolParameters parameters;
+  private final ReentrantLock lock;
+  private final Condition available;
+  private final ArrayDeque<DatabaseDerbyPooledConnection> idle;
+  private final Set<DatabaseDerbyPooledConnection> borrowed;
+  private final AtomicLongArray waitHistogram;
+  private final AtomicLong acquisitionTimeouts;
+  private final AtomicLong leaksDetected;
+  private final ScheduledExecutorService maintenance;
+  private int total;
+  private boolean closed;
+
+  private DatabaseDerbyConnectionPool(
+    final String inName,
+    final ConnectionPoolDataSource inDataSource,
+    final DatabaseConnectionPoolParameters inParameters)
+  {
+    Objects.requireNonNull(inName, "inName");
+    this.dataSource =
+      Objects.requireNonNull(inDataSource, "inDataSource");
+    this.parameters =
+      Objects.requireNonNull(inParameters, "inParameters");
+
+    final var maximum = inParameters.maximumSize();
+    this.lock = new ReentrantLock();
+    this.available = this.lock.newCondition();
+    this.idle = new ArrayDeque<>(maximum);
+    this.borrowed = new HashSet<>(maximum);
+    this.waitHistogram = new AtomicLongArray(WAIT_BUCKETS.size());
+    this.acquisitionTimeouts = new AtomicLong();
+    this.leaksDetected = new AtomicLong();
+    this.maintenance = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      final var thread = new Thread(runnable);
+      thread.setName(
+        "com.io7m.ironpage.database.derby.pool." + inName + "[" + thread.getId() + "]");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Create a new pool, open the minimum number of connections, and start the maintenance task.
+   *
+   * @param name       The name of the pool, used to name its maintenance thread
+   * @param dataSource The source of physical connections
+   * @param parameters The pool parameters
+   *
+   * @return A new pool
+   *
+   * @throws DatabaseException On errors
+   */
+
+  static DatabaseDerbyConnectionPool create(
+    final String name,
+    final ConnectionPoolDataSource dataSource,
+    final DatabaseConnectionPoolParameters parameters)
+    throws DatabaseException
+  {
+    final var pool = new DatabaseDerbyConnectionPool(name, dataSource, parameters);
+    try {
+      pool.start();
+      parameters.budget().ifPresent(budget -> budget.register(pool));
+      return pool;
+    } catch (final DatabaseException e) {
+      pool.close();
+      throw e;
+    }
+  }
+
+  private void closePhysical(
+    final DatabaseDerbyPooledConnection entry)
+  {
+    try {
+      entry.physical().close();
+    } catch (final SQLException e) {
+      LOG.debug("failed to close physical connection: ", e);
+    } finally {
+      this.budgetRelease();
+    }
+  }
+
+  private boolean budgetAcquire(
+    final long deadline)
+    throws DatabaseException
+  {
+    final var budget = this.parameters.budget();
+    if (budget.isEmpty()) {
+      return true;
+    }
+
+    try {
+      return budget.get().acquire(Duration.ofNanos(deadline - System.nanoTime()));
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new DatabaseException(DatabaseMessages.localize("errorPoolInterrupted"), e);
+    }
+  }
+
+  private void budgetRelease()
+  {
+    this.parameters.budget().ifPresent(DatabaseConnectionBudgetType::release);
+  }
+
+  @Override
+  public boolean reclaimIdleConnection()
+  {
+    final DatabaseDerbyPooledConnection entry;
+    this.lock.lock();
+    try {
+      if (this.closed || this.idle.isEmpty()) {
+        return false;
+      }
+      entry = this.idle.pollLast();
+      --this.total;
+      this.available.signal();
+    } finally {
+      this.lock.unlock();
+    }
+
+    LOG.debug("reclaiming idle connection for the connection budget");
+    this.closePhysical(entry);
+    return true;
+  }
+
+  /**
+   * Open a physical connection, waiting until the deadline for a permit from the connection
+   * budget if necessary.
+   */
+
+  private DatabaseDerbyPooledConnection openBudgeted(
+    final long deadline)
+    throws DatabaseException
+  {
+    if (!this.budgetAcquire(deadline)) {
+      this.acquisitionTimeouts.incrementAndGet();
+      final var budget = this.parameters.budget().orElseThrow();
+      throw new DatabaseException(
+        DatabaseMessages.localize(
+          "errorPoolBudgetTimeout",
+          this.parameters.acquireTimeout(),
+          Integer.valueOf(budget.size())));
+    }
+
+    try {
+      return this.openPhysical();
+    } catch (final DatabaseException e) {
+      this.budgetRelease();
+      throw e;
+    }
+  }
+
+  private static int bucketOf(
+    final long waitNanos)
+  {
+    for (int index = 0; index < WAIT_BUCKETS.size(); ++index) {
+      if (waitNanos <= WAIT_BUCKETS.get(index).toNanos()) {
+        return index;
+      }
+    }
+    return WAIT_BUCKETS.size() - 1;
+  }
+
+  private void start()
+    throws DatabaseException
+  {
+    final var minimum = this.parameters.minimumSize();
+    final var deadline = System.nanoTime() + this.parameters.acquireTimeout().toNanos();
+    final var opened = new ArrayList<DatabaseDerbyPooledConnection>(minimum);
+    try {
+      for (int index = 0; index < minimum; ++index) {
+        opened.add(this.openBudgeted(deadline));
+      }
+    } catch (final DatabaseException e) {
+      for (final var entry : opened) {
+        this.closePhysical(entry);
+      }
+      throw e;
+    }
+
+    this.lock.lock();
+    try {
+      this.total += opened.size();
+      for (final var entry : opened) {
+        this.idle.addFirst(entry);
+      }
+    } finally {
+      this.lock.unlock();
+    }
+
+    final var interval = this.parameters.maintenanceInterval().toMillis();
+    this.maintenance.scheduleWithFixedDelay(
+      this::maintain, interval, interval, TimeUnit.MILLISECONDS);
+  }
+
+  private DatabaseDerbyPooledConnection openPhysical()
+    throws DatabaseException
+  {
+    try {
+      LOG.trace("opening physical connection");
+      return new DatabaseDerbyPooledConnection(
+        this.dataSource.getPooledConnection(),
+        System.nanoTime());
+    } catch (final SQLException e) {
+      throw DatabaseDerbyProvider.ofSQLException("errorOpenConnection", e);
+    }
+  }
+
+  /**
+   * Borrow a connection from the pool, waiting if necessary. The returned connection has a fresh
+   * logical handle that must be returned with {@link #release(DatabaseDerbyPooledConnection)}.
+   *
+   * @return A borrowed connection
+   *
+   * @throws DatabaseException If the pool is closed, no connection became available in time, or a
+   *                           connection could not be opened
+   */
+
+  DatabaseDerbyPooledConnection acquire()
+    throws DatabaseException
+  {
+    final var timeStart = System.nanoTime();
+    final var deadline = timeStart + this.parameters.acquireTimeout().toNanos();
+
+    while (true) {
+      final var idleEntry = this.takeIdleOrReserve(deadline);
+      final var fresh = idleEntry.isEmpty();
+      final var entry = fresh ? this.openReserved(deadline) : idleEntry.get();
+
+      if (this.activate(entry, fresh)) {
+        final var timeNow = System.nanoTime();
+        this.waitHistogram.incrementAndGet(bucketOf(timeNow - timeStart));
+        final var site = LOG.isDebugEnabled() ? new Exception("Connection borrowed here") : null;
+        entry.markBorrowed(timeNow, site);
+        return entry;
+      }
+
+      this.discard(entry);
+    }
+  }
+
+  private Optional<DatabaseDerbyPooledConnection> takeIdleOrReserve(
+    final long deadline)
+    throws DatabaseException
+  {
+    this.lock.lock();
+    try {
+      var remaining = deadline - System.nanoTime();
+      while (true) {
+        if (this.closed) {
+          throw new DatabaseException(DatabaseMessages.localize("errorPoolClosed"));
+        }
+
+        final var entry = this.idle.pollFirst();
+        if (entry != null) {
+          this.borrowed.add(entry);
+          return Optional.of(entry);
+        }
+
+        if (this.total < this.parameters.maximumSize()) {
+          ++this.total;
+          return Optional.empty();
+        }
+
+        if (remaining <= 0L) {
+          this.acquisitionTimeouts.incrementAndGet();
+          throw new DatabaseException(
+            DatabaseMessages.localize(
+              "errorPoolTimeout",
+              this.parameters.acquireTimeout(),
+              Integer.valueOf(this.parameters.maximumSize())));
+        }
+
+        try {
+          remaining = this.available.awaitNanos(remaining);
+        } catch (final InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new DatabaseException(DatabaseMessages.localize("errorPoolInterrupted"), e);
+        }
+      }
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  private DatabaseDerbyPooledConnection openReserved(
+    final long deadline)
+    throws DatabaseException
+  {
+    final DatabaseDerbyPooledConnection entry;
+    try {
+      entry = this.openBudgeted(deadline);
+    } catch (final DatabaseException e) {
+      this.unreserve();
+      throw e;
+    }
+
+    this.lock.lock();
+    try {
+      if (!this.closed) {
+        this.borrowed.add(entry);
+        return entry;
+      }
+      --this.total;
+    } finally {
+      this.lock.unlock();
+    }
+
+    this.closePhysical(entry);
+    throw new DatabaseException(DatabaseMessages.localize("errorPoolClosed"));
+  }
+
+  private void unreserve()
+  {
+    this.lock.lock();
+    try {
+      --this.total;
+      this.available.signal();
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  private boolean activate(
+    final DatabaseDerbyPooledConnection entry,
+    final boolean fresh)
+  {
+    try {
+      final var handle = entry.physical().getConnection();
+      if (!fresh && this.parameters.validateOnBorrow()) {
+        final var timeout =
+          Math.toIntExact(Math.max(1L, this.parameters.validationTimeout().toSeconds()));
+        if (!handle.isValid(timeout)) {
+          LOG.debug("discarding connection that failed validation");
+          return false;
+        }
+      }
+      entry.setHandle(handle);
+      return true;
+    } catch (final SQLException e) {
+      LOG.debug("discarding connection that could not be activated: ", e);
+      return false;
+    }
+  }
+
+  private void discard(
+    final DatabaseDerbyPooledConnection entry)
+  {
+    this.lock.lock();
+    try {
+      this.borrowed.remove(entry);
+      --this.total;
+      this.available.signal();
+    } finally {
+      this.lock.unlock();
+    }
+    this.closePhysical(entry);
+  }
+
+  /**
+   * Return a borrowed connection to the pool. Any transaction left open on the connection is
+   * rolled back, unless the borrower has reported that the connection is clean. Connections that
+   * cannot be reset are closed rather than reused.
+   *
+   * @param entry The borrowed connection
+   */
+
+  void release(
+    final DatabaseDerbyPooledConnection entry)
+  {
+    Objects.requireNonNull(entry, "entry");
+
+    var reusable = true;
+    try {
+      final var handle = entry.handle();
+      if (handle != null && !handle.isClosed()) {
+        if (!handle.getAutoCommit() && !entry.isTransactionClean()) {
+          handle.rollback();
+        }
+        handle.close();
+      }
+    } catch (final SQLException e) {
+      LOG.debug("discarding connection that could not be reset: ", e);
+      reusable = false;
+    }
+
+    this.lock.lock();
+    try {
+      if (!this.borrowed.remove(entry)) {
+        return;
+      }
+      if (this.closed || !reusable) {
+        --this.total;
+      } else {
+        entry.markReturned(System.nanoTime());
+        this.idle.addFirst(entry);
+        this.available.signal();
+        return;
+      }
+      this.available.signal();
+    } finally {
+      this.lock.unlock();
+    }
+    this.closePhysical(entry);
+  }
+
+  private void maintain()
+  {
+    try {
+      final var evicted = new ArrayList<DatabaseDerbyPooledConnection>();
+      final var leaked = new ArrayList<DatabaseDerbyPooledConnection>();
+      final int deficit;
+
+      this.lock.lock();
+      try {
+        if (this.closed) {
+          return;
+        }
+
+        final var timeNow = System.nanoTime();
+        final var idleTimeout = this.parameters.idleTimeout().toNanos();
+        final var minimum = this.parameters.minimumSize();
+        final var iterator = this.idle.descendingIterator();
+        while (this.total > minimum && iterator.hasNext()) {
+          final var entry = iterator.next();
+          if (timeNow - entry.returnedNanos() >= idleTimeout) {
+            iterator.remove();
+            --this.total;
+            evicted.add(entry);
+          }
+        }
+
+        final var leakThreshold = this.parameters.leakThreshold().toNanos();
+        for (final var entry : this.borrowed) {
+          if (timeNow - entry.borrowedNanos() >= leakThreshold && !entry.isLeakReported()) {
+            entry.setLeakReported();
+            leaked.add(entry);
+          }
+        }
+
+        deficit = Math.max(0, minimum - this.total);
+        this.total += deficit;
+      } finally {
+        this.lock.unlock();
+      }
+
+      LOG.trace("maintenance: evicting {} idle connections", Integer.valueOf(evicted.size()));
+      for (final var entry : evicted) {
+        this.closePhysical(entry);
+      }
+
+      this.reportLeaks(leaked);
+      this.replenish(deficit);
+    } catch (final Exception e) {
+      LOG.error("pool maintenance failed: ", e);
+    }
+  }
+
+  private void reportLeaks(
+    final List<DatabaseDerbyPooledConnection> leaked)
+  {
+    this.leaksDetected.addAndGet(leaked.size());
+    for (final var entry : leaked) {
+      final var held = Duration.ofNanos(System.nanoTime() - entry.borrowedNanos());
+      final var site = entry.borrowSite();
+      if (site != null) {
+        LOG.warn("connection possibly leaked: borrowed {} ago", held, site);
+      } else {
+        LOG.warn(
+          "connection possibly leaked: borrowed {} ago (enable debug logging for borrow sites)",
+          held);
+      }
+    }
+  }
+
+  private void replenish(
+    final int deficit)
+  {
+    for (int index = 0; index < deficit; ++index) {
+      final DatabaseDerbyPooledConnection entry;
+      final var budget = this.parameters.budget();
+      if (budget.isPresent() && !budget.get().tryAcquire()) {
+        LOG.debug("connection budget exhausted; not replenishing pool");
+        this.unreserve();
+        continue;
+      }
+
+      try {
+        entry = this.openPhysical();
+      } catch (final DatabaseException e) {
+        LOG.error("failed to replenish pool: ", e);
+        this.budgetRelease();
+        this.unreserve();
+        continue;
+      }
+
+      this.lock.lock();
+      try {
+        if (!this.closed) {
+          this.idle.addLast(entry);
+          this.available.signal();
+          continue;
+        }
+        --this.total;
+      } finally {
+        this.lock.unlock();
+      }
+      this.closePhysical(entry);
+    }
+  }
+
+  /**
+   * @return A snapshot of the pool statistics
+   */
+
+  DatabaseConnectionPoolStatistics statistics()
+  {
+    final var histogram = new TreeMap<Duration, Long>();
+    for (int index = 0; index < WAIT_BUCKETS.size(); ++index) {
+      histogram.put(WAIT_BUCKETS.get(index), Long.valueOf(this.waitHistogram.get(index)));
+    }
+
+    final var builder =
+      DatabaseConnectionPoolStatistics.builder()
+        .setConnectionsMaximum(this.parameters.maximumSize())
+        .setAcquisitionTimeouts(this.acquisitionTimeouts.get())
+        .setLeaksDetected(this.leaksDetected.get())
+        .setWaitTimeHistogram(histogram);
+
+    this.lock.lock();
+    try {
+      return builder
+        .setConnectionsActive(this.borrowed.size())
+        .setConnectionsIdle(this.idle.size())
+        .build();
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  @Override
+  public void close()
+  {
+    LOG.debug("close");
+
+    final List<DatabaseDerbyPooledConnection> closing;
+    this.lock.lock();
+    try {
+      if (this.closed) {
+        return;
+      }
+      this.closed = true;
+      closing = new ArrayList<>(this.idle);
+      this.total -= this.idle.size();
+      this.idle.clear();
+      this.available.signalAll();
+    } finally {
+      this.lock.unlock();
+    }
+
+    this.parameters.budget().ifPresent(budget -> budget.unregister(this));
+    this.maintenance.shutdownNow();
+    for (final var entry : closing) {
+      this.closePhysical(entry);
+    }
+  }
+}
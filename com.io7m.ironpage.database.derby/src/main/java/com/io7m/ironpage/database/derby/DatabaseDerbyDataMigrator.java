@@ -0,0 +1,302 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironpage.database.derby;
+
+import com.io7m.ironpage.database.api.DatabaseMigrationParameters;
+import com.io7m.ironpage.database.spi.DatabaseDataMigrationProgress;
+import com.io7m.ironpage.database.spi.DatabaseDataMigrationType;
+import com.io7m.ironpage.database.spi.DatabaseException;
+import com.io7m.ironpage.database.spi.DatabasePartitionProviderType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigInteger;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The data migrations of an open database. The migrations run one at a time, in the order of
+ * the partitions and then the order given by each partition, on a single background thread. Each
+ * chunk of a migration is executed in its own transaction on a connection from the write pool,
+ * and the checkpoint of the migration is saved in the same transaction, so a migration
+ * interrupted by closing the database resumes from its last committed chunk. The delay between
+ * chunks bounds the share of the write pool and of the database's locks taken by migrations.
+ */
+
+final class DatabaseDerbyDataMigrator implements AutoCloseable
+{
+  private static final Logger LOG = LoggerFactory.getLogger(DatabaseDerbyDataMigrator.class);
+
+  private static final Duration CLOSE_TIMEOUT = Duration.ofSeconds(30L);
+
+  private final String path;
+  private final DatabaseEngineType engine;
+  private final DatabaseDerbyConnectionPool pool;
+  private final List<PendingMigration> migrations;
+  private final int chunkSize;
+  private final Duration chunkDelay;
+  private final ScheduledThreadPoolExecutor executor;
+  private final CompletableFuture<Void> completion;
+  private int migrationIndex;
+
+  DatabaseDerbyDataMigrator(
+    final String inPath,
+    final DatabaseEngineType inEngine,
+    final DatabaseDerbyConnectionPool inPool,
+    final List<DatabasePartitionProviderType> partitionProviders,
+    final DatabaseMigrationParameters parameters)
+  {
+    this.path =
+      Objects.requireNonNull(inPath, "inPath");
+    this.engine =
+      Objects.requireNonNull(inEngine, "inEngine");
+    this.pool =
+      Objects.requireNonNull(inPool, "inPool");
+    this.chunkSize =
+      parameters.dataChunkSize();
+    this.chunkDelay =
+      parameters.dataChunkDelay();
+
+    final var pending = new ArrayList<PendingMigration>();
+    for (final var partitionProvider : partitionProviders) {
+      for (final var migration : partitionProvider.dataMigrations()) {
+        pending.add(new PendingMigration(partitionProvider, migration));
+      }
+    }
+    this.migrations = List.copyOf(pending);
+
+    this.executor =
+      new ScheduledThreadPoolExecutor(1, runnable -> {
+        final var thread = new Thread(runnable);
+        thread.setName("com.io7m.ironpage.database.derby.data-migrations[" + thread.getId() + "]");
+        thread.setDaemon(true);
+        return thread;
+      });
+    this.executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    this.completion = new CompletableFuture<>();
+  }
+
+  /**
+   * Record each data migration that has no recorded progress, so that every later chunk finds,
+   * and locks, an existing row in the checkpoint table. This is called while holding the upgrade
+   * lock, so that processes opening the same database do not record a migration twice.
+   *
+   * @param connection        The connection
+   * @param engine            The database engine
+   * @param partitionProvider The partition provider
+   *
+   * @throws SQLException On errors
+   */
+
+  static void register(
+    final Connection connection,
+    final DatabaseEngineType engine,
+    final DatabasePartitionProviderType partitionProvider)
+    throws SQLException
+  {
+    for (final var migration : partitionProvider.dataMigrations()) {
+      final var name = migration.name();
+      if (engine.dataMigrationProgress(connection, name).isEmpty()) {
+        engine.dataMigrationProgressSave(connection, name, progressInitial());
+      }
+    }
+  }
+
+  /**
+   * Start running the data migrations in the background.
+   */
+
+  void start()
+  {
+    if (this.migrations.isEmpty()) {
+      this.executor.shutdown();
+      this.completion.complete(null);
+      return;
+    }
+    this.executor.execute(this::runChunk);
+  }
+
+  /**
+   * @return A stage that completes when all migrations have finished
+   */
+
+  CompletionStage<Void> completion()
+  {
+    return this.completion;
+  }
+
+  private void runChunk()
+  {
+    if (this.completion.isDone()) {
+      return;
+    }
+
+    final var pending = this.migrations.get(this.migrationIndex);
+    try {
+      if (!this.migrateChunk(pending)) {
+        this.schedule(this.chunkDelay);
+        return;
+      }
+
+      ++this.migrationIndex;
+      if (this.migrationIndex == this.migrations.size()) {
+        LOG.info("[{}]: data migrations finished", this.path);
+        this.executor.shutdown();
+        this.completion.complete(null);
+        return;
+      }
+      this.schedule(Duration.ZERO);
+    } catch (final DatabaseException | SQLException | RuntimeException e) {
+      LOG.error("[{}]: data migration {} failed: ", this.path, pending.migration().name(), e);
+      this.executor.shutdown();
+      this.completion.completeExceptionally(e);
+    }
+  }
+
+  private void schedule(
+    final Duration delay)
+  {
+    if (!this.completion.isDone()) {
+      this.executor.schedule(this::runChunk, delay.toNanos(), TimeUnit.NANOSECONDS);
+    }
+  }
+
+  /**
+   * Migrate a chunk of rows.
+   *
+   * @return {@code true} if the migration has finished
+   */
+
+  private boolean migrateChunk(
+    final PendingMigration pending)
+    throws DatabaseException, SQLException
+  {
+    final var migration = pending.migration();
+    final var name = migration.name();
+
+    final var pooled = this.pool.acquire();
+    try {
+      final var connection = pooled.handle();
+      connection.setAutoCommit(false);
+      try {
+        final var installed =
+          pending.partitionProvider()
+            .findSchemaVersion(connection)
+            .orElse(BigInteger.ZERO);
+        final var required = migration.schemaVersion();
+        if (installed.compareTo(required) < 0) {
+          throw new DatabaseException(
+            DatabaseMessages.localize("errorDataMigrationVersion", name, required, installed));
+        }
+
+        final var progress =
+          this.engine.dataMigrationProgress(connection, name)
+            .orElseGet(DatabaseDerbyDataMigrator::progressInitial);
+
+        if (progress.finished()) {
+          connection.commit();
+          return true;
+        }
+
+        final var chunk = migration.migrateChunk(connection, progress.checkpoint(), this.chunkSize);
+        final var updated =
+          DatabaseDataMigrationProgress.builder()
+            .from(chunk)
+            .setRows(progress.rows() + chunk.rows())
+            .build();
+
+        this.engine.dataMigrationProgressSave(connection, name, updated);
+        connection.commit();
+
+        LOG.debug(
+          "[{}]: data migration {}: {} rows (checkpoint '{}')",
+          this.path,
+          name,
+          Long.valueOf(updated.rows()),
+          updated.checkpoint());
+        return updated.finished();
+      } catch (final DatabaseException | SQLException e) {
+        connection.rollback();
+        throw e;
+      }
+    } finally {
+      this.pool.release(pooled);
+    }
+  }
+
+  private static DatabaseDataMigrationProgress progressInitial()
+  {
+    return DatabaseDataMigrationProgress.builder()
+      .setCheckpoint("")
+      .setRows(0L)
+      .setFinished(false)
+      .build();
+  }
+
+  /**
+   * Stop running migrations, waiting for a chunk that is in progress to commit. The completion
+   * stage of unfinished migrations is cancelled.
+   */
+
+  @Override
+  public void close()
+  {
+    this.completion.cancel(false);
+    this.executor.shutdown();
+    try {
+      if (!this.executor.awaitTermination(CLOSE_TIMEOUT.toNanos(), TimeUnit.NANOSECONDS)) {
+        LOG.warn("[{}]: data migration chunk did not complete before shutdown", this.path);
+      }
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static final class PendingMigration
+  {
+    private final DatabasePartitionProviderType partitionProvider;
+    private final DatabaseDataMigrationType migration;
+
+    PendingMigration(
+      final DatabasePartitionProviderType inPartitionProvider,
+      final DatabaseDataMigrationType inMigration)
+    {
+      this.partitionProvider =
+        Objects.requireNonNull(inPartitionProvider, "inPartitionProvider");
+      this.migration =
+        Objects.requireNonNull(inMigration, "inMigration");
+    }
+
+    DatabasePartitionProviderType partitionProvider()
+    {
+      return this.partitionProvider;
+    }
+
+    DatabaseDataMigrationType migration()
+    {
+      return this.migration;
+    }
+  }
+}
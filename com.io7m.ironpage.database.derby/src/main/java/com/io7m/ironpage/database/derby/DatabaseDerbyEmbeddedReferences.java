@@ -0,0 +1,102 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.ironpage.database.derby;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A count of the users of each embedded Derby database in this process.
+ *
+ * An embedded database is booted once per process, and shutting it down affects every connection
+ * to it, including those held by other databases opened on the same path. Each user of an
+ * embedded database acquires a reference to the path, and only the user that releases the last
+ * reference may shut the database down. Paths are compared exactly as given.
+ */
+
+final class DatabaseDerbyEmbeddedReferences
+{
+  private static final Map<String, Integer> REFERENCES = new HashMap<>(8);
+
+  private DatabaseDerbyEmbeddedReferences()
+  {
+
+  }
+
+  /**
+   * Acquire a reference to the database at the given path.
+   *
+   * @param path The database path
+   *
+   * @return {@code true} if no other references to the database were held
+   */
+
+  static boolean acquire(
+    final String path)
+  {
+    Objects.requireNonNull(path, "path");
+
+    synchronized (REFERENCES) {
+      final var count = REFERENCES.getOrDefault(path, Integer.valueOf(0)).intValue();
+      REFERENCES.put(path, Integer.valueOf(count + 1));
+      return count == 0;
+    }
+  }
+
+  /**
+   * @param path The database path
+   *
+   * @return {@code true} if references to the database are held by more than one user
+   */
+
+  static boolean isShared(
+    final String path)
+  {
+    Objects.requireNonNull(path, "path");
+
+    synchronized (REFERENCES) {
+      return REFERENCES.getOrDefault(path, Integer.valueOf(0)).intValue() > 1;
+    }
+  }
+
+  /**
+   * Release a reference to the database at the given path.
+   *
+   * @param path The database path
+   *
+   * @return {@code true} if the released reference was the last, and the database may be shut
+   * down
+   */
+
+  static boolean release(
+    final String path)
+  {
+    Objects.requireNonNull(path, "path");
+
+    synchronized (REFERENCES) {
+      final var count = REFERENCES.getOrDefault(path, Integer.valueOf(0)).intValue();
+      if (count <= 1) {
+        REFERENCES.remove(path);
+        return true;
+      }
+      REFERENCES.put(path, Integer.valueOf(count - 1));
+      return false;
+    }
+  }
+}
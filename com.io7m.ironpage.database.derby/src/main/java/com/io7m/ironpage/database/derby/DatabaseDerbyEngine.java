@@ -0,0 +1,218 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironpage.database.derby;
+
+import com.io7m.ironpage.database.api.DatabaseBackup;
+import com.io7m.ironpage.database.api.DatabaseBackupParameters;
+import com.io7m.ironpage.database.api.DatabaseBackupProgressListenerType;
+import com.io7m.ironpage.database.api.DatabaseStorageDiagnostics;
+import com.io7m.ironpage.database.spi.DatabaseDataMigrationProgress;
+import com.io7m.ironpage.database.spi.DatabaseMigrationRecord;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * The Derby database engine.
+ */
+
+final class DatabaseDerbyEngine implements DatabaseEngineType
+{
+  private static final String UPGRADE_LOCK_TABLE_CREATE =
+    "CREATE TABLE APP.IRONPAGE_UPGRADE_LOCK (ID INTEGER NOT NULL)";
+
+  private static final String UPGRADE_LOCK =
+    "LOCK TABLE APP.IRONPAGE_UPGRADE_LOCK IN EXCLUSIVE MODE";
+
+  private static final String MIGRATIONS_TABLE_CREATE =
+    "CREATE TABLE APP.IRONPAGE_MIGRATIONS (" + DatabaseMigrationHistory.COLUMNS + ")";
+
+  private static final String MIGRATIONS_INSERT =
+    "INSERT INTO APP.IRONPAGE_MIGRATIONS " + DatabaseMigrationHistory.INSERT_VALUES;
+
+  private static final String DATA_MIGRATIONS_TABLE_CREATE =
+    "CREATE TABLE APP.IRONPAGE_DATA_MIGRATIONS ("
+      + DatabaseDataMigrationCheckpoints.COLUMNS + ")";
+
+  private static final String DATA_MIGRATIONS_SELECT =
+    "SELECT " + DatabaseDataMigrationCheckpoints.SELECT_COLUMNS
+      + " FROM APP.IRONPAGE_DATA_MIGRATIONS WHERE MIGRATION_NAME = ? FOR UPDATE";
+
+  private static final String DATA_MIGRATIONS_UPDATE =
+    "UPDATE APP.IRONPAGE_DATA_MIGRATIONS SET "
+      + DatabaseDataMigrationCheckpoints.UPDATE_ASSIGNMENTS;
+
+  private static final String DATA_MIGRATIONS_INSERT =
+    "INSERT INTO APP.IRONPAGE_DATA_MIGRATIONS "
+      + DatabaseDataMigrationCheckpoints.INSERT_VALUES;
+
+  private final boolean storageRestartRequired;
+  private final boolean embedded;
+
+  /**
+   * Construct an engine.
+   *
+   * @param inStorageRestartRequired {@code true} if storage properties are pending a restart
+   * @param inEmbedded               {@code true} if the database is embedded in this process
+   */
+
+  DatabaseDerbyEngine(
+    final boolean inStorageRestartRequired,
+    final boolean inEmbedded)
+  {
+    this.storageRestartRequired = inStorageRestartRequired;
+    this.embedded = inEmbedded;
+  }
+
+  @Override
+  public String dialect()
+  {
+    return "DERBY";
+  }
+
+  @Override
+  public void upgradeLockCreate(
+    final Connection connection)
+    throws SQLException
+  {
+    try (var statement = connection.createStatement()) {
+      statement.execute(UPGRADE_LOCK_TABLE_CREATE);
+      connection.commit();
+    } catch (final SQLException e) {
+      connection.rollback();
+      if (!Objects.equals(e.getSQLState(), "X0Y32")) {
+        throw e;
+      }
+    }
+  }
+
+  @Override
+  public void migrationHistoryCreate(
+    final Connection connection)
+    throws SQLException
+  {
+    try (var statement = connection.createStatement()) {
+      statement.execute(MIGRATIONS_TABLE_CREATE);
+      connection.commit();
+    } catch (final SQLException e) {
+      connection.rollback();
+      if (!Objects.equals(e.getSQLState(), "X0Y32")) {
+        throw e;
+      }
+    }
+  }
+
+  @Override
+  public void migrationHistoryRecord(
+    final Connection connection,
+    final DatabaseMigrationRecord record)
+    throws SQLException
+  {
+    try (var statement = connection.prepareStatement(MIGRATIONS_INSERT)) {
+      DatabaseMigrationHistory.record(statement, record);
+    }
+  }
+
+  @Override
+  public void dataMigrationsCreate(
+    final Connection connection)
+    throws SQLException
+  {
+    try (var statement = connection.createStatement()) {
+      statement.execute(DATA_MIGRATIONS_TABLE_CREATE);
+      connection.commit();
+    } catch (final SQLException e) {
+      connection.rollback();
+      if (!Objects.equals(e.getSQLState(), "X0Y32")) {
+        throw e;
+      }
+    }
+  }
+
+  @Override
+  public Optional<DatabaseDataMigrationProgress> dataMigrationProgress(
+    final Connection connection,
+    final String name)
+    throws SQLException
+  {
+    try (var statement = connection.prepareStatement(DATA_MIGRATIONS_SELECT)) {
+      return DatabaseDataMigrationCheckpoints.progress(statement, name);
+    }
+  }
+
+  @Override
+  public void dataMigrationProgressSave(
+    final Connection connection,
+    final String name,
+    final DatabaseDataMigrationProgress progress)
+    throws SQLException
+  {
+    try (var update = connection.prepareStatement(DATA_MIGRATIONS_UPDATE);
+         var insert = connection.prepareStatement(DATA_MIGRATIONS_INSERT)) {
+      DatabaseDataMigrationCheckpoints.progressSave(update, insert, name, progress);
+    }
+  }
+
+  @Override
+  public void upgradeLock(
+    final Connection connection)
+    throws SQLException
+  {
+    try (var statement = connection.createStatement()) {
+      statement.execute(UPGRADE_LOCK);
+    }
+  }
+
+  @Override
+  public DatabaseStorageDiagnostics diagnostics(
+    final Connection connection)
+    throws SQLException
+  {
+    return DatabaseDerbyStorage.diagnostics(connection, this.storageRestartRequired);
+  }
+
+  /**
+   * An embedded Derby database remains booted, holding its page cache and files, until it is
+   * shut down explicitly. Shutting it down closes every connection to it in this process, so the
+   * reference acquired when the database was opened is released, and the database is only shut
+   * down when no other user in this process holds a reference. A database behind a network
+   * server belongs to the server.
+   */
+
+  @Override
+  public void shutdown(
+    final String databasePath)
+    throws SQLException
+  {
+    if (this.embedded && DatabaseDerbyEmbeddedReferences.release(databasePath)) {
+      DatabaseDerbyStorage.shutdownEmbedded(databasePath);
+    }
+  }
+
+  @Override
+  public DatabaseBackup backup(
+    final Connection connection,
+    final String databasePath,
+    final DatabaseBackupParameters parameters,
+    final DatabaseBackupProgressListenerType listener)
+    throws SQLException
+  {
+    return DatabaseDerbyBackup.backup(connection, databasePath, parameters, listener);
+  }
+}
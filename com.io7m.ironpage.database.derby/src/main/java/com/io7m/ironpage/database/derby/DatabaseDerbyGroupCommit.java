@@ -0,0 +1,315 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironpage.database.derby;
+
+import com.io7m.ironpage.database.api.DatabaseSavepointType;
+import com.io7m.ironpage.database.api.DatabaseTransactionFunctionType;
+import com.io7m.ironpage.database.api.DatabaseTransactionType;
+import com.io7m.ironpage.database.api.DatabaseType;
+import com.io7m.ironpage.database.spi.DatabaseException;
+import com.io7m.ironpage.database.spi.DatabaseQueriesType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Functions to evaluate a group of independent transaction functions within a single physical
+ * transaction.
+ *
+ * Each function runs behind its own savepoint, so a function that fails is rolled back without
+ * disturbing the others. If the group cannot be completed as a whole (because the commit fails,
+ * or because the database aborted the transaction in a way that a savepoint cannot recover
+ * from, such as a deadlock), the group is split and each function is evaluated again in a
+ * transaction of its own so that every caller receives its own outcome.
+ *
+ * Splitting a group evaluates functions again, including functions that had succeeded within the
+ * group before it failed. Anything a function does outside of the transaction therefore happens
+ * once per evaluation. This includes the events published by queries, which are published as
+ * statements execute rather than when the transaction commits, so subscribers may observe the
+ * events of an attempt that was never committed, and may observe them more than once.
+ *
+ * A unit's outcome is final only once the transaction it was evaluated in has committed, or once
+ * it has failed. If evaluation is abandoned because of an unexpected error, every unit that has
+ * not been committed fails with that error.
+ */
+
+final class DatabaseDerbyGroupCommit
+{
+  private static final Logger LOG = LoggerFactory.getLogger(DatabaseDerbyGroupCommit.class);
+
+  private DatabaseDerbyGroupCommit()
+  {
+
+  }
+
+  /**
+   * Evaluate a group of functions. On return, every unit in the group has recorded an outcome,
+   * but no unit has been completed.
+   *
+   * @param database The database on which to open connections
+   * @param units    The units
+   */
+
+  static void execute(
+    final DatabaseType database,
+    final List<Unit<?>> units)
+  {
+    Objects.requireNonNull(database, "database");
+    Objects.requireNonNull(units, "units");
+
+    final var timeNow = System.nanoTime();
+    final var live = new ArrayList<Unit<?>>(units.size());
+    for (final var unit : units) {
+      if (unit.future().isDone()) {
+        continue;
+      }
+      if (unit.deadlinePassed(timeNow)) {
+        unit.fail(new DatabaseException(
+          DatabaseMessages.localize("errorAsyncDeadline", unit.deadline())));
+        continue;
+      }
+      live.add(unit);
+    }
+
+    if (live.isEmpty()) {
+      return;
+    }
+
+    try {
+      executeTogether(database, live);
+    } catch (final DatabaseException e) {
+      for (final var unit : live) {
+        unit.reset();
+      }
+
+      if (live.size() == 1) {
+        live.get(0).fail(e);
+        return;
+      }
+
+      LOG.debug("group of {} transactions failed, splitting: ", Integer.valueOf(live.size()), e);
+      for (final var unit : live) {
+        try {
+          executeTogether(database, List.of(unit));
+        } catch (final DatabaseException ex) {
+          unit.fail(ex);
+        }
+      }
+    }
+  }
+
+  private static void executeTogether(
+    final DatabaseType database,
+    final List<Unit<?>> units)
+    throws DatabaseException
+  {
+    try (var connection = database.openConnection()) {
+      try (var transaction = connection.beginTransaction()) {
+        final var grouped = new GroupedTransaction(transaction);
+        for (final var unit : units) {
+          final var savepoint = transaction.savepoint();
+          try {
+            unit.execute(grouped);
+          } catch (final Exception e) {
+            transaction.rollbackTo(savepoint);
+            unit.fail(e);
+          }
+        }
+        transaction.commit();
+        for (final var unit : units) {
+          unit.markCommitted();
+        }
+      }
+    }
+  }
+
+  /**
+   * A function waiting to be evaluated as part of a group, and its eventual outcome.
+   *
+   * @param <T> The type of returned values
+   */
+
+  static final class Unit<T>
+  {
+    private final DatabaseTransactionFunctionType<T> function;
+    private final CompletableFuture<T> future;
+    private final Duration deadline;
+    private final long deadlineNanos;
+    private T result;
+    private Throwable failure;
+    private boolean committed;
+
+    Unit(
+      final DatabaseTransactionFunctionType<T> inFunction,
+      final Duration inDeadline)
+    {
+      this.function =
+        Objects.requireNonNull(inFunction, "inFunction");
+      this.deadline =
+        Objects.requireNonNull(inDeadline, "inDeadline");
+      this.deadlineNanos =
+        System.nanoTime() + inDeadline.toNanos();
+      this.future =
+        new CompletableFuture<>();
+    }
+
+    CompletableFuture<T> future()
+    {
+      return this.future;
+    }
+
+    Duration deadline()
+    {
+      return this.deadline;
+    }
+
+    boolean deadlinePassed(
+      final long timeNow)
+    {
+      return timeNow - this.deadlineNanos >= 0L;
+    }
+
+    void execute(
+      final DatabaseTransactionType transaction)
+      throws Exception
+    {
+      this.result = this.function.execute(transaction);
+      this.failure = null;
+    }
+
+    void fail(
+      final Throwable e)
+    {
+      this.result = null;
+      this.failure = e;
+    }
+
+    /**
+     * Discard the outcome of an evaluation whose transaction was not committed.
+     */
+
+    void reset()
+    {
+      this.result = null;
+      this.failure = null;
+    }
+
+    /**
+     * Record that the transaction in which the unit was evaluated has committed. A unit that
+     * failed behind its savepoint keeps its failure.
+     */
+
+    void markCommitted()
+    {
+      if (this.failure == null) {
+        this.committed = true;
+      }
+    }
+
+    /**
+     * Fail the unit with the given error, unless its transaction has already committed.
+     *
+     * @param e The error
+     */
+
+    void failUnlessCommitted(
+      final Throwable e)
+    {
+      if (!this.committed) {
+        this.fail(e);
+      }
+    }
+
+    /**
+     * Complete the future with the recorded outcome.
+     */
+
+    void complete()
+    {
+      if (this.failure != null) {
+        this.future.completeExceptionally(this.failure);
+      } else {
+        this.future.complete(this.result);
+      }
+    }
+  }
+
+  /**
+   * The transaction seen by functions in a group. The transaction belongs to the group as a
+   * whole, so functions may use savepoints but may not commit or roll back.
+   */
+
+  private static final class GroupedTransaction implements DatabaseTransactionType
+  {
+    private final DatabaseTransactionType transaction;
+
+    GroupedTransaction(
+      final DatabaseTransactionType inTransaction)
+    {
+      this.transaction =
+        Objects.requireNonNull(inTransaction, "inTransaction");
+    }
+
+    @Override
+    public void close()
+    {
+
+    }
+
+    @Override
+    public void commit()
+      throws DatabaseException
+    {
+      throw new DatabaseException(DatabaseMessages.localize("errorGroupCommitControl"));
+    }
+
+    @Override
+    public void rollback()
+      throws DatabaseException
+    {
+      throw new DatabaseException(DatabaseMessages.localize("errorGroupCommitControl"));
+    }
+
+    @Override
+    public DatabaseSavepointType savepoint()
+      throws DatabaseException
+    {
+      return this.transaction.savepoint();
+    }
+
+    @Override
+    public void rollbackTo(
+      final DatabaseSavepointType savepoint)
+      throws DatabaseException
+    {
+      this.transaction.rollbackTo(savepoint);
+    }
+
+    @Override
+    public <P extends DatabaseQueriesType> P queries(
+      final Class<P> queriesClass)
+      throws DatabaseException
+    {
+      return this.transaction.queries(queriesClass);
+    }
+  }
+}
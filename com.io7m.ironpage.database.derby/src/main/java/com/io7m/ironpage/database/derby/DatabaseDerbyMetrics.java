@@ -0,0 +1,221 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironpage.database.derby;
+
+import com.io7m.ironpage.database.api.DatabaseConnectionPoolStatistics;
+import com.io7m.ironpage.database.spi.DatabaseException;
+import com.io7m.ironpage.database.spi.DatabaseQueriesType;
+import com.io7m.ironpage.metrics.api.MetricsCounterType;
+import com.io7m.ironpage.metrics.api.MetricsHistogramType;
+import com.io7m.ironpage.metrics.api.MetricsRegistryNoOp;
+import com.io7m.ironpage.metrics.api.MetricsRegistryType;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * The metrics recorded by a Derby database.
+ */
+
+final class DatabaseDerbyMetrics
+{
+  private final MetricsRegistryType registry;
+  private final boolean enabled;
+  private final MetricsHistogramType transactionCommit;
+  private final MetricsHistogramType transactionRollback;
+  private final MetricsHistogramType transactionLifetime;
+  private final ConcurrentHashMap<Method, QueryMetrics> queries;
+
+  DatabaseDerbyMetrics(
+    final MetricsRegistryType inRegistry)
+  {
+    this.registry =
+      Objects.requireNonNull(inRegistry, "inRegistry");
+    this.enabled =
+      !(inRegistry instanceof MetricsRegistryNoOp);
+
+    this.transactionCommit =
+      inRegistry.histogram("ironpage.database.transaction.commit", Map.of());
+    this.transactionRollback =
+      inRegistry.histogram("ironpage.database.transaction.rollback", Map.of());
+    this.transactionLifetime =
+      inRegistry.histogram("ironpage.database.transaction.lifetime", Map.of());
+    this.queries =
+      new ConcurrentHashMap<>(64);
+  }
+
+  /**
+   * Register gauges and return the histogram of connection acquisition times for a pool.
+   */
+
+  MetricsHistogramType pool(
+    final String name,
+    final Supplier<DatabaseConnectionPoolStatistics> statistics)
+  {
+    final var labels = Map.of("pool", name);
+    this.registry.gauge(
+      "ironpage.database.pool.active", labels, () -> statistics.get().connectionsActive());
+    this.registry.gauge(
+      "ironpage.database.pool.idle", labels, () -> statistics.get().connectionsIdle());
+    return this.registry.histogram("ironpage.database.connection.acquire", labels);
+  }
+
+  MetricsHistogramType transactionCommit()
+  {
+    return this.transactionCommit;
+  }
+
+  MetricsHistogramType transactionRollback()
+  {
+    return this.transactionRollback;
+  }
+
+  MetricsHistogramType transactionLifetime()
+  {
+    return this.transactionLifetime;
+  }
+
+  /**
+   * Wrap queries so that every method call records its latency, the number of rows returned,
+   * and any errors raised. Queries are returned unwrapped if metrics are disabled.
+   */
+
+  <P extends DatabaseQueriesType> P wrapQueries(
+    final Class<P> queriesClass,
+    final P target)
+  {
+    if (!this.enabled) {
+      return target;
+    }
+
+    return queriesClass.cast(
+      Proxy.newProxyInstance(
+        queriesClass.getClassLoader(),
+        new Class<?>[]{queriesClass},
+        new QueriesHandler(this, target)));
+  }
+
+  QueryMetrics queryMetrics(
+    final Method method)
+  {
+    return this.queries.computeIfAbsent(method, m -> new QueryMetrics(this.registry, m));
+  }
+
+  private static final class QueryMetrics
+  {
+    private final Map<String, String> labels;
+    private final MetricsHistogramType time;
+    private final MetricsHistogramType rows;
+    private final ConcurrentHashMap<String, MetricsCounterType> errors;
+
+    QueryMetrics(
+      final MetricsRegistryType inRegistry,
+      final Method method)
+    {
+      this.labels = Map.of(
+        "queries", method.getDeclaringClass().getSimpleName(),
+        "method", method.getName());
+      this.time = inRegistry.histogram("ironpage.database.queries.time", this.labels);
+      this.rows = inRegistry.histogram("ironpage.database.queries.rows", this.labels);
+      this.errors = new ConcurrentHashMap<>(8);
+    }
+
+    void error(
+      final long timeStart,
+      final MetricsRegistryType registry,
+      final Throwable exception)
+    {
+      this.time.recordSince(timeStart);
+
+      final String code;
+      if (exception instanceof DatabaseException) {
+        code = ((DatabaseException) exception).errorCodeName()
+          .orElseGet(() -> exception.getClass().getSimpleName());
+      } else {
+        code = exception.getClass().getSimpleName();
+      }
+
+      this.errors.computeIfAbsent(code, c -> {
+        final var errorLabels = new HashMap<>(this.labels);
+        errorLabels.put("code", c);
+        return registry.counter("ironpage.database.queries.errors", errorLabels);
+      }).increment();
+    }
+
+    void result(
+      final long timeStart,
+      final Object result)
+    {
+      this.time.recordSince(timeStart);
+
+      if (result instanceof Collection) {
+        this.rows.record(((Collection<?>) result).size());
+      } else if (result instanceof Map) {
+        this.rows.record(((Map<?, ?>) result).size());
+      } else if (result instanceof Optional) {
+        this.rows.record(((Optional<?>) result).isPresent() ? 1L : 0L);
+      }
+    }
+  }
+
+  private static final class QueriesHandler implements InvocationHandler
+  {
+    private final DatabaseDerbyMetrics metrics;
+    private final Object target;
+
+    QueriesHandler(
+      final DatabaseDerbyMetrics inMetrics,
+      final Object inTarget)
+    {
+      this.metrics = inMetrics;
+      this.target = inTarget;
+    }
+
+    @Override
+    public Object invoke(
+      final Object proxy,
+      final Method method,
+      final Object[] arguments)
+      throws Throwable
+    {
+      if (method.getDeclaringClass() == Object.class) {
+        return method.invoke(this.target, arguments);
+      }
+
+      final var query = this.metrics.queryMetrics(method);
+      final var timeStart = System.nanoTime();
+      try {
+        final var result = method.invoke(this.target, arguments);
+        query.result(timeStart, result);
+        return result;
+      } catch (final InvocationTargetException e) {
+        final var cause = e.getCause();
+        query.error(timeStart, this.metrics.registry, cause);
+        throw cause;
+      }
+    }
+  }
+}
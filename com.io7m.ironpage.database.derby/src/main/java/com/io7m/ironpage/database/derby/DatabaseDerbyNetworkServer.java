@@ -0,0 +1,126 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.ironpage.database.derby;
+
+import com.io7m.ironpage.database.api.DatabaseServerParameters;
+import com.io7m.ironpage.database.spi.DatabaseException;
+import org.apache.derby.drda.NetworkServerControl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.net.InetAddress;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A Derby network server started by this process.
+ */
+
+final class DatabaseDerbyNetworkServer implements Closeable
+{
+  private static final Logger LOG = LoggerFactory.getLogger(DatabaseDerbyNetworkServer.class);
+
+  private final NetworkServerControl control;
+
+  private DatabaseDerbyNetworkServer(
+    final NetworkServerControl inControl)
+  {
+    this.control = Objects.requireNonNull(inControl, "inControl");
+  }
+
+  private static boolean answers(
+    final NetworkServerControl control)
+  {
+    try {
+      control.ping();
+      return true;
+    } catch (final Exception e) {
+      LOG.trace("ping: ", e);
+      return false;
+    }
+  }
+
+  /**
+   * Start a network server if one is requested and no server is already answering at the given
+   * address.
+   *
+   * @param parameters The server parameters
+   *
+   * @return The started server, if a server was started
+   *
+   * @throws DatabaseException On errors
+   */
+
+  static Optional<DatabaseDerbyNetworkServer> startIfNecessary(
+    final DatabaseServerParameters parameters)
+    throws DatabaseException
+  {
+    Objects.requireNonNull(parameters, "parameters");
+
+    if (!parameters.startServer()) {
+      return Optional.empty();
+    }
+
+    try {
+      final var control =
+        new NetworkServerControl(InetAddress.getByName(parameters.host()), parameters.port());
+
+      if (answers(control)) {
+        LOG.debug("server already running on {}:{}", parameters.host(), parameters.port());
+        return Optional.empty();
+      }
+
+      LOG.info("starting network server on {}:{}", parameters.host(), parameters.port());
+      control.start(null);
+
+      final var deadline = System.nanoTime() + parameters.startTimeout().toNanos();
+      while (!answers(control)) {
+        if (System.nanoTime() - deadline >= 0L) {
+          control.shutdown();
+          throw new DatabaseException(
+            DatabaseMessages.localize(
+              "errorServerStart",
+              parameters.host(),
+              Integer.valueOf(parameters.port())));
+        }
+        TimeUnit.MILLISECONDS.sleep(50L);
+      }
+      return Optional.of(new DatabaseDerbyNetworkServer(control));
+    } catch (final DatabaseException e) {
+      throw e;
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new DatabaseException(e.getLocalizedMessage(), e);
+    } catch (final Exception e) {
+      throw new DatabaseException(e.getLocalizedMessage(), e);
+    }
+  }
+
+  @Override
+  public void close()
+  {
+    try {
+      LOG.info("stopping network server");
+      this.control.shutdown();
+    } catch (final Exception e) {
+      LOG.error("failed to stop network server: ", e);
+    }
+  }
+}
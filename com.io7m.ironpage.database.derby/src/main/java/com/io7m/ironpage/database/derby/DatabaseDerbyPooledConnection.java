@@ -0,0 +1,124 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.ironpage.database.derby;
+
+import javax.sql.PooledConnection;
+import java.sql.Connection;
+import java.util.Objects;
+
+/**
+ * A physical connection held by a connection pool, along with the bookkeeping the pool needs to
+ * evict idle connections and detect leaks. Instances are only accessed while holding the pool
+ * lock, or by the single thread that currently has the connection borrowed.
+ */
+
+final class DatabaseDerbyPooledConnection
+{
+  private final PooledConnection physical;
+  private Connection handle;
+  private long returnedNanos;
+  private long borrowedNanos;
+  private Exception borrowSite;
+  private boolean leakReported;
+  private boolean transactionClean;
+
+  DatabaseDerbyPooledConnection(
+    final PooledConnection inPhysical,
+    final long inTimeNanos)
+  {
+    this.physical =
+      Objects.requireNonNull(inPhysical, "inPhysical");
+    this.returnedNanos = inTimeNanos;
+    this.borrowedNanos = inTimeNanos;
+  }
+
+  PooledConnection physical()
+  {
+    return this.physical;
+  }
+
+  Connection handle()
+  {
+    return this.handle;
+  }
+
+  void setHandle(
+    final Connection inHandle)
+  {
+    this.handle = Objects.requireNonNull(inHandle, "inHandle");
+  }
+
+  long returnedNanos()
+  {
+    return this.returnedNanos;
+  }
+
+  long borrowedNanos()
+  {
+    return this.borrowedNanos;
+  }
+
+  Exception borrowSite()
+  {
+    return this.borrowSite;
+  }
+
+  boolean isLeakReported()
+  {
+    return this.leakReported;
+  }
+
+  void setLeakReported()
+  {
+    this.leakReported = true;
+  }
+
+  /**
+   * @return {@code true} if the borrower has reported that no transaction is open on the
+   * connection, so the connection does not need to be rolled back when it is returned
+   */
+
+  boolean isTransactionClean()
+  {
+    return this.transactionClean;
+  }
+
+  void setTransactionClean(
+    final boolean clean)
+  {
+    this.transactionClean = clean;
+  }
+
+  void markBorrowed(
+    final long timeNanos,
+    final Exception site)
+  {
+    this.borrowedNanos = timeNanos;
+    this.borrowSite = site;
+    this.leakReported = false;
+    this.transactionClean = false;
+  }
+
+  void markReturned(
+    final long timeNanos)
+  {
+    this.returnedNanos = timeNanos;
+    this.borrowSite = null;
+    this.handle = null;
+  }
+}
@@ -16,18 +16,36 @@
 
 package com.io7m.ironpage.database.derby;
 
+import com.io7m.ironpage.database.api.DatabaseMigrationParameters;
+import com.io7m.ironpage.database.api.DatabaseOpenTimings;
 import com.io7m.ironpage.database.api.DatabaseParameters;
 import com.io7m.ironpage.database.api.DatabaseProviderType;
+import com.io7m.ironpage.database.api.DatabaseStorageParameters;
 import com.io7m.ironpage.database.api.DatabaseType;
 import com.io7m.ironpage.database.spi.DatabaseException;
+import com.io7m.ironpage.database.spi.DatabaseMigrationPlan;
 import com.io7m.ironpage.database.spi.DatabasePartitionProviderRegistryType;
+import com.io7m.ironpage.database.spi.DatabasePartitionProviderType;
+import com.io7m.ironpage.database.spi.DatabaseQueriesType;
 import com.io7m.ironpage.errors.api.ErrorSeverity;
+import org.apache.derby.jdbc.ClientConnectionPoolDataSource;
 import org.apache.derby.jdbc.EmbeddedConnectionPoolDataSource;
+import org.apache.derby.jdbc.EmbeddedDataSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.sql.ConnectionPoolDataSource;
+import java.math.BigInteger;
+import java.sql.Connection;
 import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
 
 /**
  * A provider of Derby databases.
@@ -64,43 +82,479 @@ public final class DatabaseDerbyProvider implements DatabaseProviderType
   @Override
   public DatabaseType open(final DatabaseParameters parameters)
     throws DatabaseException
+  {
+    return this.openDerby(parameters);
+  }
+
+  @Override
+  public List<DatabaseMigrationPlan> migrationPlan(
+    final DatabaseParameters parameters)
+    throws DatabaseException
+  {
+    Objects.requireNonNull(parameters, "parameters");
+
+    final var path = parameters.path();
+    LOG.info("migration plan: {}", path);
+
+    Optional<DatabaseDerbyNetworkServer> server = Optional.empty();
+    try {
+      final var serverParameters = parameters.server();
+      if (serverParameters.isPresent()) {
+        server = DatabaseDerbyNetworkServer.startIfNecessary(serverParameters.get());
+      }
+
+      final var embedded = serverParameters.isEmpty();
+      final var engine = new DatabaseDerbyEngine(false, embedded);
+      if (embedded) {
+        DatabaseDerbyEmbeddedReferences.acquire(path);
+      }
+      final var partitionProviders = partitionProviders(this.registry, engine.dialect());
+      try {
+        return migrationPlans(dataSource(parameters, false), partitionProviders);
+      } catch (final SQLException e) {
+        if (!isDatabaseMissing(e)) {
+          throw e;
+        }
+        LOG.debug("database does not exist, planning against an empty database");
+        return migrationPlansEmpty(partitionProviders);
+      } finally {
+        engine.shutdown(path);
+      }
+    } catch (final SQLException e) {
+      throw new DatabaseException(
+        ErrorSeverity.SEVERITY_ERROR,
+        DatabaseMessages.localize("errorOpenDatabase", e.getLocalizedMessage()),
+        e);
+    } finally {
+      server.ifPresent(DatabaseDerbyNetworkServer::close);
+    }
+  }
+
+  DatabaseDerby openDerby(final DatabaseParameters parameters)
+    throws DatabaseException
   {
     Objects.requireNonNull(parameters, "parameters");
 
     final var path = parameters.path();
     LOG.info("open: {}", path);
 
+    Optional<DatabaseDerbyNetworkServer> server = Optional.empty();
+    final var serverParameters = parameters.server();
+    if (serverParameters.isEmpty()) {
+      DatabaseDerbyEmbeddedReferences.acquire(path);
+    }
+
     try {
-      final var dataSource = new EmbeddedConnectionPoolDataSource();
+      final var timings = DatabaseOpenTimings.builder();
+      final var timeStart = System.nanoTime();
+
+      var timePhase = System.nanoTime();
+      if (serverParameters.isPresent()) {
+        server = DatabaseDerbyNetworkServer.startIfNecessary(serverParameters.get());
+      }
+      timings.setServer(elapsedSince(timePhase));
+
+      timePhase = System.nanoTime();
+      final var restore = parameters.restore();
+      if (restore.isPresent()) {
+        DatabaseDerbyBackup.restore(parameters, restore.get());
+      }
+      final var dataSource = dataSource(parameters, true);
+      final var restartRequired = configureStorage(dataSource, parameters);
+      timings.setStorage(elapsedSince(timePhase));
+
+      final var engine = new DatabaseDerbyEngine(restartRequired, serverParameters.isEmpty());
+      return openPooled(
+        this.registry, parameters, engine, dataSource, server, timings, timeStart);
+    } catch (final DatabaseException | SQLException | RuntimeException e) {
+      server.ifPresent(DatabaseDerbyNetworkServer::close);
+      if (serverParameters.isEmpty()) {
+        DatabaseDerbyEmbeddedReferences.release(path);
+      }
+      throw new DatabaseException(
+        ErrorSeverity.SEVERITY_ERROR,
+        DatabaseMessages.localize("errorOpenDatabase", e.getLocalizedMessage()),
+        e);
+    }
+  }
+
+  /**
+   * Create the connection pools for a database, upgrade its partitions, and open it. Once the
+   * write pool exists, any failure closes every pool and executor created so far, so that the
+   * physical connections that they hold are not leaked.
+   */
+
+  static DatabaseDerby openPooled(
+    final DatabasePartitionProviderRegistryType registry,
+    final DatabaseParameters parameters,
+    final DatabaseEngineType engine,
+    final ConnectionPoolDataSource dataSource,
+    final Optional<DatabaseDerbyNetworkServer> server,
+    final DatabaseOpenTimings.Builder timings,
+    final long timeStart)
+    throws DatabaseException, SQLException
+  {
+    var timePhase = System.nanoTime();
+    final var pool =
+      DatabaseDerbyConnectionPool.create("write", dataSource, parameters.connectionPool());
+    var poolTime = elapsedSince(timePhase);
+
+    DatabaseDerbyConnectionPool readPool = null;
+    DatabaseDerbyAsyncExecutor asyncExecutor = null;
+    try {
+      final var partitionProviders = partitionProviders(registry, engine.dialect());
+      upgradePartitions(pool, engine, partitionProviders, parameters.migration(), timings);
+
+      timePhase = System.nanoTime();
+      readPool =
+        DatabaseDerbyConnectionPool.create(
+          "read", dataSource, parameters.readOnlyConnectionPool());
+      poolTime = poolTime.plus(elapsedSince(timePhase));
+
+      timings.setConnectionPools(poolTime);
+      timings.setTotal(elapsedSince(timeStart));
+
+      final var timingsResult = timings.build();
+      logTimings(parameters.path(), timingsResult);
+
+      asyncExecutor =
+        DatabaseDerbyAsyncExecutor.create(parameters.async(), parameters.groupCommit());
+      final var database = new DatabaseDerby(
+        parameters.path(),
+        engine,
+        pool,
+        readPool,
+        server,
+        timingsResult,
+        asyncExecutor,
+        new DatabaseDerbyMetrics(parameters.metrics()),
+        registry,
+        dispatchTable(partitionProviders));
+      database.dataMigrationsStart(partitionProviders, parameters.migration());
+      return database;
+    } catch (final DatabaseException | SQLException | RuntimeException e) {
+      closeAfterFailedOpen(pool, readPool, asyncExecutor);
+      throw e;
+    }
+  }
+
+  private static void logTimings(
+    final String path,
+    final DatabaseOpenTimings timings)
+  {
+    LOG.info(
+      "open: {} took {} (server {}, storage {}, pools {}, partitions {})",
+      path,
+      timings.total(),
+      timings.server(),
+      timings.storage(),
+      timings.connectionPools(),
+      timings.partitionUpgrades());
+  }
+
+  private static void closeAfterFailedOpen(
+    final DatabaseDerbyConnectionPool pool,
+    final DatabaseDerbyConnectionPool readPool,
+    final DatabaseDerbyAsyncExecutor asyncExecutor)
+  {
+    if (asyncExecutor != null) {
+      asyncExecutor.close();
+    }
+    if (readPool != null) {
+      readPool.close();
+    }
+    pool.close();
+  }
+
+  /**
+   * Store the storage parameters in the database. Some properties are only read when a database
+   * boots, so an embedded database is shut down after such a property changes and is booted
+   * again by the first pooled connection. A database behind a network server may be in use by
+   * other processes, and an embedded database may be in use by other databases opened on the
+   * same path in this process; neither is shut down here.
+   *
+   * @return {@code true} if changed properties will only take effect after a restart
+   */
+
+  private static boolean configureStorage(
+    final ConnectionPoolDataSource dataSource,
+    final DatabaseParameters parameters)
+    throws SQLException
+  {
+    if (!applyStorage(dataSource, parameters.storage())) {
+      return false;
+    }
+
+    if (parameters.server().isPresent()) {
+      LOG.warn("storage properties will take effect when the database server is restarted");
+      return true;
+    }
+
+    if (DatabaseDerbyEmbeddedReferences.isShared(parameters.path())) {
+      LOG.warn("storage properties will take effect when the database is no longer in use");
+      return true;
+    }
+
+    LOG.debug("restarting database to apply storage properties");
+    DatabaseDerbyStorage.shutdownEmbedded(parameters.path());
+    return false;
+  }
+
+  private static boolean applyStorage(
+    final ConnectionPoolDataSource dataSource,
+    final DatabaseStorageParameters storage)
+    throws SQLException
+  {
+    final boolean bootChanged;
+    final var pooled = dataSource.getPooledConnection();
+    try (var connection = pooled.getConnection()) {
+      connection.setAutoCommit(false);
+      bootChanged = DatabaseDerbyStorage.apply(connection, storage);
+    } catch (final SQLException e) {
+      pooled.close();
+      throw e;
+    }
+    pooled.close();
+    return bootChanged;
+  }
+
+  private static ConnectionPoolDataSource dataSource(
+    final DatabaseParameters parameters,
+    final boolean create)
+  {
+    final var path = parameters.path();
+    final var serverParameters = parameters.server();
+    if (serverParameters.isPresent()) {
+      final var server = serverParameters.get();
+      final var dataSource = new ClientConnectionPoolDataSource();
+      dataSource.setServerName(server.host());
+      dataSource.setPortNumber(server.port());
       dataSource.setDatabaseName(path);
+      if (create) {
+        dataSource.setCreateDatabase("create");
+      }
+      return dataSource;
+    }
+
+    final var dataSource = new EmbeddedConnectionPoolDataSource();
+    dataSource.setDatabaseName(path);
+    if (create) {
       dataSource.setCreateDatabase("true");
       dataSource.setConnectionAttributes("create=true");
+    }
+    return dataSource;
+  }
+
+  /**
+   * @return {@code true} if the exception, or any exception chained to it, reports that the
+   * database does not exist
+   */
+
+  private static boolean isDatabaseMissing(
+    final SQLException e)
+  {
+    for (var current = e; current != null; current = current.getNextException()) {
+      if (Objects.equals(current.getSQLState(), "XJ004")) {
+        return true;
+      }
+      final var cause = current.getCause();
+      if (cause instanceof SQLException
+        && Objects.equals(((SQLException) cause).getSQLState(), "XJ004")) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Plan the migrations of all partitions against a temporary, empty, in-memory database. This
+   * yields the plan for a database that does not yet exist, without creating it.
+   */
+
+  private static List<DatabaseMigrationPlan> migrationPlansEmpty(
+    final List<DatabasePartitionProviderType> partitionProviders)
+    throws DatabaseException, SQLException
+  {
+    final var name = "memory:com.io7m.ironpage.plan." + UUID.randomUUID();
+    final var dataSource = new EmbeddedConnectionPoolDataSource();
+    dataSource.setDatabaseName(name);
+    dataSource.setCreateDatabase("create");
+    try {
+      return migrationPlans(dataSource, partitionProviders);
+    } finally {
+      final var drop = new EmbeddedDataSource();
+      drop.setDatabaseName(name);
+      drop.setConnectionAttributes("drop=true");
+      try {
+        drop.getConnection().close();
+      } catch (final SQLException e) {
+        if (!Objects.equals(e.getSQLState(), "08006")) {
+          LOG.debug("failed to drop temporary database: ", e);
+        }
+      }
+    }
+  }
+
+  static List<DatabasePartitionProviderType> partitionProviders(
+    final DatabasePartitionProviderRegistryType registry,
+    final String dialect)
+  {
+    final var partitionProviders = registry.findProvidersForDialect(dialect);
+    LOG.debug(
+      "{} partition providers for {}",
+      Integer.valueOf(partitionProviders.size()),
+      dialect);
+
+    final var compatible = new ArrayList<DatabasePartitionProviderType>(partitionProviders.size());
+    for (final var partitionProvider : partitionProviders) {
+      final var receivedDialect = partitionProvider.dialect();
+      if (!Objects.equals(receivedDialect, dialect)) {
+        LOG.warn(
+          "[{}]: received incorrect dialect ({} instead of {})",
+          partitionProvider.getClass().getCanonicalName(),
+          receivedDialect,
+          dialect);
+        continue;
+      }
+      compatible.add(partitionProvider);
+    }
+    return compatible;
+  }
+
+  /**
+   * Flatten the set of partition providers into a table that maps each supported queries class to
+   * the first provider that supports it. This mirrors the resolution order of the registry, but
+   * means that transactions need not search the registry for every request for queries.
+   */
+
+  static Map<Class<? extends DatabaseQueriesType>, DatabasePartitionProviderType> dispatchTable(
+    final List<DatabasePartitionProviderType> partitionProviders)
+  {
+    final var table =
+      new HashMap<Class<? extends DatabaseQueriesType>, DatabasePartitionProviderType>();
+    for (final var partitionProvider : partitionProviders) {
+      for (final var queriesClass : partitionProvider.queriesSupportedClasses()) {
+        table.putIfAbsent(queriesClass, partitionProvider);
+      }
+    }
+    return Map.copyOf(table);
+  }
+
+  /**
+   * Plan the migrations of all partitions, without modifying any partition. The plan is made
+   * on a read-only connection and the transaction is rolled back.
+   */
 
-      final var connection = dataSource.getConnection();
+  static List<DatabaseMigrationPlan> migrationPlans(
+    final ConnectionPoolDataSource dataSource,
+    final List<DatabasePartitionProviderType> partitionProviders)
+    throws DatabaseException, SQLException
+  {
+    final var pooled = dataSource.getPooledConnection();
+    try (var connection = pooled.getConnection()) {
       connection.setAutoCommit(false);
+      connection.setReadOnly(true);
+      final var plans = new ArrayList<DatabaseMigrationPlan>(partitionProviders.size());
+      for (final var partitionProvider : partitionProviders) {
+        plans.add(partitionProvider.migrationPlan(connection));
+      }
+      connection.rollback();
+      return List.copyOf(plans);
+    } finally {
+      pooled.close();
+    }
+  }
 
-      final var partitionProviders = this.registry.findProvidersForDialect("DERBY");
-      LOG.debug("{} partition providers for DERBY", Integer.valueOf(partitionProviders.size()));
+  /**
+   * Upgrade all partitions. Several processes may open the same database through a network
+   * server at the same time, so each partition is upgraded while holding an exclusive lock on a
+   * dedicated table: the first process to take the lock runs the upgrade, and the others find the
+   * partition already upgraded once the lock is released.
+   *
+   * Each schema revision is committed in its own transaction, along with the migration history
+   * records of its statements, so that the work of a long upgrade is not lost if a later revision
+   * fails. A failed upgrade therefore leaves the partition at the last revision that completed,
+   * which is a schema version in its own right, and the next attempt resumes from there.
+   * Committing releases the upgrade lock, so the lock is taken again and the migration
+   * planned again before each revision. Data migrations do not run here; they are recorded in
+   * the checkpoint table and run in the background once the database is open.
+   */
+
+  static void upgradePartitions(
+    final DatabaseDerbyConnectionPool pool,
+    final DatabaseEngineType engine,
+    final List<DatabasePartitionProviderType> partitionProviders,
+    final DatabaseMigrationParameters migration,
+    final DatabaseOpenTimings.Builder timings)
+    throws DatabaseException, SQLException
+  {
+    final var pooled = pool.acquire();
+    try {
+      final var connection = pooled.handle();
+      connection.setAutoCommit(false);
+      engine.upgradeLockCreate(connection);
+      engine.migrationHistoryCreate(connection);
+      engine.dataMigrationsCreate(connection);
 
       for (final var partitionProvider : partitionProviders) {
-        final var receivedDialect = partitionProvider.dialect();
-        if (!Objects.equals(receivedDialect, "DERBY")) {
-          LOG.warn(
-            "[{}]: received incorrect dialect ({} instead of {})",
-            partitionProvider.getClass().getCanonicalName(),
-            receivedDialect,
-            "DERBY");
-          continue;
+        final var timeStart = System.nanoTime();
+        try {
+          upgradePartition(connection, engine, partitionProvider, migration.batchSize());
+        } catch (final DatabaseException | SQLException e) {
+          connection.rollback();
+          throw e;
         }
-        partitionProvider.upgradePartitionToLatest(connection);
+        timings.putPartitionUpgrades(
+          partitionProvider.getClass().getCanonicalName(),
+          elapsedSince(timeStart));
       }
+    } finally {
+      pool.release(pooled);
+    }
+  }
 
-      return new DatabaseDerby(dataSource, this.registry);
-    } catch (final Exception e) {
-      throw new DatabaseException(
-        ErrorSeverity.SEVERITY_ERROR,
-        DatabaseMessages.localize("errorOpenDatabase", e.getLocalizedMessage()),
-        e);
+  private static void upgradePartition(
+    final Connection connection,
+    final DatabaseEngineType engine,
+    final DatabasePartitionProviderType partitionProvider,
+    final int batchSize)
+    throws DatabaseException, SQLException
+  {
+    Optional<BigInteger> executed = Optional.empty();
+    while (true) {
+      engine.upgradeLock(connection);
+      final var plan = partitionProvider.migrationPlan(connection);
+      final var steps = plan.steps();
+      if (steps.isEmpty()) {
+        DatabaseDerbyDataMigrator.register(connection, engine, partitionProvider);
+        connection.commit();
+        return;
+      }
+
+      /*
+       * A revision that does not record its own version in the partition would otherwise be
+       * executed again, forever.
+       */
+
+      final var step = steps.get(0);
+      final var version = step.version();
+      if (executed.isPresent() && executed.get().compareTo(version) >= 0) {
+        throw new DatabaseException(
+          DatabaseMessages.localize(
+            "errorMigrationVersionUnrecorded", plan.partition(), executed.get()));
+      }
+
+      LOG.debug("[{}]: migrating to {}", plan.partition(), version);
+      partitionProvider.migrationStepExecute(
+        connection, step, batchSize, engine::migrationHistoryRecord);
+      connection.commit();
+      executed = Optional.of(version);
     }
   }
+
+  static Duration elapsedSince(
+    final long timeStart)
+  {
+    return Duration.ofNanos(System.nanoTime() - timeStart);
+  }
 }
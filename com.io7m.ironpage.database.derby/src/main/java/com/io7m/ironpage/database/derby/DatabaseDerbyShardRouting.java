@@ -0,0 +1,267 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironpage.database.derby;
+
+import com.io7m.ironpage.database.spi.DatabaseShardKey;
+import com.io7m.ironpage.database.spi.DatabaseShardReplicated;
+
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The routing of queries methods to shards. Routes are derived from the annotations on each
+ * queries method the first time that the method is called.
+ *
+ * Keys are reduced to an unsigned 64-bit hash, and the hash modulo the number of shards selects a
+ * shard. The hash of content is the first eight bytes of its SHA-256 digest, and the hash of a
+ * hex-encoded digest is the value of its first sixteen digits, so content and its digest always
+ * select the same shard. Content supplied as a stream cannot be hashed without being read, so the
+ * stream is spooled to a temporary file first (see {@link DatabaseDerbyShardSpool}). A method
+ * keyed by a collection of keys is scattered: each shard selected by an element of the collection
+ * receives the elements that select it.
+ *
+ * @see DatabaseShardKey
+ * @see DatabaseShardReplicated
+ */
+
+final class DatabaseDerbyShardRouting
+{
+  private static final Set<Class<?>> KEY_TYPES =
+    Set.of(UUID.class, byte[].class, String.class, InputStream.class, Collection.class);
+
+  private final int shards;
+  private final ConcurrentHashMap<Method, Route> routes;
+
+  DatabaseDerbyShardRouting(
+    final int inShards)
+  {
+    this.shards = inShards;
+    this.routes = new ConcurrentHashMap<>(64);
+  }
+
+  static long hashOf(
+    final Object key)
+  {
+    if (key instanceof UUID) {
+      final var uuid = (UUID) key;
+      return uuid.getMostSignificantBits() ^ uuid.getLeastSignificantBits();
+    }
+    if (key instanceof byte[]) {
+      return hashOfContent((byte[]) key);
+    }
+    if (key instanceof String) {
+      return hashOfDigest((String) key);
+    }
+    return 0L;
+  }
+
+  private static long hashOfContent(
+    final byte[] data)
+  {
+    try {
+      final var digest = MessageDigest.getInstance("SHA-256");
+      return ByteBuffer.wrap(digest.digest(data)).getLong();
+    } catch (final NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Strings that are not hex-encoded digests cannot name stored content, so they are sent to the
+   * first shard, where lookups will simply find nothing.
+   */
+
+  private static long hashOfDigest(
+    final String digest)
+  {
+    if (digest.length() < 16) {
+      return 0L;
+    }
+    try {
+      return Long.parseUnsignedLong(digest.substring(0, 16), 16);
+    } catch (final NumberFormatException e) {
+      return 0L;
+    }
+  }
+
+  /**
+   * The results of a scattered method are gathered by merging the maps returned by each shard.
+   */
+
+  private static boolean isSupportedRoute(
+    final Method method,
+    final Class<?> keyType)
+  {
+    return KEY_TYPES.contains(keyType)
+      && (keyType != Collection.class || method.getReturnType() == Map.class);
+  }
+
+  private static Route routeOf(
+    final Method method)
+  {
+    final var replicated = method.isAnnotationPresent(DatabaseShardReplicated.class);
+    final var parameterTypes = method.getParameterTypes();
+    final var parameterAnnotations = method.getParameterAnnotations();
+
+    var keyIndex = -1;
+    for (var index = 0; index < parameterAnnotations.length; ++index) {
+      for (final var annotation : parameterAnnotations[index]) {
+        if (annotation instanceof DatabaseShardKey) {
+          if (replicated || keyIndex != -1 || !isSupportedRoute(method, parameterTypes[index])) {
+            throw new IllegalArgumentException(
+              DatabaseMessages.localize("errorShardRouting", method));
+          }
+          keyIndex = index;
+        }
+      }
+    }
+    final var keyType = keyIndex != -1 ? parameterTypes[keyIndex] : null;
+    return new Route(
+      replicated,
+      keyIndex,
+      keyType == InputStream.class,
+      keyType == Collection.class);
+  }
+
+  /**
+   * @return The number of shards
+   */
+
+  int count()
+  {
+    return this.shards;
+  }
+
+  /**
+   * @return {@code true} if the method must be executed on every shard
+   */
+
+  boolean isReplicated(
+    final Method method)
+  {
+    return this.route(method).isReplicated();
+  }
+
+  /**
+   * @return The shard on which a method must be executed, given its arguments
+   */
+
+  int shardFor(
+    final Method method,
+    final Object... arguments)
+  {
+    return this.route(method).shard(this.shards, arguments);
+  }
+
+  /**
+   * @return The index of the argument holding the streamed content that selects the shard of a
+   * method, or {@code -1} if the key of the method is not a stream
+   */
+
+  int streamedKeyIndex(
+    final Method method)
+  {
+    final var route = this.route(method);
+    return route.isStreamed() ? route.keyIndex() : -1;
+  }
+
+  /**
+   * @return The index of the argument holding the collection of keys over which a method is
+   * scattered, or {@code -1} if the method is not scattered
+   */
+
+  int scatteredKeyIndex(
+    final Method method)
+  {
+    final var route = this.route(method);
+    return route.isScattered() ? route.keyIndex() : -1;
+  }
+
+  /**
+   * @return The shard selected by a hash produced by {@link #hashOf(Object)}
+   */
+
+  int shardForHash(
+    final long hash)
+  {
+    return (int) Long.remainderUnsigned(hash, this.shards);
+  }
+
+  private Route route(
+    final Method method)
+  {
+    return this.routes.computeIfAbsent(method, DatabaseDerbyShardRouting::routeOf);
+  }
+
+  private static final class Route
+  {
+    private final boolean replicated;
+    private final int keyIndex;
+    private final boolean streamed;
+    private final boolean scattered;
+
+    Route(
+      final boolean inReplicated,
+      final int inKeyIndex,
+      final boolean inStreamed,
+      final boolean inScattered)
+    {
+      this.replicated = inReplicated;
+      this.keyIndex = inKeyIndex;
+      this.streamed = inStreamed;
+      this.scattered = inScattered;
+    }
+
+    boolean isReplicated()
+    {
+      return this.replicated;
+    }
+
+    boolean isStreamed()
+    {
+      return this.streamed;
+    }
+
+    boolean isScattered()
+    {
+      return this.scattered;
+    }
+
+    int keyIndex()
+    {
+      return this.keyIndex;
+    }
+
+    int shard(
+      final int shards,
+      final Object... arguments)
+    {
+      if (this.keyIndex < 0) {
+        return 0;
+      }
+      return (int) Long.remainderUnsigned(hashOf(arguments[this.keyIndex]), shards);
+    }
+  }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.io7m.ironpage.database.derby;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Objects;
+
+/**
+ * A stream of content copied to a temporary file so that the shard on which the content belongs
+ * can be determined before the content is passed to the shard. The hash of the content is
+ * computed as the content is copied, in the same manner as
+ * {@link DatabaseDerbyShardRouting#hashOf(Object)}. The file is deleted when the spool is closed.
+ */
+
+final class DatabaseDerbyShardSpool implements Closeable
+{
+  private final Path file;
+  private final long hash;
+  private final InputStream stream;
+
+  private DatabaseDerbyShardSpool(
+    final Path inFile,
+    final long inHash,
+    final InputStream inStream)
+  {
+    this.file = Objects.requireNonNull(inFile, "file");
+    this.hash = inHash;
+    this.stream = Objects.requireNonNull(inStream, "stream");
+  }
+
+  /**
+   * Copy the given stream to a temporary file. The given stream is read to the end, but is not
+   * closed.
+   *
+   * @param input The stream
+   *
+   * @return A spool
+   */
+
+  static DatabaseDerbyShardSpool spool(
+    final InputStream input)
+  {
+    Objects.requireNonNull(input, "input");
+
+    final MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (final NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+
+    try {
+      final var file = Files.createTempFile("ironpage-shard-", ".spool");
+      try {
+        try (var output = Files.newOutputStream(file)) {
+          new DigestInputStream(input, digest).transferTo(output);
+        }
+        final var hash = ByteBuffer.wrap(digest.digest()).getLong();
+        return new DatabaseDerbyShardSpool(file, hash, Files.newInputStream(file));
+      } catch (final IOException e) {
+        Files.deleteIfExists(file);
+        throw e;
+      }
+    } catch (final IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * @return The unsigned 64-bit hash of the content
+   */
+
+  long hash()
+  {
+    return this.hash;
+  }
+
+  /**
+   * @return A stream that reads the spooled content from the start
+   */
+
+  InputStream stream()
+  {
+    return this.stream;
+  }
+
+  @Override
+  public void close()
+  {
+    try {
+      try {
+        this.stream.close();
+      } finally {
+        Files.deleteIfExists(this.file);
+      }
+    } catch (final IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
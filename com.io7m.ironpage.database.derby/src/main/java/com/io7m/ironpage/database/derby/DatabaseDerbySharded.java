@@ -0,0 +1,470 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironpage.database.derby;
+
+import com.io7m.ironpage.database.api.DatabaseBackup;
+import com.io7m.ironpage.database.api.DatabaseBackupParameters;
+import com.io7m.ironpage.database.api.DatabaseBackupProgressListenerType;
+import com.io7m.ironpage.database.api.DatabaseConnectionPoolStatistics;
+import com.io7m.ironpage.database.api.DatabaseConnectionType;
+import com.io7m.ironpage.database.api.DatabaseOpenTimings;
+import com.io7m.ironpage.database.api.DatabaseStorageDiagnostics;
+import com.io7m.ironpage.database.api.DatabaseTransactionFunctionType;
+import com.io7m.ironpage.database.api.DatabaseType;
+import com.io7m.ironpage.database.spi.DatabaseEventType;
+import com.io7m.ironpage.database.spi.DatabaseException;
+import com.io7m.ironpage.database.spi.DatabaseQueriesType;
+import com.io7m.ironpage.errors.api.ErrorSeverity;
+import com.io7m.ironpage.metrics.api.MetricsRegistryType;
+import com.io7m.ironpage.presentable.api.PresentableAttributes;
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.disposables.Disposable;
+import io.reactivex.rxjava3.subjects.PublishSubject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * A database divided into shards, each of which is a separate Derby database.
+ *
+ * Connections and transactions on a sharded database open a connection and a transaction on a
+ * shard only when a unit of work first touches that shard. A unit of work that touches a single
+ * shard borrows a single connection, and committing or rolling it back contacts only that shard.
+ *
+ * Replicated methods publish the same event on every shard; only the event published by the
+ * first shard is republished to subscribers of the sharded database.
+ *
+ * Replicated writes are not atomic across shards. If the shards are found to have diverged,
+ * either because a replicated method returned different results on different shards or because
+ * a transaction holding replicated writes committed on some shards but not others, a marker file
+ * named {@code diverged} is written beneath the database path. While the marker exists, including
+ * after the database is reopened, read-write transactions are refused, and read-only
+ * transactions continue to work. The marker is deleted by hand once the shards have been
+ * repaired.
+ */
+
+final class DatabaseDerbySharded implements DatabaseType
+{
+  private static final Logger LOG = LoggerFactory.getLogger(DatabaseDerbySharded.class);
+
+  private final List<DatabaseDerby> shards;
+  private final DatabaseDerbyShardRouting routing;
+  private final DatabaseOpenTimings openTimings;
+  private final DatabaseDerbyAsyncExecutor asyncExecutor;
+  private final PublishSubject<DatabaseEventType> eventSubject;
+  private final List<Disposable> eventSubscriptions;
+  private final ThreadLocal<Boolean> replicating;
+  private final Path divergedMarker;
+  private volatile boolean diverged;
+
+  DatabaseDerbySharded(
+    final Path inPath,
+    final List<DatabaseDerby> inShards,
+    final DatabaseOpenTimings inOpenTimings,
+    final DatabaseDerbyAsyncExecutor inAsyncExecutor,
+    final MetricsRegistryType metrics)
+  {
+    this.divergedMarker =
+      Objects.requireNonNull(inPath, "inPath").resolve("diverged");
+    this.shards =
+      List.copyOf(Objects.requireNonNull(inShards, "inShards"));
+    this.openTimings =
+      Objects.requireNonNull(inOpenTimings, "inOpenTimings");
+    this.asyncExecutor =
+      Objects.requireNonNull(inAsyncExecutor, "inAsyncExecutor");
+    this.routing =
+      new DatabaseDerbyShardRouting(this.shards.size());
+    this.replicating =
+      ThreadLocal.withInitial(() -> Boolean.FALSE);
+    this.eventSubject =
+      PublishSubject.create();
+    this.diverged =
+      Files.exists(this.divergedMarker);
+
+    if (this.diverged) {
+      LOG.error("{}", DatabaseMessages.localize("errorShardsDiverged", this.divergedMarker));
+    }
+
+    this.eventSubscriptions = new ArrayList<>(this.shards.size());
+    for (final var shard : this.shards) {
+      this.eventSubscriptions.add(shard.events().subscribe(this::onShardEvent));
+    }
+
+    /*
+     * Every shard registers pool gauges under the same names, so the gauges registered last
+     * would only describe the last shard. Replace them with gauges over all shards.
+     */
+
+    registerPoolGauges(metrics, "write", this::connectionPoolStatistics);
+    registerPoolGauges(metrics, "read", this::readOnlyConnectionPoolStatistics);
+  }
+
+  private static void registerPoolGauges(
+    final MetricsRegistryType metrics,
+    final String pool,
+    final Supplier<DatabaseConnectionPoolStatistics> statistics)
+  {
+    final var labels = Map.of("pool", pool);
+    metrics.gauge(
+      "ironpage.database.pool.active", labels, () -> statistics.get().connectionsActive());
+    metrics.gauge(
+      "ironpage.database.pool.idle", labels, () -> statistics.get().connectionsIdle());
+  }
+
+  /**
+   * An action applied to each shard.
+   *
+   * @param <T> The type of per-shard values
+   */
+
+  @FunctionalInterface
+  interface ShardActionType<T>
+  {
+    void apply(T value)
+      throws DatabaseException;
+  }
+
+  /**
+   * Apply an action to every value, even if the action fails for some of them. The first
+   * failure is raised once all values have been visited, with any later failures suppressed.
+   */
+
+  static <T> void forEachShard(
+    final List<T> values,
+    final ShardActionType<T> action)
+    throws DatabaseException
+  {
+    DatabaseException failure = null;
+    for (final var value : values) {
+      try {
+        action.apply(value);
+      } catch (final DatabaseException e) {
+        if (failure == null) {
+          failure = e;
+        } else {
+          failure.addSuppressed(e);
+        }
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  private static DatabaseConnectionPoolStatistics combine(
+    final List<DatabaseConnectionPoolStatistics> statistics)
+  {
+    var active = 0;
+    var idle = 0;
+    var maximum = 0;
+    var timeouts = 0L;
+    var leaks = 0L;
+    final var waits = new TreeMap<Duration, Long>();
+    for (final var shard : statistics) {
+      active += shard.connectionsActive();
+      idle += shard.connectionsIdle();
+      maximum += shard.connectionsMaximum();
+      timeouts += shard.acquisitionTimeouts();
+      leaks += shard.leaksDetected();
+      shard.waitTimeHistogram().forEach((bucket, count) -> waits.merge(bucket, count, Long::sum));
+    }
+
+    return DatabaseConnectionPoolStatistics.builder()
+      .setConnectionsActive(active)
+      .setConnectionsIdle(idle)
+      .setConnectionsMaximum(maximum)
+      .setAcquisitionTimeouts(timeouts)
+      .setLeaksDetected(leaks)
+      .setWaitTimeHistogram(waits)
+      .build();
+  }
+
+  private void onShardEvent(
+    final DatabaseEventType event)
+  {
+    if (!this.replicating.get().booleanValue()) {
+      this.eventSubject.onNext(event);
+    }
+  }
+
+  /**
+   * Mark the current thread as executing a replicated method on a shard other than the first.
+   */
+
+  void setReplicating(
+    final boolean inReplicating)
+  {
+    this.replicating.set(Boolean.valueOf(inReplicating));
+  }
+
+  DatabaseDerbyShardRouting routing()
+  {
+    return this.routing;
+  }
+
+  /**
+   * Record that the shards have diverged. Read-write transactions are refused from now on, and
+   * after the database is reopened, until the marker file is deleted.
+   *
+   * @param reason A description of the divergence
+   */
+
+  void markDiverged(
+    final String reason)
+  {
+    LOG.error("shards diverged: {}", reason);
+    this.diverged = true;
+
+    try {
+      Files.writeString(this.divergedMarker, reason + System.lineSeparator(), StandardCharsets.UTF_8);
+    } catch (final IOException e) {
+      LOG.error("failed to write {}: ", this.divergedMarker, e);
+    }
+  }
+
+  /**
+   * Refuse read-write transactions if the shards have diverged.
+   *
+   * @throws DatabaseException If the shards have diverged
+   */
+
+  void checkWritable()
+    throws DatabaseException
+  {
+    if (this.diverged) {
+      throw new DatabaseException(
+        DatabaseMessages.localize("errorShardsDiverged", this.divergedMarker));
+    }
+  }
+
+  @Override
+  public Observable<DatabaseEventType> events()
+  {
+    return this.eventSubject;
+  }
+
+  @Override
+  public String dialect()
+  {
+    return "DERBY";
+  }
+
+  @Override
+  public DatabaseConnectionType openConnection()
+  {
+    return this.open(DatabaseDerby::openConnection);
+  }
+
+  @Override
+  public DatabaseConnectionType openReadOnlyConnection()
+  {
+    return this.open(DatabaseDerby::openReadOnlyConnection);
+  }
+
+  /**
+   * A function that opens a connection to a shard.
+   */
+
+  @FunctionalInterface
+  interface ConnectionOpenerType
+  {
+    DatabaseConnectionType open(DatabaseDerby shard)
+      throws DatabaseException;
+  }
+
+  private DatabaseConnectionType open(
+    final ConnectionOpenerType opener)
+  {
+    return new DatabaseDerbyShardedConnection(this, opener);
+  }
+
+  DatabaseDerby shard(
+    final int index)
+  {
+    return this.shards.get(index);
+  }
+
+  /**
+   * Check that queries of the given type can be created. Every shard is opened with the same
+   * partition providers, so the first shard answers for all of them.
+   */
+
+  <P extends DatabaseQueriesType> void checkQueriesSupported(
+    final Class<P> queriesClass)
+    throws DatabaseException
+  {
+    if (this.shards.get(0).partitionProviderFor(queriesClass).isEmpty()) {
+      throw new DatabaseException(
+        ErrorSeverity.SEVERITY_ERROR,
+        DatabaseMessages.localize("errorCreateQueriesUnavailable"),
+        null,
+        PresentableAttributes.one(
+          DatabaseMessages.localize("queriesClass"),
+          queriesClass.getCanonicalName())
+      );
+    }
+  }
+
+  private DatabaseConnectionPoolStatistics statistics(
+    final Function<DatabaseDerby, DatabaseConnectionPoolStatistics> pool)
+  {
+    final var statistics = new ArrayList<DatabaseConnectionPoolStatistics>(this.shards.size());
+    for (final var shard : this.shards) {
+      statistics.add(pool.apply(shard));
+    }
+    return combine(statistics);
+  }
+
+  @Override
+  public DatabaseConnectionPoolStatistics connectionPoolStatistics()
+  {
+    return this.statistics(DatabaseDerby::connectionPoolStatistics);
+  }
+
+  @Override
+  public DatabaseConnectionPoolStatistics readOnlyConnectionPoolStatistics()
+  {
+    return this.statistics(DatabaseDerby::readOnlyConnectionPoolStatistics);
+  }
+
+  @Override
+  public DatabaseOpenTimings openTimings()
+  {
+    return this.openTimings;
+  }
+
+  /**
+   * Each shard runs its own data migrations; the migrations of the database finish when those of
+   * every shard have finished.
+   */
+
+  @Override
+  public CompletionStage<Void> dataMigrations()
+  {
+    final var stages = new CompletableFuture<?>[this.shards.size()];
+    for (var index = 0; index < stages.length; ++index) {
+      stages[index] = this.shards.get(index).dataMigrations().toCompletableFuture();
+    }
+    return CompletableFuture.allOf(stages);
+  }
+
+  /**
+   * The storage parameters are applied identically to every shard, so the diagnostics of the
+   * first shard are returned, except that a restart is reported as required if any shard
+   * requires one.
+   */
+
+  @Override
+  public DatabaseStorageDiagnostics storageDiagnostics()
+    throws DatabaseException
+  {
+    final var home = this.shards.get(0).storageDiagnostics();
+    var restartRequired = home.restartRequired();
+    for (var index = 1; index < this.shards.size(); ++index) {
+      restartRequired |= this.shards.get(index).storageDiagnostics().restartRequired();
+    }
+    return DatabaseStorageDiagnostics.builder()
+      .from(home)
+      .setRestartRequired(restartRequired)
+      .build();
+  }
+
+  /**
+   * Back up every shard, one after another, into the backup directory. Each shard is backed up
+   * into a directory named after the last element of its path, which is where
+   * {@link DatabaseDerbyShardedProvider} looks for it when restoring. Progress is reported as a
+   * running total over the shards backed up so far.
+   */
+
+  @Override
+  public DatabaseBackup backup(
+    final DatabaseBackupParameters parameters,
+    final DatabaseBackupProgressListenerType listener)
+    throws DatabaseException
+  {
+    Objects.requireNonNull(parameters, "parameters");
+    Objects.requireNonNull(listener, "listener");
+
+    final var timeStart = System.nanoTime();
+    var size = 0L;
+    for (final var shard : this.shards) {
+      final var offset = size;
+      final var backup =
+        shard.backup(
+          parameters,
+          (copied, estimated) -> listener.onBackupProgress(offset + copied, offset + estimated));
+      size += backup.size();
+    }
+
+    return DatabaseBackup.builder()
+      .setPath(parameters.directory().toAbsolutePath())
+      .setSize(size)
+      .setDuration(Duration.ofNanos(System.nanoTime() - timeStart))
+      .setLogArchiving(parameters.enableLogArchiving())
+      .build();
+  }
+
+  @Override
+  public <T> CompletionStage<T> transactAsync(
+    final DatabaseTransactionFunctionType<T> function)
+  {
+    return this.transactAsync(this.asyncExecutor.defaultDeadline(), function);
+  }
+
+  @Override
+  public <T> CompletionStage<T> transactAsync(
+    final Duration deadline,
+    final DatabaseTransactionFunctionType<T> function)
+  {
+    return this.asyncExecutor.submit(this, deadline, function);
+  }
+
+  @Override
+  public <T> CompletionStage<T> transactGrouped(
+    final DatabaseTransactionFunctionType<T> function)
+  {
+    return this.asyncExecutor.submitGrouped(this, function);
+  }
+
+  @Override
+  public void close()
+  {
+    LOG.debug("close");
+    this.asyncExecutor.close();
+    for (final var subscription : this.eventSubscriptions) {
+      subscription.dispose();
+    }
+    for (final var shard : this.shards) {
+      shard.close();
+    }
+    this.eventSubject.onComplete();
+  }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironpage.database.derby;
+
+import com.io7m.ironpage.database.api.DatabaseConnectionType;
+import com.io7m.ironpage.database.api.DatabaseTransactionType;
+import com.io7m.ironpage.database.spi.DatabaseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A connection to a sharded database. A connection to a shard is borrowed from the shard's pool
+ * the first time that a transaction on this connection touches the shard, and is held until this
+ * connection is closed.
+ */
+
+final class DatabaseDerbyShardedConnection implements DatabaseConnectionType
+{
+  private static final Logger LOG = LoggerFactory.getLogger(DatabaseDerbyShardedConnection.class);
+
+  private final DatabaseDerbySharded database;
+  private final DatabaseDerbySharded.ConnectionOpenerType opener;
+  private final List<DatabaseConnectionType> connections;
+  private final AtomicBoolean closed;
+
+  DatabaseDerbyShardedConnection(
+    final DatabaseDerbySharded inDatabase,
+    final DatabaseDerbySharded.ConnectionOpenerType inOpener)
+  {
+    this.database =
+      Objects.requireNonNull(inDatabase, "inDatabase");
+    this.opener =
+      Objects.requireNonNull(inOpener, "inOpener");
+
+    final var count = inDatabase.routing().count();
+    this.connections = new ArrayList<>(count);
+    for (var index = 0; index < count; ++index) {
+      this.connections.add(null);
+    }
+    this.closed = new AtomicBoolean(false);
+  }
+
+  /**
+   * @return The connection to the given shard, opening it if this is the first time that the
+   * shard has been touched
+   */
+
+  DatabaseConnectionType shard(
+    final int index)
+    throws DatabaseException
+  {
+    final var existing = this.connections.get(index);
+    if (existing != null) {
+      return existing;
+    }
+
+    LOG.trace("opening connection to shard {}", Integer.valueOf(index));
+    final var created = this.opener.open(this.database.shard(index));
+    this.connections.set(index, created);
+    return created;
+  }
+
+  @Override
+  public void close()
+    throws DatabaseException
+  {
+    if (this.closed.compareAndSet(false, true)) {
+      LOG.trace("close");
+      final var opened = new ArrayList<DatabaseConnectionType>(this.connections.size());
+      for (final var connection : this.connections) {
+        if (connection != null) {
+          opened.add(connection);
+        }
+      }
+      DatabaseDerbySharded.forEachShard(opened, DatabaseConnectionType::close);
+    }
+  }
+
+  @Override
+  public DatabaseTransactionType beginTransaction()
+    throws DatabaseException
+  {
+    this.database.checkWritable();
+    return new DatabaseDerbyShardedTransaction(
+      this.database, this, DatabaseConnectionType::beginTransaction);
+  }
+
+  @Override
+  public DatabaseTransactionType beginReadOnlyTransaction()
+  {
+    return new DatabaseDerbyShardedTransaction(
+      this.database, this, DatabaseConnectionType::beginReadOnlyTransaction);
+  }
+}
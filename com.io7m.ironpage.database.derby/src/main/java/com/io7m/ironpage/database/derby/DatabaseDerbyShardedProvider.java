@@ -0,0 +1,249 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironpage.database.derby;
+
+import com.io7m.ironpage.database.api.DatabaseOpenTimings;
+import com.io7m.ironpage.database.api.DatabaseParameters;
+import com.io7m.ironpage.database.api.DatabaseProviderType;
+import com.io7m.ironpage.database.api.DatabaseRestoreParameters;
+import com.io7m.ironpage.database.api.DatabaseType;
+import com.io7m.ironpage.database.spi.DatabaseException;
+import com.io7m.ironpage.database.spi.DatabaseMigrationPlan;
+import com.io7m.ironpage.database.spi.DatabaseMigrationStep;
+import com.io7m.ironpage.database.spi.DatabasePartitionProviderRegistryType;
+import com.io7m.ironpage.errors.api.ErrorSeverity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A provider of Derby databases that are divided into a fixed number of shards.
+ *
+ * Each shard is a separate Derby database, stored at {@code shard-N} beneath the path given in
+ * the database parameters, and opened with otherwise identical parameters. The shards are
+ * opened, and their partitions upgraded, in parallel. Queries are routed to shards according to
+ * the {@link com.io7m.ironpage.database.spi.DatabaseShardKey} and
+ * {@link com.io7m.ironpage.database.spi.DatabaseShardReplicated} annotations on queries methods.
+ *
+ * The number of shards must not change once a database has been created, because the shard that
+ * holds each piece of data depends on the number of shards.
+ */
+
+public final class DatabaseDerbyShardedProvider implements DatabaseProviderType
+{
+  private static final Logger LOG = LoggerFactory.getLogger(DatabaseDerbyShardedProvider.class);
+
+  private final DatabaseDerbyProvider provider;
+  private final int shards;
+
+  /**
+   * Construct a sharded Derby database provider.
+   *
+   * @param inRegistry The partition provider registry
+   * @param inShards   The number of shards
+   */
+
+  public DatabaseDerbyShardedProvider(
+    final DatabasePartitionProviderRegistryType inRegistry,
+    final int inShards)
+  {
+    if (inShards < 1) {
+      throw new IllegalArgumentException(
+        DatabaseMessages.localize("errorShardCount", Integer.valueOf(inShards)));
+    }
+
+    this.provider = new DatabaseDerbyProvider(inRegistry);
+    this.shards = inShards;
+  }
+
+  private static String shardName(
+    final int index)
+  {
+    return "shard-" + index;
+  }
+
+  /**
+   * A backup of a sharded database holds one backup per shard, each named after its shard.
+   */
+
+  private static DatabaseParameters shardParameters(
+    final DatabaseParameters parameters,
+    final int index)
+  {
+    final var name = shardName(index);
+    final var restore =
+      parameters.restore()
+        .map(r -> DatabaseRestoreParameters.builder()
+          .from(r)
+          .setBackup(r.backup().resolve(name))
+          .build());
+
+    return DatabaseParameters.builder()
+      .from(parameters)
+      .setPath(parameters.path() + "/" + name)
+      .setRestore(restore)
+      .build();
+  }
+
+  private static Duration max(
+    final Duration x,
+    final Duration y)
+  {
+    return x.compareTo(y) >= 0 ? x : y;
+  }
+
+  /**
+   * The shards are opened concurrently, so the time taken by each phase is the longest time taken
+   * by any shard, and the total is the time taken to open all of them.
+   */
+
+  private static DatabaseOpenTimings combineTimings(
+    final List<DatabaseDerby> opened,
+    final Duration total)
+  {
+    var server = Duration.ZERO;
+    var storage = Duration.ZERO;
+    var pools = Duration.ZERO;
+    final var builder = DatabaseOpenTimings.builder();
+    for (var index = 0; index < opened.size(); ++index) {
+      final var timings = opened.get(index).openTimings();
+      server = max(server, timings.server());
+      storage = max(storage, timings.storage());
+      pools = max(pools, timings.connectionPools());
+
+      final var name = shardName(index);
+      timings.partitionUpgrades()
+        .forEach((partition, time) -> builder.putPartitionUpgrades(name + "/" + partition, time));
+    }
+
+    return builder
+      .setServer(server)
+      .setStorage(storage)
+      .setConnectionPools(pools)
+      .setTotal(total)
+      .build();
+  }
+
+  /**
+   * The shards are planned one after another, and each plan is named after its shard in the same
+   * manner as the partition upgrade timings.
+   */
+
+  @Override
+  public List<DatabaseMigrationPlan> migrationPlan(
+    final DatabaseParameters parameters)
+    throws DatabaseException
+  {
+    Objects.requireNonNull(parameters, "parameters");
+
+    final var plans = new ArrayList<DatabaseMigrationPlan>();
+    for (var index = 0; index < this.shards; ++index) {
+      final var name = shardName(index);
+      for (final var plan : this.provider.migrationPlan(shardParameters(parameters, index))) {
+        plans.add(shardPlan(name, plan));
+      }
+    }
+    return List.copyOf(plans);
+  }
+
+  private static DatabaseMigrationPlan shardPlan(
+    final String shard,
+    final DatabaseMigrationPlan plan)
+  {
+    final var partition = shard + "/" + plan.partition();
+    final var steps = new ArrayList<DatabaseMigrationStep>(plan.steps().size());
+    for (final var step : plan.steps()) {
+      steps.add(DatabaseMigrationStep.builder().from(step).setPartition(partition).build());
+    }
+
+    return DatabaseMigrationPlan.builder()
+      .from(plan)
+      .setPartition(partition)
+      .setSteps(steps)
+      .build();
+  }
+
+  @Override
+  public DatabaseType open(
+    final DatabaseParameters parameters)
+    throws DatabaseException
+  {
+    Objects.requireNonNull(parameters, "parameters");
+
+    final var path = parameters.path();
+    LOG.info("open: {} ({} shards)", path, Integer.valueOf(this.shards));
+
+    final var timeStart = System.nanoTime();
+    final var executor =
+      Executors.newFixedThreadPool(this.shards, runnable -> {
+        final var thread = new Thread(runnable);
+        thread.setName("com.io7m.ironpage.database.derby.shard-open[" + thread.getId() + "]");
+        thread.setDaemon(true);
+        return thread;
+      });
+
+    final var opened = new ArrayList<DatabaseDerby>(this.shards);
+    try {
+      final var futures = new ArrayList<Future<DatabaseDerby>>(this.shards);
+      for (var index = 0; index < this.shards; ++index) {
+        final var shardParameters = shardParameters(parameters, index);
+        futures.add(executor.submit(() -> this.provider.openDerby(shardParameters)));
+      }
+
+      Throwable failure = null;
+      for (final var future : futures) {
+        try {
+          opened.add(future.get());
+        } catch (final ExecutionException e) {
+          failure = e.getCause();
+        } catch (final InterruptedException e) {
+          Thread.currentThread().interrupt();
+          failure = e;
+        }
+      }
+
+      if (failure != null) {
+        opened.forEach(DatabaseDerby::close);
+        throw new DatabaseException(
+          ErrorSeverity.SEVERITY_ERROR,
+          DatabaseMessages.localize("errorOpenDatabase", failure.getLocalizedMessage()),
+          failure);
+      }
+    } finally {
+      executor.shutdown();
+    }
+
+    final var timings =
+      combineTimings(opened, Duration.ofNanos(System.nanoTime() - timeStart));
+    LOG.info("open: {} took {}", path, timings.total());
+
+    return new DatabaseDerbySharded(
+      Paths.get(path),
+      opened,
+      timings,
+      DatabaseDerbyAsyncExecutor.create(parameters.async(), parameters.groupCommit()),
+      parameters.metrics());
+  }
+}
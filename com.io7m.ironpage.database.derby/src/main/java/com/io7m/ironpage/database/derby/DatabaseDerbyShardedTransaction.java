@@ -0,0 +1,437 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironpage.database.derby;
+
+import com.io7m.ironpage.database.api.DatabaseConnectionType;
+import com.io7m.ironpage.database.api.DatabaseSavepointType;
+import com.io7m.ironpage.database.api.DatabaseTransactionType;
+import com.io7m.ironpage.database.spi.DatabaseException;
+import com.io7m.ironpage.database.spi.DatabaseQueriesType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A transaction on a sharded database. A transaction is begun on a shard the first time that a
+ * queries method is routed to the shard, so shards that a unit of work does not touch are never
+ * contacted.
+ *
+ * Queries are returned as proxies that send each method call to the shard selected by the
+ * method's routing. Committing the transaction commits each shard that has been touched in turn;
+ * this is not atomic across shards, so if a shard fails to commit, the shards before it remain
+ * committed and the shards after it are rolled back when the transaction is closed. If the
+ * transaction held replicated writes, the shards have then diverged, and the database is marked
+ * as such (see {@link DatabaseDerbySharded}).
+ */
+
+final class DatabaseDerbyShardedTransaction implements DatabaseTransactionType
+{
+  private static final Logger LOG = LoggerFactory.getLogger(DatabaseDerbyShardedTransaction.class);
+
+  private final DatabaseDerbySharded database;
+  private final DatabaseDerbyShardedConnection connection;
+  private final TransactionBeginType beginner;
+  private final List<DatabaseTransactionType> transactions;
+  private final Map<Class<? extends DatabaseQueriesType>, DatabaseQueriesType> queries;
+  private long generation;
+  private boolean closed;
+  private boolean replicatedWrites;
+
+  DatabaseDerbyShardedTransaction(
+    final DatabaseDerbySharded inDatabase,
+    final DatabaseDerbyShardedConnection inConnection,
+    final TransactionBeginType inBeginner)
+  {
+    this.database =
+      Objects.requireNonNull(inDatabase, "inDatabase");
+    this.connection =
+      Objects.requireNonNull(inConnection, "inConnection");
+    this.beginner =
+      Objects.requireNonNull(inBeginner, "inBeginner");
+
+    final var count = inDatabase.routing().count();
+    this.transactions = new ArrayList<>(count);
+    for (var index = 0; index < count; ++index) {
+      this.transactions.add(null);
+    }
+    this.queries = new HashMap<>(8);
+  }
+
+  /**
+   * A function that begins a transaction on a connection to a shard.
+   */
+
+  @FunctionalInterface
+  interface TransactionBeginType
+  {
+    DatabaseTransactionType begin(DatabaseConnectionType connection)
+      throws DatabaseException;
+  }
+
+  /**
+   * @return The transaction on the given shard, beginning it if this is the first time that the
+   * shard has been touched
+   */
+
+  DatabaseTransactionType shard(
+    final int index)
+    throws DatabaseException
+  {
+    final var existing = this.transactions.get(index);
+    if (existing != null) {
+      return existing;
+    }
+
+    final var created = this.beginner.begin(this.connection.shard(index));
+    this.transactions.set(index, created);
+    return created;
+  }
+
+  /**
+   * @return The transactions on the shards that have been touched, in shard order
+   */
+
+  private List<DatabaseTransactionType> opened()
+  {
+    final var opened = new ArrayList<DatabaseTransactionType>(this.transactions.size());
+    for (final var transaction : this.transactions) {
+      if (transaction != null) {
+        opened.add(transaction);
+      }
+    }
+    return opened;
+  }
+
+  @Override
+  public void close()
+    throws DatabaseException
+  {
+    if (this.closed) {
+      return;
+    }
+
+    this.closed = true;
+    DatabaseDerbySharded.forEachShard(this.opened(), DatabaseTransactionType::close);
+  }
+
+  @Override
+  public void commit()
+    throws DatabaseException
+  {
+    LOG.trace("commit");
+    ++this.generation;
+
+    var committed = 0;
+    for (var index = 0; index < this.transactions.size(); ++index) {
+      final var transaction = this.transactions.get(index);
+      if (transaction == null) {
+        continue;
+      }
+
+      try {
+        transaction.commit();
+        ++committed;
+      } catch (final DatabaseException e) {
+        if (committed > 0 && this.replicatedWrites) {
+          this.database.markDiverged(
+            DatabaseMessages.localize(
+              "errorShardCommitPartial", Integer.valueOf(committed), Integer.valueOf(index)));
+        }
+        throw e;
+      }
+    }
+    this.replicatedWrites = false;
+  }
+
+  @Override
+  public void rollback()
+    throws DatabaseException
+  {
+    LOG.trace("rollback");
+    ++this.generation;
+    this.replicatedWrites = false;
+    DatabaseDerbySharded.forEachShard(this.opened(), DatabaseTransactionType::rollback);
+  }
+
+  /**
+   * Set a savepoint on every shard that has been touched. Shards that are touched after the
+   * savepoint is set hold only work done after it, and are rolled back entirely when the
+   * transaction is rolled back to the savepoint.
+   */
+
+  @Override
+  public DatabaseSavepointType savepoint()
+    throws DatabaseException
+  {
+    final var savepoints = new ArrayList<DatabaseSavepointType>(this.transactions.size());
+    for (final var transaction : this.transactions) {
+      savepoints.add(transaction != null ? transaction.savepoint() : null);
+    }
+    return new ShardedSavepoint(this, this.generation, savepoints);
+  }
+
+  @Override
+  public void rollbackTo(
+    final DatabaseSavepointType savepoint)
+    throws DatabaseException
+  {
+    Objects.requireNonNull(savepoint, "savepoint");
+
+    if (savepoint instanceof ShardedSavepoint) {
+      final var sharded = (ShardedSavepoint) savepoint;
+      if (sharded.isValidIn(this)) {
+        sharded.rollback(this.transactions);
+        return;
+      }
+    }
+
+    throw new DatabaseException(DatabaseMessages.localize("errorSavepointInvalid"));
+  }
+
+  /**
+   * Retrieve queries of the given type. The queries of each shard are retrieved when a method is
+   * first routed to the shard, but the type of the queries is checked immediately, so that an
+   * unsupported type is reported here rather than from a later method call. A failure to begin a
+   * transaction on a shard is raised from the method call that first touches the shard, as an
+   * {@link IllegalStateException} whose cause is the original exception.
+   */
+
+  @Override
+  public <P extends DatabaseQueriesType> P queries(
+    final Class<P> queriesClass)
+    throws DatabaseException
+  {
+    Objects.requireNonNull(queriesClass, "queriesClass");
+
+    final var existing = this.queries.get(queriesClass);
+    if (existing != null) {
+      return queriesClass.cast(existing);
+    }
+
+    this.database.checkQueriesSupported(queriesClass);
+
+    final var created =
+      queriesClass.cast(
+        Proxy.newProxyInstance(
+          queriesClass.getClassLoader(),
+          new Class<?>[]{queriesClass},
+          new QueriesHandler(this, queriesClass)));
+    this.queries.put(queriesClass, created);
+    return created;
+  }
+
+  private static final class ShardedSavepoint implements DatabaseSavepointType
+  {
+    private final DatabaseDerbyShardedTransaction transaction;
+    private final long generation;
+    private final List<DatabaseSavepointType> savepoints;
+
+    ShardedSavepoint(
+      final DatabaseDerbyShardedTransaction inTransaction,
+      final long inGeneration,
+      final List<DatabaseSavepointType> inSavepoints)
+    {
+      this.transaction = inTransaction;
+      this.generation = inGeneration;
+      this.savepoints = inSavepoints;
+    }
+
+    boolean isValidIn(
+      final DatabaseDerbyShardedTransaction current)
+    {
+      return this.transaction == current
+        && !current.closed
+        && this.generation == current.generation;
+    }
+
+    void rollback(
+      final List<DatabaseTransactionType> shardTransactions)
+      throws DatabaseException
+    {
+      for (var index = 0; index < shardTransactions.size(); ++index) {
+        final var shardTransaction = shardTransactions.get(index);
+        if (shardTransaction == null) {
+          continue;
+        }
+
+        final var savepoint = this.savepoints.get(index);
+        if (savepoint != null) {
+          shardTransaction.rollbackTo(savepoint);
+        } else {
+          shardTransaction.rollback();
+        }
+      }
+    }
+  }
+
+  private static final class QueriesHandler implements InvocationHandler
+  {
+    private final DatabaseDerbyShardedTransaction transaction;
+    private final Class<? extends DatabaseQueriesType> queriesClass;
+
+    QueriesHandler(
+      final DatabaseDerbyShardedTransaction inTransaction,
+      final Class<? extends DatabaseQueriesType> inQueriesClass)
+    {
+      this.transaction = inTransaction;
+      this.queriesClass = inQueriesClass;
+    }
+
+    private Object target(
+      final int shard)
+    {
+      try {
+        return this.transaction.shard(shard).queries(this.queriesClass);
+      } catch (final DatabaseException e) {
+        throw new IllegalStateException(e.getMessage(), e);
+      }
+    }
+
+    /**
+     * A replicated method is executed on every shard, and the first shard's result is returned.
+     * The results of the other shards must be equal to it; a difference means that the reference
+     * data on the shards has diverged, which is not something the caller can recover from. The
+     * database is marked as diverged so that later read-write transactions are refused.
+     */
+
+    private static void checkReplica(
+      final DatabaseDerbySharded database,
+      final Method method,
+      final int shard,
+      final Object result,
+      final Object replica)
+    {
+      if (!Objects.equals(result, replica)) {
+        final var message =
+          DatabaseMessages.localize(
+            "errorShardReplicaDiverged", method.getName(), Integer.valueOf(shard));
+        database.markDiverged(message);
+        throw new IllegalStateException(message);
+      }
+    }
+
+    /**
+     * A method keyed by streamed content is given a copy of the content read from a spool,
+     * because the original stream has been consumed to select the shard.
+     */
+
+    private Object invokeSpooled(
+      final DatabaseDerbyShardRouting routing,
+      final Method method,
+      final Object[] arguments,
+      final int streamIndex)
+      throws IllegalAccessException, InvocationTargetException
+    {
+      try (var spool = DatabaseDerbyShardSpool.spool((InputStream) arguments[streamIndex])) {
+        final var spooled = arguments.clone();
+        spooled[streamIndex] = spool.stream();
+        final var shard = routing.shardForHash(spool.hash());
+        return method.invoke(this.target(shard), spooled);
+      }
+    }
+
+    /**
+     * A method keyed by a collection is executed on each shard selected by at least one element
+     * of the collection, and is given only the elements that select that shard. The maps returned
+     * by the shards have disjoint keys, and are merged.
+     */
+
+    private Object invokeScattered(
+      final DatabaseDerbyShardRouting routing,
+      final Method method,
+      final Object[] arguments,
+      final int keysIndex)
+      throws IllegalAccessException, InvocationTargetException
+    {
+      final var shards = routing.count();
+      final var partitions = new ArrayList<List<Object>>(shards);
+      for (var shard = 0; shard < shards; ++shard) {
+        partitions.add(new ArrayList<>());
+      }
+      for (final var key : (Collection<?>) arguments[keysIndex]) {
+        partitions.get(routing.shardForHash(DatabaseDerbyShardRouting.hashOf(key))).add(key);
+      }
+
+      final var results = new HashMap<Object, Object>();
+      for (var shard = 0; shard < partitions.size(); ++shard) {
+        final var partition = partitions.get(shard);
+        if (!partition.isEmpty()) {
+          final var scattered = arguments.clone();
+          scattered[keysIndex] = partition;
+          results.putAll((Map<?, ?>) method.invoke(this.target(shard), scattered));
+        }
+      }
+      return results;
+    }
+
+    @Override
+    public Object invoke(
+      final Object proxy,
+      final Method method,
+      final Object[] arguments)
+      throws Throwable
+    {
+      if (method.getDeclaringClass() == Object.class) {
+        return method.invoke(this, arguments);
+      }
+
+      final var database = this.transaction.database;
+      final var routing = database.routing();
+      try {
+        if (!routing.isReplicated(method)) {
+          final var streamIndex = routing.streamedKeyIndex(method);
+          if (streamIndex != -1) {
+            return this.invokeSpooled(routing, method, arguments, streamIndex);
+          }
+          final var keysIndex = routing.scatteredKeyIndex(method);
+          if (keysIndex != -1) {
+            return this.invokeScattered(routing, method, arguments, keysIndex);
+          }
+          final var shard = routing.shardFor(method, arguments);
+          return method.invoke(this.target(shard), arguments);
+        }
+
+        this.transaction.replicatedWrites = true;
+        final var result = method.invoke(this.target(0), arguments);
+        for (var shard = 1; shard < routing.count(); ++shard) {
+          final Object replica;
+          database.setReplicating(true);
+          try {
+            replica = method.invoke(this.target(shard), arguments);
+          } finally {
+            database.setReplicating(false);
+          }
+          checkReplica(database, method, shard, result, replica);
+        }
+        return result;
+      } catch (final InvocationTargetException e) {
+        throw e.getCause();
+      }
+    }
+  }
+}
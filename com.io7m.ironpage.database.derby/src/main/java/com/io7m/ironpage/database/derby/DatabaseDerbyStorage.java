@@ -0,0 +1,213 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.ironpage.database.derby;
+
+import com.io7m.ironpage.database.api.DatabaseStorageDiagnostics;
+import com.io7m.ironpage.database.api.DatabaseStorageParameters;
+import org.apache.derby.jdbc.EmbeddedDataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Functions to apply storage parameters to Derby databases as database properties.
+ */
+
+final class DatabaseDerbyStorage
+{
+  private static final Logger LOG = LoggerFactory.getLogger(DatabaseDerbyStorage.class);
+
+  private static final String PAGE_CACHE_SIZE = "derby.storage.pageCacheSize";
+  private static final String PAGE_SIZE = "derby.storage.pageSize";
+  private static final String LOG_BUFFER_SIZE = "derby.storage.logBufferSize";
+  private static final String CHECKPOINT_INTERVAL = "derby.storage.checkpointInterval";
+  private static final String LOCK_WAIT_TIMEOUT = "derby.locks.waitTimeout";
+  private static final String DURABILITY = "derby.system.durability";
+
+  private static final Set<String> PROPERTIES =
+    Set.of(PAGE_CACHE_SIZE, PAGE_SIZE, LOG_BUFFER_SIZE, CHECKPOINT_INTERVAL, LOCK_WAIT_TIMEOUT);
+
+  /**
+   * Properties that Derby reads only when a database is booted.
+   */
+
+  private static final Set<String> PROPERTIES_BOOT =
+    Set.of(PAGE_CACHE_SIZE, LOG_BUFFER_SIZE);
+
+  private static final String PROPERTY_GET =
+    "VALUES SYSCS_UTIL.SYSCS_GET_DATABASE_PROPERTY(?)";
+
+  private static final String PROPERTY_SET =
+    "CALL SYSCS_UTIL.SYSCS_SET_DATABASE_PROPERTY(?, ?)";
+
+  private static final String TABLE_PAGE_SIZES =
+    "SELECT s.schemaname, t.tablename, d.pagesize "
+      + "FROM sys.sysschemas s, sys.systables t, "
+      + "TABLE(SYSCS_DIAG.SPACE_TABLE(s.schemaname, t.tablename)) d "
+      + "WHERE s.schemaid = t.schemaid AND t.tabletype = 'T' AND d.isindex = 0";
+
+  private DatabaseDerbyStorage()
+  {
+
+  }
+
+  private static Map<String, String> properties(
+    final DatabaseStorageParameters parameters)
+  {
+    final var properties = new TreeMap<String, String>();
+    parameters.pageCacheSize()
+      .ifPresent(v -> properties.put(PAGE_CACHE_SIZE, Integer.toString(v)));
+    parameters.pageSize()
+      .ifPresent(v -> properties.put(PAGE_SIZE, Integer.toString(v)));
+    parameters.logBufferSize()
+      .ifPresent(v -> properties.put(LOG_BUFFER_SIZE, Integer.toString(v)));
+    parameters.checkpointInterval()
+      .ifPresent(v -> properties.put(CHECKPOINT_INTERVAL, Long.toString(v)));
+    parameters.lockWaitTimeout()
+      .ifPresent(v -> properties.put(LOCK_WAIT_TIMEOUT, Long.toString(v.toSeconds())));
+    return properties;
+  }
+
+  private static Optional<String> propertyGet(
+    final Connection connection,
+    final String name)
+    throws SQLException
+  {
+    try (var statement = connection.prepareStatement(PROPERTY_GET)) {
+      statement.setString(1, name);
+      try (var result = statement.executeQuery()) {
+        result.next();
+        return Optional.ofNullable(result.getString(1));
+      }
+    }
+  }
+
+  /**
+   * Store the given parameters in the database as database properties.
+   *
+   * @param connection The connection
+   * @param parameters The parameters
+   *
+   * @return {@code true} if a property that is only read at boot time was changed
+   *
+   * @throws SQLException On errors
+   */
+
+  static boolean apply(
+    final Connection connection,
+    final DatabaseStorageParameters parameters)
+    throws SQLException
+  {
+    Objects.requireNonNull(connection, "connection");
+    Objects.requireNonNull(parameters, "parameters");
+
+    var bootChanged = false;
+    try (var statement = connection.prepareStatement(PROPERTY_SET)) {
+      for (final var entry : properties(parameters).entrySet()) {
+        final var name = entry.getKey();
+        final var value = entry.getValue();
+        final var existing = propertyGet(connection, name);
+        if (Objects.equals(existing, Optional.of(value))) {
+          continue;
+        }
+
+        LOG.debug("set {}: {} -> {}", name, existing.orElse("(default)"), value);
+        statement.setString(1, name);
+        statement.setString(2, value);
+        statement.execute();
+        bootChanged = bootChanged || PROPERTIES_BOOT.contains(name);
+      }
+    }
+    connection.commit();
+    return bootChanged;
+  }
+
+  /**
+   * Shut down an embedded database. The database is booted again by the next connection. A
+   * database that does not exist has nothing to shut down.
+   *
+   * @param path The database path
+   *
+   * @throws SQLException On errors
+   */
+
+  static void shutdownEmbedded(
+    final String path)
+    throws SQLException
+  {
+    final var dataSource = new EmbeddedDataSource();
+    dataSource.setDatabaseName(path);
+    dataSource.setShutdownDatabase("shutdown");
+    try {
+      dataSource.getConnection().close();
+    } catch (final SQLException e) {
+      final var state = e.getSQLState();
+      if (!Objects.equals(state, "08006") && !Objects.equals(state, "XJ004")) {
+        throw e;
+      }
+    }
+  }
+
+  /**
+   * Take a snapshot of the storage configuration of the database.
+   *
+   * @param connection      The connection
+   * @param restartRequired {@code true} if boot-time properties are pending a restart
+   *
+   * @return A snapshot of the storage configuration
+   *
+   * @throws SQLException On errors
+   */
+
+  static DatabaseStorageDiagnostics diagnostics(
+    final Connection connection,
+    final boolean restartRequired)
+    throws SQLException
+  {
+    Objects.requireNonNull(connection, "connection");
+
+    final var builder = DatabaseStorageDiagnostics.builder();
+    for (final var name : PROPERTIES) {
+      final var value = propertyGet(connection, name);
+      if (value.isPresent()) {
+        builder.putProperties(name, value.get());
+      }
+    }
+
+    try (var statement = connection.prepareStatement(TABLE_PAGE_SIZES)) {
+      try (var result = statement.executeQuery()) {
+        while (result.next()) {
+          builder.putTablePageSizes(
+            result.getString(1) + "." + result.getString(2),
+            result.getInt(3));
+        }
+      }
+    }
+
+    builder.setDurability(Optional.ofNullable(System.getProperty(DURABILITY)));
+    builder.setRestartRequired(restartRequired);
+    return builder.build();
+  }
+}
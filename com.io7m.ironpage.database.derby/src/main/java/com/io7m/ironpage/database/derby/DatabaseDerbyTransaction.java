@@ -17,84 +17,194 @@
 
 package com.io7m.ironpage.database.derby;
 
+import com.io7m.ironpage.database.api.DatabaseSavepointType;
 import com.io7m.ironpage.database.api.DatabaseTransactionType;
 import com.io7m.ironpage.database.spi.DatabaseException;
 import com.io7m.ironpage.database.spi.DatabaseQueriesType;
-import com.io7m.ironpage.errors.api.ErrorSeverity;
-import com.io7m.ironpage.presentable.api.PresentableAttributes;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.List;
 import java.util.Objects;
 
+/**
+ * A transaction on a Derby connection.
+ *
+ * The transaction relies on the connection to know whether any statements have been executed
+ * since the transaction last ended. Committing or rolling back a transaction that has done
+ * nothing is a no-op, so the common pattern of committing and then closing a transaction costs
+ * a single round trip to the database rather than two.
+ *
+ * Each commit or rollback starts a new generation of the transaction. Savepoints record the
+ * generation in which they were set, so that a savepoint released by a commit or rollback is
+ * rejected without asking the database.
+ *
+ * Queries that hold work outside of the database are told when the transaction commits, rolls
+ * back, or rolls back to a savepoint, once the database has done so.
+ */
+
 final class DatabaseDerbyTransaction implements DatabaseTransactionType
 {
   private static final Logger LOG = LoggerFactory.getLogger(DatabaseDerbyTransaction.class);
 
   private final DatabaseDerbyConnection connection;
+  private final DatabaseDerbyMetrics metrics;
+  private final long timeStart;
+  private long generation;
+  private boolean closed;
 
   DatabaseDerbyTransaction(
-    final DatabaseDerbyConnection inConnection)
+    final DatabaseDerbyConnection inConnection,
+    final DatabaseDerbyMetrics inMetrics)
   {
     this.connection = Objects.requireNonNull(inConnection, "connection");
+    this.metrics = Objects.requireNonNull(inMetrics, "metrics");
+    this.timeStart = System.nanoTime();
   }
 
   @Override
   public void close()
     throws DatabaseException
   {
-    this.rollback();
+    if (this.closed) {
+      return;
+    }
+
+    this.closed = true;
+    try {
+      this.rollback();
+    } finally {
+      this.metrics.transactionLifetime().recordSince(this.timeStart);
+    }
   }
 
   @Override
   public void commit()
     throws DatabaseException
   {
+    ++this.generation;
+    if (!this.connection.isDirty()) {
+      LOG.trace("commit: no changes");
+      this.connection.transactionCommitted();
+      return;
+    }
+
     try {
       LOG.trace("commit");
+      final var timeCommit = System.nanoTime();
       this.connection.sqlConnection().commit();
+      this.connection.setDirty(false);
+      this.metrics.transactionCommit().recordSince(timeCommit);
     } catch (final SQLException e) {
       throw DatabaseDerbyProvider.ofSQLException("errorConnectionCommit", e);
     }
+    this.connection.transactionCommitted();
   }
 
   @Override
   public void rollback()
     throws DatabaseException
   {
+    ++this.generation;
+    if (!this.connection.isDirty()) {
+      LOG.trace("rollback: no changes");
+      this.connection.transactionRolledBack();
+      return;
+    }
+
     try {
       LOG.trace("rollback");
+      final var timeRollback = System.nanoTime();
       this.connection.sqlConnection().rollback();
+      this.connection.setDirty(false);
+      this.metrics.transactionRollback().recordSince(timeRollback);
     } catch (final SQLException e) {
       throw DatabaseDerbyProvider.ofSQLException("errorConnectionRollback", e);
+    } finally {
+      this.connection.transactionRolledBack();
+    }
+  }
+
+  @Override
+  public DatabaseSavepointType savepoint()
+    throws DatabaseException
+  {
+    try {
+      LOG.trace("savepoint");
+      final var savepoint = this.connection.sqlConnection().setSavepoint();
+      this.connection.setDirty(true);
+      return new DerbySavepoint(
+        this, this.generation, savepoint, this.connection.transactionSavepoint());
+    } catch (final SQLException e) {
+      throw DatabaseDerbyProvider.ofSQLException("errorSavepoint", e);
     }
   }
 
+  @Override
+  public void rollbackTo(
+    final DatabaseSavepointType savepoint)
+    throws DatabaseException
+  {
+    Objects.requireNonNull(savepoint, "savepoint");
+
+    if (savepoint instanceof DerbySavepoint) {
+      final var derbySavepoint = (DerbySavepoint) savepoint;
+      if (derbySavepoint.isValidIn(this)) {
+        try {
+          LOG.trace("rollback to savepoint");
+          derbySavepoint.rollback(this.connection);
+          return;
+        } catch (final SQLException e) {
+          throw DatabaseDerbyProvider.ofSQLException("errorSavepointRollback", e);
+        }
+      }
+    }
+
+    throw new DatabaseException(DatabaseMessages.localize("errorSavepointInvalid"));
+  }
+
   @Override
   public <P extends DatabaseQueriesType> P queries(final Class<P> queriesClass)
     throws DatabaseException
   {
-    final var database = this.connection.database();
+    return this.connection.queries(queriesClass);
+  }
+
+  private static final class DerbySavepoint implements DatabaseSavepointType
+  {
+    private final DatabaseDerbyTransaction transaction;
+    private final long generation;
+    private final Savepoint savepoint;
+    private final List<Long> marks;
 
-    final var partitionProviderOpt =
-      database.partitionProviders()
-        .findProviderForDialectAndQueries("DERBY", queriesClass);
+    DerbySavepoint(
+      final DatabaseDerbyTransaction inTransaction,
+      final long inGeneration,
+      final Savepoint inSavepoint,
+      final List<Long> inMarks)
+    {
+      this.transaction = inTransaction;
+      this.generation = inGeneration;
+      this.savepoint = inSavepoint;
+      this.marks = inMarks;
+    }
 
-    if (partitionProviderOpt.isPresent()) {
-      final var partitionProvider = partitionProviderOpt.get();
-      final var subject = database.eventSubject();
-      final var sqlConnection = this.connection.sqlConnection();
-      return partitionProvider.queriesCreate(sqlConnection, subject, queriesClass);
+    boolean isValidIn(
+      final DatabaseDerbyTransaction current)
+    {
+      return this.transaction == current
+        && !current.closed
+        && this.generation == current.generation;
     }
 
-    throw new DatabaseException(
-      ErrorSeverity.SEVERITY_ERROR,
-      DatabaseMessages.localize("errorCreateQueriesUnavailable"),
-      null,
-      PresentableAttributes.one(
-        DatabaseMessages.localize("queriesClass"),
-        queriesClass.getCanonicalName())
-    );
+    void rollback(
+      final DatabaseDerbyConnection connection)
+      throws SQLException
+    {
+      connection.sqlConnection().rollback(this.savepoint);
+      connection.transactionRolledBackToSavepoint(this.marks);
+    }
   }
 }
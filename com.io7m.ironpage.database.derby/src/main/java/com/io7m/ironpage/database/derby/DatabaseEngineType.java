@@ -0,0 +1,182 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironpage.database.derby;
+
+import com.io7m.ironpage.database.api.DatabaseBackup;
+import com.io7m.ironpage.database.api.DatabaseBackupParameters;
+import com.io7m.ironpage.database.api.DatabaseBackupProgressListenerType;
+import com.io7m.ironpage.database.api.DatabaseStorageDiagnostics;
+import com.io7m.ironpage.database.spi.DatabaseDataMigrationProgress;
+import com.io7m.ironpage.database.spi.DatabaseMigrationRecord;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Optional;
+
+/**
+ * The parts of a database that differ between database engines. Connection pooling,
+ * transactions, metrics, and partition upgrades are shared by every engine.
+ */
+
+public interface DatabaseEngineType
+{
+  /**
+   * @return The SQL dialect used to find partition providers for the engine
+   */
+
+  String dialect();
+
+  /**
+   * Create the table that is locked while partitions are upgraded, if it does not already exist.
+   * The transaction is committed on success and rolled back otherwise.
+   *
+   * @param connection The connection
+   *
+   * @throws SQLException On errors
+   */
+
+  void upgradeLockCreate(Connection connection)
+    throws SQLException;
+
+  /**
+   * Take the upgrade lock. The lock is held until the current transaction ends.
+   *
+   * @param connection The connection
+   *
+   * @throws SQLException On errors
+   */
+
+  void upgradeLock(Connection connection)
+    throws SQLException;
+
+  /**
+   * Create the migration history table, if it does not already exist. The transaction is
+   * committed on success and rolled back otherwise.
+   *
+   * @param connection The connection
+   *
+   * @throws SQLException On errors
+   */
+
+  void migrationHistoryCreate(Connection connection)
+    throws SQLException;
+
+  /**
+   * Record a batch of migration statements in the migration history table. The record is written
+   * in the current transaction.
+   *
+   * @param connection The connection
+   * @param record     The record of the batch
+   *
+   * @throws SQLException On errors
+   */
+
+  void migrationHistoryRecord(
+    Connection connection,
+    DatabaseMigrationRecord record)
+    throws SQLException;
+
+  /**
+   * Create the data migration checkpoint table, if it does not already exist. The transaction is
+   * committed on success and rolled back otherwise.
+   *
+   * @param connection The connection
+   *
+   * @throws SQLException On errors
+   */
+
+  void dataMigrationsCreate(Connection connection)
+    throws SQLException;
+
+  /**
+   * Read the progress of a data migration, locking the row of the migration in the checkpoint
+   * table until the current transaction ends.
+   *
+   * @param connection The connection
+   * @param name       The name of the migration
+   *
+   * @return The progress of the migration, if any has been recorded
+   *
+   * @throws SQLException On errors
+   */
+
+  Optional<DatabaseDataMigrationProgress> dataMigrationProgress(
+    Connection connection,
+    String name)
+    throws SQLException;
+
+  /**
+   * Save the progress of a data migration in the current transaction.
+   *
+   * @param connection The connection
+   * @param name       The name of the migration
+   * @param progress   The progress of the migration
+   *
+   * @throws SQLException On errors
+   */
+
+  void dataMigrationProgressSave(
+    Connection connection,
+    String name,
+    DatabaseDataMigrationProgress progress)
+    throws SQLException;
+
+  /**
+   * Take a snapshot of the storage configuration of the database.
+   *
+   * @param connection The connection
+   *
+   * @return A snapshot of the storage configuration
+   *
+   * @throws SQLException On errors
+   */
+
+  DatabaseStorageDiagnostics diagnostics(Connection connection)
+    throws SQLException;
+
+  /**
+   * Release any resources that the engine holds for the database once every connection to the
+   * database has been closed.
+   *
+   * @param databasePath The database path
+   *
+   * @throws SQLException On errors
+   */
+
+  void shutdown(String databasePath)
+    throws SQLException;
+
+  /**
+   * Back up a database while it remains open.
+   *
+   * @param connection   The connection
+   * @param databasePath The database path
+   * @param parameters   The backup parameters
+   * @param listener     The progress listener
+   *
+   * @return The completed backup
+   *
+   * @throws SQLException On errors
+   */
+
+  DatabaseBackup backup(
+    Connection connection,
+    String databasePath,
+    DatabaseBackupParameters parameters,
+    DatabaseBackupProgressListenerType listener)
+    throws SQLException;
+}
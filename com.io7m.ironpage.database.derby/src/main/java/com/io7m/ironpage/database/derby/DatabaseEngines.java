@@ -0,0 +1,116 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.ironpage.database.derby;
+
+import com.io7m.ironpage.database.api.DatabaseOpenTimings;
+import com.io7m.ironpage.database.api.DatabaseParameters;
+import com.io7m.ironpage.database.api.DatabaseType;
+import com.io7m.ironpage.database.spi.DatabaseException;
+import com.io7m.ironpage.database.spi.DatabaseMigrationPlan;
+import com.io7m.ironpage.database.spi.DatabasePartitionProviderRegistryType;
+
+import javax.sql.ConnectionPoolDataSource;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Functions that open databases for engines other than Derby. The databases use the same
+ * connection pools, transactions, and metrics as Derby databases, and differ only in the parts
+ * described by {@link DatabaseEngineType}.
+ */
+
+public final class DatabaseEngines
+{
+  private DatabaseEngines()
+  {
+
+  }
+
+  /**
+   * Plan the migrations of all partitions for the dialect of the given engine, without modifying
+   * any partition.
+   *
+   * @param registry   The partition provider registry
+   * @param engine     The database engine
+   * @param dataSource The source of connections to the database
+   *
+   * @return The migration plan of each partition
+   *
+   * @throws DatabaseException On errors
+   * @throws SQLException      On errors
+   */
+
+  public static List<DatabaseMigrationPlan> migrationPlans(
+    final DatabasePartitionProviderRegistryType registry,
+    final DatabaseEngineType engine,
+    final ConnectionPoolDataSource dataSource)
+    throws DatabaseException, SQLException
+  {
+    Objects.requireNonNull(registry, "registry");
+    Objects.requireNonNull(engine, "engine");
+    Objects.requireNonNull(dataSource, "dataSource");
+
+    return DatabaseDerbyProvider.migrationPlans(
+      dataSource,
+      DatabaseDerbyProvider.partitionProviders(registry, engine.dialect()));
+  }
+
+  /**
+   * Create the connection pools for an embedded database, upgrade its partitions, and open it.
+   *
+   * @param registry   The partition provider registry
+   * @param parameters The database parameters
+   * @param engine     The database engine
+   * @param dataSource The source of connections to the database
+   * @param timings    The timings of the phases of opening the database so far
+   * @param timeStart  The time at which opening the database started, in the units of
+   *                   {@link System#nanoTime()}
+   *
+   * @return An open database
+   *
+   * @throws DatabaseException On errors
+   * @throws SQLException      On errors
+   */
+
+  public static DatabaseType open(
+    final DatabasePartitionProviderRegistryType registry,
+    final DatabaseParameters parameters,
+    final DatabaseEngineType engine,
+    final ConnectionPoolDataSource dataSource,
+    final DatabaseOpenTimings.Builder timings,
+    final long timeStart)
+    throws DatabaseException, SQLException
+  {
+    Objects.requireNonNull(registry, "registry");
+    Objects.requireNonNull(parameters, "parameters");
+    Objects.requireNonNull(engine, "engine");
+    Objects.requireNonNull(dataSource, "dataSource");
+    Objects.requireNonNull(timings, "timings");
+
+    return DatabaseDerbyProvider.openPooled(
+      registry,
+      parameters,
+      engine,
+      dataSource,
+      Optional.empty(),
+      timings,
+      timeStart);
+  }
+}
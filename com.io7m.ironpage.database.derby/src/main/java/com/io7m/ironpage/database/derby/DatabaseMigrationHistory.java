@@ -0,0 +1,80 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironpage.database.derby;
+
+import com.io7m.ironpage.database.spi.DatabaseMigrationRecord;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+/**
+ * The migration history table shared by all database engines. Each row records a batch of
+ * migration statements executed for a partition, and the time that the batch took.
+ */
+
+public final class DatabaseMigrationHistory
+{
+  /**
+   * The column definitions of the migration history table.
+   */
+
+  public static final String COLUMNS =
+    "PARTITION_NAME VARCHAR(256) NOT NULL, "
+      + "SCHEMA_VERSION BIGINT NOT NULL, "
+      + "STATEMENT_INDEX INTEGER NOT NULL, "
+      + "STATEMENT_COUNT INTEGER NOT NULL, "
+      + "TIME_STARTED TIMESTAMP NOT NULL, "
+      + "DURATION_MICROSECONDS BIGINT NOT NULL";
+
+  /**
+   * The columns and parameters of a statement that inserts a row into the table.
+   */
+
+  public static final String INSERT_VALUES =
+    "(PARTITION_NAME, SCHEMA_VERSION, STATEMENT_INDEX, STATEMENT_COUNT, TIME_STARTED, "
+      + "DURATION_MICROSECONDS) VALUES (?, ?, ?, ?, ?, ?)";
+
+  private DatabaseMigrationHistory()
+  {
+
+  }
+
+  /**
+   * Insert a record using a statement prepared from {@link #INSERT_VALUES}.
+   *
+   * @param statement The prepared statement
+   * @param record    The record
+   *
+   * @throws SQLException On errors
+   */
+
+  public static void record(
+    final PreparedStatement statement,
+    final DatabaseMigrationRecord record)
+    throws SQLException
+  {
+    final var duration = record.duration();
+    statement.setString(1, record.partition());
+    statement.setLong(2, record.version().longValueExact());
+    statement.setInt(3, record.statementIndex());
+    statement.setInt(4, record.statementCount());
+    statement.setTimestamp(5, Timestamp.from(record.timeStarted().toInstant()));
+    statement.setLong(6, duration.toNanos() / 1_000L);
+    statement.executeUpdate();
+  }
+}
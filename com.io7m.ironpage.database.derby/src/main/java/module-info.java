@@ -24,10 +24,14 @@ module com.io7m.ironpage.database.derby
 
   requires transitive com.io7m.ironpage.database.api;
   requires transitive com.io7m.ironpage.database.spi;
+  requires transitive com.io7m.ironpage.metrics.api;
 
+  requires org.apache.derby.client;
   requires org.apache.derby.commons;
   requires org.apache.derby.engine;
   requires org.apache.derby.server;
   requires org.apache.derby.tools;
   requires org.slf4j;
+
+  exports com.io7m.ironpage.database.derby;
 }
@@ -0,0 +1,403 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironpage.database.h2;
+
+import com.io7m.ironpage.database.api.DatabaseBackup;
+import com.io7m.ironpage.database.api.DatabaseBackupParameters;
+import com.io7m.ironpage.database.api.DatabaseBackupProgressListenerType;
+import com.io7m.ironpage.database.api.DatabaseParameters;
+import com.io7m.ironpage.database.api.DatabaseRestoreParameters;
+import com.io7m.ironpage.database.api.DatabaseStorageDiagnostics;
+import com.io7m.ironpage.database.derby.DatabaseDataMigrationCheckpoints;
+import com.io7m.ironpage.database.derby.DatabaseEngineType;
+import com.io7m.ironpage.database.derby.DatabaseMigrationHistory;
+import com.io7m.ironpage.database.spi.DatabaseDataMigrationProgress;
+import com.io7m.ironpage.database.spi.DatabaseMigrationRecord;
+import org.h2.jdbcx.JdbcDataSource;
+import org.h2.tools.Restore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * The H2 database engine, using the MVStore storage engine.
+ *
+ * H2 databases are only opened embedded in the current process. An embedded H2 database is
+ * locked by the process that opens it, so partition upgrades cannot race with other processes
+ * and no upgrade lock is needed. The database path names a directory, as it does for Derby, and
+ * the database is stored in a file within it.
+ */
+
+final class DatabaseH2Engine implements DatabaseEngineType
+{
+  private static final Logger LOG = LoggerFactory.getLogger(DatabaseH2Engine.class);
+
+  private static final String DATABASE_NAME = "ironpage";
+
+  private static final String BACKUP = "BACKUP TO ?";
+
+  private static final String SETTINGS =
+    "SELECT NAME, VALUE FROM INFORMATION_SCHEMA.SETTINGS";
+
+  private static final String LOCK_TIMEOUT =
+    "SELECT LOCK_TIMEOUT()";
+
+  private static final String MIGRATIONS_TABLE_CREATE =
+    "CREATE TABLE IF NOT EXISTS PUBLIC.IRONPAGE_MIGRATIONS ("
+      + DatabaseMigrationHistory.COLUMNS + ")";
+
+  private static final String MIGRATIONS_INSERT =
+    "INSERT INTO PUBLIC.IRONPAGE_MIGRATIONS " + DatabaseMigrationHistory.INSERT_VALUES;
+
+  private static final String DATA_MIGRATIONS_TABLE_CREATE =
+    "CREATE TABLE IF NOT EXISTS PUBLIC.IRONPAGE_DATA_MIGRATIONS ("
+      + DatabaseDataMigrationCheckpoints.COLUMNS + ")";
+
+  private static final String DATA_MIGRATIONS_SELECT =
+    "SELECT " + DatabaseDataMigrationCheckpoints.SELECT_COLUMNS
+      + " FROM PUBLIC.IRONPAGE_DATA_MIGRATIONS WHERE MIGRATION_NAME = ? FOR UPDATE";
+
+  private static final String DATA_MIGRATIONS_UPDATE =
+    "UPDATE PUBLIC.IRONPAGE_DATA_MIGRATIONS SET "
+      + DatabaseDataMigrationCheckpoints.UPDATE_ASSIGNMENTS;
+
+  private static final String DATA_MIGRATIONS_INSERT =
+    "INSERT INTO PUBLIC.IRONPAGE_DATA_MIGRATIONS "
+      + DatabaseDataMigrationCheckpoints.INSERT_VALUES;
+
+  DatabaseH2Engine()
+  {
+
+  }
+
+  private static Path databaseFile(
+    final String databasePath)
+  {
+    return Paths.get(databasePath).toAbsolutePath().resolve(DATABASE_NAME);
+  }
+
+  /**
+   * Create a data source for the database. Of the storage parameters, only the lock wait
+   * timeout has an equivalent in H2; the others describe Derby's page cache and transaction log.
+   *
+   * @param parameters The database parameters
+   *
+   * @return A data source
+   */
+
+  static JdbcDataSource dataSource(
+    final DatabaseParameters parameters)
+  {
+    Objects.requireNonNull(parameters, "parameters");
+
+    final var dataSource = new JdbcDataSource();
+    dataSource.setURL(url(parameters).toString());
+    return dataSource;
+  }
+
+  /**
+   * Create a data source for an existing database. Connections fail, rather than creating the
+   * database, if it does not exist.
+   *
+   * @param parameters The database parameters
+   *
+   * @return A data source
+   */
+
+  static JdbcDataSource dataSourceExisting(
+    final DatabaseParameters parameters)
+  {
+    Objects.requireNonNull(parameters, "parameters");
+
+    final var url = url(parameters);
+    url.append(";IFEXISTS=TRUE");
+
+    final var dataSource = new JdbcDataSource();
+    dataSource.setURL(url.toString());
+    return dataSource;
+  }
+
+  /**
+   * Create a data source for a private, empty, in-memory database that is discarded when its
+   * connection is closed.
+   *
+   * @return A data source
+   */
+
+  static JdbcDataSource dataSourceEmpty()
+  {
+    final var dataSource = new JdbcDataSource();
+    dataSource.setURL("jdbc:h2:mem:");
+    return dataSource;
+  }
+
+  private static StringBuilder url(
+    final DatabaseParameters parameters)
+  {
+    final var url = new StringBuilder(128);
+    url.append("jdbc:h2:file:");
+    url.append(databaseFile(parameters.path()));
+
+    final var lockTimeout = parameters.storage().lockWaitTimeout();
+    if (lockTimeout.isPresent()) {
+      url.append(";LOCK_TIMEOUT=");
+      url.append(lockTimeout.get().toMillis());
+    }
+    return url;
+  }
+
+  /**
+   * Restore a database from a backup created by {@link #backup(Connection, String,
+   * DatabaseBackupParameters, DatabaseBackupProgressListenerType)}. H2 does not archive its
+   * transaction log, so a backup cannot be rolled forward.
+   *
+   * @param parameters The database parameters
+   * @param restore    The restore parameters
+   *
+   * @throws SQLException On errors
+   */
+
+  static void restore(
+    final DatabaseParameters parameters,
+    final DatabaseRestoreParameters restore)
+    throws SQLException
+  {
+    Objects.requireNonNull(parameters, "parameters");
+    Objects.requireNonNull(restore, "restore");
+
+    if (restore.rollForward()) {
+      throw new SQLFeatureNotSupportedException(
+        DatabaseH2Messages.localize("errorRestoreRollForward"));
+    }
+
+    final var backup = restore.backup().toAbsolutePath();
+    final var directory = Paths.get(parameters.path()).toAbsolutePath();
+    LOG.info("restore: {} <- {}", directory, backup);
+    Restore.execute(backup.toString(), directory.toString(), DATABASE_NAME);
+  }
+
+  private static long sizeOf(
+    final Path file)
+  {
+    try {
+      return Files.size(file);
+    } catch (final IOException e) {
+      LOG.trace("size: ", e);
+      return 0L;
+    }
+  }
+
+  private static void report(
+    final DatabaseBackupProgressListenerType listener,
+    final long copied,
+    final long estimated)
+  {
+    try {
+      listener.onBackupProgress(copied, estimated);
+    } catch (final Exception e) {
+      LOG.error("ignored exception raised by backup progress listener: ", e);
+    }
+  }
+
+  @Override
+  public String dialect()
+  {
+    return "H2";
+  }
+
+  @Override
+  public void upgradeLockCreate(
+    final Connection connection)
+  {
+    LOG.trace("upgrade lock not required for embedded databases");
+  }
+
+  @Override
+  public void upgradeLock(
+    final Connection connection)
+  {
+    LOG.trace("upgrade lock not required for embedded databases");
+  }
+
+  @Override
+  public void migrationHistoryCreate(
+    final Connection connection)
+    throws SQLException
+  {
+    try (var statement = connection.createStatement()) {
+      statement.execute(MIGRATIONS_TABLE_CREATE);
+      connection.commit();
+    } catch (final SQLException e) {
+      connection.rollback();
+      throw e;
+    }
+  }
+
+  @Override
+  public void migrationHistoryRecord(
+    final Connection connection,
+    final DatabaseMigrationRecord record)
+    throws SQLException
+  {
+    try (var statement = connection.prepareStatement(MIGRATIONS_INSERT)) {
+      DatabaseMigrationHistory.record(statement, record);
+    }
+  }
+
+  @Override
+  public void dataMigrationsCreate(
+    final Connection connection)
+    throws SQLException
+  {
+    try (var statement = connection.createStatement()) {
+      statement.execute(DATA_MIGRATIONS_TABLE_CREATE);
+      connection.commit();
+    } catch (final SQLException e) {
+      connection.rollback();
+      throw e;
+    }
+  }
+
+  @Override
+  public Optional<DatabaseDataMigrationProgress> dataMigrationProgress(
+    final Connection connection,
+    final String name)
+    throws SQLException
+  {
+    try (var statement = connection.prepareStatement(DATA_MIGRATIONS_SELECT)) {
+      return DatabaseDataMigrationCheckpoints.progress(statement, name);
+    }
+  }
+
+  @Override
+  public void dataMigrationProgressSave(
+    final Connection connection,
+    final String name,
+    final DatabaseDataMigrationProgress progress)
+    throws SQLException
+  {
+    try (var update = connection.prepareStatement(DATA_MIGRATIONS_UPDATE);
+         var insert = connection.prepareStatement(DATA_MIGRATIONS_INSERT)) {
+      DatabaseDataMigrationCheckpoints.progressSave(update, insert, name, progress);
+    }
+  }
+
+  @Override
+  public DatabaseStorageDiagnostics diagnostics(
+    final Connection connection)
+    throws SQLException
+  {
+    Objects.requireNonNull(connection, "connection");
+
+    final var builder = DatabaseStorageDiagnostics.builder();
+    try (var statement = connection.prepareStatement(SETTINGS)) {
+      try (var result = statement.executeQuery()) {
+        while (result.next()) {
+          final var value = result.getString(2);
+          if (value != null) {
+            builder.putProperties(result.getString(1), value);
+          }
+        }
+      }
+    }
+
+    /*
+     * The lock timeout is a session setting, and so does not appear in the database settings.
+     */
+
+    try (var statement = connection.prepareStatement(LOCK_TIMEOUT)) {
+      try (var result = statement.executeQuery()) {
+        if (result.next()) {
+          builder.putProperties("LOCK_TIMEOUT", result.getString(1));
+        }
+      }
+    }
+
+    builder.setRestartRequired(false);
+    return builder.build();
+  }
+
+  /**
+   * H2 closes an embedded database when the last connection to it is closed.
+   */
+
+  @Override
+  public void shutdown(
+    final String databasePath)
+  {
+    LOG.trace("shutdown not required for embedded databases");
+  }
+
+  /**
+   * Back up the database to a zip file. H2 copies the store while writers continue, so the
+   * backup is consistent as of the moment it began. The size of the backup is only known once
+   * it is complete, so a single progress report is delivered at the end.
+   */
+
+  @Override
+  public DatabaseBackup backup(
+    final Connection connection,
+    final String databasePath,
+    final DatabaseBackupParameters parameters,
+    final DatabaseBackupProgressListenerType listener)
+    throws SQLException
+  {
+    Objects.requireNonNull(connection, "connection");
+    Objects.requireNonNull(databasePath, "databasePath");
+    Objects.requireNonNull(parameters, "parameters");
+    Objects.requireNonNull(listener, "listener");
+
+    if (parameters.enableLogArchiving()) {
+      LOG.warn("backup: H2 does not support log archiving; the backup cannot be rolled forward");
+    }
+
+    final var directory = parameters.directory().toAbsolutePath();
+    final var name = Paths.get(databasePath).toAbsolutePath().getFileName();
+    final var path = directory.resolve(name + ".zip");
+    final var estimated = sizeOf(Paths.get(databaseFile(databasePath) + ".mv.db"));
+    connection.commit();
+
+    LOG.info("backup: {} -> {} (approximately {} bytes)", databasePath, path, estimated);
+
+    final var timeStart = System.nanoTime();
+    try (var statement = connection.prepareStatement(BACKUP)) {
+      statement.setString(1, path.toString());
+      statement.execute();
+    }
+    connection.commit();
+
+    final var size = sizeOf(path);
+    report(listener, size, estimated);
+
+    return DatabaseBackup.builder()
+      .setPath(path)
+      .setSize(size)
+      .setDuration(Duration.ofNanos(System.nanoTime() - timeStart))
+      .setLogArchiving(false)
+      .build();
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironpage.database.h2;
+
+import com.io7m.ironpage.database.api.DatabaseOpenTimings;
+import com.io7m.ironpage.database.api.DatabaseParameters;
+import com.io7m.ironpage.database.api.DatabaseProviderType;
+import com.io7m.ironpage.database.api.DatabaseType;
+import com.io7m.ironpage.database.derby.DatabaseEngines;
+import com.io7m.ironpage.database.spi.DatabaseException;
+import com.io7m.ironpage.database.spi.DatabaseMigrationPlan;
+import com.io7m.ironpage.database.spi.DatabasePartitionProviderRegistryType;
+import com.io7m.ironpage.errors.api.ErrorSeverity;
+import org.h2.api.ErrorCode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A provider of H2 databases. The databases use the same connection pools, transactions, and
+ * metrics as Derby databases, and are populated by partition providers for the {@code H2}
+ * dialect.
+ *
+ * H2 databases are always embedded in the current process; opening a database with server
+ * parameters fails.
+ */
+
+public final class DatabaseH2Provider implements DatabaseProviderType
+{
+  private static final Logger LOG = LoggerFactory.getLogger(DatabaseH2Provider.class);
+
+  private final DatabasePartitionProviderRegistryType registry;
+
+  /**
+   * Construct an H2 database provider.
+   *
+   * @param inRegistry The partition provider registry
+   */
+
+  public DatabaseH2Provider(
+    final DatabasePartitionProviderRegistryType inRegistry)
+  {
+    this.registry =
+      Objects.requireNonNull(inRegistry, "registry");
+  }
+
+  private static Duration elapsedSince(
+    final long timeStart)
+  {
+    return Duration.ofNanos(System.nanoTime() - timeStart);
+  }
+
+  @Override
+  public List<DatabaseMigrationPlan> migrationPlan(
+    final DatabaseParameters parameters)
+    throws DatabaseException
+  {
+    Objects.requireNonNull(parameters, "parameters");
+
+    LOG.info("migration plan: {}", parameters.path());
+
+    try {
+      if (parameters.server().isPresent()) {
+        throw new SQLFeatureNotSupportedException(DatabaseH2Messages.localize("errorH2Server"));
+      }
+
+      final var engine = new DatabaseH2Engine();
+      try {
+        return DatabaseEngines.migrationPlans(
+          this.registry, engine, DatabaseH2Engine.dataSourceExisting(parameters));
+      } catch (final SQLException e) {
+        if (e.getErrorCode() != ErrorCode.DATABASE_NOT_FOUND_WITH_IF_EXISTS_1) {
+          throw e;
+        }
+        LOG.debug("database does not exist, planning against an empty database");
+        return DatabaseEngines.migrationPlans(
+          this.registry, engine, DatabaseH2Engine.dataSourceEmpty());
+      }
+    } catch (final SQLException e) {
+      throw new DatabaseException(
+        ErrorSeverity.SEVERITY_ERROR,
+        DatabaseH2Messages.localize("errorOpenDatabase", e.getLocalizedMessage()),
+        e);
+    }
+  }
+
+  @Override
+  public DatabaseType open(final DatabaseParameters parameters)
+    throws DatabaseException
+  {
+    Objects.requireNonNull(parameters, "parameters");
+
+    final var path = parameters.path();
+    LOG.info("open: {}", path);
+
+    try {
+      if (parameters.server().isPresent()) {
+        throw new SQLFeatureNotSupportedException(DatabaseH2Messages.localize("errorH2Server"));
+      }
+
+      final var timings = DatabaseOpenTimings.builder();
+      final var timeStart = System.nanoTime();
+      timings.setServer(Duration.ZERO);
+
+      final var timePhase = System.nanoTime();
+      final var restore = parameters.restore();
+      if (restore.isPresent()) {
+        DatabaseH2Engine.restore(parameters, restore.get());
+      }
+      final var dataSource = DatabaseH2Engine.dataSource(parameters);
+      timings.setStorage(elapsedSince(timePhase));
+
+      return DatabaseEngines.open(
+        this.registry,
+        parameters,
+        new DatabaseH2Engine(),
+        dataSource,
+        timings,
+        timeStart);
+    } catch (final DatabaseException | SQLException | RuntimeException e) {
+      throw new DatabaseException(
+        ErrorSeverity.SEVERITY_ERROR,
+        DatabaseH2Messages.localize("errorOpenDatabase", e.getLocalizedMessage()),
+        e);
+    }
+  }
+}
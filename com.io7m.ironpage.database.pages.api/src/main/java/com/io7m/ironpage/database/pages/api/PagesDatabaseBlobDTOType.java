@@ -24,7 +24,8 @@ import java.util.Optional;
 import java.util.UUID;
 
 /**
- * A page blob data transfer object.
+ * A page blob data transfer object. The data of the blob is not retrieved along with the blob, but
+ * is read on demand through {@link #data()}; the data handle does not take part in equality.
  */
 
 @Value.Immutable
@@ -52,10 +53,17 @@ public interface PagesDatabaseBlobDTOType
   String mediaType();
 
   /**
-   * @return The blob data
+   * @return The size of the blob data in bytes
    */
 
-  byte[] data();
+  long size();
+
+  /**
+   * @return A handle to the blob data
+   */
+
+  @Value.Auxiliary
+  PagesDatabaseBlobDataType data();
 
   /**
    * @return The security label for the blob
@@ -0,0 +1,38 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.io7m.ironpage.database.pages.api;
+
+import com.io7m.ironpage.database.core.api.CDException;
+
+/**
+ * A handle to the data of a page blob. The data is fetched from the database each time that it
+ * is read, and can only be read while the transaction in which the blob was retrieved is open.
+ */
+
+@FunctionalInterface
+public interface PagesDatabaseBlobDataType
+{
+  /**
+   * Read the blob data.
+   *
+   * @return The blob data
+   *
+   * @throws CDException On database errors, or if the transaction is no longer open
+   */
+
+  byte[] read()
+    throws CDException;
+}
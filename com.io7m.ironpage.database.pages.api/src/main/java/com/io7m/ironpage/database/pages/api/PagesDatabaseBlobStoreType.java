@@ -0,0 +1,92 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.io7m.ironpage.database.pages.api;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.WritableByteChannel;
+import java.util.Optional;
+import java.util.OptionalLong;
+
+/**
+ * A store of blob data held outside of the database. When a pages database is configured with a
+ * store, the database holds the metadata, labels and redactions of blobs, and the data of each
+ * blob is held in the store under the blob ID (the hex-encoded SHA-256 digest of the data).
+ *
+ * Stores are not transactional. The pages queries hold writes and deletions until the transaction
+ * that made them commits: written data becomes visible in the store, and redacted data is deleted
+ * from the store, only once the database has committed the change, and both are discarded if the
+ * transaction rolls back. A failure of the store after the database has committed can leave a
+ * blob without its data, which is then reported as nonexistent rather than read as empty.
+ */
+
+public interface PagesDatabaseBlobStoreType
+{
+  /**
+   * Begin writing the data read from the given stream. The stream is read to the end, but is not
+   * closed. The data does not become visible in the store until the write is committed.
+   *
+   * @param data The stream of data
+   *
+   * @return A write in progress
+   *
+   * @throws IOException On I/O errors
+   */
+
+  PagesDatabaseBlobStoreWriteType write(InputStream data)
+    throws IOException;
+
+  /**
+   * Open the data of the given blob for reading. The caller must close the returned stream.
+   *
+   * @param id The blob ID
+   *
+   * @return A stream of the data, if the store holds the blob
+   *
+   * @throws IOException On I/O errors
+   */
+
+  Optional<InputStream> read(String id)
+    throws IOException;
+
+  /**
+   * Copy the data of the given blob to the given channel.
+   *
+   * @param id     The blob ID
+   * @param output The output channel
+   *
+   * @return The number of bytes copied, if the store holds the blob
+   *
+   * @throws IOException On I/O errors
+   */
+
+  OptionalLong transferTo(
+    String id,
+    WritableByteChannel output)
+    throws IOException;
+
+  /**
+   * Securely delete the data of the given blob. Deleting a blob that the store does not hold has
+   * no effect.
+   *
+   * @param id The blob ID
+   *
+   * @throws IOException On I/O errors
+   */
+
+  void delete(String id)
+    throws IOException;
+}
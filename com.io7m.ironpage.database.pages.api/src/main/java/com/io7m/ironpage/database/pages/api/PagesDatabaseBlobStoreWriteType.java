@@ -0,0 +1,63 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.io7m.ironpage.database.pages.api;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A write to a blob store that has not yet been committed. Closing a write that has not been
+ * committed discards the written data.
+ *
+ * @see PagesDatabaseBlobStoreType#write(java.io.InputStream)
+ */
+
+public interface PagesDatabaseBlobStoreWriteType extends Closeable
+{
+  /**
+   * @return The ID of the written blob (the hex-encoded SHA-256 digest of the data)
+   */
+
+  String id();
+
+  /**
+   * @return The size of the written data in bytes
+   */
+
+  long size();
+
+  /**
+   * Open the written data for reading, so that a transaction can read the data it has written
+   * before the write is committed. The caller must close the returned stream.
+   *
+   * @return A stream of the data
+   *
+   * @throws IOException On I/O errors
+   */
+
+  InputStream read()
+    throws IOException;
+
+  /**
+   * Make the written data visible in the store.
+   *
+   * @throws IOException On I/O errors
+   */
+
+  void commit()
+    throws IOException;
+}
@@ -20,13 +20,26 @@ import com.io7m.ironpage.database.core.api.CDErrorCode;
 import com.io7m.ironpage.database.core.api.CDException;
 import com.io7m.ironpage.database.core.api.CDSecurityLabelDTO;
 import com.io7m.ironpage.database.spi.DatabaseQueriesType;
+import com.io7m.ironpage.database.spi.DatabaseShardKey;
 import com.io7m.ironpage.events.api.EventPublishedType;
 
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
 
 /**
  * The queries supported by pages databases.
+ *
+ * Blobs are distributed across the shards of a sharded database by the SHA-256 digest of their
+ * data, which is also their ID.
+ *
+ * Blobs can be written and read as streams so that their data never has to be held in memory in
+ * its entirety. Channels can be adapted to the streaming methods with
+ * {@link java.nio.channels.Channels#newInputStream(java.nio.channels.ReadableByteChannel)} and
+ * {@link java.nio.channels.Channels#newOutputStream(java.nio.channels.WritableByteChannel)}.
  */
 
 public interface PagesDatabaseQueriesType extends DatabaseQueriesType
@@ -86,6 +99,17 @@ public interface PagesDatabaseQueriesType extends DatabaseQueriesType
         .append(":dataOwnerNonexistent")
         .toString());
 
+  /**
+   * A stream of page data could not be read or written.
+   */
+
+  CDErrorCode DATA_STREAM_FAILED =
+    CDErrorCode.of(
+      new StringBuilder(64)
+        .append(PagesDatabaseQueriesType.class.getCanonicalName())
+        .append(":dataStreamFailed")
+        .toString());
+
   /**
    * Save the given page blob.
    *
@@ -104,12 +128,37 @@ public interface PagesDatabaseQueriesType extends DatabaseQueriesType
   String pageBlobPut(
     UUID owner,
     String mediaType,
-    byte[] data,
+    @DatabaseShardKey byte[] data,
+    CDSecurityLabelDTO label)
+    throws CDException;
+
+  /**
+   * Save the page blob read from the given stream. The stream is read to the end, but is not
+   * closed. The hash of the data is computed as the data is read, and the data is passed to the
+   * database without being held in memory.
+   *
+   * @param owner     The ID of the owner
+   * @param mediaType The IANA media type
+   * @param data      The stream of data
+   * @param label     The security label of the blob
+   *
+   * @return The hash of the blob
+   *
+   * @throws CDException On database errors, or if the stream cannot be read
+   * @see "https://www.iana.org/assignments/media-types/media-types.xhtml"
+   */
+
+  @EventPublishedType(PagesDatabaseBlobCreated.class)
+  String pageBlobPutStream(
+    UUID owner,
+    String mediaType,
+    @DatabaseShardKey InputStream data,
     CDSecurityLabelDTO label)
     throws CDException;
 
   /**
-   * Retrieve the given page blob.
+   * Retrieve the given page blob. The data of the blob is read on demand through
+   * {@link PagesDatabaseBlobDTO#data()}, within the current transaction.
    *
    * @param id The blob ID
    *
@@ -119,7 +168,53 @@ public interface PagesDatabaseQueriesType extends DatabaseQueriesType
    */
 
   Optional<PagesDatabaseBlobDTO> pageBlobGet(
-    String id)
+    @DatabaseShardKey String id)
+    throws CDException;
+
+  /**
+   * Retrieve the given page blobs, as {@link #pageBlobGet(String)}. The blobs are retrieved in a
+   * small number of batched queries rather than one query per blob.
+   *
+   * @param ids The blob IDs
+   *
+   * @return The blobs that exist, by ID
+   *
+   * @throws CDException On database errors
+   */
+
+  Map<String, PagesDatabaseBlobDTO> pageBlobGetAll(
+    @DatabaseShardKey Collection<String> ids)
+    throws CDException;
+
+  /**
+   * Retrieve the metadata of the given page blob. The data of the blob is not read.
+   *
+   * @param id The blob ID
+   *
+   * @return The metadata of the blob, if the blob exists
+   *
+   * @throws CDException On database errors
+   */
+
+  Optional<PagesDatabaseBlobMetadata> pageBlobMetadataGet(
+    @DatabaseShardKey String id)
+    throws CDException;
+
+  /**
+   * Retrieve the given page blob, writing its data to the given stream. The stream is not closed.
+   * The data is copied from the database to the stream without being held in memory.
+   *
+   * @param id     The blob ID
+   * @param output The stream that will receive the blob data
+   *
+   * @return The metadata of the blob, if the blob exists
+   *
+   * @throws CDException On database errors, or if the stream cannot be written
+   */
+
+  Optional<PagesDatabaseBlobMetadata> pageBlobGetStream(
+    @DatabaseShardKey String id,
+    OutputStream output)
     throws CDException;
 
   /**
@@ -135,7 +230,7 @@ public interface PagesDatabaseQueriesType extends DatabaseQueriesType
   @EventPublishedType(PagesDatabaseBlobRedacted.class)
   void pageBlobRedact(
     UUID owner,
-    String id,
+    @DatabaseShardKey String id,
     String reason)
     throws CDException;
 }
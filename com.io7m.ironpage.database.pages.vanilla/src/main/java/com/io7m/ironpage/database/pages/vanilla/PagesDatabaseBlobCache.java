@@ -0,0 +1,474 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.io7m.ironpage.database.pages.vanilla;
+
+import com.io7m.ironpage.database.api.DatabaseType;
+import com.io7m.ironpage.database.core.api.CDException;
+import com.io7m.ironpage.database.core.api.CDSecurityLabelDTO;
+import com.io7m.ironpage.database.pages.api.PagesDatabaseBlobDTO;
+import com.io7m.ironpage.database.pages.api.PagesDatabaseBlobMetadata;
+import com.io7m.ironpage.database.pages.api.PagesDatabaseBlobRedacted;
+import com.io7m.ironpage.database.pages.api.PagesDatabaseQueriesType;
+import com.io7m.ironpage.errors.api.ErrorSeverity;
+import com.io7m.ironpage.metrics.api.MetricsCounterType;
+import io.reactivex.rxjava3.disposables.Disposable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * A size-bounded cache of blob data, shared between the queries of many transactions. Blobs are
+ * addressed by their content, so the data of a blob never changes until the blob is redacted;
+ * cached blobs are invalidated when a {@link PagesDatabaseBlobRedacted} event is published by the
+ * database, which happens once the redaction has committed. A blob read before the invalidation is
+ * not added to the cache after it, so data read before a redaction committed is never cached once
+ * the redaction is visible. The least recently used blobs are evicted when the total size of the
+ * cached data would exceed {@link PagesDatabaseBlobCacheParameters#maximumBytes()}.
+ *
+ * Queries wrapped with {@link #wrap(PagesDatabaseQueriesType)} serve blobs from the cache. A blob
+ * is added to the cache when its data is read through a wrapped query; redacted blobs and blobs
+ * larger than {@link PagesDatabaseBlobCacheParameters#maximumEntryBytes()} are never cached.
+ * Blobs redacted through a wrapped query are never served from the cache by that query, so that a
+ * transaction sees its own redactions before they commit.
+ */
+
+public final class PagesDatabaseBlobCache implements Closeable
+{
+  private final PagesDatabaseBlobCacheParameters parameters;
+  private final LinkedHashMap<String, Entry> entries;
+  private final MetricsCounterType hits;
+  private final MetricsCounterType misses;
+  private final MetricsCounterType evictions;
+  private Disposable subscription;
+  private long bytes;
+  private long generation;
+
+  private PagesDatabaseBlobCache(
+    final PagesDatabaseBlobCacheParameters inParameters)
+  {
+    this.parameters =
+      Objects.requireNonNull(inParameters, "parameters");
+    this.entries =
+      new LinkedHashMap<>(64, 0.75f, true);
+
+    final var metrics = inParameters.metrics();
+    this.hits =
+      metrics.counter("ironpage.pages.blob_cache.hits", Map.of());
+    this.misses =
+      metrics.counter("ironpage.pages.blob_cache.misses", Map.of());
+    this.evictions =
+      metrics.counter("ironpage.pages.blob_cache.evictions", Map.of());
+  }
+
+  /**
+   * Create a cache for blobs in the given database.
+   *
+   * @param database   The database
+   * @param parameters The cache parameters
+   *
+   * @return A cache
+   */
+
+  public static PagesDatabaseBlobCache create(
+    final DatabaseType database,
+    final PagesDatabaseBlobCacheParameters parameters)
+  {
+    Objects.requireNonNull(database, "database");
+
+    final var cache = new PagesDatabaseBlobCache(parameters);
+    final var metrics = parameters.metrics();
+    metrics.gauge("ironpage.pages.blob_cache.bytes", Map.of(), cache::sizeBytes);
+    metrics.gauge("ironpage.pages.blob_cache.entries", Map.of(), cache::sizeEntries);
+    cache.subscription =
+      database.events()
+        .ofType(PagesDatabaseBlobRedacted.class)
+        .subscribe(event -> cache.invalidate(event.id()));
+    return cache;
+  }
+
+  /**
+   * Wrap the given queries so that blobs are served from the cache.
+   *
+   * @param queries The queries
+   *
+   * @return The wrapped queries
+   */
+
+  public PagesDatabaseQueriesType wrap(
+    final PagesDatabaseQueriesType queries)
+  {
+    return new CachedQueries(this, Objects.requireNonNull(queries, "queries"));
+  }
+
+  /**
+   * Remove the given blob from the cache.
+   *
+   * @param id The blob ID
+   */
+
+  public void invalidate(
+    final String id)
+  {
+    Objects.requireNonNull(id, "id");
+
+    synchronized (this.entries) {
+      ++this.generation;
+      final var removed = this.entries.remove(id);
+      if (removed != null) {
+        this.bytes -= removed.size();
+      }
+    }
+  }
+
+  /**
+   * @return The total size in bytes of the blob data held in the cache
+   */
+
+  public long sizeBytes()
+  {
+    synchronized (this.entries) {
+      return this.bytes;
+    }
+  }
+
+  /**
+   * @return The number of blobs held in the cache
+   */
+
+  public long sizeEntries()
+  {
+    synchronized (this.entries) {
+      return this.entries.size();
+    }
+  }
+
+  long generation()
+  {
+    synchronized (this.entries) {
+      return this.generation;
+    }
+  }
+
+  Optional<Entry> lookup(
+    final String id)
+  {
+    final Entry entry;
+    synchronized (this.entries) {
+      entry = this.entries.get(id);
+    }
+    if (entry == null) {
+      this.misses.increment();
+      return Optional.empty();
+    }
+    this.hits.increment();
+    return Optional.of(entry);
+  }
+
+  /**
+   * Add a blob read at the given generation. If any blob has been invalidated since then, the
+   * data may already be stale, so it is not cached.
+   */
+
+  void insert(
+    final long readGeneration,
+    final PagesDatabaseBlobMetadata metadata,
+    final byte[] data)
+  {
+    if (metadata.redaction().isPresent()
+      || (long) data.length > this.parameters.maximumEntryBytes()) {
+      return;
+    }
+
+    final ByteBuffer buffer;
+    if (this.parameters.offHeap()) {
+      buffer = ByteBuffer.allocateDirect(data.length);
+      buffer.put(data);
+      buffer.flip();
+    } else {
+      buffer = ByteBuffer.wrap(data.clone());
+    }
+
+    final var entry = new Entry(metadata, buffer.asReadOnlyBuffer());
+    synchronized (this.entries) {
+      if (readGeneration != this.generation) {
+        return;
+      }
+
+      final var previous = this.entries.put(metadata.id(), entry);
+      if (previous != null) {
+        this.bytes -= previous.size();
+      }
+      this.bytes += entry.size();
+
+      final var iterator = this.entries.values().iterator();
+      while (this.bytes > this.parameters.maximumBytes() && iterator.hasNext()) {
+        this.bytes -= iterator.next().size();
+        iterator.remove();
+        this.evictions.increment();
+      }
+    }
+  }
+
+  @Override
+  public void close()
+  {
+    if (this.subscription != null) {
+      this.subscription.dispose();
+    }
+    synchronized (this.entries) {
+      this.entries.clear();
+      this.bytes = 0L;
+    }
+  }
+
+  private static final class Entry
+  {
+    private final PagesDatabaseBlobMetadata metadata;
+    private final ByteBuffer data;
+
+    Entry(
+      final PagesDatabaseBlobMetadata inMetadata,
+      final ByteBuffer inData)
+    {
+      this.metadata = inMetadata;
+      this.data = inData;
+    }
+
+    long size()
+    {
+      return this.data.capacity();
+    }
+
+    byte[] read()
+    {
+      final var copy = new byte[this.data.capacity()];
+      this.data.duplicate().get(copy);
+      return copy;
+    }
+
+    PagesDatabaseBlobDTO blob()
+    {
+      return PagesDatabaseBlobDTO.builder()
+        .setId(this.metadata.id())
+        .setMediaType(this.metadata.mediaType())
+        .setRedaction(this.metadata.redaction())
+        .setSize(this.metadata.size())
+        .setData(this::read)
+        .setOwner(this.metadata.owner())
+        .setSecurityLabel(this.metadata.securityLabel())
+        .build();
+    }
+  }
+
+  private static final class CachedQueries implements PagesDatabaseQueriesType
+  {
+    private final PagesDatabaseBlobCache cache;
+    private final PagesDatabaseQueriesType queries;
+    private final Set<String> redacted;
+
+    CachedQueries(
+      final PagesDatabaseBlobCache inCache,
+      final PagesDatabaseQueriesType inQueries)
+    {
+      this.cache = inCache;
+      this.queries = inQueries;
+      this.redacted = new HashSet<>(8);
+    }
+
+    private Optional<Entry> lookup(
+      final String id)
+    {
+      if (this.redacted.contains(id)) {
+        return Optional.empty();
+      }
+      return this.cache.lookup(id);
+    }
+
+    private static PagesDatabaseBlobMetadata metadataOf(
+      final PagesDatabaseBlobDTO blob)
+    {
+      return PagesDatabaseBlobMetadata.builder()
+        .setId(blob.id())
+        .setMediaType(blob.mediaType())
+        .setRedaction(blob.redaction())
+        .setSize(blob.size())
+        .setOwner(blob.owner())
+        .setSecurityLabel(blob.securityLabel())
+        .build();
+    }
+
+    @Override
+    public String pageBlobPut(
+      final UUID owner,
+      final String mediaType,
+      final byte[] data,
+      final CDSecurityLabelDTO label)
+      throws CDException
+    {
+      return this.queries.pageBlobPut(owner, mediaType, data, label);
+    }
+
+    @Override
+    public String pageBlobPutStream(
+      final UUID owner,
+      final String mediaType,
+      final InputStream data,
+      final CDSecurityLabelDTO label)
+      throws CDException
+    {
+      return this.queries.pageBlobPutStream(owner, mediaType, data, label);
+    }
+
+    /**
+     * The data of a blob that is not cached is cached when it is first read.
+     */
+
+    @Override
+    public Optional<PagesDatabaseBlobDTO> pageBlobGet(
+      final String id)
+      throws CDException
+    {
+      final var cached = this.lookup(id);
+      if (cached.isPresent()) {
+        return Optional.of(cached.get().blob());
+      }
+
+      final var readGeneration = this.cache.generation();
+      return this.queries.pageBlobGet(id)
+        .map(blob -> this.insertOnRead(readGeneration, blob));
+    }
+
+    /**
+     * Blobs that are not cached are retrieved from the wrapped queries in a single batch.
+     */
+
+    @Override
+    public Map<String, PagesDatabaseBlobDTO> pageBlobGetAll(
+      final Collection<String> ids)
+      throws CDException
+    {
+      Objects.requireNonNull(ids, "ids");
+
+      final var blobs = new HashMap<String, PagesDatabaseBlobDTO>(ids.size());
+      final var uncached = new ArrayList<String>(ids.size());
+      for (final var id : ids) {
+        final var cached = this.lookup(id);
+        if (cached.isPresent()) {
+          blobs.put(id, cached.get().blob());
+        } else {
+          uncached.add(id);
+        }
+      }
+
+      if (!uncached.isEmpty()) {
+        final var readGeneration = this.cache.generation();
+        for (final var blob : this.queries.pageBlobGetAll(uncached).values()) {
+          blobs.put(blob.id(), this.insertOnRead(readGeneration, blob));
+        }
+      }
+      return blobs;
+    }
+
+    private PagesDatabaseBlobDTO insertOnRead(
+      final long readGeneration,
+      final PagesDatabaseBlobDTO blob)
+    {
+      if (this.redacted.contains(blob.id())) {
+        return blob;
+      }
+
+      final var source = blob.data();
+      return blob.withData(() -> {
+        final var data = source.read();
+        this.cache.insert(readGeneration, metadataOf(blob), data);
+        return data;
+      });
+    }
+
+    @Override
+    public Optional<PagesDatabaseBlobMetadata> pageBlobMetadataGet(
+      final String id)
+      throws CDException
+    {
+      final var cached = this.lookup(id);
+      if (cached.isPresent()) {
+        return Optional.of(cached.get().metadata);
+      }
+      return this.queries.pageBlobMetadataGet(id);
+    }
+
+    /**
+     * Blobs that are not cached are streamed directly from the database, and are not added to the
+     * cache; streaming is intended for blobs too large to be worth caching.
+     */
+
+    @Override
+    public Optional<PagesDatabaseBlobMetadata> pageBlobGetStream(
+      final String id,
+      final OutputStream output)
+      throws CDException
+    {
+      Objects.requireNonNull(output, "output");
+
+      final var cached = this.lookup(id);
+      if (cached.isEmpty()) {
+        return this.queries.pageBlobGetStream(id, output);
+      }
+
+      final var entry = cached.get();
+      try {
+        final var channel = Channels.newChannel(output);
+        final var data = entry.data.duplicate();
+        while (data.hasRemaining()) {
+          channel.write(data);
+        }
+      } catch (final IOException e) {
+        throw new CDException(
+          ErrorSeverity.SEVERITY_ERROR,
+          DATA_STREAM_FAILED,
+          e.getLocalizedMessage(),
+          e);
+      }
+      return Optional.of(entry.metadata);
+    }
+
+    @Override
+    public void pageBlobRedact(
+      final UUID owner,
+      final String id,
+      final String reason)
+      throws CDException
+    {
+      this.queries.pageBlobRedact(owner, id, reason);
+      this.redacted.add(id);
+      this.cache.invalidate(id);
+    }
+  }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.io7m.ironpage.database.pages.vanilla;
+
+import com.io7m.immutables.styles.ImmutablesStyleType;
+import com.io7m.ironpage.metrics.api.MetricsRegistryNoOp;
+import com.io7m.ironpage.metrics.api.MetricsRegistryType;
+import com.io7m.jaffirm.core.Preconditions;
+import org.immutables.value.Value;
+
+/**
+ * Parameters for a cache of blob data.
+ *
+ * @see PagesDatabaseBlobCache
+ */
+
+@Value.Immutable
+@ImmutablesStyleType
+public interface PagesDatabaseBlobCacheParametersType
+{
+  /**
+   * @return The maximum total size in bytes of the blob data held in the cache
+   */
+
+  @Value.Default
+  default long maximumBytes()
+  {
+    return 64L * 1024L * 1024L;
+  }
+
+  /**
+   * @return The maximum size in bytes of the data of a single blob held in the cache; larger
+   * blobs are never cached
+   */
+
+  @Value.Default
+  default long maximumEntryBytes()
+  {
+    return 1024L * 1024L;
+  }
+
+  /**
+   * @return {@code true} if blob data should be held in direct buffers outside of the heap
+   */
+
+  @Value.Default
+  default boolean offHeap()
+  {
+    return false;
+  }
+
+  /**
+   * @return The registry to which cache metrics are reported
+   */
+
+  @Value.Default
+  default MetricsRegistryType metrics()
+  {
+    return MetricsRegistryNoOp.get();
+  }
+
+  /**
+   * Check preconditions for the type.
+   */
+
+  @Value.Check
+  default void checkPreconditions()
+  {
+    final var bytes = this.maximumBytes();
+    final var entryBytes = this.maximumEntryBytes();
+
+    Preconditions.checkPreconditionL(
+      bytes,
+      bytes >= 1L,
+      b -> "Maximum size must be positive");
+    Preconditions.checkPreconditionL(
+      entryBytes,
+      entryBytes >= 0L && entryBytes <= bytes && entryBytes <= Integer.MAX_VALUE,
+      b -> "Maximum entry size must be non-negative and no larger than the maximum size");
+  }
+}
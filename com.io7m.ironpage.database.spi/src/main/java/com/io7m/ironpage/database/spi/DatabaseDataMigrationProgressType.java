@@ -0,0 +1,65 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironpage.database.spi;
+
+import com.io7m.immutables.styles.ImmutablesStyleType;
+import com.io7m.jaffirm.core.Preconditions;
+import org.immutables.value.Value;
+
+/**
+ * The progress of a data migration.
+ *
+ * @see DatabaseDataMigrationType
+ */
+
+@Value.Immutable
+@ImmutablesStyleType
+public interface DatabaseDataMigrationProgressType
+{
+  /**
+   * @return The checkpoint from which the migration resumes; typically the last key migrated
+   */
+
+  String checkpoint();
+
+  /**
+   * @return The number of rows migrated
+   */
+
+  long rows();
+
+  /**
+   * @return {@code true} if the migration has finished
+   */
+
+  boolean finished();
+
+  /**
+   * Check preconditions for the type.
+   */
+
+  @Value.Check
+  default void checkPreconditions()
+  {
+    final var rows = this.rows();
+
+    Preconditions.checkPreconditionL(
+      rows,
+      rows >= 0L,
+      r -> "Rows must be non-negative");
+  }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironpage.database.spi;
+
+import java.math.BigInteger;
+import java.sql.Connection;
+
+/**
+ * A data migration. Schema revisions change the structure of a partition while the database is
+ * being opened; a data migration rewrites existing rows, which may take a long time for a large
+ * database, and so runs in the background once the database is open. The rows are migrated in
+ * chunks, in order of some unique key, and each chunk is committed along with a checkpoint from
+ * which the migration resumes if the database is closed before the migration finishes.
+ *
+ * Queries must tolerate a partially migrated partition: rows written since the schema revision
+ * that introduced the migration must already be in the migrated form, and rows that have not yet
+ * been migrated must still be readable. Chunks must be idempotent, as a chunk may be executed
+ * again if the process fails between executing the chunk and committing it.
+ */
+
+public interface DatabaseDataMigrationType
+{
+  /**
+   * @return The name of the migration, unique across all partitions (such as
+   * {@code core.blob_sizes})
+   */
+
+  String name();
+
+  /**
+   * @return The schema version of the partition that must be installed before the migration
+   * can run
+   */
+
+  BigInteger schemaVersion();
+
+  /**
+   * Migrate a chunk of rows. The transaction is neither committed nor rolled back.
+   *
+   * @param connection The database connection
+   * @param checkpoint The checkpoint returned by the previous chunk, or the empty string for the
+   *                   first chunk
+   * @param chunkSize  The maximum number of rows to migrate
+   *
+   * @return The progress made by the chunk
+   *
+   * @throws DatabaseException On errors
+   */
+
+  DatabaseDataMigrationProgress migrateChunk(
+    Connection connection,
+    String checkpoint,
+    int chunkSize)
+    throws DatabaseException;
+}
@@ -165,4 +165,14 @@ public class DatabaseException extends Exception implements ErrorType
   {
     return Optional.of(this);
   }
+
+  /**
+   * @return The name of the error code that identifies the kind of error, for subclasses that
+   * define error codes
+   */
+
+  public Optional<String> errorCodeName()
+  {
+    return Optional.empty();
+  }
 }
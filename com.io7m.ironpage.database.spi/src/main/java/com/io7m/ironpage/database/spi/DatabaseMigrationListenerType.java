@@ -0,0 +1,44 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironpage.database.spi;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * A listener that receives a record of each batch of migration statements as it executes.
+ */
+
+@FunctionalInterface
+public interface DatabaseMigrationListenerType
+{
+  /**
+   * A batch of statements was executed. The listener is called within the transaction that
+   * executed the statements, and so anything that the listener writes using the given connection
+   * is committed or rolled back along with the migration.
+   *
+   * @param connection The connection that executed the statements
+   * @param record     The record of the batch
+   *
+   * @throws SQLException On errors
+   */
+
+  void onMigrationStatementsExecuted(
+    Connection connection,
+    DatabaseMigrationRecord record)
+    throws SQLException;
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironpage.database.spi;
+
+import com.io7m.immutables.styles.ImmutablesStyleType;
+import com.io7m.jaffirm.core.Preconditions;
+import org.immutables.value.Value;
+
+import java.math.BigInteger;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * A plan of the migrations required to bring a partition up to date. A plan is produced without
+ * modifying the database, and so can be inspected before any upgrade takes place.
+ */
+
+@Value.Immutable
+@ImmutablesStyleType
+public interface DatabaseMigrationPlanType
+{
+  /**
+   * @return The name of the partition
+   */
+
+  String partition();
+
+  /**
+   * @return The schema version installed in the partition, if the partition exists
+   */
+
+  Optional<BigInteger> installedVersion();
+
+  /**
+   * @return The latest schema version supported by the partition provider
+   */
+
+  BigInteger latestVersion();
+
+  /**
+   * @return The steps required to upgrade the partition, in order; empty if the partition is up
+   * to date
+   */
+
+  List<DatabaseMigrationStep> steps();
+
+  /**
+   * Check preconditions for the type.
+   */
+
+  @Value.Check
+  default void checkPreconditions()
+  {
+    final var partition = this.partition();
+    for (final var step : this.steps()) {
+      Preconditions.checkPrecondition(
+        step,
+        Objects.equals(step.partition(), partition),
+        s -> String.format(
+          "Step for partition %s must belong to partition %s", s.partition(), partition));
+    }
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironpage.database.spi;
+
+import com.io7m.immutables.styles.ImmutablesStyleType;
+import com.io7m.jaffirm.core.Preconditions;
+import org.immutables.value.Value;
+
+import java.math.BigInteger;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+
+/**
+ * A record of a batch of migration statements that has been executed. A batch holds one or more
+ * consecutive statements of a single migration step.
+ */
+
+@Value.Immutable
+@ImmutablesStyleType
+public interface DatabaseMigrationRecordType
+{
+  /**
+   * @return The name of the partition
+   */
+
+  String partition();
+
+  /**
+   * @return The schema version of the step to which the statements belong
+   */
+
+  BigInteger version();
+
+  /**
+   * @return The index of the first statement of the batch within the step
+   */
+
+  int statementIndex();
+
+  /**
+   * @return The number of statements in the batch
+   */
+
+  int statementCount();
+
+  /**
+   * @return The time that execution of the batch started
+   */
+
+  OffsetDateTime timeStarted();
+
+  /**
+   * @return The time taken to execute the batch
+   */
+
+  Duration duration();
+
+  /**
+   * Check preconditions for the type.
+   */
+
+  @Value.Check
+  default void checkPreconditions()
+  {
+    final var index = this.statementIndex();
+    final var count = this.statementCount();
+
+    Preconditions.checkPreconditionI(
+      index,
+      index >= 0,
+      i -> "Statement index must be non-negative");
+    Preconditions.checkPreconditionI(
+      count,
+      count >= 1,
+      c -> "Statement count must be positive");
+  }
+}
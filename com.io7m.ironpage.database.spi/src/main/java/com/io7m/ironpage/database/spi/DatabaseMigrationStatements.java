@@ -0,0 +1,73 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironpage.database.spi;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Functions to execute migration statements.
+ */
+
+final class DatabaseMigrationStatements
+{
+  private static final Logger LOG = LoggerFactory.getLogger(DatabaseMigrationStatements.class);
+
+  private DatabaseMigrationStatements()
+  {
+
+  }
+
+  /**
+   * Execute the given statements. More than one statement is submitted as a single JDBC batch,
+   * saving a round trip to the database (and, for a network server, the network) for each
+   * statement. Migration statements never return results, and so can always be batched.
+   *
+   * @param connection The connection
+   * @param statements The statements
+   *
+   * @throws SQLException On errors
+   */
+
+  static void execute(
+    final Connection connection,
+    final List<String> statements)
+    throws SQLException
+  {
+    if (statements.size() == 1) {
+      final var statement = statements.get(0).trim();
+      LOG.trace("statement: {}", statement);
+      try (var prepped = connection.prepareStatement(statement)) {
+        prepped.execute();
+      }
+      return;
+    }
+
+    try (var batch = connection.createStatement()) {
+      for (final var statement : statements) {
+        final var trimmed = statement.trim();
+        LOG.trace("statement: {}", trimmed);
+        batch.addBatch(trimmed);
+      }
+      batch.executeBatch();
+    }
+  }
+}
@@ -17,6 +17,7 @@
 package com.io7m.ironpage.database.spi;
 
 import com.io7m.ironpage.presentable.api.PresentableAttributes;
+import com.io7m.jaffirm.core.Preconditions;
 import io.reactivex.rxjava3.subjects.Subject;
 import org.slf4j.Logger;
 
@@ -24,6 +25,8 @@ import java.math.BigInteger;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.time.Clock;
+import java.time.Duration;
+import java.time.OffsetDateTime;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -31,12 +34,18 @@ import java.util.NavigableMap;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.ResourceBundle;
+import java.util.Set;
 
 import static com.io7m.ironpage.errors.api.ErrorSeverity.SEVERITY_ERROR;
 
 /**
  * An abstract partition provider. This implements common services required by provider
  * implementations.
+ *
+ * A single provider may be used to open any number of databases, concurrently. The provider
+ * therefore holds no state that belongs to any one database: the installed schema version is
+ * read from the given connection whenever it is required, and the only cached state is the set
+ * of schema revisions, which is immutable and shared by every database.
  */
 
 public abstract class DatabasePartitionProviderAbstract implements DatabasePartitionProviderType
@@ -44,9 +53,8 @@ public abstract class DatabasePartitionProviderAbstract implements DatabaseParti
   private final ResourceBundle resources;
   private final DatabaseQueriesContructorCollection queryConstructors;
   private final Clock clock;
-  private boolean installedSchemaVersionRetrieved;
-  private Optional<BigInteger> installedSchemaVersion;
-  private Optional<NavigableMap<BigInteger, DatabaseSchemaRevisionType>> schemaRevisions;
+  private final Object schemaRevisionsLock;
+  private volatile NavigableMap<BigInteger, DatabaseSchemaRevisionType> schemaRevisions;
 
   protected DatabasePartitionProviderAbstract(
     final Clock inClock,
@@ -57,9 +65,7 @@ public abstract class DatabasePartitionProviderAbstract implements DatabaseParti
     this.queryConstructors =
       Objects.requireNonNull(inQueryConstructors, "queryConstructors");
 
-    this.installedSchemaVersion = Optional.empty();
-    this.installedSchemaVersionRetrieved = false;
-    this.schemaRevisions = Optional.empty();
+    this.schemaRevisionsLock = new Object();
 
     this.resources =
       ResourceBundle.getBundle("com.io7m.ironpage.database.spi.Messages");
@@ -76,6 +82,15 @@ public abstract class DatabasePartitionProviderAbstract implements DatabaseParti
   protected abstract NavigableMap<BigInteger, DatabaseSchemaRevisionType> schemaRevisionsActual()
     throws DatabaseException;
 
+  /**
+   * The version of the latest revision returned by {@link #schemaRevisionsActual()}. This allows
+   * for determining that a partition is up-to-date without loading any schema revisions.
+   *
+   * @return The latest available schema version
+   */
+
+  protected abstract BigInteger schemaVersionLatest();
+
   @Override
   public final Optional<BigInteger> findSchemaVersion(
     final Connection connection)
@@ -83,25 +98,47 @@ public abstract class DatabasePartitionProviderAbstract implements DatabaseParti
   {
     Objects.requireNonNull(connection, "connection");
 
-    if (!this.installedSchemaVersionRetrieved) {
-      final var installedVersion = this.findSchemaVersionActual(connection);
-      this.installedSchemaVersion = Objects.requireNonNull(installedVersion, "installedVersion");
-      this.installedSchemaVersionRetrieved = true;
-    }
-
-    return this.installedSchemaVersion;
+    final var installedVersion = this.findSchemaVersionActual(connection);
+    return Objects.requireNonNull(installedVersion, "installedVersion");
   }
 
   @Override
   public final NavigableMap<BigInteger, DatabaseSchemaRevisionType> schemaRevisions()
     throws DatabaseException
   {
-    if (this.schemaRevisions.isPresent()) {
-      return this.schemaRevisions.get();
+    final var existing = this.schemaRevisions;
+    if (existing != null) {
+      return existing;
+    }
+
+    synchronized (this.schemaRevisionsLock) {
+      if (this.schemaRevisions == null) {
+        this.schemaRevisions = this.schemaRevisionsLoad();
+      }
+      return this.schemaRevisions;
     }
+  }
 
+  private NavigableMap<BigInteger, DatabaseSchemaRevisionType> schemaRevisionsLoad()
+    throws DatabaseException
+  {
     final var retrieved = Collections.unmodifiableNavigableMap(this.schemaRevisionsActual());
-    this.schemaRevisions = Optional.of(retrieved);
+    final var latest = this.schemaVersionLatest();
+    final var highest = Optional.ofNullable(retrieved.lastEntry()).map(Map.Entry::getKey);
+    if (!Objects.equals(highest, Optional.of(latest))) {
+      throw new DatabaseException(
+        SEVERITY_ERROR,
+        this.localize("errorLatestVersionMismatch"),
+        null,
+        PresentableAttributes.of(
+          PresentableAttributes.entry(
+            this.localize("latestVersion"),
+            latest.toString()),
+          PresentableAttributes.entry(
+            this.localize("supportedVersions"),
+            retrieved.keySet().toString())));
+    }
+
     return retrieved;
   }
 
@@ -110,36 +147,26 @@ public abstract class DatabasePartitionProviderAbstract implements DatabaseParti
     final Connection connection)
     throws DatabaseException
   {
-    final var installedVersionOpt = this.findSchemaVersion(connection);
-    if (installedVersionOpt.isEmpty()) {
-      return true;
-    }
+    return this.isUpgradeRequiredFrom(this.findSchemaVersion(connection));
+  }
 
-    final var highestAvailableOpt = this.highestAvailableSchemaVersion();
-    if (highestAvailableOpt.isEmpty()) {
+  private boolean isUpgradeRequiredFrom(
+    final Optional<BigInteger> installedVersionOpt)
+  {
+    if (installedVersionOpt.isEmpty()) {
       return true;
     }
 
     final var installedVersion = installedVersionOpt.get();
-    final var highestAvailable = highestAvailableOpt.get();
-    return installedVersion.compareTo(highestAvailable) < 0;
-  }
-
-  private Optional<BigInteger> highestAvailableSchemaVersion()
-    throws DatabaseException
-  {
-    final var revisions = this.schemaRevisions();
-    return Optional.ofNullable(revisions.lastEntry()).map(Map.Entry::getKey);
+    return installedVersion.compareTo(this.schemaVersionLatest()) < 0;
   }
 
   private List<BigInteger> checkUpgradesToRun(
-    final Connection connection)
+    final Optional<BigInteger> installedVersionOpt)
     throws DatabaseException
   {
     final var logger = this.logger();
 
-    final var installedVersionOpt =
-      this.findSchemaVersion(connection);
     final var availableVersions =
       this.schemaRevisions();
 
@@ -159,7 +186,7 @@ public abstract class DatabasePartitionProviderAbstract implements DatabaseParti
               availableVersions.keySet().toString())));
       }
 
-      return List.copyOf(availableVersions.tailMap(installedVersion, true).keySet());
+      return List.copyOf(availableVersions.tailMap(installedVersion, false).keySet());
     }
 
     logger.debug("[{}]: database schema uninitialized, running full install", this.partitionName());
@@ -172,6 +199,102 @@ public abstract class DatabasePartitionProviderAbstract implements DatabaseParti
     return this.resources.getString(code);
   }
 
+  @Override
+  public final DatabaseMigrationPlan migrationPlan(
+    final Connection connection)
+    throws DatabaseException
+  {
+    Objects.requireNonNull(connection, "connection");
+
+    final var partition = this.partitionName();
+    final var installedVersion = this.findSchemaVersion(connection);
+    final var plan =
+      DatabaseMigrationPlan.builder()
+        .setPartition(partition)
+        .setInstalledVersion(installedVersion)
+        .setLatestVersion(this.schemaVersionLatest());
+
+    if (this.isUpgradeRequiredFrom(installedVersion)) {
+      final var availableVersions = this.schemaRevisions();
+      for (final var upgradeVersion : this.checkUpgradesToRun(installedVersion)) {
+        plan.addSteps(
+          DatabaseMigrationStep.builder()
+            .setPartition(partition)
+            .setVersion(upgradeVersion)
+            .setStatements(availableVersions.get(upgradeVersion).statements())
+            .build());
+      }
+    }
+
+    return plan.build();
+  }
+
+  @Override
+  public final void migrationStepExecute(
+    final Connection connection,
+    final DatabaseMigrationStep step,
+    final int batchSize,
+    final DatabaseMigrationListenerType listener)
+    throws DatabaseException
+  {
+    Objects.requireNonNull(connection, "connection");
+    Objects.requireNonNull(step, "step");
+    Objects.requireNonNull(listener, "listener");
+
+    final var partition = this.partitionName();
+    Preconditions.checkPrecondition(
+      step,
+      Objects.equals(step.partition(), partition),
+      s -> String.format("Step for partition %s must belong to partition %s", s.partition(), partition));
+    Preconditions.checkPreconditionI(
+      batchSize,
+      batchSize >= 1,
+      b -> "Batch size must be positive");
+
+    final var logger = this.logger();
+    final var version = step.version();
+    final var statements = step.statements();
+    final var statementTotal = statements.size();
+
+    /*
+     * The migration history records the real time of each batch. The provider's clock is the
+     * clock observed by queries, and need not be a wall clock.
+     */
+
+    final var wallClock = Clock.systemUTC();
+
+    try {
+      for (int index = 0; index < statementTotal; index += batchSize) {
+        final var count = Math.min(batchSize, statementTotal - index);
+        final var timeStarted = OffsetDateTime.now(wallClock);
+        final var timeThen = System.nanoTime();
+        DatabaseMigrationStatements.execute(connection, statements.subList(index, index + count));
+        final var duration = Duration.ofNanos(System.nanoTime() - timeThen);
+
+        logger.debug(
+          "[{}]: migration {} statements [{}, {}) took {}",
+          partition,
+          version,
+          Integer.valueOf(index),
+          Integer.valueOf(index + count),
+          duration);
+
+        listener.onMigrationStatementsExecuted(
+          connection,
+          DatabaseMigrationRecord.builder()
+            .setPartition(partition)
+            .setVersion(version)
+            .setStatementIndex(index)
+            .setStatementCount(count)
+            .setTimeStarted(timeStarted)
+            .setDuration(duration)
+            .build());
+      }
+    } catch (final SQLException e) {
+      throw new DatabaseException(SEVERITY_ERROR, e.getLocalizedMessage(), e);
+    }
+  }
+
   @Override
   public final void upgradePartitionToLatest(
     final Connection connection)
@@ -179,32 +302,29 @@ public abstract class DatabasePartitionProviderAbstract implements DatabaseParti
   {
     Objects.requireNonNull(connection, "connection");
 
-    if (!this.isUpgradeRequired(connection)) {
+    final var plan = this.migrationPlan(connection);
+    final var steps = plan.steps();
+    if (steps.isEmpty()) {
       return;
     }
 
     final var logger = this.logger();
-    final var availableVersions = this.schemaRevisions();
-    final var upgradesToRun = this.checkUpgradesToRun(connection);
     logger.debug(
       "[{}]: {} upgrades required",
       this.partitionName(),
-      Integer.valueOf(upgradesToRun.size()));
+      Integer.valueOf(steps.size()));
 
     try {
-      if (!upgradesToRun.isEmpty()) {
-        for (final var upgradeVersion : upgradesToRun) {
-          logger.debug("[{}]: running schema migration {}", this.partitionName(), upgradeVersion);
-          final var revision = availableVersions.get(upgradeVersion);
-          revision.schemaMigrate(connection);
-          this.installedSchemaVersion = Optional.of(upgradeVersion);
-          this.installedSchemaVersionRetrieved = true;
-        }
-        logger.debug("[{}]: committing upgrades", this.partitionName());
-        connection.commit();
-      } else {
-        connection.rollback();
+      for (final var step : steps) {
+        logger.debug("[{}]: running schema migration {}", this.partitionName(), step.version());
+        this.migrationStepExecute(
+          connection,
+          step,
+          Math.max(1, step.statements().size()),
+          (c, r) -> { });
       }
+      logger.debug("[{}]: committing upgrades", this.partitionName());
+      connection.commit();
     } catch (final SQLException e) {
       throw new DatabaseException(SEVERITY_ERROR, e.getLocalizedMessage(), e);
     }
@@ -239,4 +359,10 @@ public abstract class DatabasePartitionProviderAbstract implements DatabaseParti
   {
     return this.queryConstructors.has(queriesClass);
   }
+
+  @Override
+  public final Set<Class<? extends DatabaseQueriesType>> queriesSupportedClasses()
+  {
+    return this.queryConstructors.queryClasses();
+  }
 }
@@ -20,8 +20,10 @@ import io.reactivex.rxjava3.subjects.Subject;
 
 import java.math.BigInteger;
 import java.sql.Connection;
+import java.util.List;
 import java.util.NavigableMap;
 import java.util.Optional;
+import java.util.Set;
 
 /**
  * An implementation of a database partition.
@@ -50,6 +52,12 @@ public interface DatabasePartitionProviderType
   NavigableMap<BigInteger, DatabaseSchemaRevisionType> schemaRevisions()
     throws DatabaseException;
 
+  /**
+   * @return The data migrations of the partition, in the order in which they must run
+   */
+
+  List<DatabaseDataMigrationType> dataMigrations();
+
   /**
    * @return The SQL dialect with which this partition provider is compatible
    */
@@ -87,7 +95,48 @@ public interface DatabasePartitionProviderType
   boolean queriesSupported(Class<P> queriesClass);
 
   /**
-   * Upgrade the partition to the latest supported schema.
+   * @return The complete set of queries classes supported by this provider
+   */
+
+  Set<Class<? extends DatabaseQueriesType>> queriesSupportedClasses();
+
+  /**
+   * Plan the migrations required to upgrade the partition to the latest supported schema. The
+   * database is not modified.
+   *
+   * @param connection The database connection
+   *
+   * @return A migration plan
+   *
+   * @throws DatabaseException On database errors
+   */
+
+  DatabaseMigrationPlan migrationPlan(
+    Connection connection)
+    throws DatabaseException;
+
+  /**
+   * Execute a single step of a migration plan. The statements of the step are executed in
+   * batches of at most {@code batchSize} statements, and the listener is called after each batch.
+   * The transaction is neither committed nor rolled back.
+   *
+   * @param connection The database connection
+   * @param step       A step of a plan returned by {@link #migrationPlan(Connection)}
+   * @param batchSize  The maximum number of statements submitted in each batch
+   * @param listener   A listener that receives a record of each batch
+   *
+   * @throws DatabaseException On database errors
+   */
+
+  void migrationStepExecute(
+    Connection connection,
+    DatabaseMigrationStep step,
+    int batchSize,
+    DatabaseMigrationListenerType listener)
+    throws DatabaseException;
+
+  /**
+   * Upgrade the partition to the latest supported schema in a single transaction.
    *
    * @param connection The database connection
    *
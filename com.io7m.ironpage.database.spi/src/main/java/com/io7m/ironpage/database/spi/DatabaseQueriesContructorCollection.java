@@ -21,6 +21,7 @@ import com.io7m.jaffirm.core.Preconditions;
 
 import java.util.HashMap;
 import java.util.Objects;
+import java.util.Set;
 
 public final class DatabaseQueriesContructorCollection
 {
@@ -63,6 +64,15 @@ public final class DatabaseQueriesContructorCollection
     return (DatabaseQueriesConstructorType<T>) this.constructors.get(queryClass);
   }
 
+  /**
+   * @return The set of query classes for which constructors have been registered
+   */
+
+  public Set<Class<? extends DatabaseQueriesType>> queryClasses()
+  {
+    return Set.copyOf(this.constructors.keySet());
+  }
+
   public <T extends DatabaseQueriesType> boolean has(
     final Class<T> queryClass)
   {
@@ -19,6 +19,7 @@ package com.io7m.ironpage.database.spi;
 
 import java.math.BigInteger;
 import java.sql.Connection;
+import java.util.List;
 import java.util.Optional;
 
 /**
@@ -40,7 +41,13 @@ public interface DatabaseSchemaRevisionType
   BigInteger schemaCurrent();
 
   /**
-   * Perform a schema upgrade.
+   * @return The statements that perform the schema upgrade, in order
+   */
+
+  List<String> statements();
+
+  /**
+   * Perform a schema upgrade by executing {@link #statements()} as a single batch.
    *
    * @param connection The connection that will be used
    *
@@ -82,7 +82,7 @@ public final class DatabaseSchemaRevisionXML implements DatabaseSchemaRevisionTy
     this.schemaCurrent =
       Objects.requireNonNull(inSchemaCurrent, "schemaCurrent");
     this.statements =
-      Objects.requireNonNull(inStatements, "statements");
+      List.copyOf(Objects.requireNonNull(inStatements, "statements"));
   }
 
   /**
@@ -149,6 +149,12 @@ public final class DatabaseSchemaRevisionXML implements DatabaseSchemaRevisionTy
     return this.schemaCurrent;
   }
 
+  @Override
+  public List<String> statements()
+  {
+    return this.statements;
+  }
+
   @Override
   public void schemaMigrate(
     final Connection connection)
@@ -161,13 +167,8 @@ public final class DatabaseSchemaRevisionXML implements DatabaseSchemaRevisionTy
         !connection.getAutoCommit(),
         "Auto-commit must be disabled");
 
-      for (final var statement : this.statements) {
-        final var trimmed = statement.trim();
-        LOG.trace("statement: {}", trimmed);
-
-        try (var prepped = connection.prepareStatement(trimmed)) {
-          prepped.execute();
-        }
+      if (!this.statements.isEmpty()) {
+        DatabaseMigrationStatements.execute(connection, this.statements);
       }
     } catch (final SQLException e) {
       throw new DatabaseException(SEVERITY_ERROR, e.getLocalizedMessage(), e);
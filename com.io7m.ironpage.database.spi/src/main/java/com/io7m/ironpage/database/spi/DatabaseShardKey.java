@@ -0,0 +1,55 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironpage.database.spi;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * An annotation that indicates that a parameter of a queries method determines the shard on
+ * which the method is executed, when the database is divided into shards. Calls that are given
+ * equal keys are always executed on the same shard.
+ *
+ * The annotated parameter must be one of:
+ *
+ * <ul>
+ *   <li>A {@link java.util.UUID}</li>
+ *   <li>A {@code byte[]} array of content, routed by its SHA-256 digest</li>
+ *   <li>A {@link String} holding a hex-encoded SHA-256 digest</li>
+ *   <li>A {@link java.io.InputStream} of content, routed by its SHA-256 digest</li>
+ *   <li>A {@link java.util.Collection} of any of the above, if the method returns a
+ *   {@link java.util.Map}; the method is executed on each shard selected by an element of the
+ *   collection, given only those elements, and the returned maps are merged</li>
+ * </ul>
+ *
+ * Content and the hex-encoded digest of that content are routed to the same shard, so content
+ * stored under its digest can be found again by digest.
+ *
+ * Methods that have no annotated parameter and are not annotated with
+ * {@link DatabaseShardReplicated} are executed on the first shard.
+ */
+
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.PARAMETER)
+public @interface DatabaseShardKey
+{
+
+}
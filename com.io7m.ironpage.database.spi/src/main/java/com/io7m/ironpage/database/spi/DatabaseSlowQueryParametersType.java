@@ -0,0 +1,70 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironpage.database.spi;
+
+import com.io7m.immutables.styles.ImmutablesStyleType;
+import com.io7m.jaffirm.core.Preconditions;
+import org.immutables.value.Value;
+
+import java.time.Duration;
+
+/**
+ * Parameters for the slow query logs kept by partition providers.
+ */
+
+@Value.Immutable
+@ImmutablesStyleType
+public interface DatabaseSlowQueryParametersType
+{
+  /**
+   * @return The time above which a statement is logged as slow
+   */
+
+  @Value.Default
+  default Duration threshold()
+  {
+    return Duration.ofMillis(250L);
+  }
+
+  /**
+   * Capturing query plans requires the database to collect statistics for every statement, and
+   * so should only be enabled while diagnosing performance problems.
+   *
+   * @return {@code true} if the execution plan of each slow statement should be logged
+   */
+
+  @Value.Default
+  default boolean capturePlans()
+  {
+    return false;
+  }
+
+  /**
+   * Check preconditions for the type.
+   */
+
+  @Value.Check
+  default void checkPreconditions()
+  {
+    final var threshold = this.threshold();
+
+    Preconditions.checkPrecondition(
+      threshold,
+      !threshold.isNegative(),
+      d -> "Threshold must be non-negative");
+  }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.ironpage.database.spi;
+
+/**
+ * The type of queries that hold work, outside of the database, that must only be completed once
+ * the transaction in which the queries ran has committed. Queries that implement this interface
+ * are told when the transaction on their connection commits or rolls back, and when savepoints
+ * are set and rolled back to, so that work done after a savepoint can be discarded along with the
+ * changes made to the database.
+ *
+ * Listeners are called after the database has committed or rolled back, and cannot affect the
+ * outcome of the transaction; errors are expected to be handled and logged by the listener.
+ */
+
+public interface DatabaseTransactionListenerType
+{
+  /**
+   * The transaction committed.
+   */
+
+  void onTransactionCommitted();
+
+  /**
+   * The transaction rolled back, or the connection was closed without committing.
+   */
+
+  void onTransactionRolledBack();
+
+  /**
+   * A savepoint was set.
+   *
+   * @return A mark that identifies the work that the listener held at the savepoint
+   */
+
+  long onTransactionSavepoint();
+
+  /**
+   * The transaction rolled back to a savepoint. Any work held since the savepoint was set should
+   * be discarded.
+   *
+   * @param mark The mark returned by {@link #onTransactionSavepoint()} for the savepoint, or
+   *             {@code 0} if the listener did not exist when the savepoint was set
+   */
+
+  void onTransactionRolledBackToSavepoint(long mark);
+}
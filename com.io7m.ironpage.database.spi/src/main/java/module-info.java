@@ -20,6 +20,8 @@
 
 module com.io7m.ironpage.database.spi
 {
+  requires static com.io7m.immutables.style;
+  requires static org.immutables.value;
   requires static org.osgi.annotation.bundle;
 
   requires transitive com.io7m.ironpage.events.api;
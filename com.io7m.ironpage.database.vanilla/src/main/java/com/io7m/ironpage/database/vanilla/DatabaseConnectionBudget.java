@@ -0,0 +1,133 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironpage.database.vanilla;
+
+import com.io7m.ironpage.database.api.DatabaseConnectionBudgetType;
+import com.io7m.ironpage.database.api.DatabaseConnectionReclaimerType;
+import com.io7m.jaffirm.core.Preconditions;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A limit on the number of physical connections that may be open at any one time, shared by
+ * every connection pool that refers to it. This allows many databases to be open at once (for
+ * example, one per tenant) without the total number of connections growing with the number of
+ * databases.
+ *
+ * A pool that has reached its own maximum size waits for one of its own connections. A pool
+ * that is below its maximum size but cannot obtain a permit from the budget waits, for at most
+ * the same acquisition timeout, for a connection to be closed by any pool sharing the budget.
+ * Before waiting, the pool asks the other pools sharing the budget to close one of their idle
+ * connections, so that connections held idle by pools that are no longer being used (such as
+ * the databases of idle tenants) do not starve the pools that are.
+ *
+ * @see com.io7m.ironpage.database.api.DatabaseConnectionPoolParametersType#budget()
+ */
+
+public final class DatabaseConnectionBudget implements DatabaseConnectionBudgetType
+{
+  private final Semaphore permits;
+  private final CopyOnWriteArrayList<DatabaseConnectionReclaimerType> reclaimers;
+  private final int size;
+
+  private DatabaseConnectionBudget(
+    final int inSize)
+  {
+    this.size = inSize;
+    this.permits = new Semaphore(inSize, true);
+    this.reclaimers = new CopyOnWriteArrayList<>();
+  }
+
+  /**
+   * Create a new budget.
+   *
+   * @param size The maximum number of connections
+   *
+   * @return A new budget
+   */
+
+  public static DatabaseConnectionBudget create(
+    final int size)
+  {
+    Preconditions.checkPreconditionI(
+      size,
+      size >= 1,
+      s -> "Budget size must be positive");
+    return new DatabaseConnectionBudget(size);
+  }
+
+  @Override
+  public int size()
+  {
+    return this.size;
+  }
+
+  @Override
+  public int available()
+  {
+    return this.permits.availablePermits();
+  }
+
+  @Override
+  public boolean acquire(
+    final Duration timeout)
+    throws InterruptedException
+  {
+    Objects.requireNonNull(timeout, "timeout");
+
+    if (this.permits.tryAcquire(0L, TimeUnit.NANOSECONDS)) {
+      return true;
+    }
+
+    for (final var reclaimer : this.reclaimers) {
+      if (reclaimer.reclaimIdleConnection()) {
+        break;
+      }
+    }
+    return this.permits.tryAcquire(Math.max(0L, timeout.toNanos()), TimeUnit.NANOSECONDS);
+  }
+
+  @Override
+  public boolean tryAcquire()
+  {
+    return this.permits.tryAcquire();
+  }
+
+  @Override
+  public void release()
+  {
+    this.permits.release();
+  }
+
+  @Override
+  public void register(
+    final DatabaseConnectionReclaimerType reclaimer)
+  {
+    this.reclaimers.addIfAbsent(Objects.requireNonNull(reclaimer, "reclaimer"));
+  }
+
+  @Override
+  public void unregister(
+    final DatabaseConnectionReclaimerType reclaimer)
+  {
+    this.reclaimers.remove(Objects.requireNonNull(reclaimer, "reclaimer"));
+  }
+}
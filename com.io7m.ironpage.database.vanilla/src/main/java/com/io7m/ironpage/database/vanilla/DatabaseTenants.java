@@ -0,0 +1,341 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironpage.database.vanilla;
+
+import com.io7m.ironpage.database.api.DatabaseParameters;
+import com.io7m.ironpage.database.api.DatabaseProviderType;
+import com.io7m.ironpage.database.api.DatabaseTenantLeaseType;
+import com.io7m.ironpage.database.api.DatabaseType;
+import com.io7m.ironpage.database.spi.DatabaseException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * A set of tenant databases, each opened on demand by a single database provider.
+ *
+ * Each tenant database is opened when it is first used and is kept open for later use. When
+ * more than {@link DatabaseTenantsParametersType#maximumOpen()} databases are open, the least
+ * recently used databases that are not leased are closed. Opening a tenant whose database is
+ * being closed waits for the close to complete, so that a database is never open twice.
+ *
+ * Tenant databases typically share a {@link DatabaseConnectionBudget} so that the total number
+ * of connections is bounded regardless of the number of tenants.
+ */
+
+public final class DatabaseTenants implements Closeable
+{
+  private final DatabaseProviderType provider;
+  private final Function<String, DatabaseParameters> parameters;
+  private final DatabaseTenantsParameters configuration;
+  private final Object lock;
+  private final LinkedHashMap<String, Tenant> open;
+  private final Map<String, Tenant> closing;
+  private boolean closed;
+
+  private DatabaseTenants(
+    final DatabaseProviderType inProvider,
+    final Function<String, DatabaseParameters> inParameters,
+    final DatabaseTenantsParameters inConfiguration)
+  {
+    this.provider =
+      Objects.requireNonNull(inProvider, "inProvider");
+    this.parameters =
+      Objects.requireNonNull(inParameters, "inParameters");
+    this.configuration =
+      Objects.requireNonNull(inConfiguration, "inConfiguration");
+
+    this.lock = new Object();
+    this.open = new LinkedHashMap<>(16, 0.75f, true);
+    this.closing = new HashMap<>(16);
+  }
+
+  /**
+   * Create a new set of tenant databases.
+   *
+   * @param provider      The provider used to open databases
+   * @param parameters    A function that returns the parameters used to open each tenant's
+   *                      database
+   * @param configuration The tenant parameters
+   *
+   * @return A new set of tenant databases
+   */
+
+  public static DatabaseTenants create(
+    final DatabaseProviderType provider,
+    final Function<String, DatabaseParameters> parameters,
+    final DatabaseTenantsParameters configuration)
+  {
+    return new DatabaseTenants(provider, parameters, configuration);
+  }
+
+  /**
+   * Lease the database for a tenant, opening the database if necessary.
+   *
+   * @param tenant The tenant
+   *
+   * @return A lease on the tenant's database
+   *
+   * @throws DatabaseException On errors
+   */
+
+  public DatabaseTenantLeaseType open(
+    final String tenant)
+    throws DatabaseException
+  {
+    Objects.requireNonNull(tenant, "tenant");
+
+    final Tenant entry;
+    synchronized (this.lock) {
+      if (this.closed) {
+        throw new IllegalStateException(
+          String.format("Cannot open tenant %s: the tenant databases have been closed", tenant));
+      }
+
+      final var existing = this.open.get(tenant);
+      if (existing != null) {
+        entry = existing;
+      } else {
+        entry = new Tenant(tenant, this.closing.get(tenant));
+        this.open.put(tenant, entry);
+      }
+      entry.lease();
+    }
+
+    /*
+     * Idle tenants are closed before the new database is opened, so that the connections they
+     * hold are returned to any shared connection budget first.
+     */
+
+    this.evict();
+
+    final DatabaseType database;
+    try {
+      database = entry.database(this.provider, this.parameters);
+    } catch (final DatabaseException | RuntimeException e) {
+      this.release(entry);
+      throw e;
+    }
+    return new Lease(this, entry, database);
+  }
+
+  /**
+   * @return The number of tenant databases currently open
+   */
+
+  public int openCount()
+  {
+    synchronized (this.lock) {
+      return this.open.size();
+    }
+  }
+
+  private void release(
+    final Tenant entry)
+  {
+    synchronized (this.lock) {
+      entry.unlease();
+
+      /*
+       * A tenant that failed to open is forgotten once nobody is waiting for it, so that the
+       * next attempt opens it again.
+       */
+
+      if (entry.leases() == 0 && !entry.isOpen()) {
+        this.open.remove(entry.name(), entry);
+      }
+    }
+    this.evict();
+  }
+
+  private void evict()
+  {
+    final var evicted = new ArrayList<Tenant>();
+    synchronized (this.lock) {
+      var excess = this.open.size() - this.configuration.maximumOpen();
+      final var iterator = this.open.values().iterator();
+      while (excess > 0 && iterator.hasNext()) {
+        final var entry = iterator.next();
+        if (entry.leases() == 0) {
+          iterator.remove();
+          this.closing.put(entry.name(), entry);
+          evicted.add(entry);
+          --excess;
+        }
+      }
+    }
+
+    this.closeAll(evicted);
+  }
+
+  private void closeAll(
+    final List<Tenant> entries)
+  {
+    for (final var entry : entries) {
+      try {
+        entry.close();
+      } finally {
+        synchronized (this.lock) {
+          this.closing.remove(entry.name(), entry);
+        }
+      }
+    }
+  }
+
+  /**
+   * Close every tenant database. Databases that are leased are closed regardless.
+   */
+
+  @Override
+  public void close()
+    throws IOException
+  {
+    final List<Tenant> entries;
+    synchronized (this.lock) {
+      if (this.closed) {
+        return;
+      }
+      this.closed = true;
+      entries = new ArrayList<>(this.open.values());
+      for (final var entry : entries) {
+        this.closing.put(entry.name(), entry);
+      }
+      this.open.clear();
+    }
+
+    this.closeAll(entries);
+  }
+
+  private static final class Tenant
+  {
+    private final String name;
+    private final Tenant previous;
+    private final CompletableFuture<Void> closed;
+    private volatile DatabaseType database;
+    private int leases;
+
+    Tenant(
+      final String inName,
+      final Tenant inPrevious)
+    {
+      this.name = Objects.requireNonNull(inName, "inName");
+      this.previous = inPrevious;
+      this.closed = new CompletableFuture<>();
+    }
+
+    String name()
+    {
+      return this.name;
+    }
+
+    int leases()
+    {
+      return this.leases;
+    }
+
+    void lease()
+    {
+      ++this.leases;
+    }
+
+    void unlease()
+    {
+      --this.leases;
+    }
+
+    boolean isOpen()
+    {
+      return this.database != null;
+    }
+
+    synchronized DatabaseType database(
+      final DatabaseProviderType provider,
+      final Function<String, DatabaseParameters> parameters)
+      throws DatabaseException
+    {
+      if (this.database == null) {
+        if (this.previous != null) {
+          this.previous.closed.join();
+        }
+        this.database = provider.open(parameters.apply(this.name));
+      }
+      return this.database;
+    }
+
+    synchronized void close()
+    {
+      try {
+        if (this.database != null) {
+          this.database.close();
+        }
+      } catch (final IOException e) {
+        // The database implementations do not raise exceptions on close
+      } finally {
+        this.database = null;
+        this.closed.complete(null);
+      }
+    }
+  }
+
+  private static final class Lease implements DatabaseTenantLeaseType
+  {
+    private final DatabaseTenants tenants;
+    private final Tenant entry;
+    private final DatabaseType database;
+    private final AtomicBoolean released;
+
+    Lease(
+      final DatabaseTenants inTenants,
+      final Tenant inEntry,
+      final DatabaseType inDatabase)
+    {
+      this.tenants = Objects.requireNonNull(inTenants, "inTenants");
+      this.entry = Objects.requireNonNull(inEntry, "inEntry");
+      this.database = Objects.requireNonNull(inDatabase, "inDatabase");
+      this.released = new AtomicBoolean(false);
+    }
+
+    @Override
+    public String tenant()
+    {
+      return this.entry.name();
+    }
+
+    @Override
+    public DatabaseType database()
+    {
+      return this.database;
+    }
+
+    @Override
+    public void close()
+    {
+      if (this.released.compareAndSet(false, true)) {
+        this.tenants.release(this.entry);
+      }
+    }
+  }
+}
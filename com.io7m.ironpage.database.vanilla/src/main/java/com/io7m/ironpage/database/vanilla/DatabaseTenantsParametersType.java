@@ -0,0 +1,62 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironpage.database.vanilla;
+
+import com.io7m.immutables.styles.ImmutablesStyleType;
+import com.io7m.jaffirm.core.Preconditions;
+import org.immutables.value.Value;
+
+/**
+ * Parameters for a set of tenant databases.
+ *
+ * @see DatabaseTenants
+ */
+
+@Value.Immutable
+@ImmutablesStyleType
+public interface DatabaseTenantsParametersType
+{
+  /**
+   * The number of tenant databases that may be open at once. When a tenant is opened and more
+   * than this number of databases are open, the least recently used databases that are not in
+   * use are closed. Databases that are in use are never closed, so the limit may be exceeded
+   * for as long as more tenants than this are in use at once.
+   *
+   * @return The number of databases that may be open at once
+   */
+
+  @Value.Default
+  default int maximumOpen()
+  {
+    return 64;
+  }
+
+  /**
+   * Check preconditions for the type.
+   */
+
+  @Value.Check
+  default void checkPreconditions()
+  {
+    final var maximum = this.maximumOpen();
+
+    Preconditions.checkPreconditionI(
+      maximum,
+      maximum >= 1,
+      m -> "Maximum open tenant count must be positive");
+  }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironpage.metrics.api;
+
+import com.io7m.immutables.styles.ImmutablesStyleType;
+import org.immutables.value.Value;
+
+import java.util.SortedMap;
+
+/**
+ * A snapshot of the values recorded by a histogram.
+ */
+
+@Value.Immutable
+@ImmutablesStyleType
+public interface MetricsHistogramSnapshotType
+{
+  /**
+   * @return The number of recorded values
+   */
+
+  long count();
+
+  /**
+   * @return The sum of the recorded values
+   */
+
+  long sum();
+
+  /**
+   * @return The largest recorded value
+   */
+
+  long maximum();
+
+  /**
+   * @return The number of recorded values in each non-empty bucket, keyed by the inclusive upper
+   * bound of the bucket
+   */
+
+  @Value.NaturalOrder
+  SortedMap<Long, Long> buckets();
+}
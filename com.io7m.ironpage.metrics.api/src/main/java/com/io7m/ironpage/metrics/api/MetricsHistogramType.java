@@ -0,0 +1,45 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironpage.metrics.api;
+
+/**
+ * A histogram that records the distribution of non-negative values. Histograms that record
+ * durations record them in nanoseconds.
+ */
+
+public interface MetricsHistogramType
+{
+  /**
+   * Record a value.
+   *
+   * @param value The non-negative value
+   */
+
+  void record(long value);
+
+  /**
+   * Record the time elapsed since the given time.
+   *
+   * @param timeStart A time previously returned by {@link System#nanoTime()}
+   */
+
+  default void recordSince(
+    final long timeStart)
+  {
+    this.record(Math.max(0L, System.nanoTime() - timeStart));
+  }
+}
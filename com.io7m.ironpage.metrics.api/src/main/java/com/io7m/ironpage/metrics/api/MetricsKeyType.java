@@ -0,0 +1,47 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironpage.metrics.api;
+
+import com.io7m.immutables.styles.ImmutablesStyleType;
+import org.immutables.value.Value;
+
+import java.util.SortedMap;
+
+/**
+ * The unique identifier of a metric: a name and a set of labels that distinguish metrics of
+ * the same name, such as the name of the method being measured.
+ */
+
+@Value.Immutable
+@ImmutablesStyleType
+public interface MetricsKeyType
+{
+  /**
+   * @return The metric name, such as {@code ironpage.database.transaction.commit}
+   */
+
+  @Value.Parameter
+  String name();
+
+  /**
+   * @return The metric labels
+   */
+
+  @Value.Parameter
+  @Value.NaturalOrder
+  SortedMap<String, String> labels();
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironpage.metrics.api;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.LongSupplier;
+
+/**
+ * A registry that discards all metrics. This is the registry used when no other registry is
+ * configured, and costs nothing beyond a virtual call per update.
+ */
+
+public final class MetricsRegistryNoOp implements MetricsRegistryType
+{
+  private static final MetricsRegistryNoOp INSTANCE = new MetricsRegistryNoOp();
+
+  private static final MetricsCounterType COUNTER = amount -> {
+  };
+
+  private static final MetricsHistogramType HISTOGRAM = value -> {
+  };
+
+  private MetricsRegistryNoOp()
+  {
+
+  }
+
+  /**
+   * @return The registry
+   */
+
+  public static MetricsRegistryType get()
+  {
+    return INSTANCE;
+  }
+
+  @Override
+  public MetricsCounterType counter(
+    final String name,
+    final Map<String, String> labels)
+  {
+    Objects.requireNonNull(name, "name");
+    Objects.requireNonNull(labels, "labels");
+    return COUNTER;
+  }
+
+  @Override
+  public MetricsHistogramType histogram(
+    final String name,
+    final Map<String, String> labels)
+  {
+    Objects.requireNonNull(name, "name");
+    Objects.requireNonNull(labels, "labels");
+    return HISTOGRAM;
+  }
+
+  @Override
+  public void gauge(
+    final String name,
+    final Map<String, String> labels,
+    final LongSupplier supplier)
+  {
+    Objects.requireNonNull(name, "name");
+    Objects.requireNonNull(labels, "labels");
+    Objects.requireNonNull(supplier, "supplier");
+  }
+
+  @Override
+  public MetricsSnapshot snapshot()
+  {
+    return MetricsSnapshot.builder()
+      .setTime(Instant.now())
+      .build();
+  }
+
+  @Override
+  public String toString()
+  {
+    return "[MetricsRegistryNoOp]";
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironpage.metrics.api;
+
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * A registry of metrics. Requesting a metric with the same name and labels more than once
+ * returns the same metric. Implementations are required to be safe for use from multiple
+ * threads, and metrics are expected to be cheap enough to update on every database operation.
+ */
+
+public interface MetricsRegistryType
+{
+  /**
+   * Find or create a counter.
+   *
+   * @param name   The metric name
+   * @param labels The metric labels
+   *
+   * @return A counter
+   */
+
+  MetricsCounterType counter(
+    String name,
+    Map<String, String> labels);
+
+  /**
+   * Find or create a histogram.
+   *
+   * @param name   The metric name
+   * @param labels The metric labels
+   *
+   * @return A histogram
+   */
+
+  MetricsHistogramType histogram(
+    String name,
+    Map<String, String> labels);
+
+  /**
+   * Register a gauge. The supplier is evaluated each time a snapshot is taken, and replaces any
+   * supplier previously registered with the same name and labels.
+   *
+   * @param name     The metric name
+   * @param labels   The metric labels
+   * @param supplier The supplier of gauge values
+   */
+
+  void gauge(
+    String name,
+    Map<String, String> labels,
+    LongSupplier supplier);
+
+  /**
+   * @return A snapshot of the current values of all metrics
+   */
+
+  MetricsSnapshot snapshot();
+}
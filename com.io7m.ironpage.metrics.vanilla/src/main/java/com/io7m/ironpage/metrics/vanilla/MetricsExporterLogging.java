@@ -0,0 +1,94 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironpage.metrics.vanilla;
+
+import com.io7m.ironpage.metrics.api.MetricsExporterType;
+import com.io7m.ironpage.metrics.api.MetricsKey;
+import com.io7m.ironpage.metrics.api.MetricsSnapshot;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * An exporter that writes each metric to the log, one line per metric.
+ */
+
+public final class MetricsExporterLogging implements MetricsExporterType
+{
+  private static final Logger LOG = LoggerFactory.getLogger(MetricsExporterLogging.class);
+
+  private static final Comparator<Map.Entry<MetricsKey, ?>> BY_KEY =
+    Comparator.comparing(
+      (Map.Entry<MetricsKey, ?> e) -> e.getKey().name())
+      .thenComparing(e -> e.getKey().labels().toString());
+
+  /**
+   * Construct an exporter.
+   */
+
+  public MetricsExporterLogging()
+  {
+
+  }
+
+  private static String format(
+    final MetricsKey key)
+  {
+    if (key.labels().isEmpty()) {
+      return key.name();
+    }
+    return key.name() + key.labels();
+  }
+
+  @Override
+  public void export(
+    final MetricsSnapshot snapshot)
+  {
+    Objects.requireNonNull(snapshot, "snapshot");
+
+    if (!LOG.isInfoEnabled()) {
+      return;
+    }
+
+    snapshot.counters()
+      .entrySet()
+      .stream()
+      .sorted(BY_KEY)
+      .forEach(e -> LOG.info("counter {} {}", format(e.getKey()), e.getValue()));
+    snapshot.gauges()
+      .entrySet()
+      .stream()
+      .sorted(BY_KEY)
+      .forEach(e -> LOG.info("gauge {} {}", format(e.getKey()), e.getValue()));
+    snapshot.histograms()
+      .entrySet()
+      .stream()
+      .sorted(BY_KEY)
+      .forEach(e -> {
+        final var histogram = e.getValue();
+        LOG.info(
+          "histogram {} count {} sum {} maximum {}",
+          format(e.getKey()),
+          Long.valueOf(histogram.count()),
+          Long.valueOf(histogram.sum()),
+          Long.valueOf(histogram.maximum()));
+      });
+  }
+}
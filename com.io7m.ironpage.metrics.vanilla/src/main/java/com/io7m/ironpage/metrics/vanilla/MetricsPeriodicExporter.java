@@ -0,0 +1,99 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironpage.metrics.vanilla;
+
+import com.io7m.ironpage.metrics.api.MetricsExporterType;
+import com.io7m.ironpage.metrics.api.MetricsRegistryType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A task that periodically passes snapshots of a registry to an exporter. A final snapshot is
+ * exported when the task is closed.
+ */
+
+public final class MetricsPeriodicExporter implements Closeable
+{
+  private static final Logger LOG = LoggerFactory.getLogger(MetricsPeriodicExporter.class);
+
+  private final MetricsRegistryType registry;
+  private final MetricsExporterType exporter;
+  private final ScheduledExecutorService executor;
+
+  private MetricsPeriodicExporter(
+    final MetricsRegistryType inRegistry,
+    final MetricsExporterType inExporter,
+    final ScheduledExecutorService inExecutor)
+  {
+    this.registry = Objects.requireNonNull(inRegistry, "registry");
+    this.exporter = Objects.requireNonNull(inExporter, "exporter");
+    this.executor = Objects.requireNonNull(inExecutor, "executor");
+  }
+
+  /**
+   * Start exporting snapshots.
+   *
+   * @param registry The registry
+   * @param exporter The exporter
+   * @param interval The interval between snapshots
+   *
+   * @return A running export task
+   */
+
+  public static MetricsPeriodicExporter start(
+    final MetricsRegistryType registry,
+    final MetricsExporterType exporter,
+    final Duration interval)
+  {
+    Objects.requireNonNull(interval, "interval");
+
+    final var executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      final var thread = new Thread(runnable);
+      thread.setName("com.io7m.ironpage.metrics.vanilla.exporter[" + thread.getId() + "]");
+      thread.setDaemon(true);
+      return thread;
+    });
+
+    final var task = new MetricsPeriodicExporter(registry, exporter, executor);
+    final var nanos = interval.toNanos();
+    executor.scheduleAtFixedRate(task::export, nanos, nanos, TimeUnit.NANOSECONDS);
+    return task;
+  }
+
+  private void export()
+  {
+    try {
+      this.exporter.export(this.registry.snapshot());
+    } catch (final Exception e) {
+      LOG.error("exporter raised an exception: ", e);
+    }
+  }
+
+  @Override
+  public void close()
+  {
+    this.executor.shutdownNow();
+    this.export();
+  }
+}
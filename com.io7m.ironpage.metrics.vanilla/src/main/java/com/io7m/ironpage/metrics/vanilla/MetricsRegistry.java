@@ -0,0 +1,209 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironpage.metrics.vanilla;
+
+import com.io7m.ironpage.metrics.api.MetricsCounterType;
+import com.io7m.ironpage.metrics.api.MetricsHistogramSnapshot;
+import com.io7m.ironpage.metrics.api.MetricsHistogramType;
+import com.io7m.ironpage.metrics.api.MetricsKey;
+import com.io7m.ironpage.metrics.api.MetricsRegistryType;
+import com.io7m.ironpage.metrics.api.MetricsSnapshot;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * A registry that keeps metrics in memory. Histograms use buckets whose bounds are powers of
+ * two, so recording a value costs a handful of atomic additions regardless of the range of
+ * recorded values.
+ */
+
+public final class MetricsRegistry implements MetricsRegistryType
+{
+  private static final Logger LOG = LoggerFactory.getLogger(MetricsRegistry.class);
+
+  private final ConcurrentHashMap<MetricsKey, Counter> counters;
+  private final ConcurrentHashMap<MetricsKey, Histogram> histograms;
+  private final ConcurrentHashMap<MetricsKey, LongSupplier> gauges;
+
+  private MetricsRegistry()
+  {
+    this.counters = new ConcurrentHashMap<>(64);
+    this.histograms = new ConcurrentHashMap<>(64);
+    this.gauges = new ConcurrentHashMap<>(16);
+  }
+
+  /**
+   * Create a new registry.
+   *
+   * @return A new registry
+   */
+
+  public static MetricsRegistry create()
+  {
+    return new MetricsRegistry();
+  }
+
+  private static MetricsKey key(
+    final String name,
+    final Map<String, String> labels)
+  {
+    return MetricsKey.builder()
+      .setName(Objects.requireNonNull(name, "name"))
+      .putAllLabels(Objects.requireNonNull(labels, "labels"))
+      .build();
+  }
+
+  @Override
+  public MetricsCounterType counter(
+    final String name,
+    final Map<String, String> labels)
+  {
+    return this.counters.computeIfAbsent(key(name, labels), k -> new Counter());
+  }
+
+  @Override
+  public MetricsHistogramType histogram(
+    final String name,
+    final Map<String, String> labels)
+  {
+    return this.histograms.computeIfAbsent(key(name, labels), k -> new Histogram());
+  }
+
+  @Override
+  public void gauge(
+    final String name,
+    final Map<String, String> labels,
+    final LongSupplier supplier)
+  {
+    this.gauges.put(key(name, labels), Objects.requireNonNull(supplier, "supplier"));
+  }
+
+  @Override
+  public MetricsSnapshot snapshot()
+  {
+    final var builder = MetricsSnapshot.builder();
+    builder.setTime(Instant.now());
+
+    for (final var entry : this.counters.entrySet()) {
+      builder.putCounters(entry.getKey(), entry.getValue().value.sum());
+    }
+    for (final var entry : this.histograms.entrySet()) {
+      builder.putHistograms(entry.getKey(), entry.getValue().snapshot());
+    }
+    for (final var entry : this.gauges.entrySet()) {
+      try {
+        builder.putGauges(entry.getKey(), entry.getValue().getAsLong());
+      } catch (final Exception e) {
+        LOG.error("gauge {} raised an exception: ", entry.getKey(), e);
+      }
+    }
+    return builder.build();
+  }
+
+  @Override
+  public String toString()
+  {
+    return String.format(
+      "[MetricsRegistry 0x%s]",
+      Integer.toUnsignedString(System.identityHashCode(this), 16));
+  }
+
+  private static final class Counter implements MetricsCounterType
+  {
+    private final LongAdder value;
+
+    Counter()
+    {
+      this.value = new LongAdder();
+    }
+
+    @Override
+    public void add(
+      final long amount)
+    {
+      this.value.add(Math.max(0L, amount));
+    }
+  }
+
+  /**
+   * A histogram with one bucket for each possible bit length of a non-negative long value:
+   * bucket {@code n} holds values in {@code [2^(n-1), 2^n - 1]}, and bucket zero holds zero.
+   */
+
+  private static final class Histogram implements MetricsHistogramType
+  {
+    private static final int BUCKETS = Long.SIZE;
+
+    private final AtomicLongArray buckets;
+    private final LongAdder count;
+    private final LongAdder sum;
+    private final AtomicLong maximum;
+
+    Histogram()
+    {
+      this.buckets = new AtomicLongArray(BUCKETS);
+      this.count = new LongAdder();
+      this.sum = new LongAdder();
+      this.maximum = new AtomicLong();
+    }
+
+    private static long upperBound(
+      final int bucket)
+    {
+      if (bucket >= BUCKETS - 1) {
+        return Long.MAX_VALUE;
+      }
+      return (1L << bucket) - 1L;
+    }
+
+    @Override
+    public void record(
+      final long value)
+    {
+      final var clamped = Math.max(0L, value);
+      this.buckets.incrementAndGet(Long.SIZE - Long.numberOfLeadingZeros(clamped));
+      this.count.increment();
+      this.sum.add(clamped);
+      this.maximum.accumulateAndGet(clamped, Math::max);
+    }
+
+    MetricsHistogramSnapshot snapshot()
+    {
+      final var builder = MetricsHistogramSnapshot.builder();
+      for (int index = 0; index < BUCKETS; ++index) {
+        final var bucketCount = this.buckets.get(index);
+        if (bucketCount > 0L) {
+          builder.putBuckets(upperBound(index), bucketCount);
+        }
+      }
+      return builder
+        .setCount(this.count.sum())
+        .setSum(this.sum.sum())
+        .setMaximum(this.maximum.get())
+        .build();
+    }
+  }
+}
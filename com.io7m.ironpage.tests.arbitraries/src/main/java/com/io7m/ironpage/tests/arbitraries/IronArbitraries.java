@@ -491,11 +491,15 @@ public final class IronArbitraries implements ArbitraryProvider
           return labels.flatMap(labelsValues -> {
             return redactions.map(redactionsValues -> {
 
+              final var data0 = bytesValues.get(0);
+              final var data1 = bytesValues.get(1);
+
               final var instance0 =
                 PagesDatabaseBlobDTO.builder()
                   .setSecurityLabel(labelsValues.get(0))
                   .setMediaType(stringsValues.get(1))
-                  .setData(bytesValues.get(0))
+                  .setSize(data0.length)
+                  .setData(data0::clone)
                   .setId(stringsValues.get(2))
                   .setRedaction(redactionsValues.get(0))
                   .setOwner(uuidValues.get(0))
@@ -505,7 +509,8 @@ public final class IronArbitraries implements ArbitraryProvider
                 instance0
                   .withSecurityLabel(labelsValues.get(1))
                   .withMediaType(stringsValues.get(3))
-                  .withData(bytesValues.get(1))
+                  .withSize(data1.length)
+                  .withData(data1::clone)
                   .withId(stringsValues.get(4))
                   .withRedaction(redactionsValues.get(1))
                   .withOwner(uuidValues.get(1));
@@ -684,25 +684,64 @@ public abstract class AccountsDatabaseQueriesContract
     Assertions.assertEquals("c", session2.id());
     Assertions.assertEquals(this.now().plus(6L, SECONDS), session2.updated());
 
-    queries.accountSessionUpdate(session0.id());
-    queries.accountSessionUpdate(session1.id());
-    queries.accountSessionUpdate(session2.id());
+    queries.accountSessionUpdate(account0.id(), session0.id());
+    queries.accountSessionUpdate(account0.id(), session1.id());
+    queries.accountSessionUpdate(account0.id(), session2.id());
 
-    queries.accountSessionDelete(session0.id());
-    queries.accountSessionDelete(session1.id());
-    queries.accountSessionDelete(session2.id());
+    queries.accountSessionDelete(account0.id(), session0.id());
+    queries.accountSessionDelete(account0.id(), session1.id());
+    queries.accountSessionDelete(account0.id(), session2.id());
 
     final var ex0 = Assertions.assertThrows(
-      CDException.class, () -> queries.accountSessionUpdate(session0.id()));
+      CDException.class, () -> queries.accountSessionUpdate(account0.id(), session0.id()));
     Assertions.assertEquals(NONEXISTENT, ex0.errorCode());
     final var ex1 = Assertions.assertThrows(
-      CDException.class, () -> queries.accountSessionUpdate(session1.id()));
+      CDException.class, () -> queries.accountSessionUpdate(account0.id(), session1.id()));
     Assertions.assertEquals(NONEXISTENT, ex1.errorCode());
     final var ex2 = Assertions.assertThrows(
-      CDException.class, () -> queries.accountSessionUpdate(session2.id()));
+      CDException.class, () -> queries.accountSessionUpdate(account0.id(), session2.id()));
     Assertions.assertEquals(NONEXISTENT, ex2.errorCode());
   }
 
+  /**
+   * Sessions cannot be updated or deleted on behalf of an account that does not own them.
+   *
+   * @throws Exception If required
+   */
+
+  @Test
+  public final void testAccountSessionWrongOwner()
+    throws Exception
+  {
+    final var transaction = this.transaction();
+    final var queries = transaction.queries(CDAccountsQueriesType.class);
+
+    final var passwordHash = new byte[16];
+    new SecureRandom().nextBytes(passwordHash);
+
+    final var account0 =
+      queries.accountCreate(
+        UUID.randomUUID(),
+        "User 0",
+        CDPasswordHashDTO.builder()
+          .setHash(passwordHash)
+          .setParameters("params")
+          .build(),
+        "someone@example.com",
+        Optional.empty());
+
+    final var session0 =
+      queries.accountSessionCreate(account0.id(), "a");
+
+    final var other = UUID.randomUUID();
+    final var ex0 = Assertions.assertThrows(
+      CDException.class, () -> queries.accountSessionUpdate(other, session0.id()));
+    Assertions.assertEquals(NONEXISTENT, ex0.errorCode());
+
+    queries.accountSessionDelete(other, session0.id());
+    queries.accountSessionUpdate(account0.id(), session0.id());
+  }
+
   /**
    * Creating a session for a nonexistent user fails.
    *
@@ -759,13 +798,13 @@ public abstract class AccountsDatabaseQueriesContract
     queries.accountSessionDeleteForUser(account0.id());
 
     final var ex0 = Assertions.assertThrows(
-      CDException.class, () -> queries.accountSessionUpdate(session0.id()));
+      CDException.class, () -> queries.accountSessionUpdate(account0.id(), session0.id()));
     Assertions.assertEquals(NONEXISTENT, ex0.errorCode());
     final var ex1 = Assertions.assertThrows(
-      CDException.class, () -> queries.accountSessionUpdate(session1.id()));
+      CDException.class, () -> queries.accountSessionUpdate(account0.id(), session1.id()));
     Assertions.assertEquals(NONEXISTENT, ex1.errorCode());
     final var ex2 = Assertions.assertThrows(
-      CDException.class, () -> queries.accountSessionUpdate(session2.id()));
+      CDException.class, () -> queries.accountSessionUpdate(account0.id(), session2.id()));
     Assertions.assertEquals(NONEXISTENT, ex2.errorCode());
   }
 
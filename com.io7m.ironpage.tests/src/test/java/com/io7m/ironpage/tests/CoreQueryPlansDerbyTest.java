@@ -0,0 +1,352 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironpage.tests;
+
+import com.io7m.ironpage.database.api.DatabaseParameters;
+import com.io7m.ironpage.database.api.DatabaseTransactionType;
+import com.io7m.ironpage.database.api.DatabaseType;
+import com.io7m.ironpage.database.audit.api.AuditDatabaseQueriesType;
+import com.io7m.ironpage.database.core.api.CDAccountsQueriesType;
+import com.io7m.ironpage.database.core.api.CDLabelsQueriesType;
+import com.io7m.ironpage.database.core.api.CDPasswordHashDTO;
+import com.io7m.ironpage.database.core.derby.CoreDatabasePartitionProviderDerby;
+import com.io7m.ironpage.database.derby.DatabaseDerbyProvider;
+import com.io7m.ironpage.database.pages.api.PagesDatabaseQueriesType;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Query plan regression tests. A database is populated with enough rows that Derby's optimizer
+ * prefers indexes wherever they apply, and each frequently executed operation of the core
+ * queries is then executed with plan capture enabled. An operation fails the test if any of its
+ * statements reads the whole of one of the large tables.
+ */
+
+@Tag("database")
+public final class CoreQueryPlansDerbyTest
+{
+  private static final Logger LOG = LoggerFactory.getLogger(CoreQueryPlansDerbyTest.class);
+
+  private static final List<String> TABLES =
+    List.of("AUDIT", "BLOBS", "REDACTIONS", "SECURITY_LABELS", "SESSIONS", "USERS");
+
+  private static final int ACCOUNTS = 200;
+  private static final int SESSIONS_PER_ACCOUNT = 4;
+  private static final int BLOBS_PER_ACCOUNT = 4;
+
+  private static Path DATABASE_PATH;
+  private static DatabaseType DATABASE;
+  private static List<UUID> ACCOUNT_IDS;
+  private static List<String> BLOB_IDS;
+  private static Instant TIME_START;
+
+  @BeforeAll
+  public static void fixtureSetup()
+    throws Exception
+  {
+    DATABASE_PATH = Files.createTempDirectory("ironpage-");
+    Files.deleteIfExists(DATABASE_PATH);
+
+    TIME_START = Instant.parse("2019-01-01T00:00:00Z");
+    final var clock =
+      new SettableClock(
+        ZoneId.of("UTC"),
+        TIME_START,
+        (c, time) -> c.setTime(time.plusSeconds(1L)));
+
+    final var registry = new MutablePartitionProviderRegistry();
+    registry.add(new CoreDatabasePartitionProviderDerby(clock));
+    registry.add(new DerbyQueryPlansPartitionProvider());
+
+    DATABASE =
+      new DatabaseDerbyProvider(registry)
+        .open(DatabaseParameters.builder()
+                .setCreate(true)
+                .setPath(DATABASE_PATH.toString())
+                .build());
+    DATABASE.dataMigrations().toCompletableFuture().get(30L, TimeUnit.SECONDS);
+
+    ACCOUNT_IDS = new ArrayList<>(ACCOUNTS);
+    BLOB_IDS = new ArrayList<>(ACCOUNTS * BLOBS_PER_ACCOUNT);
+
+    try (var connection = DATABASE.openConnection()) {
+      try (var transaction = connection.beginTransaction()) {
+        final var accounts = transaction.queries(CDAccountsQueriesType.class);
+        final var pages = transaction.queries(PagesDatabaseQueriesType.class);
+        final var label =
+          transaction.queries(CDLabelsQueriesType.class).labelCreate("label", "A label");
+
+        for (int index = 0; index < ACCOUNTS; ++index) {
+          final var account =
+            accounts.accountCreate(
+              UUID.randomUUID(),
+              "User " + index,
+              CDPasswordHashDTO.builder()
+                .setParameters("params")
+                .setHash((byte) 0x0)
+                .build(),
+              "someone" + index + "@example.com",
+              Optional.empty());
+          ACCOUNT_IDS.add(account.id());
+
+          for (int session = 0; session < SESSIONS_PER_ACCOUNT; ++session) {
+            accounts.accountSessionCreate(account.id(), sessionId(index, session));
+          }
+          for (int blob = 0; blob < BLOBS_PER_ACCOUNT; ++blob) {
+            BLOB_IDS.add(
+              pages.pageBlobPut(
+                account.id(),
+                "text/plain",
+                String.format("blob %d %d", index, blob).getBytes(StandardCharsets.UTF_8),
+                label));
+          }
+        }
+
+        /*
+         * A single user redacts many blobs, so that the redactions of a user are not by
+         * themselves a selective enough condition.
+         */
+
+        for (int index = 0; index < ACCOUNTS; index += 2) {
+          pages.pageBlobRedact(
+            ACCOUNT_IDS.get(0),
+            BLOB_IDS.get(index * BLOBS_PER_ACCOUNT),
+            "Redacted " + index);
+        }
+        transaction.commit();
+      }
+    }
+  }
+
+  @AfterAll
+  public static void fixtureTearDown()
+    throws IOException
+  {
+    DATABASE.close();
+
+    Files.walk(DATABASE_PATH)
+      .sorted(Comparator.reverseOrder())
+      .map(Path::toFile)
+      .forEach(File::delete);
+  }
+
+  private static String sessionId(
+    final int account,
+    final int session)
+  {
+    return String.format("%08d-%04d-0000-0000-000000000000", Integer.valueOf(account),
+                         Integer.valueOf(session));
+  }
+
+  /**
+   * Execute an operation with plan capture enabled, and fail if any statement that the operation
+   * executed read one of the large tables in full. The operation is rolled back.
+   *
+   * @param operation The operation
+   *
+   * @return The scans performed by the operation
+   */
+
+  private static List<DerbyQueryPlansQueriesType.Scan> assertNoTableScans(
+    final TransactionOperation operation)
+    throws Exception
+  {
+    try (var connection = DATABASE.openConnection()) {
+      try (var transaction = connection.beginTransaction()) {
+        final var plans = transaction.queries(DerbyQueryPlansQueriesType.class);
+        plans.captureStart("CORE", TABLES);
+        try {
+          operation.execute(transaction);
+        } finally {
+          final var scans = plans.captureStop();
+          LOG.debug("scans: {}", scans);
+
+          final var tableScans =
+            scans.stream()
+              .filter(scan -> "HEAP".equals(scan.scanType()))
+              .filter(scan -> TABLES.contains(scan.objectName()))
+              .collect(Collectors.toList());
+
+          Assertions.assertEquals(
+            List.of(),
+            tableScans,
+            "Hot queries must not scan large tables in full");
+          Assertions.assertFalse(scans.isEmpty(), "Plans must have been captured");
+          transaction.rollback();
+          return scans;
+        }
+      }
+    }
+  }
+
+  private static void assertScanned(
+    final List<DerbyQueryPlansQueriesType.Scan> scans,
+    final String objectName)
+  {
+    Assertions.assertTrue(
+      scans.stream().anyMatch(scan -> objectName.equals(scan.objectName())),
+      String.format("%s must be scanned in %s", objectName, scans));
+  }
+
+  /**
+   * Audit events within a time range are found through the audit time index.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testAuditEventsDuring()
+    throws Exception
+  {
+    final var scans = assertNoTableScans(transaction -> {
+      final var events =
+        transaction.queries(AuditDatabaseQueriesType.class)
+          .auditEventsDuring(TIME_START.plusSeconds(100L), TIME_START.plusSeconds(110L))
+          .collect(Collectors.toList());
+      Assertions.assertFalse(events.isEmpty());
+    });
+    assertScanned(scans, "AUDIT_TIME_INDEX");
+  }
+
+  /**
+   * The sessions of a user are found through an index on the session user.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testAccountSessionDeleteForUser()
+    throws Exception
+  {
+    assertNoTableScans(transaction -> {
+      final var deleted =
+        transaction.queries(CDAccountsQueriesType.class)
+          .accountSessionDeleteForUser(ACCOUNT_IDS.get(ACCOUNTS / 2));
+      Assertions.assertEquals(SESSIONS_PER_ACCOUNT, deleted);
+    });
+  }
+
+  /**
+   * Sessions are found by their primary key.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testAccountSessionUpdate()
+    throws Exception
+  {
+    assertNoTableScans(transaction -> {
+      transaction.queries(CDAccountsQueriesType.class)
+        .accountSessionUpdate(ACCOUNT_IDS.get(ACCOUNTS / 3), sessionId(ACCOUNTS / 3, 1));
+    });
+  }
+
+  /**
+   * Accounts are found by their primary key.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testAccountGet()
+    throws Exception
+  {
+    assertNoTableScans(transaction -> {
+      transaction.queries(CDAccountsQueriesType.class)
+        .accountGet(ACCOUNT_IDS.get(ACCOUNTS / 3));
+    });
+  }
+
+  /**
+   * Blobs and their labels and redactions are found by their primary keys.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testPageBlobGet()
+    throws Exception
+  {
+    assertNoTableScans(transaction -> {
+      final var pages = transaction.queries(PagesDatabaseQueriesType.class);
+      Assertions.assertTrue(pages.pageBlobGet(BLOB_IDS.get(0)).isPresent());
+      Assertions.assertTrue(pages.pageBlobGet(BLOB_IDS.get(BLOB_IDS.size() - 1)).isPresent());
+    });
+  }
+
+  /**
+   * A new redaction is found again through the index on the redaction user and time.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testPageBlobRedact()
+    throws Exception
+  {
+    final var scans = assertNoTableScans(transaction -> {
+      transaction.queries(PagesDatabaseQueriesType.class)
+        .pageBlobRedact(ACCOUNT_IDS.get(0), BLOB_IDS.get(BLOBS_PER_ACCOUNT + 1), "Redacted");
+    });
+    assertScanned(scans, "REDACTION_USER_TIME_INDEX");
+  }
+
+  /**
+   * Labels are found by their unique names.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testLabelGetForName()
+    throws Exception
+  {
+    assertNoTableScans(transaction -> {
+      Assertions.assertTrue(
+        transaction.queries(CDLabelsQueriesType.class)
+          .labelGetForName("label")
+          .isPresent());
+    });
+  }
+
+  private interface TransactionOperation
+  {
+    void execute(DatabaseTransactionType transaction)
+      throws Exception;
+  }
+}
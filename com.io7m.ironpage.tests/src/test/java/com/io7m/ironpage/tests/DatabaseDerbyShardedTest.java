@@ -0,0 +1,617 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironpage.tests;
+
+import com.io7m.ironpage.database.api.DatabaseBackupParameters;
+import com.io7m.ironpage.database.api.DatabaseParameters;
+import com.io7m.ironpage.database.api.DatabaseRestoreParameters;
+import com.io7m.ironpage.database.api.DatabaseType;
+import com.io7m.ironpage.database.core.api.CDAccountsQueriesType;
+import com.io7m.ironpage.database.core.api.CDException;
+import com.io7m.ironpage.database.core.api.CDLabelsQueriesType;
+import com.io7m.ironpage.database.core.api.CDPasswordHashDTO;
+import com.io7m.ironpage.database.core.api.CDSecurityLabelCreated;
+import com.io7m.ironpage.database.core.api.CDUserDTO;
+import com.io7m.ironpage.database.core.derby.CoreDatabasePartitionProviderDerby;
+import com.io7m.ironpage.database.derby.DatabaseDerbyProvider;
+import com.io7m.ironpage.database.derby.DatabaseDerbyShardedProvider;
+import com.io7m.ironpage.database.pages.api.PagesDatabaseQueriesType;
+import com.io7m.ironpage.database.spi.DatabaseEventType;
+import com.io7m.ironpage.database.spi.DatabaseException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+@Tag("database")
+public final class DatabaseDerbyShardedTest
+{
+  private static final Logger LOG = LoggerFactory.getLogger(DatabaseDerbyShardedTest.class);
+
+  private Path databasePath;
+  private Path restorePath;
+  private Path backupPath;
+
+  @BeforeEach
+  public void testSetup()
+    throws IOException
+  {
+    this.databasePath = Files.createTempDirectory("ironpage-");
+    Files.deleteIfExists(this.databasePath);
+    this.restorePath = Files.createTempDirectory("ironpage-restore-");
+    Files.deleteIfExists(this.restorePath);
+    this.backupPath = Files.createTempDirectory("ironpage-backup-");
+  }
+
+  @AfterEach
+  public void testTearDown()
+    throws IOException
+  {
+    deleteTree(this.databasePath);
+    deleteTree(this.restorePath);
+    deleteTree(this.backupPath);
+  }
+
+  private static void deleteTree(
+    final Path path)
+    throws IOException
+  {
+    if (!Files.exists(path)) {
+      return;
+    }
+
+    Files.walk(path)
+      .sorted(Comparator.reverseOrder())
+      .map(Path::toFile)
+      .forEach(File::delete);
+  }
+
+  private static DatabaseType openSharded(
+    final Path path,
+    final Optional<DatabaseRestoreParameters> restore)
+    throws DatabaseException
+  {
+    final var registry = new MutablePartitionProviderRegistry();
+    registry.add(new CoreDatabasePartitionProviderDerby());
+
+    final var databases = new DatabaseDerbyShardedProvider(registry, 3);
+    final var parameters =
+      DatabaseParameters.builder()
+        .setCreate(true)
+        .setPath(path.toString())
+        .setRestore(restore)
+        .build();
+
+    return databases.open(parameters);
+  }
+
+  private DatabaseType openShard(
+    final int index)
+    throws DatabaseException
+  {
+    final var registry = new MutablePartitionProviderRegistry();
+    registry.add(new CoreDatabasePartitionProviderDerby());
+
+    final var databases = new DatabaseDerbyProvider(registry);
+    final var parameters =
+      DatabaseParameters.builder()
+        .setCreate(true)
+        .setPath(this.databasePath.resolve("shard-" + index).toString())
+        .build();
+
+    return databases.open(parameters);
+  }
+
+  private static CDUserDTO accountCreate(
+    final CDAccountsQueriesType accounts)
+    throws Exception
+  {
+    return accounts.accountCreate(
+      UUID.randomUUID(),
+      "User",
+      CDPasswordHashDTO.builder()
+        .setParameters("params")
+        .setHash((byte) 0x0)
+        .build(),
+      "someone@example.com",
+      Optional.empty());
+  }
+
+  private static List<String> blobsCreate(
+    final DatabaseType database,
+    final int count)
+    throws Exception
+  {
+    final var hashes = new ArrayList<String>(count);
+    try (var connection = database.openConnection()) {
+      try (var transaction = connection.beginTransaction()) {
+        final var label =
+          transaction.queries(CDLabelsQueriesType.class)
+            .labelCreate("label0", "A label");
+        final var account =
+          accountCreate(transaction.queries(CDAccountsQueriesType.class));
+        final var pages =
+          transaction.queries(PagesDatabaseQueriesType.class);
+
+        for (var index = 0; index < count; ++index) {
+          final var data = ("blob " + index).getBytes(StandardCharsets.UTF_8);
+          hashes.add(pages.pageBlobPut(account.id(), "text/plain", data, label));
+        }
+        transaction.commit();
+      }
+    }
+    return hashes;
+  }
+
+  /**
+   * Blobs put as streams are stored on the same shard as the same content put as an array, and
+   * can be read back as streams.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testStreamedBlobsDistributedByDigest()
+    throws Exception
+  {
+    try (var database = openSharded(this.databasePath, Optional.empty())) {
+      try (var connection = database.openConnection()) {
+        try (var transaction = connection.beginTransaction()) {
+          final var label =
+            transaction.queries(CDLabelsQueriesType.class)
+              .labelCreate("label0", "A label");
+          final var account =
+            accountCreate(transaction.queries(CDAccountsQueriesType.class));
+          final var pages =
+            transaction.queries(PagesDatabaseQueriesType.class);
+
+          for (var index = 0; index < 12; ++index) {
+            final var data = ("blob " + index).getBytes(StandardCharsets.UTF_8);
+            final var hash =
+              pages.pageBlobPutStream(
+                account.id(), "text/plain", new ByteArrayInputStream(data), label);
+
+            final var output = new ByteArrayOutputStream();
+            Assertions.assertTrue(pages.pageBlobGetStream(hash, output).isPresent());
+            Assertions.assertArrayEquals(data, output.toByteArray());
+
+            final var ex = Assertions.assertThrows(CDException.class, () -> {
+              pages.pageBlobPut(account.id(), "text/plain", data, label);
+            });
+            Assertions.assertEquals(PagesDatabaseQueriesType.DATA_ALREADY_EXISTS, ex.errorCode());
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Blobs are stored on exactly one shard, chosen by digest, while labels and accounts are
+   * present on every shard.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testBlobsDistributedByDigest()
+    throws Exception
+  {
+    final List<String> hashes;
+    try (var database = openSharded(this.databasePath, Optional.empty())) {
+      hashes = blobsCreate(database, 12);
+
+      try (var connection = database.openConnection()) {
+        try (var transaction = connection.beginTransaction()) {
+          final var pages = transaction.queries(PagesDatabaseQueriesType.class);
+          for (final var hash : hashes) {
+            Assertions.assertTrue(pages.pageBlobGet(hash).isPresent());
+          }
+
+          final var owner = pages.pageBlobGet(hashes.get(0)).get().owner();
+          pages.pageBlobRedact(owner, hashes.get(0), "Redacted for testing");
+          Assertions.assertTrue(pages.pageBlobGet(hashes.get(0)).get().redaction().isPresent());
+          transaction.commit();
+        }
+      }
+    }
+
+    final var counts = new int[3];
+    final var labels = new ArrayList<Long>(3);
+    for (var index = 0; index < 3; ++index) {
+      try (var shard = this.openShard(index)) {
+        try (var connection = shard.openConnection()) {
+          try (var transaction = connection.beginTransaction()) {
+            final var pages = transaction.queries(PagesDatabaseQueriesType.class);
+            for (final var hash : hashes) {
+              if (pages.pageBlobGet(hash).isPresent()) {
+                ++counts[index];
+              }
+            }
+            labels.add(
+              Long.valueOf(
+                transaction.queries(CDLabelsQueriesType.class)
+                  .labelGetForName("label0")
+                  .get()
+                  .id()));
+          }
+        }
+      }
+    }
+
+    LOG.debug("blobs per shard: {} {} {}", counts[0], counts[1], counts[2]);
+    Assertions.assertEquals(hashes.size(), counts[0] + counts[1] + counts[2]);
+    Assertions.assertTrue(counts[0] < hashes.size());
+    Assertions.assertTrue(counts[1] < hashes.size());
+    Assertions.assertTrue(counts[2] < hashes.size());
+    Assertions.assertEquals(3, Collections.frequency(labels, labels.get(0)));
+  }
+
+  /**
+   * Accounts are present on every shard, while each session is stored only on the shard chosen
+   * by the user ID of its owner.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testSessionsDistributedByUser()
+    throws Exception
+  {
+    final var owners = new ArrayList<UUID>(12);
+    try (var database = openSharded(this.databasePath, Optional.empty())) {
+      try (var connection = database.openConnection()) {
+        try (var transaction = connection.beginTransaction()) {
+          final var accounts = transaction.queries(CDAccountsQueriesType.class);
+          for (var index = 0; index < 12; ++index) {
+            final var account =
+              accounts.accountCreate(
+                UUID.randomUUID(),
+                "User " + index,
+                CDPasswordHashDTO.builder()
+                  .setParameters("params")
+                  .setHash((byte) 0x0)
+                  .build(),
+                "someone@example.com",
+                Optional.empty());
+            owners.add(account.id());
+            accounts.accountSessionCreate(account.id(), "session" + index);
+          }
+          transaction.commit();
+        }
+
+        try (var transaction = connection.beginTransaction()) {
+          final var accounts = transaction.queries(CDAccountsQueriesType.class);
+          for (var index = 0; index < owners.size(); ++index) {
+            final var owner = owners.get(index);
+            Assertions.assertEquals(owner, accounts.accountGet(owner).id());
+            Assertions.assertEquals(
+              owner, accounts.accountSessionUpdate(owner, "session" + index).userID());
+          }
+          transaction.commit();
+        }
+      }
+    }
+
+    final var counts = new int[3];
+    for (var index = 0; index < 3; ++index) {
+      try (var shard = this.openShard(index)) {
+        try (var connection = shard.openConnection()) {
+          try (var transaction = connection.beginTransaction()) {
+            final var accounts = transaction.queries(CDAccountsQueriesType.class);
+            for (var user = 0; user < owners.size(); ++user) {
+              final var owner = owners.get(user);
+              Assertions.assertEquals(owner, accounts.accountGet(owner).id());
+              try {
+                accounts.accountSessionUpdate(owner, "session" + user);
+                ++counts[index];
+              } catch (final CDException e) {
+                Assertions.assertEquals(CDAccountsQueriesType.NONEXISTENT, e.errorCode());
+              }
+            }
+          }
+        }
+      }
+    }
+
+    LOG.debug("sessions per shard: {} {} {}", counts[0], counts[1], counts[2]);
+    Assertions.assertEquals(owners.size(), counts[0] + counts[1] + counts[2]);
+    Assertions.assertTrue(counts[0] < owners.size());
+    Assertions.assertTrue(counts[1] < owners.size());
+    Assertions.assertTrue(counts[2] < owners.size());
+  }
+
+  /**
+   * Blobs retrieved in a batch are gathered from every shard.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testBlobsGetAllGathered()
+    throws Exception
+  {
+    try (var database = openSharded(this.databasePath, Optional.empty())) {
+      final var hashes = blobsCreate(database, 12);
+
+      try (var connection = database.openConnection()) {
+        try (var transaction = connection.beginTransaction()) {
+          final var pages = transaction.queries(PagesDatabaseQueriesType.class);
+
+          final var requested = new ArrayList<>(hashes);
+          requested.add("nonexistent");
+          final var blobs = pages.pageBlobGetAll(requested);
+          Assertions.assertEquals(new HashSet<>(hashes), blobs.keySet());
+          for (final var hash : hashes) {
+            Assertions.assertEquals(
+              pages.pageBlobGet(hash).get().data().read().length,
+              blobs.get(hash).data().read().length);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Shards are only contacted when a unit of work first touches them.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testShardsTouchedLazily()
+    throws Exception
+  {
+    try (var database = openSharded(this.databasePath, Optional.empty())) {
+      final var hash = blobsCreate(database, 1).get(0);
+
+      try (var connection = database.openConnection()) {
+        try (var transaction = connection.beginTransaction()) {
+          final var pages = transaction.queries(PagesDatabaseQueriesType.class);
+          Assertions.assertEquals(0, database.connectionPoolStatistics().connectionsActive());
+
+          Assertions.assertTrue(pages.pageBlobGet(hash).isPresent());
+          Assertions.assertEquals(1, database.connectionPoolStatistics().connectionsActive());
+          transaction.commit();
+        }
+      }
+      Assertions.assertEquals(0, database.connectionPoolStatistics().connectionsActive());
+    }
+  }
+
+  /**
+   * Replicated writes publish a single event.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testReplicatedEventsPublishedOnce()
+    throws Exception
+  {
+    final var events = Collections.synchronizedList(new ArrayList<DatabaseEventType>());
+
+    try (var database = openSharded(this.databasePath, Optional.empty())) {
+      final var subscription = database.events().subscribe(events::add);
+      try (var connection = database.openConnection()) {
+        try (var transaction = connection.beginTransaction()) {
+          transaction.queries(CDLabelsQueriesType.class).labelCreate("label0", "A label");
+          transaction.commit();
+        }
+      }
+      subscription.dispose();
+    }
+
+    Assertions.assertEquals(
+      1L,
+      events.stream().filter(e -> e instanceof CDSecurityLabelCreated).count());
+  }
+
+  /**
+   * Rolling back to a savepoint discards work on every shard.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testSavepointAcrossShards()
+    throws Exception
+  {
+    try (var database = openSharded(this.databasePath, Optional.empty())) {
+      final var kept = blobsCreate(database, 1).get(0);
+      final var discarded = new ArrayList<String>(8);
+
+      try (var connection = database.openConnection()) {
+        try (var transaction = connection.beginTransaction()) {
+          final var label =
+            transaction.queries(CDLabelsQueriesType.class)
+              .labelGetForName("label0")
+              .get();
+          final var owner =
+            transaction.queries(PagesDatabaseQueriesType.class)
+              .pageBlobGet(kept)
+              .get()
+              .owner();
+
+          final var savepoint = transaction.savepoint();
+          final var pages = transaction.queries(PagesDatabaseQueriesType.class);
+          for (var index = 0; index < 8; ++index) {
+            final var data = ("discarded " + index).getBytes(StandardCharsets.UTF_8);
+            discarded.add(pages.pageBlobPut(owner, "text/plain", data, label));
+          }
+          transaction.rollbackTo(savepoint);
+          transaction.commit();
+        }
+
+        try (var transaction = connection.beginTransaction()) {
+          final var pages = transaction.queries(PagesDatabaseQueriesType.class);
+          Assertions.assertTrue(pages.pageBlobGet(kept).isPresent());
+          for (final var hash : discarded) {
+            Assertions.assertFalse(pages.pageBlobGet(hash).isPresent());
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Shards whose replicated data has diverged refuse read-write transactions, even after being
+   * reopened, until the divergence marker is removed.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testDivergedShardsRefuseWrites()
+    throws Exception
+  {
+    openSharded(this.databasePath, Optional.empty()).close();
+
+    try (var shard = this.openShard(1)) {
+      try (var connection = shard.openConnection()) {
+        try (var transaction = connection.beginTransaction()) {
+          transaction.queries(CDLabelsQueriesType.class).labelCreate("label1", "A label");
+          transaction.commit();
+        }
+      }
+    }
+
+    try (var database = openSharded(this.databasePath, Optional.empty())) {
+      try (var connection = database.openConnection()) {
+        try (var transaction = connection.beginTransaction()) {
+          final var labels = transaction.queries(CDLabelsQueriesType.class);
+          final var ex =
+            Assertions.assertThrows(
+              IllegalStateException.class, () -> labels.labelCreate("label0", "A label"));
+          LOG.debug("exception: ", ex);
+        }
+
+        Assertions.assertThrows(DatabaseException.class, connection::beginTransaction);
+        try (var transaction = connection.beginReadOnlyTransaction()) {
+          Assertions.assertTrue(
+            transaction.queries(CDLabelsQueriesType.class)
+              .labelGetForName("label0")
+              .isEmpty());
+        }
+      }
+    }
+
+    try (var database = openSharded(this.databasePath, Optional.empty())) {
+      try (var connection = database.openConnection()) {
+        Assertions.assertThrows(DatabaseException.class, connection::beginTransaction);
+      }
+    }
+
+    Files.delete(this.databasePath.resolve("diverged"));
+
+    try (var database = openSharded(this.databasePath, Optional.empty())) {
+      try (var connection = database.openConnection()) {
+        connection.beginTransaction().close();
+      }
+    }
+  }
+
+  /**
+   * Every shard is upgraded when the database is opened.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testOpenTimingsPerShard()
+    throws Exception
+  {
+    try (var database = openSharded(this.databasePath, Optional.empty())) {
+      final var upgrades = database.openTimings().partitionUpgrades();
+      LOG.debug("upgrades: {}", upgrades);
+
+      for (var index = 0; index < 3; ++index) {
+        final var prefix = "shard-" + index + "/";
+        Assertions.assertTrue(upgrades.keySet().stream().anyMatch(k -> k.startsWith(prefix)));
+      }
+    }
+  }
+
+  /**
+   * A sharded database can be backed up and restored.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testBackupRestore()
+    throws Exception
+  {
+    final List<String> hashes;
+    final Path backup;
+    try (var database = openSharded(this.databasePath, Optional.empty())) {
+      hashes = blobsCreate(database, 6);
+      backup =
+        database.backup(
+          DatabaseBackupParameters.builder()
+            .setDirectory(this.backupPath)
+            .build(),
+          (copied, estimated) -> { })
+          .path();
+    }
+
+    final var restore =
+      DatabaseRestoreParameters.builder()
+        .setBackup(backup)
+        .build();
+
+    try (var database = openSharded(this.restorePath, Optional.of(restore))) {
+      try (var connection = database.openConnection()) {
+        try (var transaction = connection.beginTransaction()) {
+          final var pages = transaction.queries(PagesDatabaseQueriesType.class);
+          for (final var hash : hashes) {
+            Assertions.assertTrue(pages.pageBlobGet(hash).isPresent());
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * A database must have at least one shard.
+   */
+
+  @Test
+  public void testShardCountInvalid()
+  {
+    Assertions.assertThrows(IllegalArgumentException.class, () -> {
+      new DatabaseDerbyShardedProvider(new MutablePartitionProviderRegistry(), 0);
+    });
+  }
+}
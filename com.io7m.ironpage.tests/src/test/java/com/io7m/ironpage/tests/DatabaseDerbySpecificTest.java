@@ -17,10 +17,36 @@
 
 package com.io7m.ironpage.tests;
 
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import com.io7m.ironpage.database.api.DatabaseAsyncParameters;
+import com.io7m.ironpage.database.api.DatabaseBackup;
+import com.io7m.ironpage.database.api.DatabaseBackupParameters;
+import com.io7m.ironpage.database.api.DatabaseConnectionPoolParameters;
+import com.io7m.ironpage.database.api.DatabaseGroupCommitParameters;
+import com.io7m.ironpage.database.api.DatabaseMigrationParameters;
 import com.io7m.ironpage.database.api.DatabaseParameters;
+import com.io7m.ironpage.database.api.DatabaseRestoreParameters;
+import com.io7m.ironpage.database.api.DatabaseServerParameters;
+import com.io7m.ironpage.database.api.DatabaseStorageParameters;
+import com.io7m.ironpage.database.api.DatabaseTransactionType;
+import com.io7m.ironpage.database.api.DatabaseType;
+import com.io7m.ironpage.database.core.api.CDAccountsQueriesType;
+import com.io7m.ironpage.database.core.api.CDException;
+import com.io7m.ironpage.database.core.api.CDLabelsQueriesType;
+import com.io7m.ironpage.database.core.api.CDPasswordHashDTO;
 import com.io7m.ironpage.database.core.derby.CoreDatabasePartitionProviderDerby;
 import com.io7m.ironpage.database.derby.DatabaseDerbyProvider;
+import com.io7m.ironpage.database.pages.api.PagesDatabaseBlobDTO;
+import com.io7m.ironpage.database.pages.api.PagesDatabaseQueriesType;
+import com.io7m.ironpage.database.spi.DatabaseException;
+import com.io7m.ironpage.database.spi.DatabaseMigrationStep;
+import com.io7m.ironpage.database.spi.DatabaseSlowQueryParameters;
+import com.io7m.ironpage.metrics.api.MetricsKey;
+import com.io7m.ironpage.metrics.api.MetricsRegistryType;
+import com.io7m.ironpage.metrics.vanilla.MetricsRegistry;
 import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
@@ -29,9 +55,34 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 @Tag("database")
 public final class DatabaseDerbySpecificTest
@@ -39,6 +90,7 @@ public final class DatabaseDerbySpecificTest
   private static final Logger LOG = LoggerFactory.getLogger(DatabaseDerbySpecificTest.class);
 
   private Path databasePath;
+  private Path backupPath;
 
   @BeforeEach
   public void testSetup()
@@ -46,13 +98,26 @@ public final class DatabaseDerbySpecificTest
   {
     this.databasePath = Files.createTempDirectory("ironpage-");
     Files.deleteIfExists(this.databasePath);
+    this.backupPath = Files.createTempDirectory("ironpage-backup-");
   }
 
   @AfterEach
   public void testTearDown()
     throws IOException
   {
-    Files.walk(this.databasePath)
+    deleteTree(this.databasePath);
+    deleteTree(this.backupPath);
+  }
+
+  private static void deleteTree(
+    final Path path)
+    throws IOException
+  {
+    if (!Files.exists(path)) {
+      return;
+    }
+
+    Files.walk(path)
       .sorted(Comparator.reverseOrder())
       .map(Path::toFile)
       .peek(file -> LOG.debug("delete {}", file))
@@ -79,4 +144,1811 @@ public final class DatabaseDerbySpecificTest
       }
     }
   }
+
+  private DatabaseType openWithPool(
+    final DatabaseConnectionPoolParameters pool)
+    throws Exception
+  {
+    final var registry = new MutablePartitionProviderRegistry();
+    registry.add(new CoreDatabasePartitionProviderDerby());
+
+    final var databases = new DatabaseDerbyProvider(registry);
+    final var parameters =
+      DatabaseParameters.builder()
+        .setCreate(true)
+        .setPath(this.databasePath.toString())
+        .setConnectionPool(pool)
+        .build();
+
+    return dataMigrated(databases.open(parameters));
+  }
+
+  private DatabaseParameters parametersWithMigration(
+    final DatabaseMigrationParameters migration)
+  {
+    return DatabaseParameters.builder()
+      .setCreate(true)
+      .setPath(this.databasePath.toString())
+      .setMigration(migration)
+      .build();
+  }
+
+  /**
+   * Wait for the background data migrations of a database to finish, so that they do not hold
+   * connections from the write pool during a test.
+   */
+
+  private static DatabaseType dataMigrated(
+    final DatabaseType database)
+    throws Exception
+  {
+    database.dataMigrations().toCompletableFuture().get(30L, TimeUnit.SECONDS);
+    return database;
+  }
+
+  private static DatabaseDerbyProvider coreProvider()
+  {
+    final var registry = new MutablePartitionProviderRegistry();
+    registry.add(new CoreDatabasePartitionProviderDerby());
+    return new DatabaseDerbyProvider(registry);
+  }
+
+  /**
+   * Read the migration history of a closed database as a list of (version, statement index,
+   * statement count) triples.
+   */
+
+  private void shutdownEmbedded()
+  {
+    try {
+      DriverManager.getConnection("jdbc:derby:" + this.databasePath + ";shutdown=true").close();
+    } catch (final SQLException e) {
+      LOG.trace("shutdown: ", e);
+    }
+  }
+
+  /**
+   * Execute statements against a closed database.
+   */
+
+  private void executeClosed(
+    final String... statements)
+    throws SQLException
+  {
+    try (var connection = DriverManager.getConnection("jdbc:derby:" + this.databasePath)) {
+      try (var statement = connection.createStatement()) {
+        for (final var text : statements) {
+          statement.executeUpdate(text);
+        }
+      }
+    }
+    this.shutdownEmbedded();
+  }
+
+  /**
+   * Read the sizes recorded for the blobs of a closed database, in order of blob ID. Blobs with
+   * no recorded size have a size of {@code -1}.
+   */
+
+  private List<Long> blobSizes()
+    throws SQLException
+  {
+    final var sizes = new ArrayList<Long>();
+    try (var connection = DriverManager.getConnection("jdbc:derby:" + this.databasePath)) {
+      try (var statement = connection.prepareStatement(
+        "SELECT blob_size FROM core.blobs ORDER BY blob_id")) {
+        try (var result = statement.executeQuery()) {
+          while (result.next()) {
+            final var size = result.getLong(1);
+            sizes.add(Long.valueOf(result.wasNull() ? -1L : size));
+          }
+        }
+      }
+    }
+    this.shutdownEmbedded();
+    return sizes;
+  }
+
+  /**
+   * Read the progress of the blob sizes data migration of a closed database as a (rows, finished)
+   * pair.
+   */
+
+  private List<Long> blobSizesProgress()
+    throws SQLException
+  {
+    final var progress = new ArrayList<Long>();
+    try (var connection = DriverManager.getConnection("jdbc:derby:" + this.databasePath)) {
+      try (var statement = connection.prepareStatement(
+        "SELECT ROWS_MIGRATED, FINISHED FROM APP.IRONPAGE_DATA_MIGRATIONS "
+          + "WHERE MIGRATION_NAME = 'core.blob_sizes'")) {
+        try (var result = statement.executeQuery()) {
+          Assertions.assertTrue(result.next());
+          progress.add(Long.valueOf(result.getLong(1)));
+          progress.add(Long.valueOf(result.getBoolean(2) ? 1L : 0L));
+        }
+      }
+    }
+    this.shutdownEmbedded();
+    return progress;
+  }
+
+  /**
+   * Create blobs containing the given strings, returning the contents of each blob by blob ID.
+   */
+
+  private static SortedMap<String, String> blobsCreate(
+    final DatabaseType database,
+    final List<String> contents)
+    throws Exception
+  {
+    final var blobs = new TreeMap<String, String>();
+    try (var connection = database.openConnection()) {
+      try (var transaction = connection.beginTransaction()) {
+        final var label =
+          transaction.queries(CDLabelsQueriesType.class)
+            .labelCreate("label", "A label");
+        final var account =
+          transaction.queries(CDAccountsQueriesType.class)
+            .accountCreate(
+              UUID.randomUUID(),
+              "User",
+              CDPasswordHashDTO.builder()
+                .setParameters("params")
+                .setHash((byte) 0x0)
+                .build(),
+              "someone@example.com",
+              Optional.empty());
+
+        final var pages = transaction.queries(PagesDatabaseQueriesType.class);
+        for (final var content : contents) {
+          final var hash =
+            pages.pageBlobPut(
+              account.id(),
+              "text/plain",
+              content.getBytes(StandardCharsets.UTF_8),
+              label);
+          blobs.put(hash, content);
+        }
+        transaction.commit();
+      }
+    }
+    return blobs;
+  }
+
+  private List<List<Long>> migrationHistory()
+    throws SQLException
+  {
+    final var url = "jdbc:derby:" + this.databasePath;
+    final var rows = new ArrayList<List<Long>>();
+    try (var connection = DriverManager.getConnection(url)) {
+      try (var statement = connection.prepareStatement(
+        "SELECT SCHEMA_VERSION, STATEMENT_INDEX, STATEMENT_COUNT, DURATION_MICROSECONDS "
+          + "FROM APP.IRONPAGE_MIGRATIONS ORDER BY SCHEMA_VERSION, STATEMENT_INDEX")) {
+        try (var result = statement.executeQuery()) {
+          while (result.next()) {
+            Assertions.assertTrue(result.getLong(4) >= 0L);
+            rows.add(List.of(
+              Long.valueOf(result.getLong(1)),
+              Long.valueOf(result.getLong(2)),
+              Long.valueOf(result.getLong(3))));
+          }
+        }
+      }
+    }
+
+    this.shutdownEmbedded();
+    return rows;
+  }
+
+  private DatabaseType openWithPools(
+    final DatabaseConnectionPoolParameters pool,
+    final DatabaseConnectionPoolParameters readOnlyPool)
+    throws Exception
+  {
+    final var registry = new MutablePartitionProviderRegistry();
+    registry.add(new CoreDatabasePartitionProviderDerby());
+
+    final var databases = new DatabaseDerbyProvider(registry);
+    final var parameters =
+      DatabaseParameters.builder()
+        .setCreate(true)
+        .setPath(this.databasePath.toString())
+        .setConnectionPool(pool)
+        .setReadOnlyConnectionPool(readOnlyPool)
+        .build();
+
+    return dataMigrated(databases.open(parameters));
+  }
+
+  private DatabaseType openWithStorage(
+    final DatabaseStorageParameters storage)
+    throws DatabaseException
+  {
+    final var registry = new MutablePartitionProviderRegistry();
+    registry.add(new CoreDatabasePartitionProviderDerby());
+
+    final var databases = new DatabaseDerbyProvider(registry);
+    final var parameters =
+      DatabaseParameters.builder()
+        .setCreate(true)
+        .setPath(this.databasePath.toString())
+        .setStorage(storage)
+        .build();
+
+    return databases.open(parameters);
+  }
+
+  private DatabaseType openWithAsync(
+    final DatabaseAsyncParameters async)
+    throws DatabaseException
+  {
+    final var registry = new MutablePartitionProviderRegistry();
+    registry.add(new CoreDatabasePartitionProviderDerby());
+
+    final var databases = new DatabaseDerbyProvider(registry);
+    final var parameters =
+      DatabaseParameters.builder()
+        .setCreate(true)
+        .setPath(this.databasePath.toString())
+        .setAsync(async)
+        .build();
+
+    return databases.open(parameters);
+  }
+
+  private DatabaseType openWithGroupCommit(
+    final Optional<DatabaseGroupCommitParameters> groupCommit)
+    throws DatabaseException
+  {
+    final var registry = new MutablePartitionProviderRegistry();
+    registry.add(new CoreDatabasePartitionProviderDerby());
+
+    final var databases = new DatabaseDerbyProvider(registry);
+    final var parameters =
+      DatabaseParameters.builder()
+        .setCreate(true)
+        .setPath(this.databasePath.toString())
+        .setGroupCommit(groupCommit)
+        .build();
+
+    return databases.open(parameters);
+  }
+
+  private DatabaseType openWithMetrics(
+    final MetricsRegistryType metrics)
+    throws DatabaseException
+  {
+    final var registry = new MutablePartitionProviderRegistry();
+    registry.add(new CoreDatabasePartitionProviderDerby());
+
+    final var databases = new DatabaseDerbyProvider(registry);
+    final var parameters =
+      DatabaseParameters.builder()
+        .setCreate(true)
+        .setPath(this.databasePath.toString())
+        .setMetrics(metrics)
+        .build();
+
+    return databases.open(parameters);
+  }
+
+  private DatabaseType openWithRestore(
+    final DatabaseRestoreParameters restore)
+    throws DatabaseException
+  {
+    final var registry = new MutablePartitionProviderRegistry();
+    registry.add(new CoreDatabasePartitionProviderDerby());
+
+    final var databases = new DatabaseDerbyProvider(registry);
+    final var parameters =
+      DatabaseParameters.builder()
+        .setCreate(true)
+        .setPath(this.databasePath.toString())
+        .setRestore(restore)
+        .build();
+
+    return databases.open(parameters);
+  }
+
+  private static void labelCreate(
+    final DatabaseType database,
+    final String name)
+    throws Exception
+  {
+    try (var connection = database.openConnection()) {
+      try (var transaction = connection.beginTransaction()) {
+        transaction.queries(CDLabelsQueriesType.class).labelCreate(name, "A label");
+        transaction.commit();
+      }
+    }
+  }
+
+  private static boolean labelExists(
+    final DatabaseType database,
+    final String name)
+    throws Exception
+  {
+    try (var connection = database.openConnection()) {
+      try (var transaction = connection.beginTransaction()) {
+        return transaction.queries(CDLabelsQueriesType.class)
+          .labelGetForName(name)
+          .isPresent();
+      }
+    }
+  }
+
+  /**
+   * Connections returned to the pool are reused and counted as idle.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testPoolReusesConnections()
+    throws Exception
+  {
+    final var pool =
+      DatabaseConnectionPoolParameters.builder()
+        .setMinimumSize(1)
+        .setMaximumSize(2)
+        .build();
+
+    try (var database = this.openWithPool(pool)) {
+      final var initial = database.connectionPoolStatistics();
+      Assertions.assertEquals(0, initial.connectionsActive());
+      Assertions.assertEquals(1, initial.connectionsIdle());
+      Assertions.assertEquals(2, initial.connectionsMaximum());
+
+      try (var connection0 = database.openConnection()) {
+        try (var connection1 = database.openConnection()) {
+          final var busy = database.connectionPoolStatistics();
+          Assertions.assertEquals(2, busy.connectionsActive());
+          Assertions.assertEquals(0, busy.connectionsIdle());
+        }
+      }
+
+      final var after = database.connectionPoolStatistics();
+      Assertions.assertEquals(0, after.connectionsActive());
+      Assertions.assertEquals(2, after.connectionsIdle());
+
+      final var acquisitions =
+        after.waitTimeHistogram()
+          .values()
+          .stream()
+          .mapToLong(Long::longValue)
+          .sum();
+
+      Assertions.assertTrue(acquisitions >= 2L);
+    }
+  }
+
+  /**
+   * Closing a connection twice returns it to the pool exactly once.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testPoolCloseIdempotent()
+    throws Exception
+  {
+    final var pool =
+      DatabaseConnectionPoolParameters.builder()
+        .setMinimumSize(0)
+        .setMaximumSize(1)
+        .build();
+
+    try (var database = this.openWithPool(pool)) {
+      final var connection = database.openConnection();
+      connection.close();
+      connection.close();
+
+      final var after = database.connectionPoolStatistics();
+      Assertions.assertEquals(0, after.connectionsActive());
+      Assertions.assertEquals(1, after.connectionsIdle());
+    }
+  }
+
+  /**
+   * Acquiring a connection from an exhausted pool times out.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testPoolExhaustedTimeout()
+    throws Exception
+  {
+    final var pool =
+      DatabaseConnectionPoolParameters.builder()
+        .setMinimumSize(1)
+        .setMaximumSize(1)
+        .setAcquireTimeout(Duration.ofMillis(100L))
+        .build();
+
+    try (var database = this.openWithPool(pool)) {
+      try (var connection = database.openConnection()) {
+        final var ex =
+          Assertions.assertThrows(DatabaseException.class, database::openConnection);
+        LOG.debug("exception: ", ex);
+      }
+
+      Assertions.assertEquals(1L, database.connectionPoolStatistics().acquisitionTimeouts());
+
+      try (var connection = database.openConnection()) {
+        Assertions.assertEquals(1, database.connectionPoolStatistics().connectionsActive());
+      }
+    }
+  }
+
+  /**
+   * A waiting caller receives a connection as soon as another caller returns one.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testPoolWaiterWokenOnRelease()
+    throws Exception
+  {
+    final var pool =
+      DatabaseConnectionPoolParameters.builder()
+        .setMinimumSize(1)
+        .setMaximumSize(1)
+        .setAcquireTimeout(Duration.ofSeconds(10L))
+        .build();
+
+    try (var database = this.openWithPool(pool)) {
+      final var executor = Executors.newSingleThreadExecutor();
+      try {
+        final Future<?> waiter;
+        try (var connection = database.openConnection()) {
+          waiter = executor.submit(() -> {
+            try (var other = database.openConnection()) {
+              return Boolean.valueOf(other != null);
+            }
+          });
+          Thread.sleep(100L);
+          Assertions.assertFalse(waiter.isDone());
+        }
+        waiter.get(5L, TimeUnit.SECONDS);
+      } finally {
+        executor.shutdown();
+      }
+    }
+  }
+
+  /**
+   * Connections that are never returned are reported as leaked.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testPoolLeakDetected()
+    throws Exception
+  {
+    final var pool =
+      DatabaseConnectionPoolParameters.builder()
+        .setMinimumSize(0)
+        .setMaximumSize(2)
+        .setLeakThreshold(Duration.ofMillis(10L))
+        .setMaintenanceInterval(Duration.ofMillis(10L))
+        .build();
+
+    try (var database = this.openWithPool(pool)) {
+      /*
+       * The background data migrations may have held a connection for longer than the threshold.
+       */
+
+      final var leaksBefore = database.connectionPoolStatistics().leaksDetected();
+      try (var connection = database.openConnection()) {
+        final var timeEnd = System.nanoTime() + Duration.ofSeconds(5L).toNanos();
+        while (database.connectionPoolStatistics().leaksDetected() == leaksBefore) {
+          Assertions.assertTrue(System.nanoTime() < timeEnd, "Leak must be detected");
+          Thread.sleep(10L);
+        }
+      }
+      Assertions.assertEquals(
+        leaksBefore + 1L,
+        database.connectionPoolStatistics().leaksDetected());
+    }
+  }
+
+  /**
+   * Idle connections above the minimum pool size are evicted.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testPoolIdleEviction()
+    throws Exception
+  {
+    final var pool =
+      DatabaseConnectionPoolParameters.builder()
+        .setMinimumSize(1)
+        .setMaximumSize(3)
+        .setIdleTimeout(Duration.ofMillis(10L))
+        .setMaintenanceInterval(Duration.ofMillis(10L))
+        .build();
+
+    try (var database = this.openWithPool(pool)) {
+      try (var connection0 = database.openConnection()) {
+        try (var connection1 = database.openConnection()) {
+          try (var connection2 = database.openConnection()) {
+            Assertions.assertEquals(3, database.connectionPoolStatistics().connectionsActive());
+          }
+        }
+      }
+
+      final var timeEnd = System.nanoTime() + Duration.ofSeconds(5L).toNanos();
+      while (database.connectionPoolStatistics().connectionsIdle() > 1) {
+        Assertions.assertTrue(System.nanoTime() < timeEnd, "Idle connections must be evicted");
+        Thread.sleep(10L);
+      }
+      Assertions.assertEquals(1, database.connectionPoolStatistics().connectionsIdle());
+    }
+  }
+
+  /**
+   * Blob data read lazily after a transaction has committed opens a new transaction on the
+   * connection; the connection is rolled back and reused, rather than discarded, when it is
+   * returned to the pool.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testPoolReusesConnectionAfterLazyRead()
+    throws Exception
+  {
+    final var pool =
+      DatabaseConnectionPoolParameters.builder()
+        .setMinimumSize(0)
+        .setMaximumSize(1)
+        .build();
+
+    try (var database = this.openWithPool(pool)) {
+      final var blobs = blobsCreate(database, List.of("Hello"));
+      final var hash = blobs.firstKey();
+
+      try (var connection = database.openConnection()) {
+        final PagesDatabaseBlobDTO blob;
+        try (var transaction = connection.beginTransaction()) {
+          blob = transaction.queries(PagesDatabaseQueriesType.class).pageBlobGet(hash).get();
+          transaction.commit();
+        }
+        Assertions.assertEquals("Hello", new String(blob.data().read(), StandardCharsets.UTF_8));
+      }
+
+      final var statistics = database.connectionPoolStatistics();
+      Assertions.assertEquals(0, statistics.connectionsActive());
+      Assertions.assertEquals(1, statistics.connectionsIdle());
+    }
+  }
+
+  /**
+   * Queries are created once per connection and reused by each transaction on that connection.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testQueriesReusedWithinConnection()
+    throws Exception
+  {
+    try (var database = this.openWithPool(DatabaseConnectionPoolParameters.builder().build())) {
+      final CDAccountsQueriesType accounts0;
+      try (var connection = database.openConnection()) {
+        try (var transaction = connection.beginTransaction()) {
+          accounts0 = transaction.queries(CDAccountsQueriesType.class);
+          final var accounts1 = transaction.queries(CDAccountsQueriesType.class);
+          Assertions.assertSame(accounts0, accounts1);
+
+          final var pages0 = transaction.queries(PagesDatabaseQueriesType.class);
+          final var pages1 = transaction.queries(PagesDatabaseQueriesType.class);
+          Assertions.assertSame(pages0, pages1);
+        }
+
+        try (var transaction = connection.beginTransaction()) {
+          final var accounts2 = transaction.queries(CDAccountsQueriesType.class);
+          Assertions.assertSame(accounts0, accounts2);
+        }
+      }
+
+      try (var connection = database.openConnection()) {
+        try (var transaction = connection.beginTransaction()) {
+          final var accounts3 = transaction.queries(CDAccountsQueriesType.class);
+          Assertions.assertNotSame(accounts0, accounts3);
+        }
+      }
+    }
+  }
+
+  /**
+   * An asynchronous transaction is committed when the function returns normally.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testAsyncCommits()
+    throws Exception
+  {
+    try (var database = this.openWithAsync(DatabaseAsyncParameters.builder().build())) {
+      final var label =
+        database.transactAsync(transaction -> {
+          return transaction.queries(CDLabelsQueriesType.class)
+            .labelCreate("label0", "A label");
+        }).toCompletableFuture().get(10L, TimeUnit.SECONDS);
+
+      Assertions.assertEquals("label0", label.name());
+      Assertions.assertTrue(labelExists(database, "label0"));
+    }
+  }
+
+  /**
+   * An asynchronous transaction is rolled back when the function raises an exception.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testAsyncRollsBackOnFailure()
+    throws Exception
+  {
+    try (var database = this.openWithAsync(DatabaseAsyncParameters.builder().build())) {
+      final var future =
+        database.transactAsync(transaction -> {
+          transaction.queries(CDLabelsQueriesType.class)
+            .labelCreate("label0", "A label");
+          throw new IllegalStateException("Failed!");
+        }).toCompletableFuture();
+
+      final var ex =
+        Assertions.assertThrows(
+          ExecutionException.class,
+          () -> future.get(10L, TimeUnit.SECONDS));
+      Assertions.assertEquals(IllegalStateException.class, ex.getCause().getClass());
+      Assertions.assertFalse(labelExists(database, "label0"));
+    }
+  }
+
+  /**
+   * Submissions beyond the queue capacity are rejected immediately.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testAsyncQueueFull()
+    throws Exception
+  {
+    final var async =
+      DatabaseAsyncParameters.builder()
+        .setThreads(1)
+        .setQueueCapacity(0)
+        .build();
+
+    try (var database = this.openWithAsync(async)) {
+      final var started = new CountDownLatch(1);
+      final var release = new CountDownLatch(1);
+
+      final var first =
+        database.transactAsync(transaction -> {
+          started.countDown();
+          return Boolean.valueOf(release.await(10L, TimeUnit.SECONDS));
+        }).toCompletableFuture();
+
+      started.await(10L, TimeUnit.SECONDS);
+
+      final var second =
+        database.transactAsync(transaction -> Boolean.TRUE)
+          .toCompletableFuture();
+
+      Assertions.assertTrue(second.isCompletedExceptionally());
+      final var ex =
+        Assertions.assertThrows(ExecutionException.class, second::get);
+      Assertions.assertEquals(DatabaseException.class, ex.getCause().getClass());
+
+      release.countDown();
+      Assertions.assertEquals(Boolean.TRUE, first.get(10L, TimeUnit.SECONDS));
+
+      final var third =
+        database.transactAsync(transaction -> Boolean.TRUE)
+          .toCompletableFuture();
+      Assertions.assertEquals(Boolean.TRUE, third.get(10L, TimeUnit.SECONDS));
+    }
+  }
+
+  /**
+   * A transaction that overruns its deadline fails, and its work is not committed.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testAsyncDeadline()
+    throws Exception
+  {
+    final var async =
+      DatabaseAsyncParameters.builder()
+        .setThreads(1)
+        .build();
+
+    try (var database = this.openWithAsync(async)) {
+      final var future =
+        database.transactAsync(Duration.ofMillis(100L), transaction -> {
+          final var label =
+            transaction.queries(CDLabelsQueriesType.class)
+              .labelCreate("label0", "A label");
+          Thread.sleep(200L);
+          return label;
+        }).toCompletableFuture();
+
+      final var ex =
+        Assertions.assertThrows(
+          ExecutionException.class,
+          () -> future.get(10L, TimeUnit.SECONDS));
+      Assertions.assertEquals(DatabaseException.class, ex.getCause().getClass());
+
+      /*
+       * The stage fails only once the transaction has been rolled back.
+       */
+
+      final var exists =
+        database.transactAsync(transaction -> {
+          return Boolean.valueOf(
+            transaction.queries(CDLabelsQueriesType.class)
+              .labelGetForName("label0")
+              .isPresent());
+        }).toCompletableFuture().get(10L, TimeUnit.SECONDS);
+
+      Assertions.assertEquals(Boolean.FALSE, exists);
+    }
+  }
+
+  /**
+   * Closing the database waits for transactions running on an executor supplied by the user.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testAsyncCloseDrainsSuppliedExecutor()
+    throws Exception
+  {
+    final var executor = Executors.newSingleThreadExecutor();
+    try {
+      final var async =
+        DatabaseAsyncParameters.builder()
+          .setExecutor(executor)
+          .build();
+
+      final CompletableFuture<Boolean> future;
+      try (var database = this.openWithAsync(async)) {
+        future =
+          database.transactAsync(transaction -> {
+            Thread.sleep(200L);
+            return Boolean.TRUE;
+          }).toCompletableFuture();
+      }
+
+      Assertions.assertTrue(future.isDone());
+      Assertions.assertEquals(Boolean.TRUE, future.get());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Grouped transactions submitted together share a single physical transaction.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testGroupCommitShared()
+    throws Exception
+  {
+    final var groupCommit =
+      DatabaseGroupCommitParameters.builder()
+        .setMaximumDelay(Duration.ofSeconds(10L))
+        .setMaximumSize(4)
+        .build();
+
+    try (var database = this.openWithGroupCommit(Optional.of(groupCommit))) {
+      final Set<DatabaseTransactionType> transactions = ConcurrentHashMap.newKeySet();
+
+      final var futures = new CompletableFuture<?>[4];
+      for (int index = 0; index < futures.length; ++index) {
+        final var name = "label" + index;
+        futures[index] =
+          database.transactGrouped(transaction -> {
+            transactions.add(transaction);
+            return transaction.queries(CDLabelsQueriesType.class).labelCreate(name, "A label");
+          }).toCompletableFuture();
+      }
+
+      CompletableFuture.allOf(futures).get(10L, TimeUnit.SECONDS);
+      Assertions.assertEquals(1, transactions.size());
+
+      for (int index = 0; index < futures.length; ++index) {
+        Assertions.assertTrue(labelExists(database, "label" + index));
+      }
+    }
+  }
+
+  /**
+   * A grouped transaction that fails is rolled back without affecting the rest of its group, and
+   * grouped transactions cannot commit on their own.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testGroupCommitFailureIsolated()
+    throws Exception
+  {
+    final var groupCommit =
+      DatabaseGroupCommitParameters.builder()
+        .setMaximumDelay(Duration.ofSeconds(10L))
+        .setMaximumSize(4)
+        .build();
+
+    try (var database = this.openWithGroupCommit(Optional.of(groupCommit))) {
+      final var first =
+        database.transactGrouped(transaction -> {
+          return transaction.queries(CDLabelsQueriesType.class).labelCreate("label0", "A label");
+        }).toCompletableFuture();
+
+      final var second =
+        database.transactGrouped(transaction -> {
+          transaction.queries(CDLabelsQueriesType.class).labelCreate("label1", "A label");
+          throw new IllegalStateException("Failed!");
+        }).toCompletableFuture();
+
+      final var third =
+        database.transactGrouped(transaction -> {
+          transaction.queries(CDLabelsQueriesType.class).labelCreate("label2", "A label");
+          transaction.commit();
+          return Boolean.TRUE;
+        }).toCompletableFuture();
+
+      final var fourth =
+        database.transactGrouped(transaction -> {
+          return transaction.queries(CDLabelsQueriesType.class).labelCreate("label3", "A label");
+        }).toCompletableFuture();
+
+      Assertions.assertEquals("label0", first.get(10L, TimeUnit.SECONDS).name());
+      Assertions.assertEquals("label3", fourth.get(10L, TimeUnit.SECONDS).name());
+
+      final var ex1 =
+        Assertions.assertThrows(
+          ExecutionException.class,
+          () -> second.get(10L, TimeUnit.SECONDS));
+      Assertions.assertEquals(IllegalStateException.class, ex1.getCause().getClass());
+
+      final var ex2 =
+        Assertions.assertThrows(
+          ExecutionException.class,
+          () -> third.get(10L, TimeUnit.SECONDS));
+      Assertions.assertEquals(DatabaseException.class, ex2.getCause().getClass());
+
+      Assertions.assertTrue(labelExists(database, "label0"));
+      Assertions.assertFalse(labelExists(database, "label1"));
+      Assertions.assertFalse(labelExists(database, "label2"));
+      Assertions.assertTrue(labelExists(database, "label3"));
+    }
+  }
+
+  /**
+   * An error raised by a grouped transaction abandons the group, and every transaction in the
+   * group fails rather than reporting a result that was never committed.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testGroupCommitErrorFailsGroup()
+    throws Exception
+  {
+    final var groupCommit =
+      DatabaseGroupCommitParameters.builder()
+        .setMaximumDelay(Duration.ofSeconds(10L))
+        .setMaximumSize(2)
+        .build();
+
+    try (var database = this.openWithGroupCommit(Optional.of(groupCommit))) {
+      final var first =
+        database.transactGrouped(transaction -> {
+          return transaction.queries(CDLabelsQueriesType.class).labelCreate("label0", "A label");
+        }).toCompletableFuture();
+
+      final var second =
+        database.transactGrouped(transaction -> {
+          throw new AssertionError("Failed!");
+        }).toCompletableFuture();
+
+      final var ex0 =
+        Assertions.assertThrows(
+          ExecutionException.class,
+          () -> first.get(10L, TimeUnit.SECONDS));
+      Assertions.assertEquals(AssertionError.class, ex0.getCause().getClass());
+
+      final var ex1 =
+        Assertions.assertThrows(
+          ExecutionException.class,
+          () -> second.get(10L, TimeUnit.SECONDS));
+      Assertions.assertEquals(AssertionError.class, ex1.getCause().getClass());
+
+      Assertions.assertFalse(labelExists(database, "label0"));
+    }
+  }
+
+  /**
+   * A group that is not full is committed once the maximum delay has passed, and grouped
+   * transactions run individually if group commit is not enabled.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testGroupCommitDelay()
+    throws Exception
+  {
+    final var groupCommit =
+      DatabaseGroupCommitParameters.builder()
+        .setMaximumDelay(Duration.ofMillis(10L))
+        .build();
+
+    final var configurations =
+      List.of(Optional.of(groupCommit), Optional.<DatabaseGroupCommitParameters>empty());
+
+    for (int index = 0; index < configurations.size(); ++index) {
+      final var name = "label" + index;
+      try (var database = this.openWithGroupCommit(configurations.get(index))) {
+        final var label =
+          database.transactGrouped(transaction -> {
+            return transaction.queries(CDLabelsQueriesType.class).labelCreate(name, "A label");
+          }).toCompletableFuture().get(10L, TimeUnit.SECONDS);
+
+        Assertions.assertEquals(name, label.name());
+        Assertions.assertTrue(labelExists(database, name));
+      }
+    }
+  }
+
+  /**
+   * Closing one of two databases opened on the same embedded path does not shut down the other.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testCloseSharedEmbeddedPath()
+    throws Exception
+  {
+    final var pool = DatabaseConnectionPoolParameters.builder().build();
+    try (var database0 = this.openWithPool(pool)) {
+      try (var database1 = this.openWithPool(pool)) {
+        labelCreate(database1, "label0");
+      }
+      labelCreate(database0, "label1");
+      Assertions.assertTrue(labelExists(database0, "label0"));
+      Assertions.assertTrue(labelExists(database0, "label1"));
+    }
+  }
+
+  /**
+   * Read-only transactions can read but not write, and the connection can be used for writing
+   * again afterwards.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testReadOnlyTransactionRejectsWrites()
+    throws Exception
+  {
+    try (var database = this.openWithPool(DatabaseConnectionPoolParameters.builder().build())) {
+      try (var connection = database.openConnection()) {
+        try (var transaction = connection.beginReadOnlyTransaction()) {
+          final var labels = transaction.queries(CDLabelsQueriesType.class);
+          Assertions.assertEquals(Optional.empty(), labels.labelGetForName("label0"));
+          final var ex =
+            Assertions.assertThrows(
+              CDException.class,
+              () -> labels.labelCreate("label0", "A label"));
+          LOG.debug("exception: ", ex);
+        }
+
+        try (var transaction = connection.beginTransaction()) {
+          final var labels = transaction.queries(CDLabelsQueriesType.class);
+          labels.labelCreate("label0", "A label");
+          transaction.commit();
+        }
+      }
+
+      try (var connection = database.openReadOnlyConnection()) {
+        try (var transaction = connection.beginTransaction()) {
+          final var labels = transaction.queries(CDLabelsQueriesType.class);
+          Assertions.assertTrue(labels.labelGetForName("label0").isPresent());
+          Assertions.assertThrows(
+            CDException.class,
+            () -> labels.labelCreate("label1", "A label"));
+        }
+      }
+    }
+  }
+
+  /**
+   * Read-only connections come from their own pool, so readers are not blocked when every
+   * writable connection is in use.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testReadOnlyPoolSeparate()
+    throws Exception
+  {
+    final var pool =
+      DatabaseConnectionPoolParameters.builder()
+        .setMinimumSize(1)
+        .setMaximumSize(1)
+        .setAcquireTimeout(Duration.ofMillis(100L))
+        .build();
+
+    try (var database = this.openWithPools(pool, pool)) {
+      try (var writer = database.openConnection()) {
+        Assertions.assertThrows(DatabaseException.class, database::openConnection);
+
+        try (var reader = database.openReadOnlyConnection()) {
+          Assertions.assertEquals(
+            1, database.readOnlyConnectionPoolStatistics().connectionsActive());
+          Assertions.assertThrows(DatabaseException.class, database::openReadOnlyConnection);
+        }
+
+        Assertions.assertEquals(1, database.connectionPoolStatistics().connectionsActive());
+        Assertions.assertEquals(
+          0, database.readOnlyConnectionPoolStatistics().connectionsActive());
+      }
+    }
+  }
+
+  private static int freePort()
+    throws IOException
+  {
+    try (var socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+      return socket.getLocalPort();
+    }
+  }
+
+  private static DatabaseType openNode(
+    final Path path,
+    final DatabaseServerParameters server)
+    throws DatabaseException
+  {
+    final var registry = new MutablePartitionProviderRegistry();
+    registry.add(new CoreDatabasePartitionProviderDerby());
+
+    final var parameters =
+      DatabaseParameters.builder()
+        .setCreate(true)
+        .setPath(path.toAbsolutePath().toString())
+        .setServer(server)
+        .build();
+
+    return new DatabaseDerbyProvider(registry).open(parameters);
+  }
+
+  /**
+   * A database can be closed and opened again without reinstalling its schema.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testReopen()
+    throws Exception
+  {
+    try (var database = this.openWithPool(DatabaseConnectionPoolParameters.builder().build())) {
+      try (var connection = database.openConnection()) {
+        try (var transaction = connection.beginTransaction()) {
+          transaction.queries(CDLabelsQueriesType.class).labelCreate("label0", "A label");
+          transaction.commit();
+        }
+      }
+    }
+
+    try (var database = this.openWithPool(DatabaseConnectionPoolParameters.builder().build())) {
+      Assertions.assertTrue(labelExists(database, "label0"));
+    }
+  }
+
+  /**
+   * Opening a database records the time spent in each phase, including the upgrade of each
+   * partition, whether or not an upgrade was actually required.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testOpenTimings()
+    throws Exception
+  {
+    final var name = CoreDatabasePartitionProviderDerby.class.getCanonicalName();
+
+    for (int index = 0; index < 2; ++index) {
+      try (var database = this.openWithPool(DatabaseConnectionPoolParameters.builder().build())) {
+        final var timings = database.openTimings();
+        LOG.debug("timings: {}", timings);
+
+        Assertions.assertEquals(List.of(name), List.copyOf(timings.partitionUpgrades().keySet()));
+        final var phases =
+          timings.server()
+            .plus(timings.storage())
+            .plus(timings.connectionPools())
+            .plus(timings.partitionUpgrades().get(name));
+        Assertions.assertTrue(phases.compareTo(timings.total()) <= 0);
+      }
+    }
+  }
+
+  /**
+   * Connections, transactions and queries report their timings, results and errors to the
+   * metrics registry.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testMetrics()
+    throws Exception
+  {
+    final var metrics = MetricsRegistry.create();
+
+    try (var database = this.openWithMetrics(metrics)) {
+      labelCreate(database, "label0");
+      Assertions.assertTrue(labelExists(database, "label0"));
+
+      final var ex = Assertions.assertThrows(CDException.class, () -> {
+        labelCreate(database, "label0");
+      });
+      Assertions.assertEquals(CDLabelsQueriesType.LABEL_ALREADY_EXISTS, ex.errorCode());
+
+      final var snapshot = metrics.snapshot();
+      LOG.debug("snapshot: {}", snapshot);
+
+      final var acquire =
+        MetricsKey.of("ironpage.database.connection.acquire", sortedMap("pool", "write"));
+      Assertions.assertEquals(3L, snapshot.histograms().get(acquire).count());
+
+      final var commit =
+        MetricsKey.of("ironpage.database.transaction.commit", sortedMap());
+      Assertions.assertEquals(1L, snapshot.histograms().get(commit).count());
+
+      final var lifetime =
+        MetricsKey.of("ironpage.database.transaction.lifetime", sortedMap());
+      Assertions.assertEquals(3L, snapshot.histograms().get(lifetime).count());
+
+      final var getTime =
+        MetricsKey.of(
+          "ironpage.database.queries.time",
+          sortedMap("method", "labelGetForName", "queries", "CDLabelsQueriesType"));
+      Assertions.assertEquals(1L, snapshot.histograms().get(getTime).count());
+
+      final var getRows =
+        MetricsKey.of(
+          "ironpage.database.queries.rows",
+          sortedMap("method", "labelGetForName", "queries", "CDLabelsQueriesType"));
+      Assertions.assertEquals(1L, snapshot.histograms().get(getRows).sum());
+
+      final var errors =
+        MetricsKey.of(
+          "ironpage.database.queries.errors",
+          sortedMap(
+            "code", CDLabelsQueriesType.LABEL_ALREADY_EXISTS.code(),
+            "method", "labelCreate",
+            "queries", "CDLabelsQueriesType"));
+      Assertions.assertEquals(Long.valueOf(1L), snapshot.counters().get(errors));
+
+      final var active =
+        MetricsKey.of("ironpage.database.pool.active", sortedMap("pool", "write"));
+      Assertions.assertEquals(Long.valueOf(0L), snapshot.gauges().get(active));
+    }
+  }
+
+  /**
+   * Closing a transaction that has been committed, or that has done nothing, does not roll it
+   * back.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testTransactionCloseSkipsRedundantRollback()
+    throws Exception
+  {
+    final var metrics = MetricsRegistry.create();
+    final var commit =
+      MetricsKey.of("ironpage.database.transaction.commit", sortedMap());
+    final var rollback =
+      MetricsKey.of("ironpage.database.transaction.rollback", sortedMap());
+
+    try (var database = this.openWithMetrics(metrics)) {
+      labelCreate(database, "label0");
+
+      try (var connection = database.openConnection()) {
+        try (var transaction = connection.beginTransaction()) {
+          transaction.commit();
+        }
+      }
+
+      final var snapshot0 = metrics.snapshot();
+      Assertions.assertEquals(1L, snapshot0.histograms().get(commit).count());
+      Assertions.assertEquals(0L, snapshot0.histograms().get(rollback).count());
+
+      try (var connection = database.openConnection()) {
+        final var transaction = connection.beginTransaction();
+        transaction.queries(CDLabelsQueriesType.class).labelCreate("label1", "A label");
+        transaction.close();
+        transaction.close();
+      }
+
+      final var snapshot1 = metrics.snapshot();
+      Assertions.assertEquals(1L, snapshot1.histograms().get(rollback).count());
+      Assertions.assertFalse(labelExists(database, "label1"));
+    }
+  }
+
+  /**
+   * Rolling back to a savepoint discards only the work done after the savepoint, and a failed
+   * item in a batch can be discarded without losing the rest of the batch.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testTransactionSavepoints()
+    throws Exception
+  {
+    try (var database = this.openWithPool(DatabaseConnectionPoolParameters.builder().build())) {
+      try (var connection = database.openConnection()) {
+        try (var transaction = connection.beginTransaction()) {
+          final var labels = transaction.queries(CDLabelsQueriesType.class);
+          labels.labelCreate("label0", "A label");
+
+          final var savepoint0 = transaction.savepoint();
+          labels.labelCreate("label1", "A label");
+          transaction.rollbackTo(savepoint0);
+
+          final var savepoint1 = transaction.savepoint();
+          Assertions.assertThrows(CDException.class, () -> {
+            labels.labelCreate("label0", "A label");
+          });
+          transaction.rollbackTo(savepoint1);
+
+          labels.labelCreate("label2", "A label");
+          transaction.commit();
+
+          Assertions.assertThrows(DatabaseException.class, () -> {
+            transaction.rollbackTo(savepoint0);
+          });
+        }
+
+        try (var transaction = connection.beginTransaction()) {
+          final var savepoint = transaction.savepoint();
+          transaction.rollback();
+          Assertions.assertThrows(DatabaseException.class, () -> {
+            transaction.rollbackTo(savepoint);
+          });
+        }
+      }
+
+      Assertions.assertTrue(labelExists(database, "label0"));
+      Assertions.assertFalse(labelExists(database, "label1"));
+      Assertions.assertTrue(labelExists(database, "label2"));
+    }
+  }
+
+  private static SortedMap<String, String> sortedMap(
+    final String... pairs)
+  {
+    final var map = new TreeMap<String, String>();
+    for (int index = 0; index < pairs.length; index += 2) {
+      map.put(pairs[index], pairs[index + 1]);
+    }
+    return map;
+  }
+
+  /**
+   * Statements slower than the threshold are logged along with their execution plans, whether
+   * they are executed by jOOQ or directly from the statement cache.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testSlowQueryLog()
+    throws Exception
+  {
+    final var logger =
+      (ch.qos.logback.classic.Logger) LoggerFactory.getLogger(
+        "com.io7m.ironpage.database.core.derby.CoreSlowQueryLog");
+    final var appender = new ListAppender<ILoggingEvent>();
+    appender.start();
+    logger.addAppender(appender);
+
+    try {
+      final var registry = new MutablePartitionProviderRegistry();
+      registry.add(new CoreDatabasePartitionProviderDerby(
+        Clock.systemUTC(),
+        DatabaseSlowQueryParameters.builder()
+          .setThreshold(Duration.ZERO)
+          .setCapturePlans(true)
+          .build()));
+
+      final var databases = new DatabaseDerbyProvider(registry);
+      final var parameters =
+        DatabaseParameters.builder()
+          .setCreate(true)
+          .setPath(this.databasePath.toString())
+          .build();
+
+      final long labelId;
+      try (var database = databases.open(parameters)) {
+        try (var connection = database.openConnection()) {
+          try (var transaction = connection.beginTransaction()) {
+            final var labels = transaction.queries(CDLabelsQueriesType.class);
+            labelId = labels.labelCreate("label0", "A label").id();
+            Assertions.assertTrue(labels.labelGet(labelId).isPresent());
+            transaction.commit();
+          }
+        }
+      }
+
+      final var messages =
+        appender.list.stream()
+          .map(ILoggingEvent::getFormattedMessage)
+          .collect(Collectors.toList());
+      messages.forEach(message -> LOG.debug("logged: {}", message));
+
+      Assertions.assertTrue(
+        messages.stream().anyMatch(
+          m -> m.startsWith("slow query:") && m.contains("insert into core.security_labels")));
+      Assertions.assertTrue(
+        messages.stream().anyMatch(
+          m -> m.startsWith("slow query:") && m.contains("where label_id = ?")));
+      Assertions.assertTrue(
+        messages.stream().anyMatch(m -> m.startsWith("slow query plan:")));
+    } finally {
+      logger.detachAppender(appender);
+    }
+  }
+
+  /**
+   * A backup can be taken while the database is open, and restoring it discards changes made
+   * after the backup.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testBackupRestore()
+    throws Exception
+  {
+    final var reports = new AtomicInteger();
+    final DatabaseBackup backup;
+
+    try (var database = this.openWithPool(DatabaseConnectionPoolParameters.builder().build())) {
+      labelCreate(database, "label0");
+
+      backup = database.backup(
+        DatabaseBackupParameters.builder()
+          .setDirectory(this.backupPath)
+          .build(),
+        (copied, estimated) -> {
+          LOG.debug("backup: {} / {}", Long.valueOf(copied), Long.valueOf(estimated));
+          reports.incrementAndGet();
+        });
+
+      labelCreate(database, "label1");
+    }
+
+    LOG.debug("backup: {}", backup);
+    Assertions.assertTrue(Files.isDirectory(backup.path()));
+    Assertions.assertTrue(backup.size() > 0L);
+    Assertions.assertFalse(backup.logArchiving());
+    Assertions.assertTrue(reports.get() > 0);
+
+    try (var database = this.openWithRestore(
+      DatabaseRestoreParameters.builder()
+        .setBackup(backup.path())
+        .build())) {
+      Assertions.assertTrue(labelExists(database, "label0"));
+      Assertions.assertFalse(labelExists(database, "label1"));
+    }
+  }
+
+  /**
+   * A backup taken with log archiving enabled can be rolled forward to recover changes made
+   * after the backup.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testBackupRollForward()
+    throws Exception
+  {
+    final DatabaseBackup backup;
+
+    try (var database = this.openWithPool(DatabaseConnectionPoolParameters.builder().build())) {
+      labelCreate(database, "label0");
+
+      backup = database.backup(
+        DatabaseBackupParameters.builder()
+          .setDirectory(this.backupPath)
+          .setEnableLogArchiving(true)
+          .build(),
+        (copied, estimated) -> {
+        });
+
+      labelCreate(database, "label1");
+    }
+
+    Assertions.assertTrue(backup.logArchiving());
+
+    try (var database = this.openWithRestore(
+      DatabaseRestoreParameters.builder()
+        .setBackup(backup.path())
+        .setRollForward(true)
+        .build())) {
+      Assertions.assertTrue(labelExists(database, "label0"));
+      Assertions.assertTrue(labelExists(database, "label1"));
+    }
+  }
+
+  /**
+   * Several nodes can open the same database through a network server at the same time; the
+   * schema is installed exactly once and each node sees the others' changes.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testNetworkServerSharedStore()
+    throws Exception
+  {
+    final var port = freePort();
+    final var starting =
+      DatabaseServerParameters.builder()
+        .setHost("localhost")
+        .setPort(port)
+        .setStartServer(true)
+        .build();
+    final var joining =
+      DatabaseServerParameters.builder()
+        .from(starting)
+        .setStartServer(false)
+        .build();
+
+    final var shared = this.databasePath.resolve("shared");
+    final var executor = Executors.newFixedThreadPool(2);
+    try (var first = openNode(this.databasePath.resolve("first"), starting)) {
+      final List<Callable<DatabaseType>> tasks =
+        List.of(
+          () -> openNode(shared, joining),
+          () -> openNode(shared, joining));
+      final var opens = executor.invokeAll(tasks);
+
+      try (var node0 = opens.get(0).get(); var node1 = opens.get(1).get()) {
+        try (var connection = node0.openConnection()) {
+          try (var transaction = connection.beginTransaction()) {
+            transaction.queries(CDLabelsQueriesType.class).labelCreate("label0", "A label");
+            transaction.commit();
+          }
+        }
+        Assertions.assertTrue(labelExists(node1, "label0"));
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Storage parameters are stored in the database and reported in diagnostics.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testStorageParameters()
+    throws Exception
+  {
+    final var storage =
+      DatabaseStorageParameters.builder()
+        .setPageCacheSize(2000)
+        .setPageSize(8192)
+        .setLogBufferSize(65536)
+        .setCheckpointInterval(1_000_000L)
+        .setLockWaitTimeout(Duration.ofSeconds(5L))
+        .build();
+
+    try (var database = this.openWithStorage(storage)) {
+      final var diagnostics = database.storageDiagnostics();
+      LOG.debug("diagnostics: {}", diagnostics);
+
+      final var properties = diagnostics.properties();
+      Assertions.assertEquals("2000", properties.get("derby.storage.pageCacheSize"));
+      Assertions.assertEquals("8192", properties.get("derby.storage.pageSize"));
+      Assertions.assertEquals("65536", properties.get("derby.storage.logBufferSize"));
+      Assertions.assertEquals("1000000", properties.get("derby.storage.checkpointInterval"));
+      Assertions.assertEquals("5", properties.get("derby.locks.waitTimeout"));
+      Assertions.assertFalse(diagnostics.restartRequired());
+
+      final var pageSizes = diagnostics.tablePageSizes();
+      Assertions.assertEquals(Integer.valueOf(8192), pageSizes.get("CORE.USERS"));
+      Assertions.assertTrue(pageSizes.containsKey("CORE.BLOBS"));
+    }
+
+    try (var database = this.openWithStorage(DatabaseStorageParameters.builder().build())) {
+      final var properties = database.storageDiagnostics().properties();
+      Assertions.assertEquals("2000", properties.get("derby.storage.pageCacheSize"));
+    }
+  }
+
+  /**
+   * Planning a migration does not modify or create the database, does not disturb a database
+   * that is open, and lists the statements of every step.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testMigrationPlanDryRun()
+    throws Exception
+  {
+    final var databases = coreProvider();
+    final var parameters =
+      this.parametersWithMigration(DatabaseMigrationParameters.builder().build());
+
+    final var plans = databases.migrationPlan(parameters);
+    LOG.debug("plans: {}", plans);
+    Assertions.assertEquals(1, plans.size());
+
+    final var plan = plans.get(0);
+    Assertions.assertEquals(Optional.empty(), plan.installedVersion());
+    Assertions.assertEquals(BigInteger.valueOf(3L), plan.latestVersion());
+    Assertions.assertEquals(
+      List.of(BigInteger.ZERO, BigInteger.ONE, BigInteger.TWO, BigInteger.valueOf(3L)),
+      plan.steps().stream().map(DatabaseMigrationStep::version).collect(Collectors.toList()));
+    Assertions.assertTrue(
+      plan.steps().get(0).statements().stream().anyMatch(s -> s.contains("create schema core")));
+
+    Assertions.assertEquals(plans, databases.migrationPlan(parameters));
+    Assertions.assertFalse(Files.exists(this.databasePath));
+
+    try (var database = databases.open(parameters)) {
+      Assertions.assertEquals(
+        List.of(),
+        databases.migrationPlan(parameters).get(0).steps());
+      Assertions.assertFalse(labelExists(database, "label0"));
+    }
+
+    final var upgraded = databases.migrationPlan(parameters).get(0);
+    Assertions.assertEquals(Optional.of(BigInteger.valueOf(3L)), upgraded.installedVersion());
+    Assertions.assertEquals(List.of(), upgraded.steps());
+  }
+
+  /**
+   * Each batch of migration statements is recorded in the migration history table, and a batch
+   * size of one records every statement individually.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testMigrationHistoryStatements()
+    throws Exception
+  {
+    final var databases = coreProvider();
+    final var parameters =
+      this.parametersWithMigration(DatabaseMigrationParameters.builder().setBatchSize(1).build());
+
+    final var steps = databases.migrationPlan(parameters).get(0).steps();
+    try (var database = databases.open(parameters)) {
+      Assertions.assertFalse(labelExists(database, "label0"));
+    }
+
+    final var expected = new ArrayList<List<Long>>();
+    for (final var step : steps) {
+      for (int index = 0; index < step.statements().size(); ++index) {
+        expected.add(List.of(
+          Long.valueOf(step.version().longValueExact()),
+          Long.valueOf(index),
+          Long.valueOf(1L)));
+      }
+    }
+    Assertions.assertEquals(expected, this.migrationHistory());
+  }
+
+  /**
+   * With the default batch size, the statements of each revision are executed as one batch, and
+   * reopening an up-to-date database records nothing further.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testMigrationHistoryBatched()
+    throws Exception
+  {
+    final var databases = coreProvider();
+    final var parameters =
+      this.parametersWithMigration(DatabaseMigrationParameters.builder().build());
+
+    final var steps = databases.migrationPlan(parameters).get(0).steps();
+    for (int index = 0; index < 2; ++index) {
+      try (var database = databases.open(parameters)) {
+        Assertions.assertFalse(labelExists(database, "label0"));
+      }
+    }
+
+    final var expected = new ArrayList<List<Long>>();
+    for (final var step : steps) {
+      final var count = step.statements().size();
+      for (int index = 0; index < count; index += 32) {
+        expected.add(List.of(
+          Long.valueOf(step.version().longValueExact()),
+          Long.valueOf(index),
+          Long.valueOf(Math.min(32, count - index))));
+      }
+    }
+    Assertions.assertEquals(expected, this.migrationHistory());
+  }
+
+  /**
+   * Blobs written before the revision that records blob sizes are filled in by a data migration
+   * that runs in chunks after the database has opened; the blobs remain readable while the
+   * migration runs.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testDataMigrationBlobSizes()
+    throws Exception
+  {
+    final var databases = coreProvider();
+    final var parameters =
+      this.parametersWithMigration(
+        DatabaseMigrationParameters.builder()
+          .setDataChunkSize(2)
+          .build());
+
+    final SortedMap<String, String> blobs;
+    try (var database = dataMigrated(databases.open(parameters))) {
+      blobs = blobsCreate(database, List.of("a", "bb", "ccc", "dddd", "eeeee"));
+    }
+
+    final var expected =
+      blobs.values()
+        .stream()
+        .map(content -> Long.valueOf(content.length()))
+        .collect(Collectors.toList());
+    Assertions.assertEquals(expected, this.blobSizes());
+
+    this.executeClosed(
+      "UPDATE core.blobs SET blob_size = NULL",
+      "UPDATE APP.IRONPAGE_DATA_MIGRATIONS SET CHECKPOINT_KEY = '', ROWS_MIGRATED = 0, "
+        + "FINISHED = FALSE");
+    Assertions.assertEquals(List.of(-1L, -1L, -1L, -1L, -1L), this.blobSizes());
+
+    try (var database = databases.open(parameters)) {
+      try (var connection = database.openReadOnlyConnection()) {
+        try (var transaction = connection.beginTransaction()) {
+          final var pages = transaction.queries(PagesDatabaseQueriesType.class);
+          for (final var entry : blobs.entrySet()) {
+            Assertions.assertEquals(
+              (long) entry.getValue().length(),
+              pages.pageBlobMetadataGet(entry.getKey()).get().size());
+          }
+        }
+      }
+      dataMigrated(database);
+    }
+
+    Assertions.assertEquals(expected, this.blobSizes());
+    Assertions.assertEquals(List.of(5L, 1L), this.blobSizesProgress());
+  }
+
+  /**
+   * A data migration resumes from its last checkpoint, and does not revisit the rows before it.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testDataMigrationResumesFromCheckpoint()
+    throws Exception
+  {
+    final var databases = coreProvider();
+    final var parameters =
+      this.parametersWithMigration(
+        DatabaseMigrationParameters.builder()
+          .setDataChunkSize(2)
+          .build());
+
+    final List<String> hashes;
+    final List<String> contents;
+    try (var database = dataMigrated(databases.open(parameters))) {
+      final var blobs = blobsCreate(database, List.of("a", "bb", "ccc", "dddd", "eeeee"));
+      hashes = List.copyOf(blobs.keySet());
+      contents = List.copyOf(blobs.values());
+    }
+
+    this.executeClosed(
+      "UPDATE core.blobs SET blob_size = NULL",
+      "UPDATE APP.IRONPAGE_DATA_MIGRATIONS SET CHECKPOINT_KEY = '" + hashes.get(1)
+        + "', ROWS_MIGRATED = 2, FINISHED = FALSE");
+
+    try (var database = databases.open(parameters)) {
+      dataMigrated(database);
+    }
+
+    final var expected = new ArrayList<Long>();
+    expected.add(Long.valueOf(-1L));
+    expected.add(Long.valueOf(-1L));
+    for (final var content : contents.subList(2, contents.size())) {
+      expected.add(Long.valueOf(content.length()));
+    }
+    Assertions.assertEquals(expected, this.blobSizes());
+    Assertions.assertEquals(List.of(5L, 1L), this.blobSizesProgress());
+  }
+
+  /**
+   * Closing a database stops its data migrations, which resume when the database is next opened.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testDataMigrationCancelledOnClose()
+    throws Exception
+  {
+    final var databases = coreProvider();
+    final var slow =
+      this.parametersWithMigration(
+        DatabaseMigrationParameters.builder()
+          .setDataChunkSize(1)
+          .setDataChunkDelay(Duration.ofHours(1L))
+          .build());
+
+    try (var database = dataMigrated(databases.open(slow))) {
+      blobsCreate(database, List.of("a", "bb", "ccc"));
+    }
+
+    this.executeClosed(
+      "UPDATE core.blobs SET blob_size = NULL",
+      "UPDATE APP.IRONPAGE_DATA_MIGRATIONS SET CHECKPOINT_KEY = '', ROWS_MIGRATED = 0, "
+        + "FINISHED = FALSE");
+
+    final CompletableFuture<Void> migrations;
+    try (var database = databases.open(slow)) {
+      migrations = database.dataMigrations().toCompletableFuture();
+    }
+    Assertions.assertTrue(migrations.isCancelled());
+    Assertions.assertEquals(0L, this.blobSizesProgress().get(1).longValue());
+
+    try (var database = databases.open(
+      this.parametersWithMigration(DatabaseMigrationParameters.builder().build()))) {
+      dataMigrated(database);
+    }
+    Assertions.assertEquals(List.of(3L, 1L), this.blobSizesProgress());
+  }
 }
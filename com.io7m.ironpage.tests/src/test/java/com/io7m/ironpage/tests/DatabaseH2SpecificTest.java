@@ -0,0 +1,421 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironpage.tests;
+
+import com.io7m.ironpage.database.api.DatabaseBackup;
+import com.io7m.ironpage.database.api.DatabaseBackupParameters;
+import com.io7m.ironpage.database.api.DatabaseMigrationParameters;
+import com.io7m.ironpage.database.api.DatabaseParameters;
+import com.io7m.ironpage.database.api.DatabaseRestoreParameters;
+import com.io7m.ironpage.database.api.DatabaseServerParameters;
+import com.io7m.ironpage.database.api.DatabaseStorageParameters;
+import com.io7m.ironpage.database.api.DatabaseType;
+import com.io7m.ironpage.database.core.api.CDAccountsQueriesType;
+import com.io7m.ironpage.database.core.api.CDLabelsQueriesType;
+import com.io7m.ironpage.database.core.api.CDPasswordHashDTO;
+import com.io7m.ironpage.database.core.h2.CoreDatabasePartitionProviderH2;
+import com.io7m.ironpage.database.h2.DatabaseH2Provider;
+import com.io7m.ironpage.database.pages.api.PagesDatabaseQueriesType;
+import com.io7m.ironpage.database.spi.DatabaseException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Tag("database")
+public final class DatabaseH2SpecificTest
+{
+  private static final Logger LOG = LoggerFactory.getLogger(DatabaseH2SpecificTest.class);
+
+  private Path databasePath;
+  private Path backupPath;
+
+  @BeforeEach
+  public void testSetup()
+    throws IOException
+  {
+    this.databasePath = Files.createTempDirectory("ironpage-");
+    Files.deleteIfExists(this.databasePath);
+    this.backupPath = Files.createTempDirectory("ironpage-backup-");
+  }
+
+  @AfterEach
+  public void testTearDown()
+    throws IOException
+  {
+    deleteTree(this.databasePath);
+    deleteTree(this.backupPath);
+  }
+
+  private static void deleteTree(
+    final Path path)
+    throws IOException
+  {
+    if (!Files.exists(path)) {
+      return;
+    }
+
+    Files.walk(path)
+      .sorted(Comparator.reverseOrder())
+      .map(Path::toFile)
+      .peek(file -> LOG.debug("delete {}", file))
+      .forEach(File::delete);
+  }
+
+  private DatabaseType open(
+    final DatabaseParameters.Builder parameters)
+    throws DatabaseException
+  {
+    final var registry = new MutablePartitionProviderRegistry();
+    registry.add(new CoreDatabasePartitionProviderH2());
+
+    final var databases = new DatabaseH2Provider(registry);
+    return databases.open(
+      parameters
+        .setCreate(true)
+        .setPath(this.databasePath.toString())
+        .build());
+  }
+
+  private static void labelCreate(
+    final DatabaseType database,
+    final String name)
+    throws Exception
+  {
+    try (var connection = database.openConnection()) {
+      try (var transaction = connection.beginTransaction()) {
+        transaction.queries(CDLabelsQueriesType.class).labelCreate(name, "A label");
+        transaction.commit();
+      }
+    }
+  }
+
+  private static boolean labelExists(
+    final DatabaseType database,
+    final String name)
+    throws Exception
+  {
+    try (var connection = database.openConnection()) {
+      try (var transaction = connection.beginTransaction()) {
+        return transaction.queries(CDLabelsQueriesType.class)
+          .labelGetForName(name)
+          .isPresent();
+      }
+    }
+  }
+
+  /**
+   * Opening a database creates it, installs the core partition, and the data survives a
+   * reopen.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testReopen()
+    throws Exception
+  {
+    final var name = CoreDatabasePartitionProviderH2.class.getCanonicalName();
+
+    try (var database = this.open(DatabaseParameters.builder())) {
+      Assertions.assertEquals("H2", database.dialect());
+      Assertions.assertEquals(
+        List.of(name),
+        List.copyOf(database.openTimings().partitionUpgrades().keySet()));
+      labelCreate(database, "label0");
+    }
+
+    try (var database = this.open(DatabaseParameters.builder())) {
+      Assertions.assertTrue(labelExists(database, "label0"));
+    }
+  }
+
+  /**
+   * H2 databases are always embedded, and so cannot be opened through a network server.
+   */
+
+  @Test
+  public void testServerUnsupported()
+  {
+    final var ex =
+      Assertions.assertThrows(DatabaseException.class, () -> {
+        this.open(DatabaseParameters.builder()
+                    .setServer(DatabaseServerParameters.builder()
+                                 .setHost("localhost")
+                                 .setPort(1527)
+                                 .build()));
+      });
+
+    LOG.debug("exception: ", ex);
+  }
+
+  /**
+   * The lock wait timeout is the only storage parameter that H2 supports; the others are
+   * ignored.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testStorageParameters()
+    throws Exception
+  {
+    final var storage =
+      DatabaseStorageParameters.builder()
+        .setPageCacheSize(2000)
+        .setLockWaitTimeout(Duration.ofSeconds(5L))
+        .build();
+
+    try (var database = this.open(DatabaseParameters.builder().setStorage(storage))) {
+      final var diagnostics = database.storageDiagnostics();
+      LOG.debug("diagnostics: {}", diagnostics);
+
+      Assertions.assertEquals("5000", diagnostics.properties().get("LOCK_TIMEOUT"));
+      Assertions.assertFalse(diagnostics.restartRequired());
+      Assertions.assertTrue(diagnostics.tablePageSizes().isEmpty());
+    }
+  }
+
+  /**
+   * A backup contains the changes made before the backup began, and none of the changes made
+   * afterwards.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testBackupRestore()
+    throws Exception
+  {
+    final var reports = new AtomicInteger();
+    final DatabaseBackup backup;
+
+    try (var database = this.open(DatabaseParameters.builder())) {
+      labelCreate(database, "label0");
+
+      backup = database.backup(
+        DatabaseBackupParameters.builder()
+          .setDirectory(this.backupPath)
+          .build(),
+        (copied, estimated) -> {
+          LOG.debug("backup: {} / {}", Long.valueOf(copied), Long.valueOf(estimated));
+          reports.incrementAndGet();
+        });
+
+      labelCreate(database, "label1");
+    }
+
+    LOG.debug("backup: {}", backup);
+    Assertions.assertTrue(Files.isRegularFile(backup.path()));
+    Assertions.assertTrue(backup.size() > 0L);
+    Assertions.assertFalse(backup.logArchiving());
+    Assertions.assertEquals(1, reports.get());
+
+    deleteTree(this.databasePath);
+
+    final var restore =
+      DatabaseRestoreParameters.builder()
+        .setBackup(backup.path())
+        .build();
+
+    try (var database = this.open(DatabaseParameters.builder().setRestore(restore))) {
+      Assertions.assertTrue(labelExists(database, "label0"));
+      Assertions.assertFalse(labelExists(database, "label1"));
+    }
+  }
+
+  /**
+   * H2 does not archive its transaction log, so backups cannot be rolled forward.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testBackupRollForwardUnsupported()
+    throws Exception
+  {
+    final DatabaseBackup backup;
+    try (var database = this.open(DatabaseParameters.builder())) {
+      backup = database.backup(
+        DatabaseBackupParameters.builder()
+          .setDirectory(this.backupPath)
+          .setEnableLogArchiving(true)
+          .build(),
+        (copied, estimated) -> {
+        });
+    }
+
+    Assertions.assertFalse(backup.logArchiving());
+
+    final var restore =
+      DatabaseRestoreParameters.builder()
+        .setBackup(backup.path())
+        .setRollForward(true)
+        .build();
+
+    Assertions.assertThrows(DatabaseException.class, () -> {
+      this.open(DatabaseParameters.builder().setRestore(restore));
+    });
+  }
+
+  /**
+   * Migrations can be planned without modifying the database, and are executed in batches when
+   * the database is opened.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testMigrationPlanDryRun()
+    throws Exception
+  {
+    final var registry = new MutablePartitionProviderRegistry();
+    registry.add(new CoreDatabasePartitionProviderH2());
+
+    final var databases = new DatabaseH2Provider(registry);
+    final var parameters =
+      DatabaseParameters.builder()
+        .setCreate(true)
+        .setPath(this.databasePath.toString())
+        .setMigration(DatabaseMigrationParameters.builder().setBatchSize(4).build())
+        .build();
+
+    final var plans = databases.migrationPlan(parameters);
+    Assertions.assertEquals(1, plans.size());
+    Assertions.assertEquals(Optional.empty(), plans.get(0).installedVersion());
+    Assertions.assertEquals(4, plans.get(0).steps().size());
+    Assertions.assertEquals(plans, databases.migrationPlan(parameters));
+    Assertions.assertFalse(Files.exists(this.databasePath));
+
+    try (var database = databases.open(parameters)) {
+      labelCreate(database, "label0");
+    }
+
+    final var upgraded = databases.migrationPlan(parameters).get(0);
+    Assertions.assertEquals(Optional.of(BigInteger.valueOf(3L)), upgraded.installedVersion());
+    Assertions.assertEquals(List.of(), upgraded.steps());
+  }
+
+  /**
+   * The blob sizes data migration fills in the sizes of blobs that have none.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testDataMigrationBlobSizes()
+    throws Exception
+  {
+    final var parameters =
+      DatabaseParameters.builder()
+        .setMigration(DatabaseMigrationParameters.builder().setDataChunkSize(2).build());
+
+    try (var database = this.open(parameters)) {
+      database.dataMigrations().toCompletableFuture().get(30L, TimeUnit.SECONDS);
+      try (var connection = database.openConnection()) {
+        try (var transaction = connection.beginTransaction()) {
+          final var label =
+            transaction.queries(CDLabelsQueriesType.class)
+              .labelCreate("label", "A label");
+          final var account =
+            transaction.queries(CDAccountsQueriesType.class)
+              .accountCreate(
+                UUID.randomUUID(),
+                "User",
+                CDPasswordHashDTO.builder()
+                  .setParameters("params")
+                  .setHash((byte) 0x0)
+                  .build(),
+                "someone@example.com",
+                Optional.empty());
+
+          final var pages = transaction.queries(PagesDatabaseQueriesType.class);
+          for (final var content : List.of("a", "bb", "ccc", "dddd", "eeeee")) {
+            pages.pageBlobPut(
+              account.id(),
+              "text/plain",
+              content.getBytes(StandardCharsets.UTF_8),
+              label);
+          }
+          transaction.commit();
+        }
+      }
+    }
+
+    this.executeClosed(
+      "UPDATE core.blobs SET blob_size = NULL",
+      "UPDATE PUBLIC.IRONPAGE_DATA_MIGRATIONS SET CHECKPOINT_KEY = '', ROWS_MIGRATED = 0, "
+        + "FINISHED = FALSE");
+
+    try (var database = this.open(parameters)) {
+      database.dataMigrations().toCompletableFuture().get(30L, TimeUnit.SECONDS);
+    }
+
+    this.executeClosed(
+      "UPDATE core.blobs SET blob_size = -1 WHERE blob_size <> LENGTH(blob_data)");
+    try (var connection = DriverManager.getConnection(this.jdbcURL())) {
+      try (var statement = connection.prepareStatement(
+        "SELECT COUNT(*) FROM core.blobs WHERE blob_size = LENGTH(blob_data)")) {
+        try (var result = statement.executeQuery()) {
+          Assertions.assertTrue(result.next());
+          Assertions.assertEquals(5L, result.getLong(1));
+        }
+      }
+    }
+  }
+
+  private String jdbcURL()
+  {
+    return "jdbc:h2:file:" + this.databasePath.toAbsolutePath().resolve("ironpage");
+  }
+
+  /**
+   * Execute statements against a closed database.
+   */
+
+  private void executeClosed(
+    final String... statements)
+    throws SQLException
+  {
+    try (var connection = DriverManager.getConnection(this.jdbcURL())) {
+      try (var statement = connection.createStatement()) {
+        for (final var text : statements) {
+          statement.executeUpdate(text);
+        }
+      }
+    }
+  }
+}
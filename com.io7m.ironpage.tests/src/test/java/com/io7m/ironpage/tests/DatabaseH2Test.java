@@ -0,0 +1,33 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironpage.tests;
+
+import com.io7m.ironpage.database.api.DatabaseProviderType;
+import com.io7m.ironpage.database.h2.DatabaseH2Provider;
+import com.io7m.ironpage.database.spi.DatabasePartitionProviderRegistryType;
+import org.junit.jupiter.api.Tag;
+
+@Tag("database")
+public final class DatabaseH2Test extends DatabaseContract
+{
+  @Override
+  protected DatabaseProviderType databases(
+    final DatabasePartitionProviderRegistryType inRegistry)
+  {
+    return new DatabaseH2Provider(inRegistry);
+  }
+}
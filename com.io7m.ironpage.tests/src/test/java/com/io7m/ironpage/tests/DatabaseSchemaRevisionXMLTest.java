@@ -29,8 +29,9 @@ import java.io.InputStream;
 import java.math.BigInteger;
 import java.net.URI;
 import java.sql.Connection;
-import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
 import java.util.Optional;
 
 @Tag("database")
@@ -84,7 +85,7 @@ public final class DatabaseSchemaRevisionXMLTest
     throws Exception
   {
     final var connection = Mockito.mock(Connection.class);
-    final var statement = Mockito.mock(PreparedStatement.class);
+    final var statement = Mockito.mock(Statement.class);
 
     final var revision =
       DatabaseSchemaRevisionXML.fromStream(
@@ -95,12 +96,20 @@ public final class DatabaseSchemaRevisionXMLTest
 
     Assertions.assertEquals(Optional.empty(), revision.schemaPrevious());
     Assertions.assertEquals(BigInteger.ZERO, revision.schemaCurrent());
+    Assertions.assertEquals(
+      List.of("STATEMENT 0", "STATEMENT 1", "STATEMENT 2"),
+      revision.statements());
 
-    Mockito.when(connection.prepareStatement("STATEMENT 0")).thenReturn(statement);
-    Mockito.when(connection.prepareStatement("STATEMENT 1")).thenReturn(statement);
-    Mockito.when(connection.prepareStatement("STATEMENT 2")).thenReturn(statement);
+    Mockito.when(connection.createStatement()).thenReturn(statement);
 
     revision.schemaMigrate(connection);
+
+    final var order = Mockito.inOrder(statement);
+    order.verify(statement).addBatch("STATEMENT 0");
+    order.verify(statement).addBatch("STATEMENT 1");
+    order.verify(statement).addBatch("STATEMENT 2");
+    order.verify(statement).executeBatch();
+    Mockito.verify(connection, Mockito.never()).prepareStatement(Mockito.anyString());
   }
 
   @Test
@@ -108,7 +117,7 @@ public final class DatabaseSchemaRevisionXMLTest
     throws Exception
   {
     final var connection = Mockito.mock(Connection.class);
-    final var statement = Mockito.mock(PreparedStatement.class);
+    final var statement = Mockito.mock(Statement.class);
 
     final var revision =
       DatabaseSchemaRevisionXML.fromStream(
@@ -120,9 +129,8 @@ public final class DatabaseSchemaRevisionXMLTest
     Assertions.assertEquals(Optional.empty(), revision.schemaPrevious());
     Assertions.assertEquals(BigInteger.ZERO, revision.schemaCurrent());
 
-    Mockito.when(connection.prepareStatement("STATEMENT 0")).thenReturn(statement);
-    Mockito.when(connection.prepareStatement("STATEMENT 1")).thenReturn(statement);
-    Mockito.when(connection.prepareStatement("STATEMENT 2")).thenThrow(new SQLException("CRASH!"));
+    Mockito.when(connection.createStatement()).thenReturn(statement);
+    Mockito.when(statement.executeBatch()).thenThrow(new SQLException("CRASH!"));
 
     final var ex = Assertions.assertThrows(DatabaseException.class, () -> {
       revision.schemaMigrate(connection);
@@ -0,0 +1,298 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironpage.tests;
+
+import com.io7m.ironpage.database.api.DatabaseConnectionPoolParameters;
+import com.io7m.ironpage.database.api.DatabaseParameters;
+import com.io7m.ironpage.database.api.DatabaseType;
+import com.io7m.ironpage.database.core.api.CDLabelsQueriesType;
+import com.io7m.ironpage.database.core.derby.CoreDatabasePartitionProviderDerby;
+import com.io7m.ironpage.database.derby.DatabaseDerbyProvider;
+import com.io7m.ironpage.database.spi.DatabaseException;
+import com.io7m.ironpage.database.vanilla.DatabaseConnectionBudget;
+import com.io7m.ironpage.database.vanilla.DatabaseTenants;
+import com.io7m.ironpage.database.vanilla.DatabaseTenantsParameters;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+@Tag("database")
+public final class DatabaseTenantsTest
+{
+  private static final Logger LOG = LoggerFactory.getLogger(DatabaseTenantsTest.class);
+
+  private Path directory;
+  private MutablePartitionProviderRegistry registry;
+
+  @BeforeEach
+  public void testSetup()
+    throws IOException
+  {
+    this.directory = Files.createTempDirectory("ironpage-tenants-");
+    this.registry = new MutablePartitionProviderRegistry();
+    this.registry.add(new CoreDatabasePartitionProviderDerby());
+  }
+
+  @AfterEach
+  public void testTearDown()
+    throws IOException
+  {
+    Files.walk(this.directory)
+      .sorted(Comparator.reverseOrder())
+      .map(Path::toFile)
+      .forEach(File::delete);
+  }
+
+  private DatabaseTenants tenants(
+    final int maximumOpen,
+    final DatabaseConnectionPoolParameters pool)
+  {
+    return DatabaseTenants.create(
+      new DatabaseDerbyProvider(this.registry),
+      tenant -> DatabaseParameters.builder()
+        .setCreate(true)
+        .setPath(this.directory.resolve(tenant).toString())
+        .setConnectionPool(pool)
+        .setReadOnlyConnectionPool(pool)
+        .build(),
+      DatabaseTenantsParameters.builder()
+        .setMaximumOpen(maximumOpen)
+        .build());
+  }
+
+  private static void labelCreate(
+    final DatabaseType database,
+    final String name)
+    throws Exception
+  {
+    try (var connection = database.openConnection()) {
+      try (var transaction = connection.beginTransaction()) {
+        transaction.queries(CDLabelsQueriesType.class).labelCreate(name, "A label");
+        transaction.commit();
+      }
+    }
+  }
+
+  private static boolean labelExists(
+    final DatabaseType database,
+    final String name)
+    throws Exception
+  {
+    try (var connection = database.openConnection()) {
+      try (var transaction = connection.beginTransaction()) {
+        return transaction.queries(CDLabelsQueriesType.class)
+          .labelGetForName(name)
+          .isPresent();
+      }
+    }
+  }
+
+  /**
+   * A single partition provider can install its schema into many databases concurrently, and
+   * each tenant's data is isolated from the others.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testTenantsShareProviders()
+    throws Exception
+  {
+    final var pool = DatabaseConnectionPoolParameters.builder().build();
+    final var executor = Executors.newFixedThreadPool(4);
+
+    try (var tenants = this.tenants(8, pool)) {
+      final var tasks = new ArrayList<Callable<Void>>();
+      for (int index = 0; index < 4; ++index) {
+        final var tenant = "tenant" + index;
+        tasks.add(() -> {
+          try (var lease = tenants.open(tenant)) {
+            labelCreate(lease.database(), tenant);
+          }
+          return null;
+        });
+      }
+
+      for (final var future : executor.invokeAll(tasks)) {
+        future.get();
+      }
+
+      Assertions.assertEquals(4, tenants.openCount());
+      for (int index = 0; index < 4; ++index) {
+        final var tenant = "tenant" + index;
+        try (var lease = tenants.open(tenant)) {
+          Assertions.assertEquals(tenant, lease.tenant());
+          Assertions.assertTrue(labelExists(lease.database(), tenant));
+          Assertions.assertFalse(labelExists(lease.database(), "tenant" + ((index + 1) % 4)));
+        }
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * The least recently used tenants that are not leased are closed, and are opened again on
+   * demand.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testTenantsEvictLeastRecentlyUsed()
+    throws Exception
+  {
+    final var pool = DatabaseConnectionPoolParameters.builder().build();
+
+    try (var tenants = this.tenants(2, pool)) {
+      try (var lease = tenants.open("a")) {
+        labelCreate(lease.database(), "label0");
+      }
+      try (var lease = tenants.open("b")) {
+        Assertions.assertEquals(2, tenants.openCount());
+      }
+      try (var lease = tenants.open("a")) {
+        Assertions.assertEquals(2, tenants.openCount());
+      }
+      try (var lease = tenants.open("c")) {
+        Assertions.assertEquals(2, tenants.openCount());
+      }
+
+      try (var lease = tenants.open("a")) {
+        Assertions.assertTrue(labelExists(lease.database(), "label0"));
+      }
+
+      try (var leaseB = tenants.open("b")) {
+        try (var leaseC = tenants.open("c")) {
+          try (var leaseA = tenants.open("a")) {
+            Assertions.assertEquals(3, tenants.openCount());
+          }
+        }
+        Assertions.assertEquals(2, tenants.openCount());
+      }
+    }
+  }
+
+  /**
+   * Databases sharing a connection budget cannot open more connections than the budget allows.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testConnectionBudget()
+    throws Exception
+  {
+    final var budget = DatabaseConnectionBudget.create(2);
+    final var pool =
+      DatabaseConnectionPoolParameters.builder()
+        .setMinimumSize(0)
+        .setMaximumSize(4)
+        .setAcquireTimeout(Duration.ofMillis(250L))
+        .setBudget(budget)
+        .build();
+
+    try (var tenants = this.tenants(1, pool)) {
+      try (var lease = tenants.open("a")) {
+        final var database = lease.database();
+        database.dataMigrations().toCompletableFuture().get(30L, TimeUnit.SECONDS);
+        final var connection0 = database.openConnection();
+        final var connection1 = database.openConnection();
+        Assertions.assertEquals(0, budget.available());
+
+        final var ex =
+          Assertions.assertThrows(DatabaseException.class, database::openConnection);
+        LOG.debug("exception: ", ex);
+
+        Assertions.assertThrows(DatabaseException.class, () -> tenants.open("b"));
+        Assertions.assertEquals(1, tenants.openCount());
+
+        connection0.close();
+        connection1.close();
+      }
+
+      try (var lease = tenants.open("b")) {
+        labelCreate(lease.database(), "label0");
+        Assertions.assertEquals(1, tenants.openCount());
+      }
+    }
+
+    Assertions.assertEquals(2, budget.available());
+  }
+
+  /**
+   * Idle connections held by tenants that are open but not in use are reclaimed when another
+   * tenant needs a connection from the budget.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testConnectionBudgetReclaimsIdle()
+    throws Exception
+  {
+    final var budget = DatabaseConnectionBudget.create(1);
+    final var pool =
+      DatabaseConnectionPoolParameters.builder()
+        .setMinimumSize(0)
+        .setMaximumSize(4)
+        .setIdleTimeout(Duration.ofHours(1L))
+        .setAcquireTimeout(Duration.ofMillis(250L))
+        .setBudget(budget)
+        .build();
+
+    try (var tenants = this.tenants(4, pool)) {
+      try (var lease = tenants.open("a")) {
+        final var database = lease.database();
+        database.dataMigrations().toCompletableFuture().get(30L, TimeUnit.SECONDS);
+        labelCreate(database, "label0");
+      }
+      Assertions.assertEquals(0, budget.available());
+
+      try (var lease = tenants.open("b")) {
+        final var database = lease.database();
+        database.dataMigrations().toCompletableFuture().get(30L, TimeUnit.SECONDS);
+        labelCreate(database, "label1");
+        Assertions.assertEquals(2, tenants.openCount());
+      }
+
+      try (var lease = tenants.open("a")) {
+        Assertions.assertTrue(labelExists(lease.database(), "label0"));
+        Assertions.assertFalse(labelExists(lease.database(), "label1"));
+      }
+    }
+
+    Assertions.assertEquals(1, budget.available());
+  }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+
+package com.io7m.ironpage.tests;
+
+import com.io7m.ironpage.database.api.DatabaseParameters;
+import com.io7m.ironpage.database.api.DatabaseRetryParameters;
+import com.io7m.ironpage.database.api.DatabaseTransactionRunner;
+import com.io7m.ironpage.database.api.DatabaseType;
+import com.io7m.ironpage.database.core.api.CDLabelsQueriesType;
+import com.io7m.ironpage.database.core.derby.CoreDatabasePartitionProviderDerby;
+import com.io7m.ironpage.database.derby.DatabaseDerbyProvider;
+import com.io7m.ironpage.database.spi.DatabaseException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Tag("database")
+public final class DatabaseTransactionRunnerTest
+{
+  private Path databasePath;
+  private DatabaseType database;
+
+  private static DatabaseException contention(
+    final String state)
+  {
+    return new DatabaseException("Contention", new SQLException("Contention", state));
+  }
+
+  @BeforeEach
+  public void testSetup()
+    throws Exception
+  {
+    this.databasePath = Files.createTempDirectory("ironpage-");
+    Files.deleteIfExists(this.databasePath);
+
+    final var registry = new MutablePartitionProviderRegistry();
+    registry.add(new CoreDatabasePartitionProviderDerby());
+
+    final var parameters =
+      DatabaseParameters.builder()
+        .setCreate(true)
+        .setPath(this.databasePath.toString())
+        .build();
+
+    this.database = new DatabaseDerbyProvider(registry).open(parameters);
+  }
+
+  @AfterEach
+  public void testTearDown()
+    throws IOException
+  {
+    this.database.close();
+
+    Files.walk(this.databasePath)
+      .sorted(Comparator.reverseOrder())
+      .map(Path::toFile)
+      .forEach(File::delete);
+  }
+
+  /**
+   * Transactions that fail due to deadlocks are retried, and the retries are attributed to the
+   * queries that the transaction used.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testRetryDeadlock()
+    throws Exception
+  {
+    final var runner =
+      DatabaseTransactionRunner.create(
+        this.database, DatabaseRetryParameters.builder().build());
+
+    final var attempts = new AtomicInteger();
+    final var label =
+      runner.transact(transaction -> {
+        final var labels = transaction.queries(CDLabelsQueriesType.class);
+        if (attempts.incrementAndGet() < 3) {
+          throw contention("40001");
+        }
+        return labels.labelCreate("label0", "A label");
+      });
+
+    Assertions.assertEquals("label0", label.name());
+    Assertions.assertEquals(3, attempts.get());
+    Assertions.assertEquals(2L, runner.retries());
+    Assertions.assertEquals(0L, runner.exhausted());
+    Assertions.assertEquals(
+      Map.of(CDLabelsQueriesType.class, Long.valueOf(2L)),
+      runner.retriesByQueries());
+
+    final var exists =
+      runner.transact(transaction -> {
+        return transaction.queries(CDLabelsQueriesType.class).labelGetForName("label0");
+      });
+    Assertions.assertTrue(exists.isPresent());
+  }
+
+  /**
+   * Transactions that keep failing due to lock timeouts give up after the maximum number of
+   * attempts.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testRetryExhausted()
+    throws Exception
+  {
+    final var runner =
+      DatabaseTransactionRunner.create(
+        this.database,
+        DatabaseRetryParameters.builder()
+          .setMaximumAttempts(3)
+          .setInitialBackoff(Duration.ofMillis(1L))
+          .build());
+
+    final var attempts = new AtomicInteger();
+    final var failure = contention("40XL1");
+    final var ex =
+      Assertions.assertThrows(DatabaseException.class, () -> {
+        runner.transact(transaction -> {
+          attempts.incrementAndGet();
+          throw failure;
+        });
+      });
+
+    Assertions.assertSame(failure, ex);
+    Assertions.assertEquals(3, attempts.get());
+    Assertions.assertEquals(2L, runner.retries());
+    Assertions.assertEquals(1L, runner.exhausted());
+  }
+
+  /**
+   * Transactions that fail for reasons other than contention are not retried.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testNoRetryOtherFailure()
+    throws Exception
+  {
+    final var runner =
+      DatabaseTransactionRunner.create(
+        this.database, DatabaseRetryParameters.builder().build());
+
+    final var attempts = new AtomicInteger();
+    final var failure = new DatabaseException("Failed", new SQLException("Failed", "23505"));
+    final var ex =
+      Assertions.assertThrows(DatabaseException.class, () -> {
+        runner.transact(transaction -> {
+          attempts.incrementAndGet();
+          throw failure;
+        });
+      });
+
+    Assertions.assertSame(failure, ex);
+    Assertions.assertEquals(1, attempts.get());
+    Assertions.assertEquals(0L, runner.retries());
+  }
+
+  /**
+   * Checked exceptions that are not database exceptions are wrapped.
+   *
+   * @throws Exception On errors
+   */
+
+  @Test
+  public void testCheckedExceptionWrapped()
+    throws Exception
+  {
+    final var runner =
+      DatabaseTransactionRunner.create(
+        this.database, DatabaseRetryParameters.builder().build());
+
+    final var ex =
+      Assertions.assertThrows(DatabaseException.class, () -> {
+        runner.transact(transaction -> {
+          throw new IOException("Failed");
+        });
+      });
+
+    Assertions.assertEquals(IOException.class, ex.getCause().getClass());
+  }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironpage.tests;
+
+import com.io7m.ironpage.database.spi.DatabaseDataMigrationType;
+import com.io7m.ironpage.database.spi.DatabaseException;
+import com.io7m.ironpage.database.spi.DatabasePartitionProviderAbstract;
+import com.io7m.ironpage.database.spi.DatabaseQueriesContructorCollection;
+import com.io7m.ironpage.database.spi.DatabaseSchemaRevisionType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigInteger;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.TreeMap;
+
+import static com.io7m.ironpage.errors.api.ErrorSeverity.SEVERITY_ERROR;
+
+/**
+ * A partition with no tables that provides {@link DerbyQueryPlansQueriesType}. Queries obtained
+ * from the same transaction share a connection, so the plans of the statements executed by the
+ * queries of other partitions in the transaction can be captured. Plans are captured with Derby's
+ * runtime statistics in XPLAIN mode, which stores the statistics of each statement in tables in
+ * the {@code PLANS} schema rather than only keeping the statistics of the last statement.
+ */
+
+public final class DerbyQueryPlansPartitionProvider extends DatabasePartitionProviderAbstract
+{
+  private static final Logger LOG =
+    LoggerFactory.getLogger(DerbyQueryPlansPartitionProvider.class);
+
+  private static final String SCANS =
+    "SELECT st.STMT_TEXT, sp.SCAN_OBJECT_NAME, sp.SCAN_OBJECT_TYPE, sp.SCAN_TYPE "
+      + "FROM PLANS.SYSXPLAIN_STATEMENTS st "
+      + "JOIN PLANS.SYSXPLAIN_RESULTSETS rs ON rs.STMT_ID = st.STMT_ID "
+      + "JOIN PLANS.SYSXPLAIN_SCAN_PROPS sp ON sp.SCAN_RS_ID = rs.SCAN_RS_ID";
+
+  private static final List<String> PLAN_TABLES =
+    List.of(
+      "SYSXPLAIN_SCAN_PROPS",
+      "SYSXPLAIN_SORT_PROPS",
+      "SYSXPLAIN_RESULTSETS",
+      "SYSXPLAIN_STATEMENTS");
+
+  public DerbyQueryPlansPartitionProvider()
+  {
+    super(
+      Clock.systemUTC(),
+      new DatabaseQueriesContructorCollection()
+        .put(DerbyQueryPlansQueriesType.class, (c, e, connection) -> new Queries(connection)));
+  }
+
+  @Override
+  protected Logger logger()
+  {
+    return LOG;
+  }
+
+  @Override
+  protected String partitionName()
+  {
+    return "queryPlans";
+  }
+
+  @Override
+  protected Optional<BigInteger> findSchemaVersionActual(
+    final Connection connection)
+  {
+    return Optional.of(BigInteger.ZERO);
+  }
+
+  @Override
+  protected NavigableMap<BigInteger, DatabaseSchemaRevisionType> schemaRevisionsActual()
+  {
+    return Collections.unmodifiableNavigableMap(new TreeMap<>());
+  }
+
+  @Override
+  protected BigInteger schemaVersionLatest()
+  {
+    return BigInteger.ZERO;
+  }
+
+  @Override
+  public List<DatabaseDataMigrationType> dataMigrations()
+  {
+    return List.of();
+  }
+
+  @Override
+  public String dialect()
+  {
+    return "DERBY";
+  }
+
+  /**
+   * The scan type column is a fixed-width character column.
+   */
+
+  private static String trimmed(
+    final String text)
+  {
+    return text == null ? null : text.trim();
+  }
+
+  private static final class Queries implements DerbyQueryPlansQueriesType
+  {
+    private final Connection connection;
+
+    Queries(
+      final Connection inConnection)
+    {
+      this.connection = inConnection;
+    }
+
+    @Override
+    public void captureStart(
+      final String schema,
+      final List<String> tables)
+      throws DatabaseException
+    {
+      try {
+        try (var statement = this.connection.prepareCall(
+          "CALL SYSCS_UTIL.SYSCS_UPDATE_STATISTICS(?, ?, NULL)")) {
+          for (final var table : tables) {
+            statement.setString(1, schema);
+            statement.setString(2, table);
+            statement.execute();
+          }
+        }
+        try (var statement = this.connection.createStatement()) {
+          statement.execute("CALL SYSCS_UTIL.SYSCS_SET_RUNTIMESTATISTICS(1)");
+          statement.execute("CALL SYSCS_UTIL.SYSCS_SET_XPLAIN_SCHEMA('PLANS')");
+        }
+      } catch (final SQLException e) {
+        throw new DatabaseException(SEVERITY_ERROR, e.getLocalizedMessage(), e);
+      }
+    }
+
+    @Override
+    public List<Scan> captureStop()
+      throws DatabaseException
+    {
+      try {
+        try (var statement = this.connection.createStatement()) {
+          statement.execute("CALL SYSCS_UTIL.SYSCS_SET_XPLAIN_SCHEMA('')");
+          statement.execute("CALL SYSCS_UTIL.SYSCS_SET_RUNTIMESTATISTICS(0)");
+        }
+
+        final var scans = new ArrayList<Scan>();
+        try (var statement = this.connection.prepareStatement(SCANS)) {
+          try (var result = statement.executeQuery()) {
+            while (result.next()) {
+              scans.add(new Scan(
+                result.getString(1),
+                result.getString(2),
+                result.getString(3),
+                trimmed(result.getString(4))));
+            }
+          }
+        }
+
+        try (var statement = this.connection.createStatement()) {
+          for (final var table : PLAN_TABLES) {
+            statement.executeUpdate("DELETE FROM PLANS." + table);
+          }
+        }
+        return List.copyOf(scans);
+      } catch (final SQLException e) {
+        throw new DatabaseException(SEVERITY_ERROR, e.getLocalizedMessage(), e);
+      }
+    }
+  }
+}
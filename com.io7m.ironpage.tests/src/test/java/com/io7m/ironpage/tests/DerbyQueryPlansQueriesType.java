@@ -0,0 +1,123 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironpage.tests;
+
+import com.io7m.ironpage.database.spi.DatabaseException;
+import com.io7m.ironpage.database.spi.DatabaseQueriesType;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Queries that capture the plans that Derby chose for the statements executed on a connection.
+ */
+
+public interface DerbyQueryPlansQueriesType extends DatabaseQueriesType
+{
+  /**
+   * Update the index statistics of the given tables, so that plans are chosen with knowledge of
+   * the data in the tables, and then start capturing the plans of executed statements.
+   *
+   * @param schema The schema containing the tables
+   * @param tables The tables
+   *
+   * @throws DatabaseException On errors
+   */
+
+  void captureStart(
+    String schema,
+    List<String> tables)
+    throws DatabaseException;
+
+  /**
+   * Stop capturing plans.
+   *
+   * @return The scans performed by each statement executed since capturing started
+   *
+   * @throws DatabaseException On errors
+   */
+
+  List<Scan> captureStop()
+    throws DatabaseException;
+
+  /**
+   * A scan of a table or index.
+   */
+
+  final class Scan
+  {
+    private final String statement;
+    private final String objectName;
+    private final String objectType;
+    private final String scanType;
+
+    Scan(
+      final String inStatement,
+      final String inObjectName,
+      final String inObjectType,
+      final String inScanType)
+    {
+      this.statement = Objects.requireNonNullElse(inStatement, "");
+      this.objectName = Objects.requireNonNullElse(inObjectName, "");
+      this.objectType = Objects.requireNonNullElse(inObjectType, "");
+      this.scanType = Objects.requireNonNullElse(inScanType, "");
+    }
+
+    /**
+     * @return The text of the statement that performed the scan
+     */
+
+    public String statement()
+    {
+      return this.statement;
+    }
+
+    /**
+     * @return The name of the scanned table, index, or constraint
+     */
+
+    public String objectName()
+    {
+      return this.objectName;
+    }
+
+    /**
+     * @return {@code T} for a table, {@code I} for an index, {@code C} for a constraint
+     */
+
+    public String objectType()
+    {
+      return this.objectType;
+    }
+
+    /**
+     * @return {@code HEAP} for a table scan, {@code BTREE} for an index scan
+     */
+
+    public String scanType()
+    {
+      return this.scanType;
+    }
+
+    @Override
+    public String toString()
+    {
+      return String.format(
+        "[%s %s %s] %s", this.scanType, this.objectType, this.objectName, this.statement);
+    }
+  }
+}
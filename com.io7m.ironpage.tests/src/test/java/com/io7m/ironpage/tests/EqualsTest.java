@@ -16,6 +16,8 @@
 
 package com.io7m.ironpage.tests;
 
+import com.io7m.ironpage.database.api.DatabaseConnectionBudgetType;
+import com.io7m.ironpage.database.vanilla.DatabaseConnectionBudget;
 import nl.jqno.equalsverifier.EqualsVerifier;
 import org.immutables.value.Value;
 import org.junit.jupiter.api.Assertions;
@@ -105,6 +107,10 @@ public final class EqualsTest
         transientFieldNames.add("description");
         break;
       }
+      case "com.io7m.ironpage.database.pages.api.PagesDatabaseBlobDTO": {
+        transientFieldNames.add("data");
+        break;
+      }
       default: {
         break;
       }
@@ -142,6 +148,10 @@ public final class EqualsTest
         EqualsVerifier.forClass(clazz)
           .withNonnullFields(nnArray)
           .withIgnoredFields(igArray)
+          .withPrefabValues(
+            DatabaseConnectionBudgetType.class,
+            DatabaseConnectionBudget.create(1),
+            DatabaseConnectionBudget.create(2))
           .verify();
       } catch (final Throwable e) {
         LOG.error("failed to verify {}: ", clazz, e);
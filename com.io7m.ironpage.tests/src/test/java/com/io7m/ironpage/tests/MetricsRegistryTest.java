@@ -0,0 +1,137 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+
+package com.io7m.ironpage.tests;
+
+import com.io7m.ironpage.metrics.api.MetricsKey;
+import com.io7m.ironpage.metrics.api.MetricsRegistryNoOp;
+import com.io7m.ironpage.metrics.api.MetricsSnapshot;
+import com.io7m.ironpage.metrics.vanilla.MetricsPeriodicExporter;
+import com.io7m.ironpage.metrics.vanilla.MetricsRegistry;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+public final class MetricsRegistryTest
+{
+  private static final MetricsKey KEY =
+    MetricsKey.builder()
+      .setName("x")
+      .putLabels("a", "b")
+      .build();
+
+  /**
+   * Requesting the same counter twice yields the same counter.
+   */
+
+  @Test
+  public void testCounter()
+  {
+    final var registry = MetricsRegistry.create();
+    registry.counter("x", Map.of("a", "b")).increment();
+    registry.counter("x", Map.of("a", "b")).add(2L);
+    registry.counter("x", Map.of("a", "c")).add(-1L);
+
+    final var snapshot = registry.snapshot();
+    Assertions.assertEquals(Long.valueOf(3L), snapshot.counters().get(KEY));
+    Assertions.assertEquals(2, snapshot.counters().size());
+  }
+
+  /**
+   * Histogram values are placed into buckets bounded by powers of two.
+   */
+
+  @Test
+  public void testHistogram()
+  {
+    final var registry = MetricsRegistry.create();
+    final var histogram = registry.histogram("x", Map.of("a", "b"));
+    histogram.record(0L);
+    histogram.record(1L);
+    histogram.record(2L);
+    histogram.record(3L);
+    histogram.record(1000L);
+    histogram.record(Long.MAX_VALUE);
+
+    final var snapshot = registry.snapshot().histograms().get(KEY);
+    Assertions.assertEquals(6L, snapshot.count());
+    Assertions.assertEquals(Long.MAX_VALUE, snapshot.maximum());
+    Assertions.assertEquals(Long.valueOf(1L), snapshot.buckets().get(Long.valueOf(0L)));
+    Assertions.assertEquals(Long.valueOf(1L), snapshot.buckets().get(Long.valueOf(1L)));
+    Assertions.assertEquals(Long.valueOf(2L), snapshot.buckets().get(Long.valueOf(3L)));
+    Assertions.assertEquals(Long.valueOf(1L), snapshot.buckets().get(Long.valueOf(1023L)));
+    Assertions.assertEquals(
+      Long.valueOf(1L), snapshot.buckets().get(Long.valueOf(Long.MAX_VALUE)));
+  }
+
+  /**
+   * Gauges are evaluated when a snapshot is taken.
+   */
+
+  @Test
+  public void testGauge()
+  {
+    final var registry = MetricsRegistry.create();
+    final var value = new AtomicLong(23L);
+    registry.gauge("x", Map.of("a", "b"), value::get);
+
+    Assertions.assertEquals(Long.valueOf(23L), registry.snapshot().gauges().get(KEY));
+    value.set(24L);
+    Assertions.assertEquals(Long.valueOf(24L), registry.snapshot().gauges().get(KEY));
+  }
+
+  /**
+   * The no-op registry records nothing.
+   */
+
+  @Test
+  public void testNoOp()
+  {
+    final var registry = MetricsRegistryNoOp.get();
+    registry.counter("x", Map.of()).increment();
+    registry.histogram("x", Map.of()).record(1L);
+    registry.gauge("x", Map.of(), () -> 1L);
+
+    final var snapshot = registry.snapshot();
+    Assertions.assertTrue(snapshot.counters().isEmpty());
+    Assertions.assertTrue(snapshot.histograms().isEmpty());
+    Assertions.assertTrue(snapshot.gauges().isEmpty());
+  }
+
+  /**
+   * Closing a periodic exporter exports a final snapshot.
+   */
+
+  @Test
+  public void testPeriodicExporterClose()
+  {
+    final var registry = MetricsRegistry.create();
+    registry.counter("x", Map.of("a", "b")).increment();
+
+    final var exported = new ArrayList<MetricsSnapshot>();
+    try (var exporter =
+           MetricsPeriodicExporter.start(registry, exported::add, Duration.ofHours(1L))) {
+      Assertions.assertTrue(exported.isEmpty());
+    }
+
+    Assertions.assertEquals(1, exported.size());
+    Assertions.assertEquals(Long.valueOf(1L), exported.get(0).counters().get(KEY));
+  }
+}
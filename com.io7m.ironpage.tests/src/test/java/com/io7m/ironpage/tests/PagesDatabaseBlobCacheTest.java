@@ -0,0 +1,373 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.io7m.ironpage.tests;
+
+import com.io7m.ironpage.database.api.DatabaseConnectionType;
+import com.io7m.ironpage.database.api.DatabaseParameters;
+import com.io7m.ironpage.database.api.DatabaseTransactionType;
+import com.io7m.ironpage.database.api.DatabaseType;
+import com.io7m.ironpage.database.core.api.CDAccountsQueriesType;
+import com.io7m.ironpage.database.core.api.CDLabelsQueriesType;
+import com.io7m.ironpage.database.core.api.CDPasswordHashDTO;
+import com.io7m.ironpage.database.core.api.CDSecurityLabelDTO;
+import com.io7m.ironpage.database.core.derby.CoreDatabasePartitionProviderDerby;
+import com.io7m.ironpage.database.derby.DatabaseDerbyProvider;
+import com.io7m.ironpage.database.pages.api.PagesDatabaseQueriesType;
+import com.io7m.ironpage.database.pages.vanilla.PagesDatabaseBlobCache;
+import com.io7m.ironpage.database.pages.vanilla.PagesDatabaseBlobCacheParameters;
+import com.io7m.ironpage.database.spi.DatabaseException;
+import com.io7m.ironpage.metrics.api.MetricsKey;
+import com.io7m.ironpage.metrics.vanilla.MetricsRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.UUID;
+
+/**
+ * The blob cache.
+ */
+
+@Tag("database")
+public final class PagesDatabaseBlobCacheTest
+{
+  private static final Instant NOW = Instant.parse("2000-01-01T00:00:00Z");
+
+  private Path databasePath;
+  private DatabaseType database;
+  private DatabaseConnectionType connection;
+  private MetricsRegistry metrics;
+  private UUID owner;
+  private CDSecurityLabelDTO label;
+  private SettableClock clock =
+    new SettableClock(ZoneId.of("UTC"), NOW, (c, instant) -> {
+      c.setTime(instant.plus(1L, ChronoUnit.SECONDS));
+    });
+
+  private static MetricsKey key(
+    final String name)
+  {
+    return MetricsKey.of("ironpage.pages.blob_cache." + name, new TreeMap<>());
+  }
+
+  @BeforeEach
+  public void testSetupDatabase()
+    throws Exception
+  {
+    this.databasePath = Files.createTempDirectory("ironpage-");
+    Files.deleteIfExists(this.databasePath);
+
+    final var registry = new MutablePartitionProviderRegistry();
+    registry.add(new CoreDatabasePartitionProviderDerby(this.clock));
+
+    final var databases = new DatabaseDerbyProvider(registry);
+    final var parameters =
+      DatabaseParameters.builder()
+        .setCreate(true)
+        .setPath(this.databasePath.toString())
+        .build();
+
+    this.database = databases.open(parameters);
+    this.connection = this.database.openConnection();
+    this.metrics = MetricsRegistry.create();
+
+    try (var transaction = this.connection.beginTransaction()) {
+      this.label =
+        transaction.queries(CDLabelsQueriesType.class)
+          .labelCreate("label", "A label");
+      this.owner =
+        transaction.queries(CDAccountsQueriesType.class)
+          .accountCreate(
+            UUID.randomUUID(),
+            "User",
+            CDPasswordHashDTO.builder()
+              .setParameters("params")
+              .setHash((byte) 0x0)
+              .build(),
+            "someone@example.com",
+            Optional.empty())
+          .id();
+      transaction.commit();
+    }
+  }
+
+  @AfterEach
+  public void testTearDownDatabase()
+    throws DatabaseException, IOException
+  {
+    this.connection.close();
+    this.database.close();
+  }
+
+  private PagesDatabaseBlobCache cache(
+    final long maximumBytes,
+    final boolean offHeap)
+  {
+    return PagesDatabaseBlobCache.create(
+      this.database,
+      PagesDatabaseBlobCacheParameters.builder()
+        .setMaximumBytes(maximumBytes)
+        .setMaximumEntryBytes(Math.min(maximumBytes, 1_000L))
+        .setOffHeap(offHeap)
+        .setMetrics(this.metrics)
+        .build());
+  }
+
+  private String put(
+    final DatabaseTransactionType transaction,
+    final byte[] data)
+    throws Exception
+  {
+    return transaction.queries(PagesDatabaseQueriesType.class)
+      .pageBlobPut(this.owner, "application/octet-stream", data, this.label);
+  }
+
+  private void checkCachedReads(
+    final boolean offHeap)
+    throws Exception
+  {
+    try (var cache = this.cache(1_000L, offHeap)) {
+      try (var transaction = this.connection.beginTransaction()) {
+        final var data = new byte[100];
+        data[0] = 0x7f;
+        final var id = this.put(transaction, data);
+        final var queries =
+          cache.wrap(transaction.queries(PagesDatabaseQueriesType.class));
+
+        Assertions.assertArrayEquals(data, queries.pageBlobGet(id).get().data().read());
+        Assertions.assertEquals(1L, cache.sizeEntries());
+        Assertions.assertEquals(100L, cache.sizeBytes());
+
+        final var blob = queries.pageBlobGet(id).get();
+        Assertions.assertEquals(id, blob.id());
+        Assertions.assertEquals(100L, blob.size());
+        Assertions.assertArrayEquals(data, blob.data().read());
+
+        blob.data().read()[0] = 0x0;
+        Assertions.assertArrayEquals(data, queries.pageBlobGet(id).get().data().read());
+
+        final var output = new ByteArrayOutputStream();
+        Assertions.assertEquals(100L, queries.pageBlobGetStream(id, output).get().size());
+        Assertions.assertArrayEquals(data, output.toByteArray());
+        Assertions.assertEquals(100L, queries.pageBlobMetadataGet(id).get().size());
+        transaction.commit();
+      }
+
+      final var snapshot = this.metrics.snapshot();
+      Assertions.assertEquals(Long.valueOf(1L), snapshot.counters().get(key("misses")));
+      Assertions.assertEquals(Long.valueOf(4L), snapshot.counters().get(key("hits")));
+      Assertions.assertEquals(Long.valueOf(100L), snapshot.gauges().get(key("bytes")));
+      Assertions.assertEquals(Long.valueOf(1L), snapshot.gauges().get(key("entries")));
+    }
+  }
+
+  /**
+   * Blobs are cached when their data is first read, and later reads are served from the cache.
+   *
+   * @throws Exception If required
+   */
+
+  @Test
+  public void testCachedReads()
+    throws Exception
+  {
+    this.checkCachedReads(false);
+  }
+
+  /**
+   * Blobs are cached when their data is first read, and later reads are served from the cache.
+   *
+   * @throws Exception If required
+   */
+
+  @Test
+  public void testCachedReadsOffHeap()
+    throws Exception
+  {
+    this.checkCachedReads(true);
+  }
+
+  /**
+   * Batched reads serve cached blobs from the cache and retrieve the rest in one batch.
+   *
+   * @throws Exception If required
+   */
+
+  @Test
+  public void testBatchedReads()
+    throws Exception
+  {
+    try (var cache = this.cache(1_000L, false)) {
+      try (var transaction = this.connection.beginTransaction()) {
+        final var queries =
+          cache.wrap(transaction.queries(PagesDatabaseQueriesType.class));
+
+        final var id0 = this.put(transaction, new byte[]{0x0});
+        final var id1 = this.put(transaction, new byte[]{0x1});
+        final var id2 = this.put(transaction, new byte[]{0x2});
+        queries.pageBlobGet(id0).get().data().read();
+
+        final var blobs = queries.pageBlobGetAll(List.of(id0, id1, id2, "nonexistent"));
+        Assertions.assertEquals(3, blobs.size());
+        Assertions.assertArrayEquals(new byte[]{0x0}, blobs.get(id0).data().read());
+        Assertions.assertArrayEquals(new byte[]{0x1}, blobs.get(id1).data().read());
+        Assertions.assertArrayEquals(new byte[]{0x2}, blobs.get(id2).data().read());
+        Assertions.assertEquals(3L, cache.sizeEntries());
+        transaction.commit();
+      }
+
+      final var snapshot = this.metrics.snapshot();
+      Assertions.assertEquals(Long.valueOf(4L), snapshot.counters().get(key("misses")));
+      Assertions.assertEquals(Long.valueOf(1L), snapshot.counters().get(key("hits")));
+    }
+  }
+
+  /**
+   * The least recently used blobs are evicted when the cache is full.
+   *
+   * @throws Exception If required
+   */
+
+  @Test
+  public void testEviction()
+    throws Exception
+  {
+    try (var cache = this.cache(250L, false)) {
+      try (var transaction = this.connection.beginTransaction()) {
+        final var queries =
+          cache.wrap(transaction.queries(PagesDatabaseQueriesType.class));
+
+        final var id0 = this.put(transaction, new byte[100]);
+        final var id1 = this.put(transaction, new byte[101]);
+        final var id2 = this.put(transaction, new byte[102]);
+        final var id3 = this.put(transaction, new byte[300]);
+
+        queries.pageBlobGet(id0).get().data().read();
+        queries.pageBlobGet(id1).get().data().read();
+        queries.pageBlobGet(id0).get().data().read();
+        queries.pageBlobGet(id2).get().data().read();
+        Assertions.assertEquals(2L, cache.sizeEntries());
+        Assertions.assertEquals(202L, cache.sizeBytes());
+
+        queries.pageBlobGet(id3).get().data().read();
+        Assertions.assertEquals(2L, cache.sizeEntries());
+        transaction.commit();
+      }
+
+      final var snapshot = this.metrics.snapshot();
+      Assertions.assertEquals(Long.valueOf(1L), snapshot.counters().get(key("evictions")));
+    }
+  }
+
+  /**
+   * Blobs redacted in any transaction are removed from the cache, and redacted blobs are never
+   * cached.
+   *
+   * @throws Exception If required
+   */
+
+  @Test
+  public void testRedactionInvalidates()
+    throws Exception
+  {
+    try (var cache = this.cache(1_000L, false)) {
+      final String id;
+      try (var transaction = this.connection.beginTransaction()) {
+        id = this.put(transaction, new byte[]{0x1, 0x2, 0x3});
+        final var queries =
+          cache.wrap(transaction.queries(PagesDatabaseQueriesType.class));
+        queries.pageBlobGet(id).get().data().read();
+        transaction.commit();
+      }
+      Assertions.assertEquals(1L, cache.sizeEntries());
+
+      try (var transaction = this.connection.beginTransaction()) {
+        transaction.queries(PagesDatabaseQueriesType.class)
+          .pageBlobRedact(this.owner, id, "Redacted for testing");
+        transaction.commit();
+      }
+      Assertions.assertEquals(0L, cache.sizeEntries());
+
+      try (var transaction = this.connection.beginTransaction()) {
+        final var queries =
+          cache.wrap(transaction.queries(PagesDatabaseQueriesType.class));
+        final var blob = queries.pageBlobGet(id).get();
+        Assertions.assertTrue(blob.redaction().isPresent());
+        Assertions.assertArrayEquals(new byte[0], blob.data().read());
+        transaction.commit();
+      }
+      Assertions.assertEquals(0L, cache.sizeEntries());
+    }
+  }
+
+  /**
+   * Cached blobs are only invalidated when a redaction commits, and a transaction that redacts a
+   * blob through wrapped queries sees its own redaction.
+   *
+   * @throws Exception If required
+   */
+
+  @Test
+  public void testRedactionInvalidatesOnCommit()
+    throws Exception
+  {
+    try (var cache = this.cache(1_000L, false)) {
+      final var data = new byte[]{0x1, 0x2, 0x3};
+      final String id;
+      try (var transaction = this.connection.beginTransaction()) {
+        id = this.put(transaction, data);
+        final var queries =
+          cache.wrap(transaction.queries(PagesDatabaseQueriesType.class));
+        queries.pageBlobGet(id).get().data().read();
+        transaction.commit();
+      }
+      Assertions.assertEquals(1L, cache.sizeEntries());
+
+      try (var transaction = this.connection.beginTransaction()) {
+        transaction.queries(PagesDatabaseQueriesType.class)
+          .pageBlobRedact(this.owner, id, "Redacted for testing");
+        Assertions.assertEquals(1L, cache.sizeEntries());
+        transaction.rollback();
+      }
+      Assertions.assertEquals(1L, cache.sizeEntries());
+
+      try (var transaction = this.connection.beginTransaction()) {
+        final var queries =
+          cache.wrap(transaction.queries(PagesDatabaseQueriesType.class));
+        queries.pageBlobRedact(this.owner, id, "Redacted for testing");
+
+        final var blob = queries.pageBlobGet(id).get();
+        Assertions.assertTrue(blob.redaction().isPresent());
+        Assertions.assertArrayEquals(new byte[0], blob.data().read());
+        Assertions.assertEquals(0L, cache.sizeEntries());
+        transaction.commit();
+      }
+      Assertions.assertEquals(0L, cache.sizeEntries());
+    }
+  }
+}
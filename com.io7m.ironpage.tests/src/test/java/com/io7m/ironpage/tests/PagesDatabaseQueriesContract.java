@@ -22,6 +22,7 @@ import com.io7m.ironpage.database.core.api.CDException;
 import com.io7m.ironpage.database.core.api.CDLabelsQueriesType;
 import com.io7m.ironpage.database.core.api.CDPasswordHashDTO;
 import com.io7m.ironpage.database.core.api.CDSecurityLabelDTO;
+import com.io7m.ironpage.database.core.api.CDUserDTO;
 import com.io7m.ironpage.database.pages.api.PagesDatabaseQueriesType;
 import com.io7m.ironpage.database.pages.api.PagesDatabaseRedactionDTO;
 import com.io7m.ironpage.database.spi.DatabaseException;
@@ -31,10 +32,18 @@ import org.junit.jupiter.api.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.security.SecureRandom;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
 
@@ -53,6 +62,30 @@ public abstract class PagesDatabaseQueriesContract
   protected abstract DatabaseTransactionType transaction()
     throws DatabaseException;
 
+  /**
+   * @return {@code true} if blob data is held in the database, which limits the size of blobs
+   */
+
+  protected boolean blobSizeLimited()
+  {
+    return true;
+  }
+
+  private static CDUserDTO accountCreate(
+    final CDAccountsQueriesType accounts)
+    throws Exception
+  {
+    return accounts.accountCreate(
+      UUID.randomUUID(),
+      "User",
+      CDPasswordHashDTO.builder()
+        .setParameters("params")
+        .setHash((byte) 0x0)
+        .build(),
+      "someone@example.com",
+      Optional.empty());
+  }
+
   /**
    * Putting a blob works.
    *
@@ -97,7 +130,8 @@ public abstract class PagesDatabaseQueriesContract
     Assertions.assertTrue(blobOpt.isPresent());
     final var blob = blobOpt.get();
     Assertions.assertEquals(account.id(), blob.owner());
-    Assertions.assertArrayEquals(data, blob.data());
+    Assertions.assertArrayEquals(data, blob.data().read());
+    Assertions.assertEquals((long) data.length, blob.size());
     Assertions.assertEquals("text/plain", blob.mediaType());
     Assertions.assertEquals(hash, blob.id());
     Assertions.assertEquals(Optional.empty(), blob.redaction());
@@ -123,6 +157,286 @@ public abstract class PagesDatabaseQueriesContract
     Assertions.assertTrue(blobOpt.isEmpty());
   }
 
+  /**
+   * Retrieving the metadata of a blob works.
+   *
+   * @throws Exception If required
+   */
+
+  @Test
+  public final void testPagesBlobMetadataGet()
+    throws Exception
+  {
+    final var transaction = this.transaction();
+
+    final var label =
+      transaction.queries(CDLabelsQueriesType.class)
+        .labelCreate("label", "A label");
+    final var account =
+      accountCreate(transaction.queries(CDAccountsQueriesType.class));
+
+    final var queries =
+      transaction.queries(PagesDatabaseQueriesType.class);
+
+    final var data = "hello".getBytes(StandardCharsets.UTF_8);
+    final var hash = queries.pageBlobPut(account.id(), "text/plain", data, label);
+
+    final var metadataOpt = queries.pageBlobMetadataGet(hash);
+    Assertions.assertTrue(metadataOpt.isPresent());
+    final var metadata = metadataOpt.get();
+    Assertions.assertEquals(account.id(), metadata.owner());
+    Assertions.assertEquals("text/plain", metadata.mediaType());
+    Assertions.assertEquals(hash, metadata.id());
+    Assertions.assertEquals(5L, metadata.size());
+    Assertions.assertEquals(Optional.empty(), metadata.redaction());
+    Assertions.assertEquals(label, metadata.securityLabel());
+
+    queries.pageBlobRedact(account.id(), hash, "Redacted for testing");
+
+    final var redacted = queries.pageBlobMetadataGet(hash).get();
+    Assertions.assertEquals(0L, redacted.size());
+    Assertions.assertTrue(redacted.redaction().isPresent());
+
+    Assertions.assertTrue(queries.pageBlobMetadataGet("nonexistent").isEmpty());
+  }
+
+  /**
+   * Retrieving many blobs at once works, including redacted blobs, and nonexistent blobs are
+   * omitted.
+   *
+   * @throws Exception If required
+   */
+
+  @Test
+  public final void testPagesBlobGetAll()
+    throws Exception
+  {
+    final var transaction = this.transaction();
+
+    final var label =
+      transaction.queries(CDLabelsQueriesType.class)
+        .labelCreate("label", "A label");
+    final var account =
+      accountCreate(transaction.queries(CDAccountsQueriesType.class));
+
+    final var queries =
+      transaction.queries(PagesDatabaseQueriesType.class);
+
+    final var hashes = new ArrayList<String>();
+    for (var index = 0; index < 150; ++index) {
+      final var data = String.format("blob %d", Integer.valueOf(index));
+      hashes.add(
+        queries.pageBlobPut(
+          account.id(), "text/plain", data.getBytes(StandardCharsets.UTF_8), label));
+    }
+    queries.pageBlobRedact(account.id(), hashes.get(149), "Redacted for testing");
+
+    final var requested = new ArrayList<>(hashes);
+    requested.add(hashes.get(0));
+    requested.add("nonexistent");
+
+    final var blobs = queries.pageBlobGetAll(requested);
+    Assertions.assertEquals(150, blobs.size());
+
+    for (var index = 0; index < 149; ++index) {
+      final var blob = blobs.get(hashes.get(index));
+      Assertions.assertEquals(hashes.get(index), blob.id());
+      Assertions.assertEquals(account.id(), blob.owner());
+      Assertions.assertEquals(label, blob.securityLabel());
+      Assertions.assertEquals(Optional.empty(), blob.redaction());
+      Assertions.assertEquals(
+        String.format("blob %d", Integer.valueOf(index)),
+        new String(blob.data().read(), StandardCharsets.UTF_8));
+    }
+
+    final var redacted = blobs.get(hashes.get(149));
+    Assertions.assertEquals(
+      "Redacted for testing", redacted.redaction().get().reason());
+    Assertions.assertEquals(
+      account.id(), redacted.redaction().get().owner());
+    Assertions.assertEquals(0, redacted.data().read().length);
+
+    Assertions.assertEquals(Map.of(), queries.pageBlobGetAll(List.of()));
+    Assertions.assertEquals(Map.of(), queries.pageBlobGetAll(List.of("nonexistent")));
+  }
+
+  /**
+   * Putting a blob from a stream works, and the blob can be read back as a stream.
+   *
+   * @throws Exception If required
+   */
+
+  @Test
+  public final void testPagesBlobPutStream()
+    throws Exception
+  {
+    final var transaction = this.transaction();
+
+    final var labelsQueries =
+      transaction.queries(CDLabelsQueriesType.class);
+    final var label =
+      labelsQueries.labelCreate("label", "A label");
+    final var account =
+      accountCreate(transaction.queries(CDAccountsQueriesType.class));
+
+    final var queries =
+      transaction.queries(PagesDatabaseQueriesType.class);
+
+    final var data = new byte[1_000_000];
+    new SecureRandom().nextBytes(data);
+
+    final var hash =
+      queries.pageBlobPutStream(
+        account.id(), "application/octet-stream", new ByteArrayInputStream(data), label);
+
+    Assertions.assertEquals(
+      String.format(
+        "%064x",
+        new BigInteger(1, MessageDigest.getInstance("SHA-256").digest(data))),
+      hash);
+    Assertions.assertArrayEquals(data, queries.pageBlobGet(hash).get().data().read());
+
+    final var output = new ByteArrayOutputStream();
+    final var metadataOpt = queries.pageBlobGetStream(hash, output);
+    Assertions.assertTrue(metadataOpt.isPresent());
+    final var metadata = metadataOpt.get();
+    Assertions.assertArrayEquals(data, output.toByteArray());
+    Assertions.assertEquals(account.id(), metadata.owner());
+    Assertions.assertEquals("application/octet-stream", metadata.mediaType());
+    Assertions.assertEquals(hash, metadata.id());
+    Assertions.assertEquals((long) data.length, metadata.size());
+    Assertions.assertEquals(Optional.empty(), metadata.redaction());
+    Assertions.assertEquals(label, metadata.securityLabel());
+  }
+
+  /**
+   * Streaming a nonexistent blob returns nothing and writes nothing.
+   *
+   * @throws Exception If required
+   */
+
+  @Test
+  public final void testPagesBlobGetStreamNonexistent()
+    throws Exception
+  {
+    final var transaction = this.transaction();
+
+    final var queries =
+      transaction.queries(PagesDatabaseQueriesType.class);
+
+    final var output = new ByteArrayOutputStream();
+    Assertions.assertTrue(queries.pageBlobGetStream("nonexistent", output).isEmpty());
+    Assertions.assertEquals(0, output.size());
+  }
+
+  /**
+   * Putting a blob from a stream fails if a blob with the same content already exists.
+   *
+   * @throws Exception If required
+   */
+
+  @Test
+  public final void testPagesBlobPutStreamAlreadyExists()
+    throws Exception
+  {
+    final var transaction = this.transaction();
+
+    final var label =
+      transaction.queries(CDLabelsQueriesType.class)
+        .labelCreate("label", "A label");
+    final var account =
+      accountCreate(transaction.queries(CDAccountsQueriesType.class));
+
+    final var queries =
+      transaction.queries(PagesDatabaseQueriesType.class);
+
+    final var data = "hello".getBytes(StandardCharsets.UTF_8);
+    queries.pageBlobPut(account.id(), "text/plain", data, label);
+
+    final var ex = Assertions.assertThrows(CDException.class, () -> {
+      queries.pageBlobPutStream(
+        account.id(), "text/plain", new ByteArrayInputStream(data), label);
+    });
+    Assertions.assertEquals(PagesDatabaseQueriesType.DATA_ALREADY_EXISTS, ex.errorCode());
+  }
+
+  /**
+   * Putting a blob from a stream that fails, fails.
+   *
+   * @throws Exception If required
+   */
+
+  @Test
+  public final void testPagesBlobPutStreamFails()
+    throws Exception
+  {
+    final var transaction = this.transaction();
+
+    final var label =
+      transaction.queries(CDLabelsQueriesType.class)
+        .labelCreate("label", "A label");
+    final var account =
+      accountCreate(transaction.queries(CDAccountsQueriesType.class));
+
+    final var queries =
+      transaction.queries(PagesDatabaseQueriesType.class);
+
+    final var stream = new InputStream()
+    {
+      @Override
+      public int read()
+        throws IOException
+      {
+        throw new IOException("Failed for testing");
+      }
+    };
+
+    final var ex = Assertions.assertThrows(CDException.class, () -> {
+      queries.pageBlobPutStream(account.id(), "text/plain", stream, label);
+    });
+    Assertions.assertEquals(PagesDatabaseQueriesType.DATA_STREAM_FAILED, ex.errorCode());
+  }
+
+  /**
+   * Putting a blob from a stream that is too large for the database, fails, unless the data is
+   * held outside of the database.
+   *
+   * @throws Exception If required
+   */
+
+  @Test
+  public final void testPagesBlobPutStreamTooLarge()
+    throws Exception
+  {
+    final var transaction = this.transaction();
+
+    final var label =
+      transaction.queries(CDLabelsQueriesType.class)
+        .labelCreate("label", "A label");
+    final var account =
+      accountCreate(transaction.queries(CDAccountsQueriesType.class));
+
+    final var queries =
+      transaction.queries(PagesDatabaseQueriesType.class);
+
+    final var data = new byte[10_000_000];
+    new SecureRandom().nextBytes(data);
+
+    if (!this.blobSizeLimited()) {
+      final var hash =
+        queries.pageBlobPutStream(
+          account.id(), "text/plain", new ByteArrayInputStream(data), label);
+      Assertions.assertEquals((long) data.length, queries.pageBlobMetadataGet(hash).get().size());
+      return;
+    }
+
+    final var ex = Assertions.assertThrows(CDException.class, () -> {
+      queries.pageBlobPutStream(
+        account.id(), "text/plain", new ByteArrayInputStream(data), label);
+    });
+    Assertions.assertEquals(PagesDatabaseQueriesType.DATA_INVALID, ex.errorCode());
+  }
+
   /**
    * Putting a blob that already exists, fails.
    *
@@ -252,7 +566,8 @@ public abstract class PagesDatabaseQueriesContract
   }
 
   /**
-   * Putting a blob that is too large fails.
+   * Putting a blob that is too large for the database fails, unless the data is held outside of
+   * the database.
    *
    * @throws Exception If required
    */
@@ -291,6 +606,16 @@ public abstract class PagesDatabaseQueriesContract
       for (var index = 0; index < 10_000; ++index) {
         output.write(data);
       }
+
+      if (!this.blobSizeLimited()) {
+        final var hash =
+          queries.pageBlobPut(account.id(), "text/plain", output.toByteArray(), label);
+        Assertions.assertArrayEquals(
+          output.toByteArray(),
+          queries.pageBlobGet(hash).get().data().read());
+        return;
+      }
+
       final var ex = Assertions.assertThrows(CDException.class, () -> {
         queries.pageBlobPut(account.id(), "text/plain", output.toByteArray(), label);
       });
@@ -354,12 +679,50 @@ public abstract class PagesDatabaseQueriesContract
     Assertions.assertTrue(blobOpt.isPresent());
     final var blob = blobOpt.get();
     Assertions.assertEquals(account.id(), blob.owner());
-    Assertions.assertArrayEquals(new byte[0], blob.data());
+    Assertions.assertArrayEquals(new byte[0], blob.data().read());
+    Assertions.assertEquals(0L, blob.size());
     Assertions.assertEquals("text/plain", blob.mediaType());
     Assertions.assertEquals(hash, blob.id());
     Assertions.assertEquals(Optional.of(blobRedaction), blob.redaction());
   }
 
+  /**
+   * Rolling back a redaction leaves the blob and its data intact.
+   *
+   * @throws Exception If required
+   */
+
+  @Test
+  public final void testPagesBlobRedactionRolledBack()
+    throws Exception
+  {
+    final var transaction = this.transaction();
+
+    final var label =
+      transaction.queries(CDLabelsQueriesType.class)
+        .labelCreate("label", "A label");
+    final var account =
+      accountCreate(transaction.queries(CDAccountsQueriesType.class));
+
+    final var queries = transaction.queries(PagesDatabaseQueriesType.class);
+    final var data = "hello".getBytes(StandardCharsets.UTF_8);
+    final var hash = queries.pageBlobPut(account.id(), "text/plain", data, label);
+    transaction.commit();
+
+    queries.pageBlobRedact(account.id(), hash, "Redacted for testing");
+    Assertions.assertArrayEquals(new byte[0], queries.pageBlobGet(hash).get().data().read());
+    transaction.rollback();
+
+    final var blob = queries.pageBlobGet(hash).get();
+    Assertions.assertEquals(Optional.empty(), blob.redaction());
+    Assertions.assertEquals((long) data.length, blob.size());
+    Assertions.assertArrayEquals(data, blob.data().read());
+
+    final var output = new ByteArrayOutputStream();
+    Assertions.assertTrue(queries.pageBlobGetStream(hash, output).isPresent());
+    Assertions.assertArrayEquals(data, output.toByteArray());
+  }
+
   /**
    * Redacting a nonexistent blob fails.
    *
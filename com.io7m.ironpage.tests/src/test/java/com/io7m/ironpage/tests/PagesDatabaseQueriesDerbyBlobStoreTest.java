@@ -0,0 +1,317 @@
+/*
+ * Copyright © 2019 Mark Raynsford <code@io7m.com> http://io7m.com
+ *
+ * Permission to use, copy, modify, and/or distribute this software for any
+ * purpose with or without fee is hereby granted, provided that the above
+ * copyright notice and this permission notice appear in all copies.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS" AND THE AUTHOR DISCLAIMS ALL WARRANTIES
+ * WITH REGARD TO THIS SOFTWARE INCLUDING ALL IMPLIED WARRANTIES OF
+ * MERCHANTABILITY AND FITNESS. IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY
+ * SPECIAL, DIRECT, INDIRECT, OR CONSEQUENTIAL DAMAGES OR ANY DAMAGES
+ * WHATSOEVER RESULTING FROM LOSS OF USE, DATA OR PROFITS, WHETHER IN AN
+ * ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF OR
+ * IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
+ */
+package com.io7m.ironpage.tests;
+
+import com.io7m.ironpage.database.api.DatabaseConnectionType;
+import com.io7m.ironpage.database.api.DatabaseParameters;
+import com.io7m.ironpage.database.api.DatabaseTransactionType;
+import com.io7m.ironpage.database.api.DatabaseType;
+import com.io7m.ironpage.database.core.api.CDAccountsQueriesType;
+import com.io7m.ironpage.database.core.api.CDException;
+import com.io7m.ironpage.database.core.api.CDLabelsQueriesType;
+import com.io7m.ironpage.database.core.api.CDPasswordHashDTO;
+import com.io7m.ironpage.database.core.derby.CoreBlobStoreFilesystem;
+import com.io7m.ironpage.database.core.derby.CoreDatabasePartitionProviderDerby;
+import com.io7m.ironpage.database.derby.DatabaseDerbyProvider;
+import com.io7m.ironpage.database.pages.api.PagesDatabaseBlobStoreType;
+import com.io7m.ironpage.database.pages.api.PagesDatabaseQueriesType;
+import com.io7m.ironpage.database.spi.DatabaseException;
+import com.io7m.ironpage.database.spi.DatabaseSlowQueryParameters;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * The pages queries, with blob data held in a filesystem store.
+ */
+
+@Tag("database")
+public final class PagesDatabaseQueriesDerbyBlobStoreTest extends PagesDatabaseQueriesContract
+{
+  private static final Instant NOW = Instant.parse("2000-01-01T00:00:00Z");
+
+  private Path databasePath;
+  private Path storePath;
+  private PagesDatabaseBlobStoreType store;
+  private DatabaseType database;
+  private DatabaseConnectionType connection;
+  private SettableClock clock =
+    new SettableClock(ZoneId.of("UTC"), NOW, (c, instant) -> {
+      c.setTime(instant.plus(1L, ChronoUnit.SECONDS));
+    });
+
+  @BeforeEach
+  public void testSetupDatabase()
+    throws IOException, DatabaseException
+  {
+    this.databasePath = Files.createTempDirectory("ironpage-");
+    Files.deleteIfExists(this.databasePath);
+    this.storePath = Files.createTempDirectory("ironpage-blobs-");
+    this.store = CoreBlobStoreFilesystem.open(this.storePath);
+
+    final var registry = new MutablePartitionProviderRegistry();
+    registry.add(
+      new CoreDatabasePartitionProviderDerby(
+        this.clock,
+        DatabaseSlowQueryParameters.builder().build(),
+        this.store));
+
+    final var databases = new DatabaseDerbyProvider(registry);
+    final var parameters =
+      DatabaseParameters.builder()
+        .setCreate(true)
+        .setPath(this.databasePath.toString())
+        .build();
+
+    this.database = databases.open(parameters);
+    this.connection = this.database.openConnection();
+  }
+
+  @AfterEach
+  public void testTearDownDatabase()
+    throws DatabaseException, IOException
+  {
+    this.connection.close();
+    this.database.close();
+  }
+
+  @Override
+  protected SettableClock clock()
+  {
+    return this.clock;
+  }
+
+  @Override
+  protected Instant now()
+  {
+    return NOW;
+  }
+
+  @Override
+  protected DatabaseTransactionType transaction()
+    throws DatabaseException
+  {
+    return this.connection.beginTransaction();
+  }
+
+  @Override
+  protected boolean blobSizeLimited()
+  {
+    return false;
+  }
+
+  /**
+   * Blob data is held in a file named by its hash, in a directory sharded by the hash. The file
+   * appears when the blob is committed, and is removed when the redaction of the blob is
+   * committed.
+   *
+   * @throws Exception If required
+   */
+
+  @Test
+  public void testBlobStoredInFileAndDeletedOnRedaction()
+    throws Exception
+  {
+    final var transaction = this.transaction();
+
+    final var label =
+      transaction.queries(CDLabelsQueriesType.class)
+        .labelCreate("label", "A label");
+    final var account =
+      transaction.queries(CDAccountsQueriesType.class)
+        .accountCreate(
+          UUID.randomUUID(),
+          "User",
+          CDPasswordHashDTO.builder()
+            .setParameters("params")
+            .setHash((byte) 0x0)
+            .build(),
+          "someone@example.com",
+          Optional.empty());
+
+    final var queries =
+      transaction.queries(PagesDatabaseQueriesType.class);
+
+    final var data = "hello".getBytes(StandardCharsets.UTF_8);
+    final var hash =
+      queries.pageBlobPutStream(account.id(), "text/plain", new ByteArrayInputStream(data), label);
+
+    final var file =
+      this.storePath.resolve("2c").resolve("f2").resolve(hash);
+    Assertions.assertFalse(Files.exists(file));
+    Assertions.assertArrayEquals(data, queries.pageBlobGet(hash).get().data().read());
+
+    transaction.commit();
+    Assertions.assertArrayEquals(data, Files.readAllBytes(file));
+    Assertions.assertArrayEquals(data, queries.pageBlobGet(hash).get().data().read());
+
+    try (var stream = Files.list(this.storePath.resolve("tmp"))) {
+      Assertions.assertEquals(0L, stream.count());
+    }
+
+    queries.pageBlobRedact(account.id(), hash, "Redacted for testing");
+    Assertions.assertTrue(Files.exists(file));
+    Assertions.assertArrayEquals(new byte[0], queries.pageBlobGet(hash).get().data().read());
+
+    transaction.commit();
+    Assertions.assertFalse(Files.exists(file));
+    Assertions.assertArrayEquals(new byte[0], queries.pageBlobGet(hash).get().data().read());
+  }
+
+  /**
+   * Blob data written by a transaction that rolls back, in full or to a savepoint, never appears
+   * in the store.
+   *
+   * @throws Exception If required
+   */
+
+  @Test
+  public void testBlobStoreRollbackDiscardsWrites()
+    throws Exception
+  {
+    final var transaction = this.transaction();
+
+    final var label =
+      transaction.queries(CDLabelsQueriesType.class)
+        .labelCreate("label", "A label");
+    final var account =
+      transaction.queries(CDAccountsQueriesType.class)
+        .accountCreate(
+          UUID.randomUUID(),
+          "User",
+          CDPasswordHashDTO.builder()
+            .setParameters("params")
+            .setHash((byte) 0x0)
+            .build(),
+          "someone@example.com",
+          Optional.empty());
+    transaction.commit();
+
+    final var queries =
+      transaction.queries(PagesDatabaseQueriesType.class);
+
+    final var data0 = "hello".getBytes(StandardCharsets.UTF_8);
+    final var hash0 =
+      queries.pageBlobPutStream(account.id(), "text/plain", new ByteArrayInputStream(data0), label);
+    final var savepoint = transaction.savepoint();
+    final var data1 = "goodbye".getBytes(StandardCharsets.UTF_8);
+    final var hash1 =
+      queries.pageBlobPutStream(account.id(), "text/plain", new ByteArrayInputStream(data1), label);
+    transaction.rollbackTo(savepoint);
+    transaction.commit();
+
+    Assertions.assertTrue(Files.exists(this.fileOf(hash0)));
+    Assertions.assertFalse(Files.exists(this.fileOf(hash1)));
+    Assertions.assertTrue(queries.pageBlobGet(hash1).isEmpty());
+
+    final var data2 = "again".getBytes(StandardCharsets.UTF_8);
+    final var hash2 =
+      queries.pageBlobPutStream(account.id(), "text/plain", new ByteArrayInputStream(data2), label);
+    transaction.rollback();
+
+    Assertions.assertFalse(Files.exists(this.fileOf(hash2)));
+    try (var stream = Files.list(this.storePath.resolve("tmp"))) {
+      Assertions.assertEquals(0L, stream.count());
+    }
+  }
+
+  /**
+   * A blob whose data is missing from the store is reported as nonexistent, rather than being read
+   * as empty.
+   *
+   * @throws Exception If required
+   */
+
+  @Test
+  public void testBlobStoreMissingFile()
+    throws Exception
+  {
+    final var transaction = this.transaction();
+
+    final var label =
+      transaction.queries(CDLabelsQueriesType.class)
+        .labelCreate("label", "A label");
+    final var account =
+      transaction.queries(CDAccountsQueriesType.class)
+        .accountCreate(
+          UUID.randomUUID(),
+          "User",
+          CDPasswordHashDTO.builder()
+            .setParameters("params")
+            .setHash((byte) 0x0)
+            .build(),
+          "someone@example.com",
+          Optional.empty());
+
+    final var queries =
+      transaction.queries(PagesDatabaseQueriesType.class);
+
+    final var data = "hello".getBytes(StandardCharsets.UTF_8);
+    final var hash =
+      queries.pageBlobPutStream(account.id(), "text/plain", new ByteArrayInputStream(data), label);
+    transaction.commit();
+
+    Files.delete(this.fileOf(hash));
+
+    final var blob = queries.pageBlobGet(hash).get();
+    final var ex0 = Assertions.assertThrows(CDException.class, () -> blob.data().read());
+    Assertions.assertEquals(PagesDatabaseQueriesType.DATA_NONEXISTENT, ex0.errorCode());
+
+    final var ex1 =
+      Assertions.assertThrows(
+        CDException.class,
+        () -> queries.pageBlobGetStream(hash, new ByteArrayOutputStream()));
+    Assertions.assertEquals(PagesDatabaseQueriesType.DATA_NONEXISTENT, ex1.errorCode());
+  }
+
+  private Path fileOf(
+    final String hash)
+  {
+    return this.storePath.resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4)).resolve(hash);
+  }
+
+  /**
+   * Blob IDs that are not hashes never name files.
+   *
+   * @throws Exception If required
+   */
+
+  @Test
+  public void testBlobStoreInvalidIDs()
+    throws Exception
+  {
+    Files.writeString(this.storePath.resolve("outside"), "x");
+
+    Assertions.assertTrue(this.store.read("../outside").isEmpty());
+    Assertions.assertTrue(this.store.read("outside").isEmpty());
+    this.store.delete("../../outside");
+    Assertions.assertTrue(Files.exists(this.storePath.resolve("outside")));
+  }
+}